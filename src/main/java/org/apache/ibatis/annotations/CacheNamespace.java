@@ -35,10 +35,16 @@ public @interface CacheNamespace {
 
   long flushInterval() default 0;
 
+  long refreshInterval() default 0;
+
   int size() default 1024;
 
   boolean readWrite() default true;
+
+  boolean frozen() default false;
   
   boolean blocking() default false;
+
+  boolean coalescing() default false;
   
 }
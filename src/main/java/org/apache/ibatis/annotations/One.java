@@ -32,4 +32,6 @@ public @interface One {
 
   FetchType fetchType() default FetchType.DEFAULT;
 
+  String batchKey() default "";
+
 }
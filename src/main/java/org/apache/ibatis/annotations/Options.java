@@ -33,6 +33,20 @@ public @interface Options {
 
   boolean flushCache() default false;
 
+  boolean useReplica() default true;
+
+  String tables() default "";
+
+  long flushInterval() default 0;
+
+  long refreshInterval() default 0;
+
+  int batchFlushSize() default 0;
+
+  long batchFlushBytes() default 0;
+
+  String references() default "";
+
   ResultSetType resultSetType() default ResultSetType.FORWARD_ONLY;
 
   StatementType statementType() default StatementType.PREPARED;
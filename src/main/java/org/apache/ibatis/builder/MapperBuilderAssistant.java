@@ -42,9 +42,11 @@ import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.mapping.ResultSetType;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.SqlTables;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.scripting.LanguageDriver;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
 import org.apache.ibatis.type.TypeHandler;
@@ -134,6 +136,42 @@ public class MapperBuilderAssistant extends BaseBuilder {
       boolean readWrite,
       boolean blocking,
       Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, size, readWrite, blocking, false, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      boolean coalescing,
+      Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, null, size, readWrite, blocking, coalescing, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Long refreshInterval,
+      Integer size,
+      boolean readWrite,
+      boolean blocking,
+      boolean coalescing,
+      Properties props) {
+    return useNewCache(typeClass, evictionClass, flushInterval, refreshInterval, size, readWrite, false, blocking, coalescing, props);
+  }
+
+  public Cache useNewCache(Class<? extends Cache> typeClass,
+      Class<? extends Cache> evictionClass,
+      Long flushInterval,
+      Long refreshInterval,
+      Integer size,
+      boolean readWrite,
+      boolean frozen,
+      boolean blocking,
+      boolean coalescing,
+      Properties props) {
       //这里面又判断了一下是否为null就用默认值，有点和XMLMapperBuilder.cacheElement逻辑重复了
     typeClass = valueOrDefault(typeClass, PerpetualCache.class);
     evictionClass = valueOrDefault(evictionClass, LruCache.class);
@@ -142,10 +180,14 @@ public class MapperBuilderAssistant extends BaseBuilder {
         .implementation(typeClass)
         .addDecorator(evictionClass)
         .clearInterval(flushInterval)
+        .refreshInterval(refreshInterval)
         .size(size)
         .readWrite(readWrite)
+        .frozen(frozen)
         .blocking(blocking)
+        .coalescing(coalescing)
         .properties(props)
+        .configuration(configuration)
         .build();
     //添加缓存到Configuration对象中
     configuration.addCache(cache);
@@ -283,7 +325,14 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String keyColumn,
       String databaseId,
       LanguageDriver lang,
-      String resultSets) {
+      String resultSets,
+      boolean useReplica,
+      String tables,
+      Long flushInterval,
+      Long refreshInterval,
+      Integer batchFlushSize,
+      Long batchFlushBytes,
+      String references) {
     
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -306,6 +355,13 @@ public class MapperBuilderAssistant extends BaseBuilder {
     statementBuilder.lang(lang);
     statementBuilder.resultOrdered(resultOrdered);
     statementBuilder.resulSets(resultSets);
+    statementBuilder.useReplica(isSelect && useReplica);
+    statementBuilder.tables(resolveTables(tables, sqlSource, statementType));
+    statementBuilder.flushInterval(flushInterval);
+    statementBuilder.refreshInterval(refreshInterval);
+    statementBuilder.batchFlushSize(batchFlushSize);
+    statementBuilder.batchFlushBytes(batchFlushBytes);
+    statementBuilder.references(SqlTables.parseDeclared(references));
     setStatementTimeout(timeout, statementBuilder);
 
     //1.参数映射
@@ -320,6 +376,18 @@ public class MapperBuilderAssistant extends BaseBuilder {
     return statement;
   }
 
+  //没有声明表的时候，静态SQL在这里就把表找出来，动态SQL只能执行时再找
+  private String[] resolveTables(String tables, SqlSource sqlSource, StatementType statementType) {
+    if (tables != null) {
+      return SqlTables.parseDeclared(tables);
+    }
+    if (statementType != StatementType.CALLABLE
+        && (sqlSource instanceof StaticSqlSource || sqlSource instanceof RawSqlSource)) {
+      return SqlTables.parse(sqlSource.getBoundSql(null).getSql());
+    }
+    return null;
+  }
+
   private <T> T valueOrDefault(T value, T defaultValue) {
     return value == null ? defaultValue : value;
   }
@@ -422,7 +490,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
       List<ResultFlag> flags,
       String resultSet,
       String foreignColumn, 
-      boolean lazy) {
+      boolean lazy,
+      String batchKey) {
     Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
     TypeHandler<?> typeHandlerInstance = resolveTypeHandler(javaTypeClass, typeHandler);
     //解析复合的列名,一般用不到，返回的是空
@@ -443,9 +512,31 @@ public class MapperBuilderAssistant extends BaseBuilder {
     builder.columnPrefix(columnPrefix);
     builder.foreignColumn(foreignColumn);
     builder.lazy(lazy);
+    builder.batchKey(batchKey);
     return builder.build();
   }
 
+  /** Backward compatibility signature */
+  public ResultMapping buildResultMapping(
+      Class<?> resultType,
+      String property,
+      String column,
+      Class<?> javaType,
+      JdbcType jdbcType,
+      String nestedSelect,
+      String nestedResultMap,
+      String notNullColumn,
+      String columnPrefix,
+      Class<? extends TypeHandler<?>> typeHandler,
+      List<ResultFlag> flags,
+      String resultSet,
+      String foreignColumn, 
+      boolean lazy) {
+    return buildResultMapping(
+      resultType, property, column, javaType, jdbcType, nestedSelect,
+      nestedResultMap, notNullColumn, columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, null);
+  }
+
   private Set<String> parseMultipleColumnNames(String columnName) {
     Set<String> columns = new HashSet<String>();
     if (columnName != null) {
@@ -541,6 +632,170 @@ public class MapperBuilderAssistant extends BaseBuilder {
     return configuration.getLanguageRegistry().getDriver(langClass);
   }
 
+  /** Backward compatibility signature */
+  //向后兼容方法
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      boolean useReplica,
+      String tables,
+      Long flushInterval,
+      Long refreshInterval,
+      Integer batchFlushSize,
+      Long batchFlushBytes) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, useReplica, tables, flushInterval, refreshInterval,
+      batchFlushSize, batchFlushBytes, null);
+  }
+
+  /** Backward compatibility signature */
+  //向后兼容方法
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      boolean useReplica,
+      String tables,
+      Long flushInterval,
+      Long refreshInterval) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, useReplica, tables, flushInterval, refreshInterval, null, null, null);
+  }
+
+  /** Backward compatibility signature */
+  //向后兼容方法
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      boolean useReplica,
+      String tables) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, useReplica, tables, null, null, null, null, null);
+  }
+
+  /** Backward compatibility signature */
+  //向后兼容方法
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      boolean useReplica) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, useReplica, null, null, null, null, null, null);
+  }
+
+  /** Backward compatibility signature */
+  //向后兼容方法
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, true, null, null, null, null, null, null);
+  }
+
   /** Backward compatibility signature */
   //向后兼容方法
   public MappedStatement addMappedStatement(
@@ -567,7 +822,7 @@ public class MapperBuilderAssistant extends BaseBuilder {
       id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, 
       parameterMap, parameterType, resultMap, resultType, resultSetType, 
       flushCache, useCache, resultOrdered, keyGenerator, keyProperty, 
-      keyColumn, databaseId, lang, null);
+      keyColumn, databaseId, lang, null, true, null, null, null, null, null, null);
   }
 
 }
@@ -183,7 +183,8 @@ public class MapperAnnotationBuilder {
     if (cacheDomain != null) {
       Integer size = cacheDomain.size() == 0 ? null : cacheDomain.size();
       Long flushInterval = cacheDomain.flushInterval() == 0 ? null : cacheDomain.flushInterval();
-      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, size, cacheDomain.readWrite(), cacheDomain.blocking(), null);
+      Long refreshInterval = cacheDomain.refreshInterval() == 0 ? null : cacheDomain.refreshInterval();
+      assistant.useNewCache(cacheDomain.implementation(), cacheDomain.eviction(), flushInterval, refreshInterval, size, cacheDomain.readWrite(), cacheDomain.frozen(), cacheDomain.blocking(), cacheDomain.coalescing(), null);
     }
   }
 
@@ -273,6 +274,13 @@ public class MapperAnnotationBuilder {
       boolean isSelect = sqlCommandType == SqlCommandType.SELECT;
       boolean flushCache = !isSelect;
       boolean useCache = isSelect;
+      boolean useReplica = true;
+      String tables = null;
+      Long flushInterval = null;
+      Long refreshInterval = null;
+      Integer batchFlushSize = null;
+      Long batchFlushBytes = null;
+      String references = null;
 
       KeyGenerator keyGenerator;
       String keyProperty = "id";
@@ -301,6 +309,13 @@ public class MapperAnnotationBuilder {
         timeout = options.timeout() > -1 ? options.timeout() : null;
         statementType = options.statementType();
         resultSetType = options.resultSetType();
+        useReplica = options.useReplica();
+        tables = nullOrEmpty(options.tables());
+        flushInterval = options.flushInterval() > 0 ? options.flushInterval() : null;
+        refreshInterval = options.refreshInterval() > 0 ? options.refreshInterval() : null;
+        batchFlushSize = options.batchFlushSize() > 0 ? options.batchFlushSize() : null;
+        batchFlushBytes = options.batchFlushBytes() > 0 ? options.batchFlushBytes() : null;
+        references = nullOrEmpty(options.references());
       }
 
       String resultMapId = null;
@@ -343,7 +358,14 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          null);
+          null,
+          useReplica && statementType != StatementType.CALLABLE,
+          tables,
+          flushInterval,
+          refreshInterval,
+          batchFlushSize,
+          batchFlushBytes,
+          references);
     }
   }
   
@@ -510,7 +532,8 @@ public class MapperAnnotationBuilder {
           flags,
           null,
           null,
-          isLazy(result));
+          isLazy(result),
+          batchKey(result));
       resultMappings.add(resultMapping);
     }
   }
@@ -536,6 +559,11 @@ public class MapperAnnotationBuilder {
     return isLazy;
   }
   
+  private String batchKey(Result result) {
+    String batchKey = result.one().select().length() > 0 ? result.one().batchKey() : result.many().batchKey();
+    return nullOrEmpty(batchKey);
+  }
+
   private boolean hasNestedSelect(Result result) {
     if (result.one().select().length() > 0 && result.many().select().length() > 0) {
       throw new BuilderException("Cannot use both @One and @Many annotations in the same @Result");
@@ -604,7 +632,7 @@ public class MapperAnnotationBuilder {
 
     assistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass, resultSetTypeEnum,
         flushCache, useCache, false,
-        keyGenerator, keyProperty, keyColumn, null, languageDriver, null);
+        keyGenerator, keyProperty, keyColumn, null, languageDriver, null, false, null);
 
     id = assistant.applyCurrentNamespace(id, false);
 
@@ -36,6 +36,9 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.session.AutoMappingBehavior;
+import org.apache.ibatis.session.BatchGrouping;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.CacheStatisticsMode;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.LocalCacheScope;
@@ -329,6 +332,8 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setLazyLoadingEnabled(booleanValueOf(props.getProperty("lazyLoadingEnabled"), false));
       //延迟加载时，每种属性是否还要按需加载
       configuration.setAggressiveLazyLoading(booleanValueOf(props.getProperty("aggressiveLazyLoading"), true));
+      //带batchKey的嵌套查询一次最多查多少个key
+      configuration.setNestedSelectBatchSize(integerValueOf(props.getProperty("nestedSelectBatchSize"), 500));
       //允不允许多种结果集从一个单独 的语句中返回
       configuration.setMultipleResultSetsEnabled(booleanValueOf(props.getProperty("multipleResultSetsEnabled"), true));
       //使用列标签代替列名
@@ -339,12 +344,23 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
       //超时时间
       configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));
+      //批量执行时攒多少条、多少字节的参数就先执行一次
+      configuration.setBatchFlushSize(integerValueOf(props.getProperty("batchFlushSize"), null));
+      configuration.setBatchFlushBytes(longValueOf(props.getProperty("batchFlushBytes"), null));
+      //批量执行时只攒连续的同一条SQL，还是每条SQL攒一个批
+      configuration.setBatchGrouping(BatchGrouping.valueOf(props.getProperty("batchGrouping", "CONSECUTIVE")));
+      //批量执行时把单行insert改写成多行insert
+      configuration.setMultiRowInsertSize(integerValueOf(props.getProperty("multiRowInsertSize"), null));
       //是否将DB字段自动映射到驼峰式Java属性（A_COLUMN-->aColumn）
       configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
       //嵌套语句上使用RowBounds
       configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
       //默认用session级别的缓存
       configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
+      //二级缓存按namespace还是按表失效
+      configuration.setCacheInvalidation(CacheInvalidation.valueOf(props.getProperty("cacheInvalidation", "NAMESPACE")));
+      //二级缓存的统计，JMX时注册成MBean
+      configuration.setCacheStatistics(CacheStatisticsMode.valueOf(props.getProperty("cacheStatistics", "NONE")));
       //为null值设置jdbctype
       configuration.setJdbcTypeForNull(JdbcType.valueOf(props.getProperty("jdbcTypeForNull", "OTHER")));
       //Object的哪些方法将触发延迟加载
@@ -116,6 +116,18 @@ public class XMLStatementBuilder extends BaseBuilder {
     //仅针对嵌套结果 select 语句适用：如果为 true，就是假设包含了嵌套结果集或是分组了，这样的话当返回一个主结果行的时候，就不会发生有对前面结果集的引用的情况。
     //这就使得在获取嵌套的结果集的时候不至于导致内存不够用。默认值：false。 
     boolean resultOrdered = context.getBooleanAttribute("resultOrdered", false);
+    //读写分离时能否到从库去查，存储过程可能会写数据，默认不去
+    boolean useReplica = context.getBooleanAttribute("useReplica", statementType != StatementType.CALLABLE);
+    //读写的表，按表失效二级缓存时用，不写就从SQL里找
+    String tables = context.getStringAttribute("tables");
+    //结果在二级缓存里多久过期、多久在后台重新加载，不写就用缓存的设置
+    Long flushInterval = context.getLongAttribute("flushInterval");
+    Long refreshInterval = context.getLongAttribute("refreshInterval");
+    //批量执行时攒多少条、多少字节的参数就先执行一次，不写就用全局设置
+    Integer batchFlushSize = context.getIntAttribute("batchFlushSize");
+    Long batchFlushBytes = context.getLongAttribute("batchFlushBytes");
+    //外键引用的表，按语句分组批量执行时用
+    String references = context.getStringAttribute("references");
 
     // Include Fragments before parsing
     //解析之前先解析<include>SQL片段
@@ -149,7 +161,8 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, useReplica, tables,
+        flushInterval, refreshInterval, batchFlushSize, batchFlushBytes, references);
   }
 
   private void processSelectKeyNodes(String id, Class<?> parameterTypeClass, LanguageDriver langDriver) {
@@ -196,7 +209,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered,
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null, false, null);
 
     id = builderAssistant.applyCurrentNamespace(id, false);
 
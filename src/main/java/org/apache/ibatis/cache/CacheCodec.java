@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the copies a read-write cache keeps of its values. The value is encoded when it
+ * is put, and every hit decodes a new copy of it.
+ * 
+ * The implementation must have a constructor without parameters and be thread safe. Each
+ * cache gets its own instance, and the bytes are only decoded by the instance that
+ * encoded them.
+ * 
+ * <pre>
+ * &lt;cache&gt;
+ *   &lt;property name="codec" value="COMPACT"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public interface CacheCodec {
+
+  /*
+   * @param value - a serializable value, may be null
+   */
+  byte[] encode(Object value);
+
+  Object decode(byte[] data);
+
+}
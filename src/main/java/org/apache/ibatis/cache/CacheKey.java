@@ -17,8 +17,7 @@ package org.apache.ibatis.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Clinton Begin
@@ -27,37 +26,54 @@ import java.util.List;
  * 缓存key
  * 一般缓存框架的数据结构基本上都是 Key-Value 方式存储，
  * MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
+ * <p>
+ * Two 64-bit hashes are updated with every component, so that keys that differ are
+ * nearly always told apart without comparing their components. The components are kept
+ * in an array sized for the expected number of updates; int and long values get the
+ * same hash whether they are boxed or not.
  */
 public class CacheKey implements Cloneable, Serializable {
 
-  private static final long serialVersionUID = 1146682552656046210L;
+  private static final long serialVersionUID = -2396530219543393458L;
 
   public static final CacheKey NULL_CACHE_KEY = new NullCacheKey();
 
-  private static final int DEFAULT_MULTIPLYER = 37;
-  private static final int DEFAULT_HASHCODE = 17;
+  private static final int DEFAULT_CAPACITY = 8;
+  private static final long SEED = 0x9e3779b97f4a7c15L;
+  private static final long MULTIPLIER_1 = 0xc2b2ae3d27d4eb4fL;
+  private static final long MULTIPLIER_2 = 0x165667b19e3779f9L;
+  private static final long NULL_HASH = 0x27d4eb2f165667c5L;
 
-  private int multiplier;
-  private int hashcode;
+  //RowBounds.NO_ROW_LIMIT，每次装箱都会新建一个对象
+  private static final Integer NO_LIMIT = Integer.valueOf(Integer.MAX_VALUE);
+
+  private long hash;
   private long checksum;
   private int count;
-  private List<Object> updateList;
+  private Object[] components;
 
   public CacheKey() {
-    this.hashcode = DEFAULT_HASHCODE;
-    this.multiplier = DEFAULT_MULTIPLYER;
+    this(DEFAULT_CAPACITY);
+  }
+
+  /*
+   * @param expectedUpdates - the number of components the key will likely get
+   */
+  public CacheKey(int expectedUpdates) {
+    this.hash = SEED;
+    this.checksum = 0;
     this.count = 0;
-    this.updateList = new ArrayList<Object>();
+    this.components = new Object[Math.max(expectedUpdates, 1)];
   }
 
   //传入一个Object数组，更新hashcode和效验码
   public CacheKey(Object[] objects) {
-    this();
+    this(objects.length);
     updateAll(objects);
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
@@ -74,18 +90,56 @@ public class CacheKey implements Cloneable, Serializable {
     }
   }
 
+  public void update(String string) {
+    if (string == null) {
+      doUpdate(null);
+    } else {
+      // String缓存了自己的hash，同一条SQL不会重复计算
+      add(string, mix(string.hashCode(), 0));
+    }
+  }
+
+  public void update(int value) {
+    add(value == Integer.MAX_VALUE ? NO_LIMIT : Integer.valueOf(value), mix(value, 1));
+  }
+
+  public void update(long value) {
+    add(Long.valueOf(value), mix(value, 2));
+  }
+
   private void doUpdate(Object object) {
-    //计算hash值，校验码
-    int baseHashCode = object == null ? 1 : object.hashCode();
+    if (object == null) {
+      add(null, NULL_HASH);
+    } else if (object instanceof Integer) {
+      //和update(int)得到一样的hash
+      add(object, mix(((Integer) object).intValue(), 1));
+    } else if (object instanceof Long) {
+      add(object, mix(((Long) object).longValue(), 2));
+    } else {
+      add(object, mix(object.hashCode(), 0));
+    }
+  }
 
+  private void add(Object component, long componentHash) {
+    if (count == components.length) {
+      grow();
+    }
+    components[count] = component;
     count++;
-    checksum += baseHashCode;
-    baseHashCode *= count;
+    //一个依赖顺序的hash，一个加上位置的校验和
+    hash = Long.rotateLeft(hash ^ componentHash * MULTIPLIER_1, 31) * MULTIPLIER_2;
+    checksum += (componentHash ^ count) * MULTIPLIER_2;
+  }
 
-    hashcode = multiplier * hashcode + baseHashCode;
+  private void grow() {
+    components = Arrays.copyOf(components, components.length * 2);
+  }
 
-    //同时将对象加入列表，这样万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    updateList.add(object);
+  private static long mix(long value, long salt) {
+    long h = (value + salt) * MULTIPLIER_1;
+    h ^= h >>> 33;
+    h *= MULTIPLIER_2;
+    return h ^ (h >>> 29);
   }
 
   public void updateAll(Object[] objects) {
@@ -105,30 +159,21 @@ public class CacheKey implements Cloneable, Serializable {
 
     final CacheKey cacheKey = (CacheKey) object;
 
-    //先比hashcode，checksum，count，理论上可以快速比出来
-    if (hashcode != cacheKey.hashcode) {
-      return false;
-    }
-    if (checksum != cacheKey.checksum) {
-      return false;
-    }
-    if (count != cacheKey.count) {
+    //先比两个hash和count，理论上可以快速比出来
+    if (hash != cacheKey.hash || checksum != cacheKey.checksum || count != cacheKey.count) {
       return false;
     }
 
     //万一两个CacheKey的hash码碰巧一样，再根据对象严格equals来区分
-    //这里两个list的size没比是否相等，其实前面count相等就已经保证了
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = components[i];
+      Object thatObject = cacheKey.components[i];
       if (thisObject == null) {
         if (thatObject != null) {
           return false;
         }
-      } else {
-        if (!thisObject.equals(thatObject)) {
-          return false;
-        }
+      } else if (thisObject != thatObject && !thisObject.equals(thatObject)) {
+        return false;
       }
     }
     return true;
@@ -136,14 +181,14 @@ public class CacheKey implements Cloneable, Serializable {
 
   @Override
   public int hashCode() {
-    return hashcode;
+    return (int) (hash ^ (hash >>> 32));
   }
 
   @Override
   public String toString() {
-    StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (int i = 0; i < updateList.size(); i++) {
-      returnValue.append(':').append(updateList.get(i));
+    StringBuilder returnValue = new StringBuilder().append(hashCode()).append(':').append(checksum);
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(components[i]);
     }
 
     return returnValue.toString();
@@ -152,7 +197,8 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<Object>(updateList);
+    //多留一个位置，克隆出来一般还要再update
+    clonedCacheKey.components = Arrays.copyOf(components, count + 1);
     return clonedCacheKey;
   }
 
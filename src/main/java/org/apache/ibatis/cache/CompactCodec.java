@@ -0,0 +1,676 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * A binary codec for query results, much faster than Java serialization.
+ * <p>
+ * Each class of result object gets a schema the first time it is cached: the fields Java
+ * serialization would write, in a fixed order. An object is then written as the number of
+ * its schema followed by the bare values of its fields, without class descriptors or field
+ * names, and read back by setting the fields of an instance made with the constructor
+ * without parameters. Strings, boxed primitives, dates, big numbers, byte arrays, enums and
+ * the usual lists, sets and maps have their own compact forms, and objects shared in the
+ * graph stay shared in the copy.
+ * <p>
+ * A class that is not serializable, has no constructor without parameters, customizes its
+ * serialization or is a lazy loading proxy is written with Java serialization, as are the
+ * other JDK classes, so the copies are the same as those of the default codec.
+ */
+public class CompactCodec implements CacheCodec {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte STRING = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte DOUBLE = 5;
+  private static final byte FLOAT = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+  private static final byte TRUE = 9;
+  private static final byte FALSE = 10;
+  private static final byte CHARACTER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte TIMESTAMP = 16;
+  private static final byte TIME = 17;
+  private static final byte BYTES = 18;
+  private static final byte ARRAY_LIST = 19;
+  private static final byte LINKED_LIST = 20;
+  private static final byte HASH_MAP = 21;
+  private static final byte LINKED_HASH_MAP = 22;
+  private static final byte HASH_SET = 23;
+  private static final byte LINKED_HASH_SET = 24;
+  private static final byte ENUM = 25;
+  private static final byte OBJECT = 26;
+  private static final byte SERIALIZED = 27;
+
+  //不能用字段直接写的类，缓存一下省得每次都查
+  private static final Schema UNSUPPORTED = new Schema(-1, null, null, null, null);
+
+  private final ConcurrentMap<Class<?>, Schema> schemas = new ConcurrentHashMap<Class<?>, Schema>();
+  //编号 -> schema，只增不减
+  private volatile Schema[] schemasById = new Schema[0];
+
+  @Override
+  public byte[] encode(Object value) {
+    Output out = new Output();
+    writeValue(out, value);
+    return out.toByteArray();
+  }
+
+  @Override
+  public Object decode(byte[] data) {
+    return readValue(new Input(data));
+  }
+
+  private void writeValue(Output out, Object value) {
+    if (value == null) {
+      out.writeByte(NULL);
+      return;
+    }
+    Class<?> type = value.getClass();
+    // 不可变的值不登记引用，重复写也不影响结果
+    if (type == String.class) {
+      out.writeByte(STRING);
+      out.writeString((String) value);
+    } else if (type == Integer.class) {
+      out.writeByte(INTEGER);
+      out.writeVarLong(((Integer) value).intValue());
+    } else if (type == Long.class) {
+      out.writeByte(LONG);
+      out.writeVarLong(((Long) value).longValue());
+    } else if (type == Boolean.class) {
+      out.writeByte(((Boolean) value).booleanValue() ? TRUE : FALSE);
+    } else if (type == Double.class) {
+      out.writeByte(DOUBLE);
+      out.writeLong(Double.doubleToRawLongBits(((Double) value).doubleValue()));
+    } else if (type == Float.class) {
+      out.writeByte(FLOAT);
+      out.writeVarLong(Float.floatToRawIntBits(((Float) value).floatValue()));
+    } else if (type == Short.class) {
+      out.writeByte(SHORT);
+      out.writeVarLong(((Short) value).shortValue());
+    } else if (type == Byte.class) {
+      out.writeByte(BYTE);
+      out.writeByte(((Byte) value).byteValue());
+    } else if (type == Character.class) {
+      out.writeByte(CHARACTER);
+      out.writeVarLong(((Character) value).charValue());
+    } else if (type == BigDecimal.class) {
+      out.writeByte(BIG_DECIMAL);
+      BigDecimal decimal = (BigDecimal) value;
+      out.writeVarLong(decimal.scale());
+      out.writeBytes(decimal.unscaledValue().toByteArray());
+    } else if (type == BigInteger.class) {
+      out.writeByte(BIG_INTEGER);
+      out.writeBytes(((BigInteger) value).toByteArray());
+    } else if (type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum())) {
+      out.writeByte(ENUM);
+      out.writeVarLong(schemaOf(((Enum<?>) value).getDeclaringClass(), true).id);
+      out.writeVarLong(((Enum<?>) value).ordinal());
+    } else {
+      Integer handle = out.handles.get(value);
+      if (handle != null) {
+        out.writeByte(REFERENCE);
+        out.writeVarLong(handle.intValue());
+        return;
+      }
+      out.handles.put(value, Integer.valueOf(out.handles.size()));
+      writeObject(out, value, type);
+    }
+  }
+
+  private void writeObject(Output out, Object value, Class<?> type) {
+    if (type == byte[].class) {
+      out.writeByte(BYTES);
+      out.writeBytes((byte[]) value);
+    } else if (type == Date.class) {
+      out.writeByte(DATE);
+      out.writeVarLong(((Date) value).getTime());
+    } else if (type == java.sql.Date.class) {
+      out.writeByte(SQL_DATE);
+      out.writeVarLong(((Date) value).getTime());
+    } else if (type == Timestamp.class) {
+      out.writeByte(TIMESTAMP);
+      out.writeVarLong(((Timestamp) value).getTime());
+      out.writeVarLong(((Timestamp) value).getNanos());
+    } else if (type == Time.class) {
+      out.writeByte(TIME);
+      out.writeVarLong(((Time) value).getTime());
+    } else if (type == ArrayList.class) {
+      writeCollection(out, ARRAY_LIST, (Collection<?>) value);
+    } else if (type == LinkedList.class) {
+      writeCollection(out, LINKED_LIST, (Collection<?>) value);
+    } else if (type == HashSet.class) {
+      writeCollection(out, HASH_SET, (Collection<?>) value);
+    } else if (type == LinkedHashSet.class) {
+      writeCollection(out, LINKED_HASH_SET, (Collection<?>) value);
+    } else if (type == HashMap.class) {
+      writeMap(out, HASH_MAP, (Map<?, ?>) value);
+    } else if (type == LinkedHashMap.class) {
+      writeMap(out, LINKED_HASH_MAP, (Map<?, ?>) value);
+    } else {
+      Schema schema = schemaOf(type, false);
+      if (schema == UNSUPPORTED) {
+        out.writeByte(SERIALIZED);
+        out.writeBytes(SerializedCache.serialize(value));
+      } else {
+        out.writeByte(OBJECT);
+        out.writeVarLong(schema.id);
+        writeFields(out, value, schema);
+      }
+    }
+  }
+
+  private void writeCollection(Output out, byte tag, Collection<?> collection) {
+    out.writeByte(tag);
+    out.writeVarLong(collection.size());
+    for (Object element : collection) {
+      writeValue(out, element);
+    }
+  }
+
+  private void writeMap(Output out, byte tag, Map<?, ?> map) {
+    out.writeByte(tag);
+    out.writeVarLong(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeValue(out, entry.getKey());
+      writeValue(out, entry.getValue());
+    }
+  }
+
+  private void writeFields(Output out, Object value, Schema schema) {
+    try {
+      Field[] fields = schema.fields;
+      char[] kinds = schema.kinds;
+      for (int i = 0; i < fields.length; i++) {
+        Field field = fields[i];
+        switch (kinds[i]) {
+          case 'I':
+            out.writeVarLong(field.getInt(value));
+            break;
+          case 'J':
+            out.writeVarLong(field.getLong(value));
+            break;
+          case 'Z':
+            out.writeByte(field.getBoolean(value) ? 1 : 0);
+            break;
+          case 'D':
+            out.writeLong(Double.doubleToRawLongBits(field.getDouble(value)));
+            break;
+          case 'F':
+            out.writeVarLong(Float.floatToRawIntBits(field.getFloat(value)));
+            break;
+          case 'S':
+            out.writeVarLong(field.getShort(value));
+            break;
+          case 'B':
+            out.writeByte(field.getByte(value));
+            break;
+          case 'C':
+            out.writeVarLong(field.getChar(value));
+            break;
+          default:
+            writeValue(out, field.get(value));
+        }
+      }
+    } catch (IllegalAccessException e) {
+      throw new CacheException("Error encoding " + schema.type.getName() + ".  Cause: " + e, e);
+    }
+  }
+
+  private Object readValue(Input in) {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case REFERENCE:
+        return in.handles.get((int) in.readVarLong());
+      case STRING:
+        return in.readString();
+      case INTEGER:
+        return Integer.valueOf((int) in.readVarLong());
+      case LONG:
+        return Long.valueOf(in.readVarLong());
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case DOUBLE:
+        return Double.valueOf(Double.longBitsToDouble(in.readLong()));
+      case FLOAT:
+        return Float.valueOf(Float.intBitsToFloat((int) in.readVarLong()));
+      case SHORT:
+        return Short.valueOf((short) in.readVarLong());
+      case BYTE:
+        return Byte.valueOf(in.readByte());
+      case CHARACTER:
+        return Character.valueOf((char) in.readVarLong());
+      case BIG_DECIMAL:
+        int scale = (int) in.readVarLong();
+        return new BigDecimal(new BigInteger(in.readBytes()), scale);
+      case BIG_INTEGER:
+        return new BigInteger(in.readBytes());
+      case ENUM:
+        Class<?> enumType = schemaById((int) in.readVarLong()).type;
+        return enumType.getEnumConstants()[(int) in.readVarLong()];
+      default:
+        return readObject(in, tag);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object readObject(Input in, byte tag) {
+    switch (tag) {
+      case BYTES:
+        return in.handle(in.readBytes());
+      case DATE:
+        return in.handle(new Date(in.readVarLong()));
+      case SQL_DATE:
+        return in.handle(new java.sql.Date(in.readVarLong()));
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp(in.readVarLong());
+        timestamp.setNanos((int) in.readVarLong());
+        return in.handle(timestamp);
+      case TIME:
+        return in.handle(new Time(in.readVarLong()));
+      case ARRAY_LIST:
+        int size = (int) in.readVarLong();
+        return readElements(in, size, in.handle(new ArrayList<Object>(size)));
+      case LINKED_LIST:
+        return readElements(in, (int) in.readVarLong(), in.handle(new LinkedList<Object>()));
+      case HASH_SET:
+        size = (int) in.readVarLong();
+        return readElements(in, size, in.handle(new HashSet<Object>(capacity(size))));
+      case LINKED_HASH_SET:
+        size = (int) in.readVarLong();
+        return readElements(in, size, in.handle(new LinkedHashSet<Object>(capacity(size))));
+      case HASH_MAP:
+        size = (int) in.readVarLong();
+        return readEntries(in, size, in.handle(new HashMap<Object, Object>(capacity(size))));
+      case LINKED_HASH_MAP:
+        size = (int) in.readVarLong();
+        return readEntries(in, size, in.handle(new LinkedHashMap<Object, Object>(capacity(size))));
+      case SERIALIZED:
+        return in.handle(SerializedCache.deserialize(in.readBytes()));
+      case OBJECT:
+        return readFields(in, schemaById((int) in.readVarLong()));
+      default:
+        throw new CacheException("Error decoding cached value, unknown tag " + tag);
+    }
+  }
+
+  private Collection<Object> readElements(Input in, int size, Collection<Object> collection) {
+    for (int i = 0; i < size; i++) {
+      collection.add(readValue(in));
+    }
+    return collection;
+  }
+
+  private Map<Object, Object> readEntries(Input in, int size, Map<Object, Object> map) {
+    for (int i = 0; i < size; i++) {
+      Object key = readValue(in);
+      map.put(key, readValue(in));
+    }
+    return map;
+  }
+
+  private Object readFields(Input in, Schema schema) {
+    try {
+      // 先登记再读字段，循环引用才能指回来
+      Object value = in.handle(schema.constructor.newInstance());
+      Field[] fields = schema.fields;
+      char[] kinds = schema.kinds;
+      for (int i = 0; i < fields.length; i++) {
+        Field field = fields[i];
+        switch (kinds[i]) {
+          case 'I':
+            field.setInt(value, (int) in.readVarLong());
+            break;
+          case 'J':
+            field.setLong(value, in.readVarLong());
+            break;
+          case 'Z':
+            field.setBoolean(value, in.readByte() != 0);
+            break;
+          case 'D':
+            field.setDouble(value, Double.longBitsToDouble(in.readLong()));
+            break;
+          case 'F':
+            field.setFloat(value, Float.intBitsToFloat((int) in.readVarLong()));
+            break;
+          case 'S':
+            field.setShort(value, (short) in.readVarLong());
+            break;
+          case 'B':
+            field.setByte(value, in.readByte());
+            break;
+          case 'C':
+            field.setChar(value, (char) in.readVarLong());
+            break;
+          default:
+            field.set(value, readValue(in));
+        }
+      }
+      return value;
+    } catch (Exception e) {
+      throw new CacheException("Error decoding " + schema.type.getName() + ".  Cause: " + e, e);
+    }
+  }
+
+  private static int capacity(int size) {
+    return Math.max(16, (int) (size / 0.75f) + 1);
+  }
+
+  private Schema schemaById(int id) {
+    Schema[] byId = schemasById;
+    if (id < 0 || id >= byId.length) {
+      throw new CacheException("Error decoding cached value, unknown class number " + id);
+    }
+    return byId[id];
+  }
+
+  private Schema schemaOf(Class<?> type, boolean enumType) {
+    Schema schema = schemas.get(type);
+    if (schema == null) {
+      schema = createSchema(type, enumType);
+    }
+    return schema;
+  }
+
+  private synchronized Schema createSchema(Class<?> type, boolean enumType) {
+    Schema schema = schemas.get(type);
+    if (schema != null) {
+      return schema;
+    }
+    if (enumType) {
+      schema = register(type, null, new Field[0]);
+    } else if (!isSupported(type)) {
+      schema = UNSUPPORTED;
+    } else {
+      try {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        List<Field> fields = new ArrayList<Field>();
+        collectFields(type, fields);
+        schema = register(type, constructor, fields.toArray(new Field[fields.size()]));
+      } catch (Exception e) {
+        // 没有无参构造函数，或者不让访问，还是用Java序列化
+        schema = UNSUPPORTED;
+      }
+    }
+    schemas.put(type, schema);
+    return schema;
+  }
+
+  private Schema register(Class<?> type, Constructor<?> constructor, Field[] fields) {
+    Schema[] byId = schemasById;
+    char[] kinds = new char[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      Class<?> fieldType = fields[i].getType();
+      kinds[i] = fieldType.isPrimitive() ? kindOf(fieldType) : 'L';
+    }
+    Schema schema = new Schema(byId.length, type, constructor, fields, kinds);
+    Schema[] grown = Arrays.copyOf(byId, byId.length + 1);
+    grown[schema.id] = schema;
+    schemasById = grown;
+    return schema;
+  }
+
+  private static char kindOf(Class<?> primitive) {
+    if (primitive == boolean.class) {
+      return 'Z';
+    } else if (primitive == long.class) {
+      return 'J';
+    }
+    return Character.toUpperCase(primitive.getName().charAt(0));
+  }
+
+  /*
+   * The classes whose fields are what Java serialization would write
+   */
+  private static boolean isSupported(Class<?> type) {
+    if (type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers())
+        || type.getName().startsWith("java.") || type.getName().startsWith("javax.")
+        || type.getName().contains("$$") || !Serializable.class.isAssignableFrom(type)
+        || java.io.Externalizable.class.isAssignableFrom(type)) {
+      return false;
+    }
+    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+      if (!Serializable.class.isAssignableFrom(c) || customizesSerialization(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean customizesSerialization(Class<?> type) {
+    for (Method method : type.getDeclaredMethods()) {
+      String name = method.getName();
+      if ("writeObject".equals(name) || "readObject".equals(name) || "writeReplace".equals(name)
+          || "readResolve".equals(name) || "readObjectNoData".equals(name)) {
+        return true;
+      }
+    }
+    try {
+      // 自己声明了要序列化哪些字段
+      type.getDeclaredField("serialPersistentFields");
+      return true;
+    } catch (NoSuchFieldException e) {
+      return false;
+    }
+  }
+
+  private static void collectFields(Class<?> type, List<Field> fields) {
+    if (type == Object.class) {
+      return;
+    }
+    collectFields(type.getSuperclass(), fields);
+    for (Field field : type.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+        field.setAccessible(true);
+        fields.add(field);
+      }
+    }
+  }
+
+  private static final class Schema {
+
+    private final int id;
+    private final Class<?> type;
+    private final Constructor<?> constructor;
+    private final Field[] fields;
+    private final char[] kinds;
+
+    private Schema(int id, Class<?> type, Constructor<?> constructor, Field[] fields, char[] kinds) {
+      this.id = id;
+      this.type = type;
+      this.constructor = constructor;
+      this.fields = fields;
+      this.kinds = kinds;
+    }
+
+  }
+
+  private static final class Output {
+
+    private final IdentityHashMap<Object, Integer> handles = new IdentityHashMap<Object, Integer>();
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    void writeByte(int value) {
+      ensure(1);
+      buffer[position++] = (byte) value;
+    }
+
+    /*
+     * Zigzag encoded, so that small negative numbers are short too
+     */
+    void writeVarLong(long value) {
+      ensure(10);
+      long bits = (value << 1) ^ (value >> 63);
+      while ((bits & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((bits & 0x7F) | 0x80);
+        bits >>>= 7;
+      }
+      buffer[position++] = (byte) bits;
+    }
+
+    void writeLong(long value) {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte) (value >>> shift);
+      }
+    }
+
+    void writeBytes(byte[] bytes) {
+      writeVarLong(bytes.length);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    void writeString(String value) {
+      int length = value.length();
+      boolean ascii = true;
+      for (int i = 0; i < length && ascii; i++) {
+        ascii = value.charAt(i) < 0x80;
+      }
+      //最低位标记是不是全是ASCII，是的话一个字符一个字节
+      writeVarLong(((long) length << 1) | (ascii ? 1 : 0));
+      ensure(ascii ? length : 2 * length);
+      if (ascii) {
+        for (int i = 0; i < length; i++) {
+          buffer[position++] = (byte) value.charAt(i);
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          char c = value.charAt(i);
+          buffer[position++] = (byte) (c >>> 8);
+          buffer[position++] = (byte) c;
+        }
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensure(int bytes) {
+      if (position + bytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+      }
+    }
+
+  }
+
+  private static final class Input {
+
+    private final List<Object> handles = new ArrayList<Object>();
+    private final byte[] buffer;
+    private int position;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    <T> T handle(T value) {
+      handles.add(value);
+      return value;
+    }
+
+    byte readByte() {
+      return buffer[position++];
+    }
+
+    long readVarLong() {
+      long bits = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer[position++];
+        bits |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    long readLong() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | (buffer[position++] & 0xFF);
+      }
+      return value;
+    }
+
+    byte[] readBytes() {
+      int length = (int) readVarLong();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    String readString() {
+      long header = readVarLong();
+      int length = (int) (header >>> 1);
+      char[] chars = new char[length];
+      if ((header & 1) != 0) {
+        for (int i = 0; i < length; i++) {
+          chars[i] = (char) buffer[position++];
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = (char) (((buffer[position] & 0xFF) << 8) | (buffer[position + 1] & 0xFF));
+          position += 2;
+        }
+      }
+      return new String(chars);
+    }
+
+  }
+
+}
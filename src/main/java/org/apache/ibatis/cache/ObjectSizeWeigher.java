@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The default weigher. The weight of a value the cache keeps serialized, a byte array,
+ * is its length. Other values are estimated: a few elements of each collection, map or
+ * array are measured and the rest are assumed to be alike, and objects are followed
+ * through their fields down to a limited depth.
+ * <p>
+ * The estimate assumes a 64-bit JVM with compressed references, and adds a fixed
+ * overhead per entry for the key and the maps that hold it.
+ */
+public class ObjectSizeWeigher implements Weigher {
+
+  //每个条目的key和map里的节点，大概算一下
+  public static final long ENTRY_OVERHEAD = 96;
+
+  private static final int SAMPLES = 16;
+  private static final int MAX_DEPTH = 8;
+  private static final int HEADER = 16;
+  private static final int REFERENCE = 4;
+
+  private static final ConcurrentMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+  @Override
+  public long weigh(Object key, Object value) {
+    if (value instanceof byte[]) {
+      return ENTRY_OVERHEAD + HEADER + ((byte[]) value).length;
+    }
+    return ENTRY_OVERHEAD + estimate(value);
+  }
+
+  /*
+   * @return the estimated number of bytes of the object and of what it references
+   */
+  public static long estimate(Object object) {
+    return estimate(object, 0, new IdentityHashMap<Object, Object>());
+  }
+
+  private static long estimate(Object object, int depth, IdentityHashMap<Object, Object> visited) {
+    if (object == null || object instanceof Enum || object instanceof Class || visited.containsKey(object)) {
+      return 0;
+    }
+    visited.put(object, object);
+    Class<?> type = object.getClass();
+    if (object instanceof String) {
+      return align(24) + align(HEADER + 2L * ((String) object).length());
+    } else if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+      return object instanceof BigDecimal || object instanceof BigInteger ? 64 : 24;
+    } else if (object instanceof Date) {
+      return 24;
+    } else if (type.isArray()) {
+      return estimateArray(object, depth, visited);
+    } else if (object instanceof Collection) {
+      Collection<?> collection = (Collection<?>) object;
+      return 48 + align(HEADER + (long) REFERENCE * collection.size())
+          + sampled(collection, collection.size(), depth, visited);
+    } else if (object instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) object;
+      // 每个Entry大概32字节
+      return 48 + align(HEADER + (long) REFERENCE * map.size()) + 32L * map.size()
+          + sampled(map.keySet(), map.size(), depth, visited) + sampled(map.values(), map.size(), depth, visited);
+    }
+    ClassLayout layout = layoutOf(type);
+    long size = layout.shallowSize;
+    if (depth < MAX_DEPTH) {
+      for (Field field : layout.references) {
+        try {
+          size += estimate(field.get(object), depth + 1, visited);
+        } catch (IllegalAccessException e) {
+          // 拿不到就不算了
+        }
+      }
+    }
+    return size;
+  }
+
+  private static long estimateArray(Object array, int depth, IdentityHashMap<Object, Object> visited) {
+    Class<?> component = array.getClass().getComponentType();
+    if (!component.isPrimitive()) {
+      Object[] elements = (Object[]) array;
+      List<Object> list = Arrays.asList(elements);
+      return align(HEADER + (long) REFERENCE * elements.length) + sampled(list, elements.length, depth, visited);
+    }
+    int length = Array.getLength(array);
+    return align(HEADER + (long) primitiveSize(component) * length);
+  }
+
+  //量前几个元素，其余的按平均值算
+  private static long sampled(Collection<?> elements, int size, int depth, IdentityHashMap<Object, Object> visited) {
+    if (size == 0 || depth >= MAX_DEPTH) {
+      return 0;
+    }
+    long total = 0;
+    int measured = 0;
+    if (elements instanceof List && elements instanceof RandomAccess) {
+      List<?> list = (List<?>) elements;
+      int step = Math.max(1, size / SAMPLES);
+      for (int i = 0; i < size && measured < SAMPLES; i += step) {
+        total += estimate(list.get(i), depth + 1, visited);
+        measured++;
+      }
+    } else {
+      Iterator<?> iterator = elements.iterator();
+      while (iterator.hasNext() && measured < SAMPLES) {
+        total += estimate(iterator.next(), depth + 1, visited);
+        measured++;
+      }
+    }
+    return measured == 0 ? 0 : total * size / measured;
+  }
+
+  private static ClassLayout layoutOf(Class<?> type) {
+    ClassLayout layout = layouts.get(type);
+    if (layout == null) {
+      layout = new ClassLayout(type);
+      layouts.putIfAbsent(type, layout);
+    }
+    return layout;
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static class ClassLayout {
+
+    private final long shallowSize;
+    private final Field[] references;
+
+    ClassLayout(Class<?> type) {
+      long size = 12;
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        // 延迟加载的代理类自己的字段指向加载器和配置，不是结果的一部分
+        boolean proxy = c.getName().contains("$$");
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          size += field.getType().isPrimitive() ? primitiveSize(field.getType()) : REFERENCE;
+          if (!proxy && !field.getType().isPrimitive() && accessible(field)) {
+            fields.add(field);
+          }
+        }
+      }
+      this.shallowSize = align(size);
+      this.references = fields.toArray(new Field[fields.size()]);
+    }
+
+    private static boolean accessible(Field field) {
+      // JDK自己的类不往里看
+      if (field.getDeclaringClass().getName().startsWith("java.")) {
+        return false;
+      }
+      try {
+        field.setAccessible(true);
+        return true;
+      } catch (RuntimeException e) {
+        return false;
+      }
+    }
+
+  }
+
+}
@@ -18,6 +18,7 @@ package org.apache.ibatis.cache;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
 /**
@@ -36,6 +37,11 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).clear();
   }
 
+  //按表失效，tables为null时清空
+  public void invalidate(Cache cache, String[] tables) {
+    getTransactionalCache(cache).invalidate(tables);
+  }
+
   //得到某个TransactionalCache的值
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
@@ -45,6 +51,19 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void putObject(Cache cache, CacheKey key, Object value, String[] tables) {
+    getTransactionalCache(cache).putObject(key, value, tables);
+  }
+
+  public void putObject(Cache cache, CacheKey key, Object value, String[] tables, ScheduledCache.Reload reload) {
+    getTransactionalCache(cache).putObject(key, value, tables, reload);
+  }
+
+  //查询失败，放开这个key
+  public void fail(Cache cache, CacheKey key, Throwable cause) {
+    getTransactionalCache(cache).fail(key, cause);
+  }
+
   //提交时全部提交
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
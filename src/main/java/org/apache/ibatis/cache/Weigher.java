@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI for the weight of cache entries, used by the eviction decorators when the cache
+ * has a maxBytes budget.
+ * 
+ * The implementation must have a constructor without parameters and be thread safe.
+ * 
+ * <pre>
+ * &lt;cache eviction="LRU"&gt;
+ *   &lt;property name="maxBytes" value="67108864"/&gt;
+ *   &lt;property name="weigher" value="com.domain.something.MyWeigher"/&gt;
+ * &lt;/cache&gt;
+ * </pre>
+ */
+public interface Weigher {
+
+  /*
+   * @return the approximate number of bytes the entry takes in the cache
+   */
+  long weigh(Object key, Object value);
+
+}
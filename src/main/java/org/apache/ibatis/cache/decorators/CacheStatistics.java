@@ -0,0 +1,345 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * The statistics of a second level cache, collected by a {@link StatisticsCache} when the
+ * cacheStatistics setting is not NONE.
+ * <p>
+ * Counters are striped so that concurrent sessions do not contend on them, and times go
+ * to histograms of fixed buckets: under 1 microsecond, under 2, under 4 and so on, the
+ * last bucket holding everything slower. Evictions are the removals made by the eviction
+ * policy; they are only known for the caches built with eviction decorators.
+ * Times are in nanoseconds.
+ */
+public class CacheStatistics implements CacheStatisticsMBean {
+
+  private static final Log log = LogFactory.getLog(CacheStatistics.class);
+
+  private static final int BUCKETS = 24;
+  private static final long[] BOUNDS = new long[BUCKETS];
+
+  static {
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      BOUNDS[i] = 1000L << i;
+    }
+    BOUNDS[BUCKETS - 1] = Long.MAX_VALUE;
+  }
+
+  private final String id;
+  private final Counter hits = new Counter();
+  private final Counter misses = new Counter();
+  private final Counter puts = new Counter();
+  private final Counter removals = new Counter();
+  //淘汰装饰者下面看到的删除，减去上面来的删除就是淘汰的
+  private final Counter innerRemovals = new Counter();
+  private final Counter loads = new Counter();
+  private final Counter loadTime = new Counter();
+  private final AtomicLongArray getTimes = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray loadTimes = new AtomicLongArray(BUCKETS);
+  private volatile Cache cache;
+  private volatile Cache weighed;
+  private volatile boolean countsEvictions;
+  private ObjectName objectName;
+
+  CacheStatistics(String id) {
+    this.id = id;
+  }
+
+  /*
+   * @return the statistics of a cache of Configuration.getCaches(), null if it does not collect any
+   */
+  public static CacheStatistics of(Cache cache) {
+    while (true) {
+      if (cache instanceof StatisticsCache) {
+        return ((StatisticsCache) cache).getStatistics();
+      } else if (cache instanceof TableInvalidationCache) {
+        cache = ((TableInvalidationCache) cache).getDelegate();
+      } else if (cache instanceof ScheduledCache && ((ScheduledCache) cache).getRefreshInterval() > 0) {
+        cache = ((ScheduledCache) cache).getDelegate();
+      } else {
+        return null;
+      }
+    }
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getRequests() {
+    return getHits() + getMisses();
+  }
+
+  @Override
+  public double getHitRatio() {
+    long hitCount = getHits();
+    long requests = hitCount + getMisses();
+    return requests == 0 ? 0 : (double) hitCount / requests;
+  }
+
+  @Override
+  public long getPuts() {
+    return puts.sum();
+  }
+
+  @Override
+  public long getRemovals() {
+    return removals.sum();
+  }
+
+  @Override
+  public long getEvictions() {
+    return countsEvictions ? Math.max(0, innerRemovals.sum() - removals.sum()) : 0;
+  }
+
+  @Override
+  public int getSize() {
+    Cache measured = cache;
+    return measured == null ? 0 : measured.getSize();
+  }
+
+  /*
+   * @return the weight of the entries when the eviction policy has a maxBytes budget, else 0
+   */
+  @Override
+  public long getWeight() {
+    Cache measured = weighed;
+    if (measured instanceof LruCache) {
+      return ((LruCache) measured).getWeight();
+    } else if (measured instanceof FifoCache) {
+      return ((FifoCache) measured).getWeight();
+    }
+    return 0;
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  @Override
+  public long getAverageLoadTime() {
+    long count = loads.sum();
+    return count == 0 ? 0 : loadTime.sum() / count;
+  }
+
+  /*
+   * @return the upper bounds of the buckets of the histograms
+   */
+  @Override
+  public long[] getHistogramBounds() {
+    return BOUNDS.clone();
+  }
+
+  @Override
+  public long[] getGetTimeHistogram() {
+    return snapshot(getTimes);
+  }
+
+  @Override
+  public long[] getLoadTimeHistogram() {
+    return snapshot(loadTimes);
+  }
+
+  /*
+   * @param percentile - between 0 and 1
+   * @return the upper bound of the bucket of the percentile
+   */
+  @Override
+  public long getGetTimePercentile(double percentile) {
+    return percentile(getTimes, percentile);
+  }
+
+  @Override
+  public long getLoadTimePercentile(double percentile) {
+    return percentile(loadTimes, percentile);
+  }
+
+  @Override
+  public void reset() {
+    hits.reset();
+    misses.reset();
+    puts.reset();
+    removals.reset();
+    innerRemovals.reset();
+    loads.reset();
+    loadTime.reset();
+    for (int i = 0; i < BUCKETS; i++) {
+      getTimes.set(i, 0);
+      loadTimes.set(i, 0);
+    }
+  }
+
+  /*
+   * Records the time a statement took to load a missed entry
+   */
+  public void recordLoad(long nanos) {
+    loads.add(1);
+    loadTime.add(nanos);
+    loadTimes.incrementAndGet(bucket(nanos));
+  }
+
+  void recordGet(boolean hit, long nanos) {
+    (hit ? hits : misses).add(1);
+    getTimes.incrementAndGet(bucket(nanos));
+  }
+
+  void recordPut() {
+    puts.add(1);
+  }
+
+  void recordRemoval() {
+    removals.add(1);
+  }
+
+  void recordInnerRemoval() {
+    innerRemovals.add(1);
+  }
+
+  void measure(Cache cache, Cache weighed, boolean countsEvictions) {
+    this.cache = cache;
+    this.weighed = weighed;
+    this.countsEvictions = countsEvictions;
+  }
+
+  /*
+   * Registers the statistics in the platform MBean server
+   *
+   * @param configurationId - tells apart the caches of different configurations
+   */
+  public synchronized void registerMBean(String configurationId) {
+    try {
+      ObjectName name = new ObjectName("org.apache.ibatis:type=CacheStatistics,configuration=" + configurationId
+          + ",name=" + ObjectName.quote(id));
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+      objectName = name;
+    } catch (JMException e) {
+      log.warn("Could not register the statistics of cache " + id + " in JMX.  Cause: " + e);
+    }
+  }
+
+  public synchronized void unregisterMBean() {
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        log.warn("Could not unregister the statistics of cache " + id + " from JMX.  Cause: " + e);
+      }
+      objectName = null;
+    }
+  }
+
+  public synchronized ObjectName getObjectName() {
+    return objectName;
+  }
+
+  private static int bucket(long nanos) {
+    long micros = nanos / 1000;
+    if (micros <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+  }
+
+  private static long[] snapshot(AtomicLongArray histogram) {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = histogram.get(i);
+    }
+    return counts;
+  }
+
+  private static long percentile(AtomicLongArray histogram, double percentile) {
+    long[] counts = snapshot(histogram);
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long target = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target && counts[i] > 0) {
+        return BOUNDS[i];
+      }
+    }
+    return BOUNDS[BUCKETS - 1];
+  }
+
+  /**
+   * A counter striped by thread, each stripe on its own cache line.
+   */
+  private static final class Counter {
+
+    private static final int PADDING = 8;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2);
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void add(long value) {
+      long threadId = Thread.currentThread().getId();
+      int stripe = (int) ((threadId * 0x9e3779b97f4a7c15L) >>> 40) & (STRIPES - 1);
+      cells.addAndGet(stripe * PADDING, value);
+    }
+
+    long sum() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        sum += cells.get(i * PADDING);
+      }
+      return sum;
+    }
+
+    void reset() {
+      for (int i = 0; i < STRIPES; i++) {
+        cells.set(i * PADDING, 0);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+/**
+ * The JMX view of {@link CacheStatistics}. Times are in nanoseconds.
+ */
+public interface CacheStatisticsMBean {
+
+  String getId();
+
+  long getHits();
+
+  long getMisses();
+
+  long getRequests();
+
+  double getHitRatio();
+
+  long getPuts();
+
+  long getRemovals();
+
+  long getEvictions();
+
+  int getSize();
+
+  long getWeight();
+
+  long getLoads();
+
+  long getAverageLoadTime();
+
+  long[] getHistogramBounds();
+
+  long[] getGetTimeHistogram();
+
+  long[] getLoadTimeHistogram();
+
+  long getGetTimePercentile(double percentile);
+
+  long getLoadTimePercentile(double percentile);
+
+  void reset();
+
+}
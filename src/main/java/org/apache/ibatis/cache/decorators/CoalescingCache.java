@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Coalesces the misses of a key, so that concurrent identical queries hit the database once.
+ * <p>
+ * The first thread that misses a key owns a load of it; the other threads that miss it
+ * wait until the owner puts the value, which the transactional cache does at commit, and
+ * then read it from the cache. If the query of the owner fails, the failure is given to
+ * every waiter. If the owner puts nothing, one of the waiters loads the key.
+ * A timeout in milliseconds bounds the wait, 0 waits as long as needed.
+ */
+public class CoalescingCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentMap<Object, Load> loads = new ConcurrentHashMap<Object, Load>();
+  private long timeout;
+
+  public CoalescingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    try {
+      delegate.putObject(key, value);
+    } finally {
+      complete(key, null);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    while (true) {
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Load load = new Load();
+      Load current = loads.putIfAbsent(key, load);
+      if (current == null) {
+        // 拿到加载权之前别人可能刚放进去
+        value = delegate.getObject(key);
+        if (value != null) {
+          complete(key, null);
+        }
+        return value;
+      }
+      if (current.owner == Thread.currentThread()) {
+        // 自己正在加载这个key，比如同一事务里又查了一次
+        return null;
+      }
+      await(key, current, deadline);
+    }
+  }
+
+  /*
+   * Called instead of putObject when the query of a missed key fails
+   */
+  public void fail(Object key, Throwable cause) {
+    complete(key, cause);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  public long getTimeout() {
+    return timeout;
+  }
+
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  private void await(Object key, Load load, long deadline) {
+    try {
+      if (deadline == 0) {
+        load.done.await();
+      } else {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0 || !load.done.await(remaining, TimeUnit.NANOSECONDS)) {
+          throw new CacheException("Couldn't get the value of the key " + key + " at the cache " + getId()
+              + " in " + timeout + " ms, another thread is still loading it");
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new CacheException("Got interrupted while waiting for the value of the key " + key, e);
+    }
+    if (load.failure != null) {
+      throw new CacheException("Loading the key " + key + " of the cache " + getId() + " failed.  Cause: "
+          + load.failure, load.failure);
+    }
+  }
+
+  private void complete(Object key, Throwable failure) {
+    Load load = loads.remove(key);
+    if (load != null) {
+      load.failure = failure;
+      load.done.countDown();
+    }
+  }
+
+  private static class Load {
+    private final Thread owner = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.ObjectSizeWeigher;
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * The weights of the entries of an eviction decorator with a maxBytes budget.
+ * Not thread safe, like the decorators that use it.
+ */
+class EntryWeights {
+
+  private long maxBytes;
+  private Weigher weigher = new ObjectSizeWeigher();
+  private final Map<Object, Long> weights = new HashMap<Object, Long>();
+  private long weight;
+
+  boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  Weigher getWeigher() {
+    return weigher;
+  }
+
+  void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  long getWeight() {
+    return weight;
+  }
+
+  void add(Object key, Object value) {
+    if (!isEnabled()) {
+      return;
+    }
+    remove(key);
+    //放null只是解锁，不占空间
+    long entryWeight = value == null ? 0 : Math.max(0, weigher.weigh(key, value));
+    weights.put(key, entryWeight);
+    weight += entryWeight;
+  }
+
+  void remove(Object key) {
+    Long removed = weights.remove(key);
+    if (removed != null) {
+      weight -= removed;
+    }
+  }
+
+  boolean isOverBudget() {
+    return isEnabled() && weight > maxBytes;
+  }
+
+  void clear() {
+    weights.clear();
+    weight = 0;
+  }
+
+}
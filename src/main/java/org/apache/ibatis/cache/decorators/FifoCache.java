@@ -20,6 +20,7 @@ import java.util.LinkedList;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
 
 /**
  * FIFO (first in, first out) cache decorator
@@ -35,6 +36,8 @@ public class FifoCache implements Cache {
   private final Cache delegate;
   private Deque<Object> keyList;
   private int size;
+  //按字节数淘汰时每个条目的大小
+  private final EntryWeights weights = new EntryWeights();
 
   public FifoCache(Cache delegate) {
     this.delegate = delegate;
@@ -56,10 +59,43 @@ public class FifoCache implements Cache {
     this.size = size;
   }
 
+  /*
+   * @param maxBytes - the budget of the weights of the entries, 0 to count the entries only
+   */
+  public void setMaxBytes(long maxBytes) {
+    weights.setMaxBytes(maxBytes);
+  }
+
+  public long getMaxBytes() {
+    return weights.getMaxBytes();
+  }
+
+  public void setWeigher(Weigher weigher) {
+    weights.setWeigher(weigher);
+  }
+
+  public Weigher getWeigher() {
+    return weights.getWeigher();
+  }
+
+  /*
+   * @return the weight of the entries, 0 without a maxBytes budget
+   */
+  public long getWeight() {
+    return weights.getWeight();
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     cycleKeyList(key);
     delegate.putObject(key, value);
+    weights.add(key, value);
+    //超过字节数就从最早的开始移除，太大的新条目自己也会被移除
+    while (weights.isOverBudget() && !keyList.isEmpty()) {
+      Object oldestKey = keyList.removeFirst();
+      weights.remove(oldestKey);
+      delegate.removeObject(oldestKey);
+    }
   }
 
   @Override
@@ -69,6 +105,7 @@ public class FifoCache implements Cache {
 
   @Override
   public Object removeObject(Object key) {
+    weights.remove(key);
     return delegate.removeObject(key);
   }
 
@@ -76,6 +113,7 @@ public class FifoCache implements Cache {
   public void clear() {
     delegate.clear();
     keyList.clear();
+    weights.clear();
   }
 
   @Override
@@ -88,6 +126,7 @@ public class FifoCache implements Cache {
     keyList.addLast(key);
     if (keyList.size() > size) {
       Object oldestKey = keyList.removeFirst();
+      weights.remove(oldestKey);
       delegate.removeObject(oldestKey);
     }
   }
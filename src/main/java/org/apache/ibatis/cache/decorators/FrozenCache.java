@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Used instead of a {@link SerializedCache} when the cache is frozen: every hit returns the
+ * same unmodifiable view of the cached list, without copying it.
+ * <p>
+ * The lists, sets and maps of the value are copied when it is put and frozen all the way
+ * down, so neither the session that put it nor those that read it can change them. The row
+ * objects are shared by all the readers and must not be modified.
+ */
+public class FrozenCache implements Cache {
+
+  private final Cache delegate;
+
+  public FrozenCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    delegate.putObject(key, freeze(object));
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * @return an unmodifiable copy of the collections of the value, the other objects as they are
+   */
+  public static Object freeze(Object value) {
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> copy = new ArrayList<Object>(list.size());
+      for (Object element : list) {
+        copy.add(freeze(element));
+      }
+      return Collections.unmodifiableList(copy);
+    } else if (value instanceof Set) {
+      Set<Object> copy = new LinkedHashSet<Object>();
+      for (Object element : (Set<?>) value) {
+        copy.add(freeze(element));
+      }
+      return Collections.unmodifiableSet(copy);
+    } else if (value instanceof Map) {
+      Map<Object, Object> copy = new LinkedHashMap<Object, Object>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        copy.put(entry.getKey(), freeze(entry.getValue()));
+      }
+      return Collections.unmodifiableMap(copy);
+    }
+    return value;
+  }
+
+}
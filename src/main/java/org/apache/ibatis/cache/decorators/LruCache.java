@@ -15,11 +15,13 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
 
 /**
  * Lru (first in, first out) cache decorator
@@ -36,6 +38,8 @@ public class LruCache implements Cache {
   //额外用了一个map才做lru，但是委托的Cache里面其实也是一个map，这样等于用2倍的内存实现lru功能
   private Map<Object, Object> keyMap;
   private Object eldestKey;
+  //按字节数淘汰时每个条目的大小
+  private final EntryWeights weights = new EntryWeights();
 
   public LruCache(Cache delegate) {
     this.delegate = delegate;
@@ -72,11 +76,46 @@ public class LruCache implements Cache {
     };
   }
 
+  /*
+   * @param maxBytes - the budget of the weights of the entries, 0 to count the entries only
+   */
+  public void setMaxBytes(long maxBytes) {
+    weights.setMaxBytes(maxBytes);
+  }
+
+  public long getMaxBytes() {
+    return weights.getMaxBytes();
+  }
+
+  public void setWeigher(Weigher weigher) {
+    weights.setWeigher(weigher);
+  }
+
+  public Weigher getWeigher() {
+    return weights.getWeigher();
+  }
+
+  /*
+   * @return the weight of the entries, 0 without a maxBytes budget
+   */
+  public long getWeight() {
+    return weights.getWeight();
+  }
+
   @Override
   public void putObject(Object key, Object value) {
     delegate.putObject(key, value);
     //增加新纪录后，判断是否要将最老元素移除
     cycleKeyList(key);
+    weights.add(key, value);
+    //超过字节数就从最老的开始移除，太大的新条目自己也会被移除
+    Iterator<Object> keys = keyMap.keySet().iterator();
+    while (weights.isOverBudget() && keys.hasNext()) {
+      Object eldest = keys.next();
+      keys.remove();
+      weights.remove(eldest);
+      delegate.removeObject(eldest);
+    }
   }
 
   @Override
@@ -88,6 +127,7 @@ public class LruCache implements Cache {
 
   @Override
   public Object removeObject(Object key) {
+    weights.remove(key);
     return delegate.removeObject(key);
   }
 
@@ -95,6 +135,7 @@ public class LruCache implements Cache {
   public void clear() {
     delegate.clear();
     keyMap.clear();
+    weights.clear();
   }
 
   @Override
@@ -106,6 +147,7 @@ public class LruCache implements Cache {
     keyMap.put(key, key);
     //keyMap是linkedhashmap，最老的记录已经被移除了，然后这里我们还需要移除被委托的那个cache的记录
     if (eldestKey != null) {
+      weights.remove(eldestKey);
       delegate.removeObject(eldestKey);
       eldestKey = null;
     }
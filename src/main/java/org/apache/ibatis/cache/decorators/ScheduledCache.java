@@ -15,9 +15,21 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
 
 /**
  * @author Clinton Begin
@@ -25,13 +37,29 @@ import org.apache.ibatis.cache.Cache;
 /**
  * 定时调度缓存
  * 目的是每一小时清空一下缓存
- *
+ * <p>
+ * With a refresh interval the entries expire one by one instead: an entry older than the
+ * refresh interval is still returned, while its statement is run again in the background
+ * to replace it, and an entry older than the clear interval is removed. The intervals of
+ * an entry can be given by its {@link Reload}. This cache is then the outermost decorator
+ * but for table level invalidation, so that the transactional cache can register the reloads.
  */
 public class ScheduledCache implements Cache {
 
+  private static final Log log = LogFactory.getLog(ScheduledCache.class);
+
+  private static final int MINIMUM_RELOADS = 1024;
+
+  //所有缓存共用的后台加载线程
+  private static ExecutorService refresher;
+
   private Cache delegate;
   protected long clearInterval;
   protected long lastClear;
+  //大于0时按条目过期，过了这个时间的条目在后台重新加载
+  protected long refreshInterval;
+  private final ConcurrentMap<Object, Reload> reloads = new ConcurrentHashMap<Object, Reload>();
+  private final Set<Object> reloading = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
@@ -44,6 +72,34 @@ public class ScheduledCache implements Cache {
     this.clearInterval = clearInterval;
   }
 
+  /*
+   * @param refreshInterval - the age at which an entry is reloaded in the background,
+   * 0 to clear the whole cache every clear interval. With a refresh interval a clear
+   * interval of 0 keeps the entries until they are evicted.
+   */
+  public void setRefreshInterval(long refreshInterval) {
+    this.refreshInterval = refreshInterval;
+  }
+
+  public long getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  /*
+   * @return whether a cache of Configuration.getCaches() expires its entries one by one
+   * and so needs to know how to reload them
+   */
+  public static boolean refreshes(Cache cache) {
+    if (cache instanceof TableInvalidationCache) {
+      cache = ((TableInvalidationCache) cache).getDelegate();
+    }
+    return cache instanceof ScheduledCache && ((ScheduledCache) cache).getRefreshInterval() > 0;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -58,23 +114,59 @@ public class ScheduledCache implements Cache {
   @Override
   public void putObject(Object key, Object object) {
     clearWhenStale();
-    delegate.putObject(key, object);
+    if (refreshInterval > 0 && object != null) {
+      delegate.putObject(key, newEntry(object, reloads.get(key)));
+    } else {
+      delegate.putObject(key, object);
+    }
   }
 
   @Override
   public Object getObject(Object key) {
-    return clearWhenStale() ? null : delegate.getObject(key);
+    if (refreshInterval <= 0) {
+      return clearWhenStale() ? null : delegate.getObject(key);
+    }
+    Object object = delegate.getObject(key);
+    if (!(object instanceof Entry)) {
+      return object;
+    }
+    Entry entry = (Entry) object;
+    long now = System.currentTimeMillis();
+    if (now >= entry.expireAt) {
+      removeObject(key);
+      // 再查一次，别的线程可能刚放了新的，BlockingCache和CoalescingCache也要知道这是一次未命中
+      object = delegate.getObject(key);
+      return object instanceof Entry ? ((Entry) object).value : object;
+    }
+    if (now >= entry.refreshAt) {
+      refresh(key);
+    }
+    return entry.value;
+  }
+
+  /*
+   * Registers how to reload the value that is about to be put for the key
+   */
+  public void expect(Object key, Reload reload) {
+    if (reloads.size() >= Math.max(MINIMUM_RELOADS, 2 * delegate.getSize())) {
+      // 淘汰掉的条目不会告诉我们，多到这个程度就全部忘掉，条目过期后再查一次就又有了
+      reloads.clear();
+    }
+    reloads.put(key, reload);
   }
 
   @Override
   public Object removeObject(Object key) {
     clearWhenStale();
-    return delegate.removeObject(key);
+    reloads.remove(key);
+    Object object = delegate.removeObject(key);
+    return object instanceof Entry ? ((Entry) object).value : object;
   }
 
   @Override
   public void clear() {
     lastClear = System.currentTimeMillis();
+    reloads.clear();
     delegate.clear();
   }
 
@@ -95,11 +187,106 @@ public class ScheduledCache implements Cache {
 
   private boolean clearWhenStale() {
     //如果到时间了，清空一下缓存
-    if (System.currentTimeMillis() - lastClear > clearInterval) {
+    if (refreshInterval <= 0 && System.currentTimeMillis() - lastClear > clearInterval) {
       clear();
       return true;
     }
     return false;
   }
 
+  private Entry newEntry(Object value, Reload reload) {
+    long refresh = reload != null && reload.refreshInterval != null ? reload.refreshInterval : refreshInterval;
+    long expire = reload != null && reload.flushInterval != null ? reload.flushInterval : clearInterval;
+    long now = System.currentTimeMillis();
+    return new Entry(value, now + refresh, expire > 0 ? now + expire : Long.MAX_VALUE);
+  }
+
+  private void refresh(final Object key) {
+    final Reload reload = reloads.get(key);
+    //每个key同时只有一个后台加载
+    if (reload == null || !reloading.add(key)) {
+      return;
+    }
+    try {
+      refresher().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Object value = reload.loader.call();
+            // 加载的时候被删掉了(比如表被写了)，结果就不要了
+            if (value != null && reloads.get(key) == reload) {
+              delegate.putObject(key, newEntry(value, reload));
+              if (reloads.get(key) != reload) {
+                delegate.removeObject(key);
+              }
+            }
+          } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+              log.debug("Could not reload the key " + key + " of cache " + getId() + ", the old value is kept.  Cause: " + e);
+            }
+          } finally {
+            reloading.remove(key);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      reloading.remove(key);
+      throw e;
+    }
+  }
+
+  private static synchronized ExecutorService refresher() {
+    if (refresher == null) {
+      final AtomicInteger threads = new AtomicInteger();
+      refresher = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "mybatis-cache-refresh-" + threads.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return refresher;
+  }
+
+  /**
+   * How to reload an entry, and its intervals when they are not those of the cache.
+   */
+  public static class Reload {
+
+    private final Callable<?> loader;
+    private final Long flushInterval;
+    private final Long refreshInterval;
+
+    /*
+     * @param loader - runs the statement of the entry again
+     * @param flushInterval - null for the clear interval of the cache
+     * @param refreshInterval - null for the refresh interval of the cache
+     */
+    public Reload(Callable<?> loader, Long flushInterval, Long refreshInterval) {
+      this.loader = loader;
+      this.flushInterval = flushInterval;
+      this.refreshInterval = refreshInterval;
+    }
+
+  }
+
+  //存进去的值带上什么时候重新加载、什么时候过期
+  private static class Entry implements Serializable {
+
+    private static final long serialVersionUID = 4317581254019845513L;
+
+    private final Object value;
+    private final long refreshAt;
+    private final long expireAt;
+
+    Entry(Object value, long refreshAt, long expireAt) {
+      this.value = value;
+      this.refreshAt = refreshAt;
+      this.expireAt = expireAt;
+    }
+
+  }
+
 }
@@ -26,7 +26,9 @@ import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.JavaSerializationCodec;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -36,16 +38,26 @@ import org.apache.ibatis.io.Resources;
  * 序列化缓存
  * 用途是先将对象序列化成2进制，再缓存,好处是将对象压缩了，省内存
  * 坏处是速度慢了
+ * 编码方式可以用codec属性换成更快的，比如COMPACT
  * 
  */
 public class SerializedCache implements Cache {
 
   private Cache delegate;
+  private CacheCodec codec = new JavaSerializationCodec();
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
   }
 
+  public CacheCodec getCodec() {
+    return codec;
+  }
+
+  public void setCodec(CacheCodec codec) {
+    this.codec = codec;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -60,7 +72,7 @@ public class SerializedCache implements Cache {
   public void putObject(Object key, Object object) {
     if (object == null || object instanceof Serializable) {
         //先序列化，再委托被包装者putObject
-      delegate.putObject(key, serialize((Serializable) object));
+      delegate.putObject(key, codec.encode(object));
     } else {
       throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
     }
@@ -70,7 +82,7 @@ public class SerializedCache implements Cache {
   public Object getObject(Object key) {
       //先委托被包装者getObject,再反序列化
     Object object = delegate.getObject(key);
-    return object == null ? null : deserialize((byte[]) object);
+    return object == null ? null : codec.decode((byte[]) object);
   }
 
   @Override
@@ -98,7 +110,10 @@ public class SerializedCache implements Cache {
     return delegate.equals(obj);
   }
 
-  private byte[] serialize(Serializable value) {
+  /*
+   * Also used by the caches that store serialized entries themselves
+   */
+  public static byte[] serialize(Object value) {
     try {
         //序列化核心就是ByteArrayOutputStream
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -112,7 +127,7 @@ public class SerializedCache implements Cache {
     }
   }
 
-  private Serializable deserialize(byte[] value) {
+  public static Serializable deserialize(byte[] value) {
     Serializable result;
     try {
         //反序列化核心就是ByteArrayInputStream
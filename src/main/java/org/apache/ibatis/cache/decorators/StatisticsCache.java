@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Collects the {@link CacheStatistics} of a cache, built on top of the standard decorators
+ * when the cacheStatistics setting is not NONE.
+ */
+public class StatisticsCache implements Cache {
+
+  private final Cache delegate;
+  private final CacheStatistics statistics;
+
+  public StatisticsCache(Cache delegate) {
+    this(delegate, null, null);
+  }
+
+  /*
+   * @param removalCounter - put under the eviction decorators to count evictions, may be null
+   * @param weighed - the eviction decorator that weighs the entries, may be null
+   */
+  public StatisticsCache(Cache delegate, RemovalCounter removalCounter, Cache weighed) {
+    this.delegate = delegate;
+    this.statistics = removalCounter != null ? removalCounter.statistics : new CacheStatistics(delegate.getId());
+    this.statistics.measure(delegate, weighed, removalCounter != null);
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    delegate.putObject(key, object);
+    // 放null只是为了解锁
+    if (object != null) {
+      statistics.recordPut();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    long start = System.nanoTime();
+    Object value = delegate.getObject(key);
+    statistics.recordGet(value != null, System.nanoTime() - start);
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    statistics.recordRemoval();
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Put under the eviction decorators, counts every removal that reaches the stored
+   * entries; those that did not come through the {@link StatisticsCache} are evictions.
+   */
+  public static class RemovalCounter implements Cache {
+
+    private final Cache delegate;
+    private final CacheStatistics statistics;
+
+    public RemovalCounter(Cache delegate) {
+      this.delegate = delegate;
+      this.statistics = new CacheStatistics(delegate.getId());
+    }
+
+    @Override
+    public String getId() {
+      return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+      return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      delegate.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      statistics.recordInnerRemoval();
+      return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+      delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,279 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Table level invalidation, the outermost decorator of the caches built when the
+ * cacheInvalidation setting is TABLE.
+ * <p>
+ * Keeps an index from each table to the keys of the entries read from it, so that a write
+ * removes only the entries of the tables it wrote. An entry put without tables depends on
+ * every table.
+ * <p>
+ * Entries evicted by a decorator built on top of a {@link RemovalTracker} leave the index
+ * at once. For other caches the index is trimmed when the tables are written, and cleared
+ * with the cache if it grows well beyond the number of entries.
+ */
+public class TableInvalidationCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(TableInvalidationCache.class);
+
+  //依赖所有表的缓存项登记在这个名字下
+  private static final String ANY_TABLE = "*";
+  private static final int MINIMUM_UNTRACKED_KEYS = 1024;
+
+  private final Cache delegate;
+  private final boolean tracked;
+  //表 -> 查过这个表的缓存key
+  private final ConcurrentMap<String, Set<Object>> keysByTable = new ConcurrentHashMap<String, Set<Object>>();
+  //缓存key -> 它依赖的表
+  private final ConcurrentMap<Object, String[]> tablesByKey = new ConcurrentHashMap<Object, String[]>();
+
+  public TableInvalidationCache(Cache delegate) {
+    this(delegate, null);
+  }
+
+  public TableInvalidationCache(Cache delegate, RemovalTracker tracker) {
+    this.delegate = delegate;
+    this.tracked = tracker != null;
+    if (tracker != null) {
+      tracker.owner = this;
+    }
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  public Cache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, null);
+  }
+
+  /*
+   * @param tables - the tables the value was read from, null if they are not known
+   */
+  public void putObject(Object key, Object value, String[] tables) {
+    if (value == null) {
+      // 放null只是为了给BlockingCache解锁，没有数据，不用登记
+      forget(key);
+    } else {
+      register(key, tables == null ? new String[] { ANY_TABLE } : tables);
+    }
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    forget(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    forgetAll();
+  }
+
+  /*
+   * Removes the entries that depend on any of the tables
+   *
+   * @param tables - the written tables, null to remove every entry
+   */
+  public void invalidate(Collection<String> tables) {
+    if (tables == null) {
+      clear();
+      return;
+    }
+    int removed = invalidate(ANY_TABLE);
+    for (String table : tables) {
+      removed += invalidate(table);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Removed " + removed + " entries of cache " + getId() + " that depend on " + tables);
+    }
+  }
+
+  private int invalidate(String table) {
+    Set<Object> keys = keysByTable.get(table);
+    if (keys == null) {
+      return 0;
+    }
+    int removed = 0;
+    for (Object key : keys) {
+      if (keys.remove(key)) {
+        removeObject(key);
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /*
+   * @return true if the entry was read from one of the tables
+   */
+  public boolean dependsOn(Object key, Collection<String> tables) {
+    return dependsOn(tablesByKey.get(key), tables);
+  }
+
+  /*
+   * @param dependencies - the tables an entry was read from, null if they are not known
+   */
+  public static boolean dependsOn(String[] dependencies, Collection<String> tables) {
+    if (dependencies == null) {
+      return true;
+    }
+    for (String table : dependencies) {
+      if (ANY_TABLE.equals(table) || tables.contains(table)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Set<Object> getKeys(String table) {
+    Set<Object> keys = keysByTable.get(table);
+    return keys == null ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void register(Object key, String[] tables) {
+    forget(key);
+    if (!tracked && tablesByKey.size() >= Math.max(MINIMUM_UNTRACKED_KEYS, 2 * delegate.getSize())) {
+      // 没法知道哪些key已经被淘汰了，整个清掉
+      if (log.isDebugEnabled()) {
+        log.debug("Clearing cache " + getId() + ", its table index outgrew its entries.");
+      }
+      clear();
+    }
+    tablesByKey.put(key, tables);
+    for (String table : tables) {
+      Set<Object> keys = keysByTable.get(table);
+      if (keys == null) {
+        Set<Object> created = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        keys = keysByTable.putIfAbsent(table, created);
+        if (keys == null) {
+          keys = created;
+        }
+      }
+      keys.add(key);
+    }
+  }
+
+  private void forget(Object key) {
+    String[] tables = tablesByKey.remove(key);
+    if (tables != null) {
+      for (String table : tables) {
+        Set<Object> keys = keysByTable.get(table);
+        if (keys != null) {
+          keys.remove(key);
+        }
+      }
+    }
+  }
+
+  private void forgetAll() {
+    tablesByKey.clear();
+    keysByTable.clear();
+  }
+
+  /**
+   * Put under the eviction decorators so that the entries they evict leave the index
+   * of the {@link TableInvalidationCache} built on top of them.
+   */
+  public static class RemovalTracker implements Cache {
+
+    private final Cache delegate;
+    private volatile TableInvalidationCache owner;
+
+    public RemovalTracker(Cache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+      return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+      return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      delegate.putObject(key, value);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      if (owner != null) {
+        owner.forget(key);
+      }
+      return delegate.removeObject(key);
+    }
+
+    @Override
+    public void clear() {
+      if (owner != null) {
+        owner.forgetAll();
+      }
+      delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+
+  }
+
+}
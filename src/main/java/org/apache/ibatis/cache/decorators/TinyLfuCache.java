@@ -0,0 +1,395 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * W-TinyLFU cache decorator, selected with eviction="TINYLFU".
+ * <p>
+ * New entries go to a small LRU window. When the window is full its oldest entry
+ * competes with the oldest entry of the main space, and the one a frequency sketch has
+ * seen more often is kept. The main space is a segmented LRU: an entry read while on
+ * probation moves to the protected segment. A burst of keys read once cannot flush the
+ * entries that are read all the time.
+ * <p>
+ * The entries are kept in a ConcurrentHashMap of this decorator rather than in the
+ * decorated cache, which only provides the id. Removals and evictions are still passed
+ * to it, so that the decorators underneath see them. Reads do not lock: they are recorded in
+ * lossy striped buffers and replayed on the LRU lists by whichever thread holds the
+ * eviction lock next. Writes take that lock. The cache is safe for concurrent use without
+ * a SynchronizedCache.
+ */
+public class TinyLfuCache implements Cache {
+
+  private static final int READ_BUFFER_SIZE = 16;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  private static final int READ_BUFFER_COUNT = 4 * Integer.highestOneBit(Runtime.getRuntime().availableProcessors());
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+  private static final int REMOVED = -1;
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, Node> data = new ConcurrentHashMap<Object, Node>();
+  private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_COUNT];
+  //下面的字段都由evictionLock保护
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AccessOrderDeque window = new AccessOrderDeque();
+  private final AccessOrderDeque probation = new AccessOrderDeque();
+  private final AccessOrderDeque protectedDeque = new AccessOrderDeque();
+  private final FrequencySketch sketch;
+  private int maximumSize;
+  private int windowMaximum;
+  private int protectedMaximum;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    for (int i = 0; i < readBuffers.length; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+    this.sketch = new FrequencySketch(1024);
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return data.size();
+  }
+
+  public void setSize(int size) {
+    evictionLock.lock();
+    try {
+      maximumSize = Math.max(1, size);
+      //1%给窗口，剩下的80%给受保护段
+      windowMaximum = Math.max(1, maximumSize / 100);
+      protectedMaximum = (maximumSize - windowMaximum) * 4 / 5;
+      sketch.ensureCapacity(maximumSize);
+      drainReadBuffers();
+      while (protectedDeque.size > protectedMaximum) {
+        demote(protectedDeque.first);
+      }
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      Node node = data.get(key);
+      if (node != null) {
+        node.value = value;
+        onAccess(node);
+        return;
+      }
+      node = new Node(key, value);
+      data.put(key, node);
+      sketch.increment(key);
+      node.queue = WINDOW;
+      window.addLast(node);
+      evict();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = data.get(key);
+    if (node == null) {
+      return null;
+    }
+    ReadBuffer buffer = readBuffers[probe() & (READ_BUFFER_COUNT - 1)];
+    if (!buffer.offer(node) && evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    evictionLock.lock();
+    try {
+      Node node = data.remove(key);
+      delegate.removeObject(key);
+      if (node == null) {
+        return null;
+      }
+      unlink(node);
+      return node.value;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    evictionLock.lock();
+    try {
+      drainReadBuffers();
+      data.clear();
+      // reads recorded from now on must not move the old nodes
+      window.clear();
+      probation.clear();
+      protectedDeque.clear();
+      delegate.clear();
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * Moves the oldest window entries to probation, then evicts until the cache fits,
+   * letting each of those entries compete with the oldest entry on probation.
+   */
+  private void evict() {
+    int candidates = 0;
+    while (window.size > windowMaximum) {
+      Node node = window.first;
+      window.remove(node);
+      node.queue = PROBATION;
+      probation.addLast(node);
+      candidates++;
+    }
+    while (window.size + probation.size + protectedDeque.size > maximumSize) {
+      Node victim = probation.first;
+      Node candidate = candidates > 0 ? probation.last : null;
+      if (victim == null) {
+        evictEntry(protectedDeque.first != null ? protectedDeque.first : window.first);
+      } else if (candidate == null) {
+        evictEntry(victim);
+      } else if (candidate == victim) {
+        evictEntry(victim);
+        candidates--;
+      } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        evictEntry(victim);
+      } else {
+        evictEntry(candidate);
+        candidates--;
+      }
+    }
+  }
+
+  private void evictEntry(Node node) {
+    data.remove(node.key, node);
+    unlink(node);
+    // 让下面的RemovalTracker和RemovalCounter知道淘汰了哪个key
+    delegate.removeObject(node.key);
+  }
+
+  private void unlink(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        window.remove(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedDeque.remove(node);
+        break;
+      default:
+        break;
+    }
+    node.queue = REMOVED;
+  }
+
+  private void drainReadBuffers() {
+    for (ReadBuffer buffer : readBuffers) {
+      buffer.drainTo(this);
+    }
+  }
+
+  private void onAccess(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        sketch.increment(node.key);
+        window.moveToBack(node);
+        break;
+      case PROBATION:
+        sketch.increment(node.key);
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedDeque.addLast(node);
+        while (protectedDeque.size > protectedMaximum) {
+          demote(protectedDeque.first);
+        }
+        break;
+      case PROTECTED:
+        sketch.increment(node.key);
+        protectedDeque.moveToBack(node);
+        break;
+      default:
+        // evicted or removed after it was read
+        break;
+    }
+  }
+
+  private void demote(Node node) {
+    protectedDeque.remove(node);
+    node.queue = PROBATION;
+    probation.addLast(node);
+  }
+
+  private static int probe() {
+    int h = (int) Thread.currentThread().getId() * 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Node {
+
+    final Object key;
+    volatile Object value;
+    // the fields below are guarded by the eviction lock
+    int queue;
+    Node prev;
+    Node next;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+
+  }
+
+  /*
+   * A doubly linked list of nodes, oldest first
+   */
+  private static final class AccessOrderDeque {
+
+    Node first;
+    Node last;
+    int size;
+
+    void addLast(Node node) {
+      node.prev = last;
+      node.next = null;
+      if (last == null) {
+        first = node;
+      } else {
+        last.next = node;
+      }
+      last = node;
+      size++;
+    }
+
+    void remove(Node node) {
+      if (node.prev == null) {
+        first = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        last = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      size--;
+    }
+
+    void moveToBack(Node node) {
+      if (node != last) {
+        remove(node);
+        addLast(node);
+      }
+    }
+
+    void clear() {
+      for (Node node = first; node != null;) {
+        Node next = node.next;
+        node.queue = REMOVED;
+        node.prev = null;
+        node.next = null;
+        node = next;
+      }
+      first = null;
+      last = null;
+      size = 0;
+    }
+
+  }
+
+  /*
+   * A bounded buffer of reads written by any thread and drained under the eviction lock.
+   * A read is dropped when the buffer is full or another thread takes the slot first.
+   */
+  private static final class ReadBuffer {
+
+    private final AtomicLong writeCounter = new AtomicLong();
+    private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private volatile long readCounter;
+
+    /*
+     * @return false if the buffer is full and should be drained
+     */
+    boolean offer(Node node) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      if (tail - head >= READ_BUFFER_SIZE) {
+        return false;
+      }
+      if (writeCounter.compareAndSet(tail, tail + 1)) {
+        buffer.lazySet((int) tail & READ_BUFFER_MASK, node);
+      }
+      return true;
+    }
+
+    void drainTo(TinyLfuCache cache) {
+      long head = readCounter;
+      long tail = writeCounter.get();
+      for (; head < tail; head++) {
+        int index = (int) head & READ_BUFFER_MASK;
+        Node node = buffer.get(index);
+        if (node == null) {
+          // the slot was taken but the write is not visible yet
+          break;
+        }
+        buffer.lazySet(index, null);
+        cache.onAccess(node);
+      }
+      readCounter = head;
+    }
+
+  }
+
+}
@@ -15,8 +15,10 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -30,6 +32,7 @@ import org.apache.ibatis.cache.Cache;
  * Entries are sent to the cache when commit is called or discarded if the Session is rolled back. 
  * Blocking cache support has been added. Therefore any get() that returns a cache miss 
  * will be followed by a put() so any lock associated with the key can be released. 
+ * A miss whose query fails is released at once by fail().
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
@@ -47,6 +50,11 @@ public class TransactionalCache implements Cache {
   //commit时要添加的元素
   private Map<Object, Object> entriesToAddOnCommit;
   private Set<Object> entriesMissedInCache;
+  //按表失效时，commit时要失效的表，和要添加的元素依赖的表
+  private Set<String> tablesToInvalidateOnCommit;
+  private Map<Object, String[]> tablesOfEntriesToAdd;
+  //按条目过期的缓存，commit时告诉它要添加的元素怎么重新加载
+  private Map<Object, ScheduledCache.Reload> reloadsOfEntriesToAdd;
 
   public TransactionalCache(Cache delegate) {
     this.delegate = delegate;
@@ -54,6 +62,9 @@ public class TransactionalCache implements Cache {
     this.clearOnCommit = false;
     this.entriesToAddOnCommit = new HashMap<Object, Object>();
     this.entriesMissedInCache = new HashSet<Object>();
+    this.tablesToInvalidateOnCommit = new HashSet<String>();
+    this.tablesOfEntriesToAdd = new HashMap<Object, String[]>();
+    this.reloadsOfEntriesToAdd = new HashMap<Object, ScheduledCache.Reload>();
   }
 
   @Override
@@ -74,7 +85,7 @@ public class TransactionalCache implements Cache {
       entriesMissedInCache.add(key);
     }
     // issue #146
-    if (clearOnCommit) {
+    if (clearOnCommit || isInvalidated(key)) {
       return null;
     } else {
       return object;
@@ -88,7 +99,39 @@ public class TransactionalCache implements Cache {
 
   @Override
   public void putObject(Object key, Object object) {
+    putObject(key, object, null);
+  }
+
+  /*
+   * @param tables - the tables the object was read from, null if they are not known
+   */
+  public void putObject(Object key, Object object, String[] tables) {
+    putObject(key, object, tables, null);
+  }
+
+  /*
+   * @param reload - how a cache with a refresh interval reloads the object, may be null
+   */
+  public void putObject(Object key, Object object, String[] tables, ScheduledCache.Reload reload) {
     entriesToAddOnCommit.put(key, object);
+    tablesOfEntriesToAdd.put(key, tables);
+    if (reload != null && find(ScheduledCache.class) != null) {
+      reloadsOfEntriesToAdd.put(key, reload);
+    }
+  }
+
+  /*
+   * Releases a missed key whose query failed, at once: waiters of a CoalescingCache
+   * get the failure, a BlockingCache unlocks the key
+   */
+  public void fail(Object key, Throwable cause) {
+    entriesMissedInCache.remove(key);
+    CoalescingCache coalescingCache = find(CoalescingCache.class);
+    if (coalescingCache != null) {
+      coalescingCache.fail(key, cause);
+    } else {
+      delegate.putObject(key, null);
+    }
   }
 
   @Override
@@ -100,12 +143,38 @@ public class TransactionalCache implements Cache {
   public void clear() {
     clearOnCommit = true;
     entriesToAddOnCommit.clear();
+    tablesOfEntriesToAdd.clear();
+    reloadsOfEntriesToAdd.clear();
+  }
+
+  /*
+   * Removes the entries read from the tables at commit, or every entry if the
+   * tables are not known or the cache does not track them
+   */
+  public void invalidate(String[] tables) {
+    if (tables == null || !(delegate instanceof TableInvalidationCache)) {
+      clear();
+      return;
+    }
+    tablesToInvalidateOnCommit.addAll(Arrays.asList(tables));
+    // 本事务之前查出来的、依赖这些表的结果也不能放进缓存了
+    Iterator<Map.Entry<Object, String[]>> iterator = tablesOfEntriesToAdd.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Object, String[]> entry = iterator.next();
+      if (TableInvalidationCache.dependsOn(entry.getValue(), tablesToInvalidateOnCommit)) {
+        entriesToAddOnCommit.remove(entry.getKey());
+        reloadsOfEntriesToAdd.remove(entry.getKey());
+        iterator.remove();
+      }
+    }
   }
 
   //多了commit方法，提供事务功能
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+    } else if (!tablesToInvalidateOnCommit.isEmpty()) {
+      ((TableInvalidationCache) delegate).invalidate(tablesToInvalidateOnCommit);
     }
     flushPendingEntries();
     reset();
@@ -116,15 +185,55 @@ public class TransactionalCache implements Cache {
     reset();
   }
 
+  private boolean isInvalidated(Object key) {
+    return !tablesToInvalidateOnCommit.isEmpty()
+        && ((TableInvalidationCache) delegate).dependsOn(key, tablesToInvalidateOnCommit);
+  }
+
+  /*
+   * The decorator of the given type among the outer decorators, that the builder puts on
+   * top of the standard ones: table level invalidation, per entry expiration, statistics,
+   * coalescing
+   */
+  private <T extends Cache> T find(Class<T> type) {
+    Cache cache = delegate;
+    while (!type.isInstance(cache)) {
+      if (cache instanceof TableInvalidationCache) {
+        cache = ((TableInvalidationCache) cache).getDelegate();
+      } else if (cache instanceof ScheduledCache && ((ScheduledCache) cache).getRefreshInterval() > 0) {
+        cache = ((ScheduledCache) cache).getDelegate();
+      } else if (cache instanceof StatisticsCache) {
+        cache = ((StatisticsCache) cache).getDelegate();
+      } else {
+        return null;
+      }
+    }
+    if (cache instanceof ScheduledCache && ((ScheduledCache) cache).getRefreshInterval() <= 0) {
+      return null;
+    }
+    return type.cast(cache);
+  }
+
   private void reset() {
     clearOnCommit = false;
     entriesToAddOnCommit.clear();
     entriesMissedInCache.clear();
+    tablesToInvalidateOnCommit.clear();
+    tablesOfEntriesToAdd.clear();
+    reloadsOfEntriesToAdd.clear();
   }
 
   private void flushPendingEntries() {
+    ScheduledCache scheduledCache = reloadsOfEntriesToAdd.isEmpty() ? null : find(ScheduledCache.class);
     for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
+      if (scheduledCache != null && reloadsOfEntriesToAdd.containsKey(entry.getKey())) {
+        scheduledCache.expect(entry.getKey(), reloadsOfEntriesToAdd.get(entry.getKey()));
+      }
+      if (delegate instanceof TableInvalidationCache) {
+        ((TableInvalidationCache) delegate).putObject(entry.getKey(), entry.getValue(), tablesOfEntriesToAdd.get(entry.getKey()));
+      } else {
+        delegate.putObject(entry.getKey(), entry.getValue());
+      }
     }
     for (Object entry : entriesMissedInCache) {
       if (!entriesToAddOnCommit.containsKey(entry)) {
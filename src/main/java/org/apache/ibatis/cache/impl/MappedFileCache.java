@@ -0,0 +1,576 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import static org.apache.ibatis.cache.decorators.SerializedCache.deserialize;
+import static org.apache.ibatis.cache.decorators.SerializedCache.serialize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * A cache kept in a memory-mapped file, selected with type="MAPPED_FILE", so that its
+ * entries survive a restart of the application.
+ * <p>
+ * The file of a namespace is an append-only log of serialized entries: a put appends the
+ * entry, a remove appends a tombstone. An index of the serialized keys and the positions
+ * of their latest entries is kept on the heap and rebuilt from the log when the cache is
+ * opened. When the file is full the live entries are moved to its start; if that does not
+ * make enough room the cache is cleared.
+ * <p>
+ * The file header holds a fingerprint of the version property and of the statements of the
+ * namespace: their SQL, result maps and mapper files. When it differs from the one computed
+ * at startup, the entries were cached for other statements and the file is emptied.
+ * <p>
+ * Values are serialized like SerializedCache does, a get returns a copy. Only one cache
+ * instance, in one process, may use a directory at a time.
+ */
+public class MappedFileCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(MappedFileCache.class);
+
+  // file header: magic, format, fingerprint (SHA-1), committed end of the log
+  private static final int MAGIC = 0x4d424643;
+  private static final int FORMAT = 1;
+  private static final int FINGERPRINT_OFFSET = 8;
+  private static final int FINGERPRINT_LENGTH = 20;
+  private static final int END_OFFSET = 28;
+  static final int HEADER_SIZE = 32;
+  // record header: length of the record, CRC32 of the rest, key length, value length
+  static final int RECORD_HEADER_SIZE = 16;
+  private static final int NULL_VALUE = -1;
+  private static final int TOMBSTONE = -2;
+
+  private final String id;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  //下面的字段由lock保护
+  private String directory = System.getProperty("java.io.tmpdir") + File.separator + "mybatis-cache";
+  private int fileSize = 64 * 1024 * 1024;
+  private String version = "";
+  private Configuration configuration;
+  // null until the cache is used
+  private volatile MappedByteBuffer buffer;
+  private byte[] fingerprint;
+  private int end;
+  private final Map<Key, Integer> index = new HashMap<Key, Integer>();
+
+  public MappedFileCache(String id) {
+    this.id = id;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /*
+   * The directory of the cache files, by default mybatis-cache in java.io.tmpdir
+   */
+  public void setDirectory(String directory) {
+    lock.writeLock().lock();
+    try {
+      this.directory = directory;
+      buffer = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * The size of the file in bytes, 64 MB by default
+   */
+  public void setFileSize(int fileSize) {
+    if (fileSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("The fileSize of a MappedFileCache must be larger than " + (HEADER_SIZE + RECORD_HEADER_SIZE));
+    }
+    lock.writeLock().lock();
+    try {
+      this.fileSize = fileSize;
+      buffer = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Changing it discards the entries stored by the application with another version
+   */
+  public void setVersion(String version) {
+    lock.writeLock().lock();
+    try {
+      this.version = version == null ? "" : version;
+      buffer = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * Set by CacheBuilder, the statements of the namespace are part of the fingerprint
+   */
+  public void setConfiguration(Configuration configuration) {
+    lock.writeLock().lock();
+    try {
+      this.configuration = configuration;
+      buffer = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public int getFileSize() {
+    return fileSize;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public File getFile() {
+    return new File(directory, id.replaceAll("[^A-Za-z0-9._-]", "_") + ".cache");
+  }
+
+  @Override
+  public int getSize() {
+    ensureOpen();
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("MappedFileCache cannot store a non-serializable object: " + value);
+    }
+    Key k = new Key(serialize(key));
+    byte[] valueBytes = value == null ? null : serialize(value);
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      int length = RECORD_HEADER_SIZE + k.bytes.length + (valueBytes == null ? 0 : valueBytes.length);
+      if (length > fileSize - HEADER_SIZE) {
+        // larger than the file
+        if (index.remove(k) != null) {
+          makeRoom(RECORD_HEADER_SIZE + k.bytes.length);
+          append(k.bytes, null, TOMBSTONE);
+        }
+        return;
+      }
+      // 旧的记录留在日志里，压缩时丢掉
+      index.remove(k);
+      makeRoom(length);
+      index.put(k, append(k.bytes, valueBytes, valueBytes == null ? NULL_VALUE : valueBytes.length));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Key k = new Key(serialize(key));
+    ensureOpen();
+    byte[] valueBytes;
+    lock.readLock().lock();
+    try {
+      Integer position = index.get(k);
+      if (position == null) {
+        return null;
+      }
+      valueBytes = readValue(position);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return valueBytes == null ? null : deserialize(valueBytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Key k = new Key(serialize(key));
+    ensureOpen();
+    byte[] valueBytes;
+    lock.writeLock().lock();
+    try {
+      Integer position = index.remove(k);
+      if (position == null) {
+        return null;
+      }
+      valueBytes = readValue(position);
+      int length = RECORD_HEADER_SIZE + k.bytes.length;
+      if (!makeRoom(length)) {
+        // 压缩已经丢掉了旧的记录，不需要墓碑
+        return valueBytes == null ? null : deserialize(valueBytes);
+      }
+      append(k.bytes, null, TOMBSTONE);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return valueBytes == null ? null : deserialize(valueBytes);
+  }
+
+  @Override
+  public void clear() {
+    ensureOpen();
+    lock.writeLock().lock();
+    try {
+      reset();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void ensureOpen() {
+    if (buffer == null) {
+      lock.writeLock().lock();
+      try {
+        if (buffer == null) {
+          open();
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  private void open() {
+    File file = getFile();
+    file.getParentFile().mkdirs();
+    MappedByteBuffer mapped;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        // the mapping stays valid after the channel is closed
+        mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      throw new CacheException("Error opening the cache file " + file + ".  Cause: " + e, e);
+    }
+    index.clear();
+    fingerprint = fingerprint();
+    buffer = mapped;
+    if (isValidHeader()) {
+      replay();
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug("Discarding the entries of cache " + id + " in " + file + ", they were stored for other statements.");
+      }
+      reset();
+    }
+  }
+
+  private boolean isValidHeader() {
+    if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+      return false;
+    }
+    byte[] stored = new byte[FINGERPRINT_LENGTH];
+    read(FINGERPRINT_OFFSET, stored);
+    int committed = buffer.getInt(END_OFFSET);
+    return Arrays.equals(stored, fingerprint) && committed >= HEADER_SIZE && committed <= fileSize;
+  }
+
+  /*
+   * Rebuilds the index from the log. A record that is cut short or does not match its
+   * checksum ends the log.
+   */
+  private void replay() {
+    int committed = buffer.getInt(END_OFFSET);
+    int position = HEADER_SIZE;
+    while (position < committed) {
+      int length = buffer.getInt(position);
+      if (length < RECORD_HEADER_SIZE || length > committed - position || !isIntact(position, length)) {
+        log.warn("Cache file " + getFile() + " is damaged at " + position + ", dropping the entries after it.");
+        break;
+      }
+      Key key = new Key(readKey(position));
+      if (buffer.getInt(position + 12) == TOMBSTONE) {
+        index.remove(key);
+      } else {
+        index.put(key, position);
+      }
+      position += length;
+    }
+    setEnd(position);
+  }
+
+  private void reset() {
+    index.clear();
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, FORMAT);
+    ByteBuffer header = buffer.duplicate();
+    header.position(FINGERPRINT_OFFSET);
+    header.put(fingerprint);
+    setEnd(HEADER_SIZE);
+  }
+
+  /*
+   * @return false if the live entries had to be moved or dropped to make room
+   */
+  private boolean makeRoom(int length) {
+    if (length <= fileSize - end) {
+      return true;
+    }
+    compact();
+    if (length > fileSize - end) {
+      reset();
+    }
+    return false;
+  }
+
+  /*
+   * Moves the live records to the start of the log
+   */
+  private void compact() {
+    int target = HEADER_SIZE;
+    int position = HEADER_SIZE;
+    while (position < end) {
+      int length = buffer.getInt(position);
+      if (buffer.getInt(position + 12) != TOMBSTONE) {
+        Key key = new Key(readKey(position));
+        Integer current = index.get(key);
+        if (current != null && current.intValue() == position) {
+          if (target != position) {
+            byte[] record = new byte[length];
+            read(position, record);
+            ByteBuffer dst = buffer.duplicate();
+            dst.position(target);
+            dst.put(record);
+            index.put(key, target);
+          }
+          target += length;
+        }
+      }
+      position += length;
+    }
+    setEnd(target);
+  }
+
+  private int append(byte[] keyBytes, byte[] valueBytes, int valueLength) {
+    int position = end;
+    int length = RECORD_HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+    ByteBuffer record = buffer.duplicate();
+    record.position(position + 8);
+    record.putInt(keyBytes.length);
+    record.putInt(valueLength);
+    record.put(keyBytes);
+    if (valueBytes != null) {
+      record.put(valueBytes);
+    }
+    buffer.putInt(position, length);
+    buffer.putInt(position + 4, checksum(position, length));
+    // 记录写完才提交，崩溃时只会丢掉最后一条
+    setEnd(position + length);
+    return position;
+  }
+
+  private void setEnd(int end) {
+    this.end = end;
+    buffer.putInt(END_OFFSET, end);
+  }
+
+  private boolean isIntact(int position, int length) {
+    int keyLength = buffer.getInt(position + 8);
+    int valueLength = buffer.getInt(position + 12);
+    int expected = RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    return keyLength >= 0 && valueLength >= TOMBSTONE && expected == length
+        && buffer.getInt(position + 4) == checksum(position, length);
+  }
+
+  private int checksum(int position, int length) {
+    byte[] bytes = new byte[length - 8];
+    read(position + 8, bytes);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private byte[] readKey(int position) {
+    byte[] keyBytes = new byte[buffer.getInt(position + 8)];
+    read(position + RECORD_HEADER_SIZE, keyBytes);
+    return keyBytes;
+  }
+
+  private byte[] readValue(int position) {
+    int keyLength = buffer.getInt(position + 8);
+    int valueLength = buffer.getInt(position + 12);
+    if (valueLength < 0) {
+      return null;
+    }
+    byte[] valueBytes = new byte[valueLength];
+    read(position + RECORD_HEADER_SIZE + keyLength, valueBytes);
+    return valueBytes;
+  }
+
+  private void read(int position, byte[] bytes) {
+    // 读锁下可能有多个线程同时读，不能动buffer的position
+    ByteBuffer src = buffer.duplicate();
+    src.position(position);
+    src.get(bytes);
+  }
+
+  /*
+   * SHA-1 of the version and of what the statements using this cache depend on
+   */
+  private byte[] fingerprint() {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new CacheException("Error computing the fingerprint of cache " + id + ".  Cause: " + e, e);
+    }
+    update(digest, version);
+    if (configuration != null) {
+      Map<String, MappedStatement> statements = new TreeMap<String, MappedStatement>();
+      // 值里有缩略名对应的重复语句，还有Ambiguity
+      for (Object value : configuration.getMappedStatements()) {
+        if (value instanceof MappedStatement) {
+          MappedStatement ms = (MappedStatement) value;
+          if (ms.getCache() != null && id.equals(ms.getCache().getId())) {
+            statements.put(ms.getId(), ms);
+          }
+        }
+      }
+      Set<String> resources = new TreeSet<String>();
+      for (MappedStatement ms : statements.values()) {
+        update(digest, describe(ms));
+        if (ms.getResource() != null) {
+          resources.add(ms.getResource());
+        }
+      }
+      // 动态SQL拿不到文本，用mapper文件的内容代替
+      for (String resource : resources) {
+        update(digest, resource);
+        updateWithResource(digest, resource);
+      }
+    }
+    return digest.digest();
+  }
+
+  private static String describe(MappedStatement ms) {
+    StringBuilder description = new StringBuilder();
+    description.append(ms.getId()).append(' ').append(ms.getSqlCommandType()).append(' ').append(ms.getStatementType());
+    SqlSource sqlSource = ms.getSqlSource();
+    description.append(' ').append(sqlSource.getClass().getName());
+    if (sqlSource instanceof StaticSqlSource || sqlSource instanceof RawSqlSource) {
+      description.append(' ').append(sqlSource.getBoundSql(null).getSql());
+    }
+    for (ResultMap resultMap : ms.getResultMaps()) {
+      description.append(' ').append(resultMap.getId()).append(' ').append(resultMap.getType().getName());
+      for (ResultMapping mapping : resultMap.getResultMappings()) {
+        description.append(' ').append(mapping.getProperty()).append('=').append(mapping.getColumn())
+            .append(':').append(mapping.getJavaType() == null ? null : mapping.getJavaType().getName())
+            .append(':').append(mapping.getNestedResultMapId()).append(':').append(mapping.getNestedQueryId());
+      }
+    }
+    return description.toString();
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    try {
+      digest.update(value.getBytes("UTF-8"));
+      digest.update((byte) 0);
+    } catch (UnsupportedEncodingException e) {
+      throw new CacheException("Error computing the fingerprint of a cache.  Cause: " + e, e);
+    }
+  }
+
+  private static void updateWithResource(MessageDigest digest, String resource) {
+    try {
+      InputStream in = Resources.getResourceAsStream(resource);
+      try {
+        byte[] bytes = new byte[4096];
+        int read;
+        while ((read = in.read(bytes)) != -1) {
+          digest.update(bytes, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // annotated mappers and mapper files given by url are not on the classpath
+    }
+  }
+
+  /*
+   * Serialized key, compared by content
+   */
+  private static final class Key {
+
+    private final byte[] bytes;
+    private final int hash;
+
+    Key(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.equals(bytes, ((Key) obj).bytes);
+    }
+
+  }
+
+}
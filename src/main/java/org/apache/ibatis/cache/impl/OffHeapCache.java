@@ -0,0 +1,358 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import static org.apache.ibatis.cache.decorators.SerializedCache.deserialize;
+import static org.apache.ibatis.cache.decorators.SerializedCache.serialize;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * A cache that keeps serialized entries outside of the Java heap, in direct ByteBuffer
+ * slabs, selected with type="OFFHEAP". The heap only holds an open addressing index of
+ * key hashes and chunk positions, so that large caches do not lengthen GC pauses.
+ * <p>
+ * Keys and values are serialized; a get returns a copy, as a read-write cache does.
+ * Keys are matched by their hash code and their serialized bytes. Once capacity bytes are
+ * in use, entries of the same size are evicted with the CLOCK algorithm, see
+ * {@link SlabAllocator}. An entry larger than a slab is not cached.
+ * <p>
+ * Reads share a read lock, writes take the write lock, so no SynchronizedCache is needed.
+ */
+public class OffHeapCache implements Cache {
+
+  private static final long EMPTY = -1L;
+  private static final long DELETED = -2L;
+
+  private final String id;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  //下面的字段由lock保护
+  private int slabSize = 1024 * 1024;
+  private long capacity = 64L * 1024 * 1024;
+  private int maximumEntries = Integer.MAX_VALUE;
+  private SlabAllocator allocator;
+  // the index: key hash and chunk of each entry, EMPTY or DELETED
+  private int[] hashes;
+  private long[] chunks;
+  private int count;
+  private int deleted;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+    reset();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.readLock().lock();
+    try {
+      return count;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * The maximum number of entries, unlimited by default
+   */
+  public void setSize(int size) {
+    lock.writeLock().lock();
+    try {
+      maximumEntries = size;
+      while (count > maximumEntries) {
+        allocator.evictOne(0);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * The size of a slab in bytes, which is the largest entry the cache keeps. Clears the cache.
+   */
+  public void setSlabSize(int slabSize) {
+    lock.writeLock().lock();
+    try {
+      this.slabSize = slabSize;
+      reset();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /*
+   * The number of off-heap bytes the cache may allocate. Clears the cache.
+   */
+  public void setCapacity(long capacity) {
+    lock.writeLock().lock();
+    try {
+      this.capacity = capacity;
+      reset();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int getSlabSize() {
+    return slabSize;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache cannot store a non-serializable object: " + value);
+    }
+    byte[] keyBytes = serialize(key);
+    byte[] valueBytes = value == null ? null : serialize(value);
+    int hash = key.hashCode();
+    int length = SlabAllocator.HEADER_SIZE + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+    lock.writeLock().lock();
+    try {
+      int slot = find(hash, keyBytes);
+      if (slot >= 0) {
+        removeSlot(slot);
+      }
+      if (count >= maximumEntries) {
+        allocator.evictOne(length);
+      }
+      long chunk = allocator.allocate(length);
+      if (chunk == SlabAllocator.NO_CHUNK) {
+        // larger than a slab
+        return;
+      }
+      allocator.write(chunk, hash, keyBytes, valueBytes);
+      insert(hash, chunk);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] keyBytes = serialize(key);
+    byte[] valueBytes;
+    lock.readLock().lock();
+    try {
+      int slot = find(key.hashCode(), keyBytes);
+      if (slot < 0) {
+        return null;
+      }
+      allocator.touch(chunks[slot]);
+      valueBytes = allocator.readValue(chunks[slot]);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return valueBytes == null ? null : deserialize(valueBytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    byte[] keyBytes = serialize(key);
+    byte[] valueBytes;
+    lock.writeLock().lock();
+    try {
+      int slot = find(key.hashCode(), keyBytes);
+      if (slot < 0) {
+        return null;
+      }
+      valueBytes = allocator.readValue(chunks[slot]);
+      removeSlot(slot);
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return valueBytes == null ? null : deserialize(valueBytes);
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      allocator.clear();
+      clearIndex(16);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+   * @return the bytes taken by the keys, values and chunk headers of the entries
+   */
+  public long getBytesUsed() {
+    lock.readLock().lock();
+    try {
+      return allocator.getBytesUsed();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * @return the off-heap bytes allocated in slabs, used or not
+   */
+  public long getBytesAllocated() {
+    lock.readLock().lock();
+    try {
+      return allocator.getBytesAllocated();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /*
+   * @return the share of the chunks holding entries that is wasted because entries are
+   *   smaller than their chunk, between 0 and 1
+   */
+  public double getFragmentation() {
+    lock.readLock().lock();
+    try {
+      long chunkBytes = allocator.getChunkBytesUsed();
+      return chunkBytes == 0 ? 0 : 1 - (double) allocator.getBytesUsed() / chunkBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private void reset() {
+    // a capacity below one slab makes a single smaller slab
+    allocator = new SlabAllocator((int) Math.min(slabSize, capacity), capacity, new SlabAllocator.Listener() {
+      @Override
+      public void evicted(long chunk) {
+        removeFromIndex(chunk);
+      }
+    });
+    clearIndex(16);
+  }
+
+  private void clearIndex(int length) {
+    hashes = new int[length];
+    chunks = new long[length];
+    Arrays.fill(chunks, EMPTY);
+    count = 0;
+    deleted = 0;
+  }
+
+  private int find(int hash, byte[] keyBytes) {
+    int mask = chunks.length - 1;
+    for (int i = spread(hash) & mask;; i = (i + 1) & mask) {
+      long chunk = chunks[i];
+      if (chunk == EMPTY) {
+        return -1;
+      }
+      if (chunk != DELETED && hashes[i] == hash && allocator.keyEquals(chunk, keyBytes)) {
+        return i;
+      }
+    }
+  }
+
+  private void insert(int hash, long chunk) {
+    if ((count + deleted + 1) * 2 > chunks.length) {
+      rehash(count * 4 > chunks.length ? chunks.length * 2 : chunks.length);
+    }
+    int mask = chunks.length - 1;
+    int i = spread(hash) & mask;
+    while (chunks[i] != EMPTY && chunks[i] != DELETED) {
+      i = (i + 1) & mask;
+    }
+    if (chunks[i] == DELETED) {
+      deleted--;
+    }
+    hashes[i] = hash;
+    chunks[i] = chunk;
+    count++;
+  }
+
+  private void rehash(int length) {
+    int[] oldHashes = hashes;
+    long[] oldChunks = chunks;
+    clearIndex(length);
+    for (int i = 0; i < oldChunks.length; i++) {
+      if (oldChunks[i] != EMPTY && oldChunks[i] != DELETED) {
+        insert(oldHashes[i], oldChunks[i]);
+      }
+    }
+  }
+
+  private void removeSlot(int slot) {
+    allocator.free(chunks[slot]);
+    chunks[slot] = DELETED;
+    count--;
+    deleted++;
+  }
+
+  /*
+   * Called by the allocator, which frees the chunk itself
+   */
+  private void removeFromIndex(long chunk) {
+    int mask = chunks.length - 1;
+    for (int i = spread(allocator.keyHash(chunk)) & mask; chunks[i] != EMPTY; i = (i + 1) & mask) {
+      if (chunks[i] == chunk) {
+        chunks[i] = DELETED;
+        count--;
+        deleted++;
+        return;
+      }
+    }
+  }
+
+  private static int spread(int h) {
+    h ^= (h >>> 20) ^ (h >>> 12);
+    return h ^ (h >>> 7) ^ (h >>> 4);
+  }
+
+}
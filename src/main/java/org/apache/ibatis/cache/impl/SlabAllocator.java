@@ -0,0 +1,390 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out chunks of direct ByteBuffer slabs. Chunk sizes grow by a factor of 1.25 from
+ * 64 bytes to the slab size, and each slab is cut into chunks of one size when it is
+ * first needed. Once the capacity is reached a chunk is taken back from the entries of
+ * the same size with the CLOCK algorithm, or a whole slab is moved from the size with the
+ * most slabs.
+ * <p>
+ * A chunk holds the hash and the length of the key, the length of the value (-1 for null),
+ * then the key and value bytes. Not thread safe, except that touch may race with reads.
+ */
+final class SlabAllocator {
+
+  static final int HEADER_SIZE = 12;
+  static final long NO_CHUNK = -1L;
+
+  private static final int MIN_CHUNK_SIZE = 64;
+  private static final double GROWTH_FACTOR = 1.25;
+
+  private static final byte FREE = 0;
+  private static final byte USED = 1;
+  private static final byte REFERENCED = 2;
+
+  interface Listener {
+    /*
+     * Called before the entry in the chunk is dropped to make room for another one
+     */
+    void evicted(long chunk);
+  }
+
+  private final int slabSize;
+  private final long capacity;
+  private final Listener listener;
+  private final int[] chunkSizes;
+  private final List<Slab> slabs = new ArrayList<Slab>();
+  private final SizeClass[] sizeClasses;
+  private long bytesUsed;
+  private long chunkBytesUsed;
+
+  SlabAllocator(int slabSize, long capacity, Listener listener) {
+    if (slabSize < MIN_CHUNK_SIZE) {
+      throw new IllegalArgumentException("The slab size must be at least " + MIN_CHUNK_SIZE + " bytes");
+    }
+    this.slabSize = slabSize;
+    this.capacity = capacity;
+    this.listener = listener;
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (double size = MIN_CHUNK_SIZE; size < slabSize; size *= GROWTH_FACTOR) {
+      // 8 byte aligned
+      int aligned = ((int) size + 7) & ~7;
+      if (sizes.isEmpty() || aligned > sizes.get(sizes.size() - 1)) {
+        sizes.add(aligned);
+      }
+    }
+    sizes.add(slabSize);
+    chunkSizes = new int[sizes.size()];
+    sizeClasses = new SizeClass[sizes.size()];
+    for (int i = 0; i < chunkSizes.length; i++) {
+      chunkSizes[i] = sizes.get(i);
+      sizeClasses[i] = new SizeClass(chunkSizes[i]);
+    }
+  }
+
+  /*
+   * @return the chunk, or NO_CHUNK if the length is larger than a slab
+   */
+  long allocate(int length) {
+    int sizeClass = sizeClassOf(length);
+    if (sizeClass < 0) {
+      return NO_CHUNK;
+    }
+    SizeClass c = sizeClasses[sizeClass];
+    if (c.freeChunks == 0) {
+      if ((long) (slabs.size() + 1) * slabSize <= capacity) {
+        addSlab(sizeClass);
+      } else if (c.usedChunks > 0) {
+        evictOne(c);
+      } else if (!moveSlab(sizeClass)) {
+        return NO_CHUNK;
+      }
+    }
+    for (Slab slab : c.slabs) {
+      if (slab.freeCount > 0) {
+        int index = slab.freeChunks[--slab.freeCount];
+        slab.state[index] = USED;
+        c.freeChunks--;
+        c.usedChunks++;
+        chunkBytesUsed += c.chunkSize;
+        return chunk(slab.id, index);
+      }
+    }
+    throw new IllegalStateException("No free chunk in size class " + c.chunkSize);
+  }
+
+  void free(long chunk) {
+    Slab slab = slabs.get(slabOf(chunk));
+    int index = indexOf(chunk);
+    if (slab.state[index] == FREE) {
+      return;
+    }
+    bytesUsed -= HEADER_SIZE + slab.buffer.getInt(offsetOf(slab, index) + 4) + Math.max(0, slab.buffer.getInt(offsetOf(slab, index) + 8));
+    slab.state[index] = FREE;
+    slab.freeChunks[slab.freeCount++] = index;
+    SizeClass c = sizeClasses[slab.sizeClass];
+    c.freeChunks++;
+    c.usedChunks--;
+    chunkBytesUsed -= c.chunkSize;
+  }
+
+  /*
+   * Marks the chunk as recently read so that the CLOCK hand passes over it once
+   */
+  void touch(long chunk) {
+    Slab slab = slabs.get(slabOf(chunk));
+    int index = indexOf(chunk);
+    if (slab.state[index] == USED) {
+      slab.state[index] = REFERENCED;
+    }
+  }
+
+  /*
+   * Drops one entry, of the size class of the length if there are any
+   */
+  void evictOne(int length) {
+    int sizeClass = sizeClassOf(length);
+    SizeClass c = sizeClass < 0 ? null : sizeClasses[sizeClass];
+    if (c == null || c.usedChunks == 0) {
+      for (SizeClass other : sizeClasses) {
+        if (c == null || c.usedChunks < other.usedChunks) {
+          c = other;
+        }
+      }
+    }
+    if (c.usedChunks > 0) {
+      evictOne(c);
+    }
+  }
+
+  void write(long chunk, int keyHash, byte[] key, byte[] value) {
+    Slab slab = slabs.get(slabOf(chunk));
+    int offset = offsetOf(slab, indexOf(chunk));
+    ByteBuffer buffer = slab.buffer.duplicate();
+    buffer.position(offset);
+    buffer.putInt(keyHash);
+    buffer.putInt(key.length);
+    buffer.putInt(value == null ? -1 : value.length);
+    buffer.put(key);
+    if (value != null) {
+      buffer.put(value);
+    }
+    bytesUsed += HEADER_SIZE + key.length + (value == null ? 0 : value.length);
+  }
+
+  int keyHash(long chunk) {
+    Slab slab = slabs.get(slabOf(chunk));
+    return slab.buffer.getInt(offsetOf(slab, indexOf(chunk)));
+  }
+
+  boolean keyEquals(long chunk, byte[] key) {
+    Slab slab = slabs.get(slabOf(chunk));
+    int offset = offsetOf(slab, indexOf(chunk));
+    if (slab.buffer.getInt(offset + 4) != key.length) {
+      return false;
+    }
+    offset += HEADER_SIZE;
+    for (int i = 0; i < key.length; i++) {
+      if (slab.buffer.get(offset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * @return a copy of the value bytes, null if the value was null
+   */
+  byte[] readValue(long chunk) {
+    Slab slab = slabs.get(slabOf(chunk));
+    int offset = offsetOf(slab, indexOf(chunk));
+    int keyLength = slab.buffer.getInt(offset + 4);
+    int valueLength = slab.buffer.getInt(offset + 8);
+    if (valueLength < 0) {
+      return null;
+    }
+    byte[] value = new byte[valueLength];
+    ByteBuffer buffer = slab.buffer.duplicate();
+    buffer.position(offset + HEADER_SIZE + keyLength);
+    buffer.get(value);
+    return value;
+  }
+
+  /*
+   * Frees every chunk. The slabs are kept, direct memory is only given back by the garbage collector.
+   */
+  void clear() {
+    for (Slab slab : slabs) {
+      slab.reset();
+    }
+    for (SizeClass c : sizeClasses) {
+      c.usedChunks = 0;
+      c.freeChunks = 0;
+      for (Slab slab : c.slabs) {
+        c.freeChunks += slab.freeCount;
+      }
+    }
+    bytesUsed = 0;
+    chunkBytesUsed = 0;
+  }
+
+  long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  long getChunkBytesUsed() {
+    return chunkBytesUsed;
+  }
+
+  long getBytesAllocated() {
+    return (long) slabs.size() * slabSize;
+  }
+
+  private int sizeClassOf(int length) {
+    for (int i = 0; i < chunkSizes.length; i++) {
+      if (length <= chunkSizes[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void addSlab(int sizeClass) {
+    Slab slab = new Slab(slabs.size(), ByteBuffer.allocateDirect(slabSize));
+    slabs.add(slab);
+    assign(slab, sizeClass);
+  }
+
+  private void assign(Slab slab, int sizeClass) {
+    SizeClass c = sizeClasses[sizeClass];
+    slab.cut(sizeClass, c.chunkSize, slabSize / c.chunkSize);
+    c.slabs.add(slab);
+    c.freeChunks += slab.freeCount;
+  }
+
+  /*
+   * Empties a slab of the size class with the most slabs and gives it to another size class
+   */
+  private boolean moveSlab(int sizeClass) {
+    SizeClass from = null;
+    for (SizeClass c : sizeClasses) {
+      if (c.slabs.size() > 0 && (from == null || c.slabs.size() > from.slabs.size())) {
+        from = c;
+      }
+    }
+    if (from == null || from == sizeClasses[sizeClass]) {
+      return false;
+    }
+    Slab slab = from.slabs.remove(from.slabs.size() - 1);
+    for (int i = 0; i < slab.chunkCount; i++) {
+      if (slab.state[i] != FREE) {
+        long chunk = chunk(slab.id, i);
+        listener.evicted(chunk);
+        free(chunk);
+      }
+    }
+    from.freeChunks -= slab.freeCount;
+    from.hand = 0;
+    assign(slab, sizeClass);
+    return true;
+  }
+
+  /*
+   * Second chance: referenced chunks lose their mark and the first unmarked one is evicted
+   */
+  private void evictOne(SizeClass c) {
+    int total = 0;
+    for (Slab slab : c.slabs) {
+      total += slab.chunkCount;
+    }
+    for (int step = 0; step <= 2 * total; step++) {
+      int position = c.hand;
+      c.hand = (c.hand + 1) % total;
+      Slab slab = null;
+      for (Slab s : c.slabs) {
+        if (position < s.chunkCount) {
+          slab = s;
+          break;
+        }
+        position -= s.chunkCount;
+      }
+      byte state = slab.state[position];
+      if (state == REFERENCED) {
+        slab.state[position] = USED;
+      } else if (state == USED) {
+        long chunk = chunk(slab.id, position);
+        listener.evicted(chunk);
+        free(chunk);
+        return;
+      }
+    }
+  }
+
+  private static int offsetOf(Slab slab, int index) {
+    return index * slab.chunkSize;
+  }
+
+  private static long chunk(int slab, int index) {
+    return ((long) slab << 32) | index;
+  }
+
+  private static int slabOf(long chunk) {
+    return (int) (chunk >>> 32);
+  }
+
+  private static int indexOf(long chunk) {
+    return (int) chunk;
+  }
+
+  private static final class SizeClass {
+
+    final int chunkSize;
+    final List<Slab> slabs = new ArrayList<Slab>();
+    int freeChunks;
+    int usedChunks;
+    //CLOCK指针，按slabs的顺序数chunk
+    int hand;
+
+    SizeClass(int chunkSize) {
+      this.chunkSize = chunkSize;
+    }
+
+  }
+
+  private static final class Slab {
+
+    final int id;
+    final ByteBuffer buffer;
+    int sizeClass;
+    int chunkSize;
+    int chunkCount;
+    // written by readers through touch, which is harmless
+    byte[] state;
+    int[] freeChunks;
+    int freeCount;
+
+    Slab(int id, ByteBuffer buffer) {
+      this.id = id;
+      this.buffer = buffer;
+    }
+
+    void cut(int sizeClass, int chunkSize, int chunkCount) {
+      this.sizeClass = sizeClass;
+      this.chunkSize = chunkSize;
+      this.chunkCount = chunkCount;
+      this.state = new byte[chunkCount];
+      this.freeChunks = new int[chunkCount];
+      reset();
+    }
+
+    void reset() {
+      for (int i = 0; i < chunkCount; i++) {
+        state[i] = FREE;
+        // lowest chunk first
+        freeChunks[i] = chunkCount - 1 - i;
+      }
+      freeCount = chunkCount;
+    }
+
+  }
+
+}
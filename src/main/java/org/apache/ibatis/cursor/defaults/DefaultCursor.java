@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * A cursor that maps one row, or with ordered nested result maps one parent object, each
+ * time the caller asks for the next item. It is closed, with its result set and statement,
+ * when the last item is read, when the row bounds are reached, or by {@link #close()}.
+ * <p>
+ * The cursor can only be iterated once.
+ */
+public class DefaultCursor<T> implements Cursor<T> {
+
+  private final DefaultResultSetHandler resultSetHandler;
+  private final ResultMap resultMap;
+  private final ResultSetWrapper rsw;
+  private final Statement statement;
+  private final RowBounds rowBounds;
+  private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+
+  private final CursorIterator cursorIterator = new CursorIterator();
+  private boolean iteratorRetrieved;
+
+  private CursorStatus status = CursorStatus.CREATED;
+  //包括按RowBounds跳过的行
+  private int indexWithRowBound = -1;
+
+  private enum CursorStatus {
+
+    //还没开始读
+    CREATED,
+    //读过，还没读完
+    OPEN,
+    //没读完就关了
+    CLOSED,
+    //都读完了
+    CONSUMED
+  }
+
+  /*
+   * @param rsw - null if the statement returned no result set
+   * @param statement - closed with the cursor
+   */
+  public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw, Statement statement, RowBounds rowBounds) {
+    this.resultSetHandler = resultSetHandler;
+    this.resultMap = resultMap;
+    this.rsw = rsw;
+    this.statement = statement;
+    this.rowBounds = rowBounds;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return status == CursorStatus.OPEN;
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return status == CursorStatus.CONSUMED;
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return rowBounds.getOffset() + cursorIterator.iteratorIndex;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    if (iteratorRetrieved) {
+      throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+    }
+    iteratorRetrieved = true;
+    return cursorIterator;
+  }
+
+  @Override
+  public void close() {
+    if (isClosed()) {
+      return;
+    }
+    try {
+      if (rsw != null) {
+        rsw.getResultSet().close();
+      }
+    } catch (SQLException e) {
+      // ignore
+    }
+    try {
+      //游标自己的Statement，执行器没有关它
+      if (statement != null) {
+        statement.close();
+      }
+    } catch (SQLException e) {
+      // ignore
+    } finally {
+      if (status != CursorStatus.CONSUMED) {
+        status = CursorStatus.CLOSED;
+      }
+    }
+  }
+
+  protected T fetchNextUsingRowBound() {
+    T result = fetchNextObjectFromDatabase();
+    while (objectWrapperResultHandler.fetched && indexWithRowBound < rowBounds.getOffset()) {
+      result = fetchNextObjectFromDatabase();
+    }
+    return result;
+  }
+
+  protected T fetchNextObjectFromDatabase() {
+    objectWrapperResultHandler.fetched = false;
+    if (isClosed()) {
+      return null;
+    }
+    if (rsw == null) {
+      close();
+      status = CursorStatus.CONSUMED;
+      return null;
+    }
+    try {
+      status = CursorStatus.OPEN;
+      resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+    } catch (SQLException e) {
+      close();
+      throw new PersistenceException("Error fetching the next item of the cursor.  Cause: " + e, e);
+    }
+
+    T next = objectWrapperResultHandler.result;
+    objectWrapperResultHandler.result = null;
+    if (objectWrapperResultHandler.fetched) {
+      indexWithRowBound++;
+    }
+    // 没有更多行了，或者到了RowBounds的limit
+    if (!objectWrapperResultHandler.fetched || getReadItemsCount() == rowBounds.getOffset() + rowBounds.getLimit()) {
+      close();
+      status = CursorStatus.CONSUMED;
+    }
+    return next;
+  }
+
+  private boolean isClosed() {
+    return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+  }
+
+  private int getReadItemsCount() {
+    return indexWithRowBound + 1;
+  }
+
+  private static class ObjectWrapperResultHandler<T> implements ResultHandler {
+
+    private T result;
+    //行的值也可能是null，要另外记一下到底有没有读到
+    private boolean fetched;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void handleResult(ResultContext context) {
+      this.result = (T) context.getResultObject();
+      this.fetched = true;
+      //读到一个就停，下次再接着读
+      context.stop();
+    }
+  }
+
+  private class CursorIterator implements Iterator<T> {
+
+    //下一个元素，hasNext时先取出来
+    private T object;
+    private boolean prefetched;
+    //已经返回过的元素的下标
+    private int iteratorIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (!prefetched) {
+        object = fetchNextUsingRowBound();
+        prefetched = objectWrapperResultHandler.fetched;
+      }
+      return prefetched;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      T next = object;
+      object = null;
+      prefetched = false;
+      iteratorIndex++;
+      return next;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove element from Cursor");
+    }
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves the number of connections a pool keeps idle with the observed load.
+ * <p>
+ * Checkouts record how many connections are in use, and the housekeeping thread
+ * calls {@link #evaluate} once per run. The idle target grows straight away when
+ * requests had to wait or more connections were in use than the target keeps,
+ * so that the next burst finds them open instead of connecting again. It shrinks
+ * by one connection only after {@link #SHRINK_AFTER_QUIET_RUNS} runs in a row
+ * that never needed it.
+ */
+final class AdaptivePoolSizer {
+
+  static final int SHRINK_AFTER_QUIET_RUNS = 3;
+
+  // highest number of connections in use since the last evaluation
+  private final AtomicInteger peakActive = new AtomicInteger();
+  private volatile int idleTarget;
+  // guarded by the state lock, only evaluate() uses these
+  private long lastHadToWaitCount;
+  private long lastAccumulatedWaitTime;
+  private int quietRuns;
+
+  AdaptivePoolSizer(int idleTarget) {
+    this.idleTarget = idleTarget;
+  }
+
+  void reset(int idleTarget, PoolState state) {
+    this.idleTarget = idleTarget;
+    this.peakActive.set(0);
+    this.lastHadToWaitCount = state.hadToWaitCount.sum();
+    this.lastAccumulatedWaitTime = state.accumulatedWaitTime.sum();
+    this.quietRuns = 0;
+  }
+
+  int getIdleTarget() {
+    return idleTarget;
+  }
+
+  void recordActive(int activeCount) {
+    int peak;
+    do {
+      peak = peakActive.get();
+    } while (activeCount > peak && !peakActive.compareAndSet(peak, activeCount));
+  }
+
+  /*
+   * Adjusts the idle target to what was observed since the last call.
+   *
+   * @param activeCount - the connections in use right now, they start the next observation window
+   * @param minimum - the lowest idle target, normally poolMinimumIdleConnections
+   * @param maximum - the highest idle target, normally poolMaximumActiveConnections
+   * @return the event describing the change, or null if the target stays
+   */
+  PoolSizingEvent evaluate(long now, PoolState state, int activeCount, int minimum, int maximum) {
+    long hadToWaitCount = state.hadToWaitCount.sum();
+    long accumulatedWaitTime = state.accumulatedWaitTime.sum();
+    long waits = hadToWaitCount - lastHadToWaitCount;
+    long averageWaitTime = waits > 0 ? (accumulatedWaitTime - lastAccumulatedWaitTime) / waits : 0;
+    lastHadToWaitCount = hadToWaitCount;
+    lastAccumulatedWaitTime = accumulatedWaitTime;
+    int peak = Math.max(peakActive.getAndSet(activeCount), activeCount);
+
+    int previous = idleTarget;
+    int target = previous;
+    PoolSizingEvent.Reason reason = null;
+    if (waits > 0) {
+      // every request that waited would have used one more connection
+      target = (int) Math.min(maximum, Math.max(previous, peak) + waits);
+      reason = PoolSizingEvent.Reason.WAITING;
+      quietRuns = 0;
+    } else if (peak > previous) {
+      // the connections beyond the target were closed when they came back
+      target = peak;
+      reason = PoolSizingEvent.Reason.UTILIZATION;
+      quietRuns = 0;
+    } else if (peak < previous) {
+      if (++quietRuns >= SHRINK_AFTER_QUIET_RUNS) {
+        target = previous - 1;
+        reason = PoolSizingEvent.Reason.IDLE;
+        quietRuns = 0;
+      }
+    } else {
+      quietRuns = 0;
+    }
+    target = Math.max(minimum, Math.min(maximum, target));
+    if (target == previous) {
+      return null;
+    }
+    idleTarget = target;
+    return new PoolSizingEvent(now, reason, previous, target, peak, waits, averageWaitTime);
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_IN_USE;
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_NOT_IN_USE;
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_REMOVED;
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_RESERVED;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free holder of the connections of a {@link ConcurrentPooledDataSource}.
+ * <p>
+ * Ownership of a connection is decided by a CAS on its state. A borrowing thread
+ * first looks at the connections it returned itself, then scans the shared list
+ * and finally waits on a handoff queue fed by threads returning connections.
+ */
+class ConcurrentBag {
+
+  private final CopyOnWriteArrayList<PooledConnection> sharedList = new CopyOnWriteArrayList<PooledConnection>();
+  private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = new ThreadLocal<List<WeakReference<PooledConnection>>>() {
+    @Override
+    protected List<WeakReference<PooledConnection>> initialValue() {
+      return new ArrayList<WeakReference<PooledConnection>>(16);
+    }
+  };
+  private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<PooledConnection>(true);
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /*
+   * Takes a connection that is not in use.
+   *
+   * @param timeout - how long to wait for a returned connection, in nanoseconds; 0 does not wait
+   * @return a connection now in STATE_IN_USE, or null if none became available in time
+   */
+  public PooledConnection borrow(long timeout) throws InterruptedException {
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      PooledConnection conn = list.remove(i).get();
+      if (conn != null && conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+        return conn;
+      }
+    }
+
+    waiters.incrementAndGet();
+    try {
+      for (PooledConnection conn : sharedList) {
+        if (conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return conn;
+        }
+      }
+      while (timeout > 0) {
+        long start = System.nanoTime();
+        PooledConnection conn = handoffQueue.poll(timeout, TimeUnit.NANOSECONDS);
+        if (conn == null) {
+          return null;
+        }
+        if (conn.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) {
+          return conn;
+        }
+        timeout -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /*
+   * Makes a borrowed or reserved connection available again, handing it
+   * directly to a waiting thread when there is one.
+   */
+  public void requite(PooledConnection conn) {
+    conn.setState(STATE_NOT_IN_USE);
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (conn.getState() != STATE_NOT_IN_USE || handoffQueue.offer(conn)) {
+        return;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(10000L);
+      } else {
+        Thread.yield();
+      }
+    }
+    List<WeakReference<PooledConnection>> list = threadList.get();
+    if (list.size() < 50) {
+      list.add(new WeakReference<PooledConnection>(conn));
+    }
+  }
+
+  /*
+   * Adds a new connection. The connection must be in STATE_IN_USE (it goes to
+   * the caller) or STATE_NOT_IN_USE (it goes to whoever asks first).
+   */
+  public void add(PooledConnection conn) {
+    sharedList.add(conn);
+    if (conn.getState() == STATE_NOT_IN_USE) {
+      offerToWaiters(conn);
+    }
+  }
+
+  /*
+   * Removes a connection owned by the caller (in use or reserved).
+   *
+   * @return true if the connection was removed by this call
+   */
+  public boolean remove(PooledConnection conn) {
+    if (!conn.compareAndSetState(STATE_IN_USE, STATE_REMOVED) && !conn.compareAndSetState(STATE_RESERVED, STATE_REMOVED)) {
+      return false;
+    }
+    return sharedList.remove(conn);
+  }
+
+  /*
+   * Removes a connection whatever its state. Used when the whole pool is closed.
+   *
+   * @return true if the connection was removed by this call
+   */
+  public boolean forceRemove(PooledConnection conn) {
+    conn.setState(STATE_REMOVED);
+    return sharedList.remove(conn);
+  }
+
+  /*
+   * Reserves an idle connection so that no one can borrow it.
+   */
+  public boolean reserve(PooledConnection conn) {
+    return conn.compareAndSetState(STATE_NOT_IN_USE, STATE_RESERVED);
+  }
+
+  /*
+   * Makes a reserved connection available again without remembering it for the current thread.
+   */
+  public void unreserve(PooledConnection conn) {
+    if (conn.compareAndSetState(STATE_RESERVED, STATE_NOT_IN_USE)) {
+      offerToWaiters(conn);
+    }
+  }
+
+  // gives a thread that is already waiting a chance to take it
+  private void offerToWaiters(PooledConnection conn) {
+    while (waiters.get() > 0 && conn.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(conn)) {
+      Thread.yield();
+    }
+  }
+
+  public List<PooledConnection> values() {
+    return new ArrayList<PooledConnection>(sharedList);
+  }
+
+  public List<PooledConnection> values(int state) {
+    List<PooledConnection> list = new ArrayList<PooledConnection>();
+    for (PooledConnection conn : sharedList) {
+      if (conn.getState() == state) {
+        list.add(conn);
+      }
+    }
+    return list;
+  }
+
+  public int getCount(int state) {
+    int count = 0;
+    for (PooledConnection conn : sharedList) {
+      if (conn.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public int size() {
+    return sharedList.size();
+  }
+
+  public int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+}
@@ -0,0 +1,530 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_IN_USE;
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_NOT_IN_USE;
+import static org.apache.ibatis.datasource.pooled.PooledConnection.STATE_RESERVED;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A connection pool with the same configuration as {@link PooledDataSource} that
+ * does not take a lock to check out or return a connection.
+ * <p>
+ * Connections live in a {@link ConcurrentBag} for their whole life and are
+ * handed from thread to thread with a CAS on their state. A connection returned
+ * while other threads are waiting is given directly to one of them. Every
+ * partition of the pool, one per username and password, has its own bag.
+ */
+public class ConcurrentPooledDataSource extends PooledDataSource {
+
+  private static final Log log = LogFactory.getLog(ConcurrentPooledDataSource.class);
+
+  // connections created plus connections being created in all partitions, never above poolMaximumActiveConnections
+  private final AtomicInteger totalConnections = new AtomicInteger();
+
+  public ConcurrentPooledDataSource() {
+    super();
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, String username, String password) {
+    super(driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(String driver, String url, Properties driverProperties) {
+    super(driver, url, driverProperties);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
+    super(driverClassLoader, driver, url, username, password);
+  }
+
+  public ConcurrentPooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
+    super(driverClassLoader, driver, url, driverProperties);
+  }
+
+  @Override
+  public void forceCloseAll() {
+    stopHousekeeper();
+    resetAdaptiveSizing();
+    for (PoolPartition partition : resetPartitions()) {
+      ConcurrentBag bag = bagOf(partition);
+      for (PooledConnection conn : bag.values()) {
+        if (bag.forceRemove(conn)) {
+          totalConnections.decrementAndGet();
+        }
+        closeQuietly(conn);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("ConcurrentPooledDataSource forcefully closed/removed all connections.");
+    }
+  }
+
+  @Override
+  protected PoolState newPoolState() {
+    return new ConcurrentPoolState(this);
+  }
+
+  @Override
+  PoolPartition newPartition(String username, String password, boolean isDefault) {
+    return new BagPartition(username, password, assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+  }
+
+  @Override
+  protected void pushConnection(PooledConnection conn) throws SQLException {
+    // only the thread that wins the CAS returns the connection, a second close or
+    // a close racing with an overdue claim is ignored
+    if (!conn.compareAndSetState(STATE_IN_USE, STATE_RESERVED)) {
+      return;
+    }
+    // a reserved connection is seen by no one else, if anything below fails it must
+    // leave the pool or it would hold its place forever
+    boolean returned = false;
+    try {
+      state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
+      // invalidates the proxy the caller still holds
+      conn.renewProxyConnection();
+      // the caller has just used it, so it is not pinged on the way back
+      if (conn.isValid(false)) {
+        PoolPartition partition = conn.getPartition();
+        ConcurrentBag bag = bagOf(partition);
+        BagPartition waiting = null;
+        boolean keep = false;
+        if (isCurrent(partition)) {
+          if (bag.getWaitingThreadCount() > 0) {
+            keep = true;
+          } else {
+            waiting = findWaitingPartition();
+            keep = waiting == null && countConnections(STATE_NOT_IN_USE) < getIdleTarget();
+          }
+        }
+        if (!conn.getRealConnection().getAutoCommit()) {
+          conn.getRealConnection().rollback();
+        }
+        if (keep) {
+          // not overdue until someone checks it out again
+          conn.setCheckoutTimestamp(Long.MAX_VALUE);
+          bag.requite(conn);
+          if (log.isDebugEnabled()) {
+            log.debug("Returned connection " + conn.getRealHashCode() + " to pool.");
+          }
+        } else {
+          discard(conn);
+          if (log.isDebugEnabled()) {
+            log.debug("Closed connection " + conn.getRealHashCode() + ".");
+          }
+          if (waiting != null) {
+            openForWaiters(waiting);
+          }
+        }
+      } else {
+        if (log.isDebugEnabled()) {
+          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+        }
+        state.badConnectionCount.increment();
+        discard(conn);
+      }
+      returned = true;
+    } finally {
+      if (!returned) {
+        if (log.isDebugEnabled()) {
+          log.debug("Could not return connection " + conn.getRealHashCode() + " to the pool, discarding connection.");
+        }
+        state.badConnectionCount.increment();
+        discard(conn);
+      }
+    }
+  }
+
+  /*
+   * @return a partition other threads are waiting on, or null if no one waits
+   */
+  private BagPartition findWaitingPartition() {
+    PoolPartition[] partitions = getPartitions();
+    if (partitions.length == 1) {
+      // returned connections of the only partition go to its waiters through the bag
+      return null;
+    }
+    for (PoolPartition partition : partitions) {
+      if (bagOf(partition).getWaitingThreadCount() > 0) {
+        return (BagPartition) partition;
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Uses the place of a closed connection to open one for threads waiting on another partition,
+   * since they only receive connections returned to their own bag.
+   */
+  private void openForWaiters(BagPartition partition) {
+    try {
+      PooledConnection conn = createConnection(partition, STATE_NOT_IN_USE);
+      if (conn != null && log.isDebugEnabled()) {
+        log.debug("Opened connection " + conn.getRealHashCode() + " for threads waiting on " + partition + ".");
+      }
+    } catch (SQLException e) {
+      // the waiting threads try themselves when they wake up
+      if (log.isDebugEnabled()) {
+        log.debug("Could not open a connection for threads waiting on " + partition + ": " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  protected PooledConnection popConnection(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    PooledConnection conn = null;
+    long t = System.currentTimeMillis();
+    long deadline = poolMaximumWaitTime > 0 ? t + poolMaximumWaitTime : Long.MAX_VALUE;
+    long wt = 0;
+    int localBadConnectionCount = 0;
+    BagPartition partition = (BagPartition) getPartition(username, password);
+
+    try {
+      while (conn == null) {
+        if (partition.isRetired()) {
+          // replaced by forceCloseAll or dropped by the housekeeping thread
+          partition = (BagPartition) getPartition(username, password);
+        }
+        ConcurrentBag bag = partition.bag;
+        conn = bag.borrow(0);
+        if (conn != null && poolMinimumIdleConnections > 0 && partition == getDefaultPartition()
+            && bag.getCount(STATE_NOT_IN_USE) < poolMinimumIdleConnections) {
+          requestHousekeeping();
+        }
+        if (conn == null) {
+          conn = createConnection(partition, STATE_IN_USE);
+        }
+        if (conn == null) {
+          conn = claimOverdueConnection(partition);
+        }
+        if (conn == null) {
+          long now = System.currentTimeMillis();
+          if (now >= deadline) {
+            recordWait(wt);
+            if (log.isDebugEnabled()) {
+              log.debug("ConcurrentPooledDataSource: Timed out after waiting " + poolMaximumWaitTime + " milliseconds for a connection.");
+            }
+            throw new SQLException("ConcurrentPooledDataSource: Timed out after waiting " + poolMaximumWaitTime + " milliseconds for a connection.");
+          }
+          if (!countedWait) {
+            state.hadToWaitCount.increment();
+            countedWait = true;
+            wt = now;
+          }
+          long timeToWait = Math.min(poolTimeToWait, deadline - now);
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + timeToWait + " milliseconds for connection.");
+          }
+          // waiters are served in arrival order by the fair handoff queue
+          conn = bag.borrow(TimeUnit.MILLISECONDS.toNanos(timeToWait));
+        }
+        if (conn != null) {
+          if (countedWait && wt > 0) {
+            recordWait(wt);
+            wt = 0;
+          }
+          if (isValidForCheckout(conn)) {
+            if (!conn.getRealConnection().getAutoCommit()) {
+              conn.getRealConnection().rollback();
+            }
+            conn.setCheckoutTimestamp(System.currentTimeMillis());
+            conn.setLastUsedTimestamp(System.currentTimeMillis());
+            if (poolLeakDetectionThreshold > 0) {
+              recordCheckoutSite(conn);
+            }
+            if (poolAdaptiveSizing) {
+              recordCheckout(countConnections(STATE_IN_USE));
+            }
+            state.requestCount.increment();
+            state.accumulatedRequestTime.add(System.currentTimeMillis() - t);
+          } else {
+            if (log.isDebugEnabled()) {
+              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+            }
+            state.badConnectionCount.increment();
+            localBadConnectionCount++;
+            discard(conn);
+            conn = null;
+            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+              if (log.isDebugEnabled()) {
+                log.debug("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+              }
+              throw new SQLException("ConcurrentPooledDataSource: Could not get a good connection to the database.");
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      recordWait(wt);
+      Thread.currentThread().interrupt();
+      if (log.isDebugEnabled()) {
+        log.debug("ConcurrentPooledDataSource: Interrupted while waiting for a connection.");
+      }
+      throw new SQLException("ConcurrentPooledDataSource: Interrupted while waiting for a connection.");
+    }
+    return conn;
+  }
+
+  private void recordWait(long waitStart) {
+    if (waitStart > 0) {
+      long waited = System.currentTimeMillis() - waitStart;
+      state.accumulatedWaitTime.add(waited);
+      state.waitTimeHistogram.record(waited);
+    }
+  }
+
+  @Override
+  void housekeep(long now) throws SQLException {
+    if (poolLeakDetectionThreshold > 0) {
+      for (ConnectionLeakEvent leak : findLeaks(values(STATE_IN_USE), now)) {
+        reportLeak(leak);
+      }
+    }
+    firePoolSizingEvent(adaptIdleTarget(now, countConnections(STATE_IN_USE)));
+    // the idle target applies to all partitions together
+    int total = countConnections(STATE_NOT_IN_USE);
+    for (PoolPartition partition : getPartitions()) {
+      ConcurrentBag bag = bagOf(partition);
+      int idle = bag.getCount(STATE_NOT_IN_USE);
+      for (PooledConnection conn : bag.values(STATE_NOT_IN_USE)) {
+        // reserved connections cannot be borrowed while we look at them
+        if (!bag.reserve(conn)) {
+          continue;
+        }
+        if (poolAdaptiveSizing && total > getIdleTarget()) {
+          idle--;
+          total--;
+          if (log.isDebugEnabled()) {
+            log.debug("Closing connection " + conn.getRealHashCode() + " above the idle target.");
+          }
+          discard(conn);
+        } else if (isExpired(conn, now, idle)) {
+          idle--;
+          total--;
+          if (log.isDebugEnabled()) {
+            log.debug("Closing expired connection " + conn.getRealHashCode() + ".");
+          }
+          discard(conn);
+        } else if (needsValidation(conn, now)) {
+          if (pingConnection(conn, true)) {
+            conn.setLastValidatedTimestamp(now);
+            bag.unreserve(conn);
+          } else {
+            idle--;
+            total--;
+            state.badConnectionCount.increment();
+            discard(conn);
+          }
+        } else {
+          bag.unreserve(conn);
+        }
+      }
+      if (partition != getDefaultPartition() && bag.size() == 0 && bag.getWaitingThreadCount() == 0) {
+        removePartition(partition);
+      }
+    }
+    BagPartition partition = (BagPartition) getDefaultPartition();
+    for (int i = partition.bag.getCount(STATE_NOT_IN_USE); i < poolMinimumIdleConnections; i++) {
+      PooledConnection conn = createConnection(partition, STATE_NOT_IN_USE);
+      if (conn == null) {
+        break;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  /*
+   * Opens a new connection for a partition if the pool is below poolMaximumActiveConnections.
+   *
+   * @param initialState - STATE_IN_USE to hand it to the caller, STATE_NOT_IN_USE to make it available to anyone
+   * @return the new connection, or null if the pool is full
+   */
+  private PooledConnection createConnection(BagPartition partition, int initialState) throws SQLException {
+    int total;
+    do {
+      total = totalConnections.get();
+      if (total >= poolMaximumActiveConnections) {
+        return null;
+      }
+    } while (!totalConnections.compareAndSet(total, total + 1));
+
+    boolean created = false;
+    try {
+      PooledConnection conn = new PooledConnection(partition.openConnection(dataSource), this, partition);
+      state.createdConnectionCount.increment();
+      conn.setState(initialState);
+      conn.setCheckoutTimestamp(initialState == STATE_IN_USE ? System.currentTimeMillis() : Long.MAX_VALUE);
+      partition.bag.add(conn);
+      created = true;
+      if (log.isDebugEnabled() && initialState == STATE_IN_USE) {
+        log.debug("Created connection " + conn.getRealHashCode() + ".");
+      }
+      return conn;
+    } finally {
+      if (!created) {
+        totalConnections.decrementAndGet();
+      }
+    }
+  }
+
+  /*
+   * Takes over the connection checked out for the longest time if that is
+   * longer than poolMaximumCheckoutTime. A connection of another partition is
+   * closed and replaced by a new one.
+   *
+   * @return the claimed connection in STATE_IN_USE, or null if none is overdue
+   */
+  private PooledConnection claimOverdueConnection(BagPartition partition) throws SQLException {
+    PooledConnection oldest = null;
+    for (PooledConnection conn : values(STATE_IN_USE)) {
+      if (oldest == null || conn.getCheckoutTimestamp() < oldest.getCheckoutTimestamp()) {
+        oldest = conn;
+      }
+    }
+    if (oldest == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldest.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime || !oldest.compareAndSetState(STATE_IN_USE, STATE_RESERVED)) {
+      return null;
+    }
+    // as in pushConnection, a reserved connection that fails must leave the pool
+    boolean claimed = false;
+    try {
+      state.claimedOverdueConnectionCount.increment();
+      state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+      state.accumulatedCheckoutTime.add(longestCheckoutTime);
+      if (poolLeakDetectionThreshold > 0) {
+        reportLeak(oldest.reportLeak(System.currentTimeMillis(), true));
+      }
+      oldest.renewProxyConnection();
+      if (oldest.getPartition() != partition) {
+        discard(oldest);
+        claimed = true;
+        if (log.isDebugEnabled()) {
+          log.debug("Claimed overdue connection " + oldest.getRealHashCode() + " of another partition, opening a new one.");
+        }
+        return createConnection(partition, STATE_IN_USE);
+      }
+      if (!oldest.getRealConnection().getAutoCommit()) {
+        oldest.getRealConnection().rollback();
+      }
+      oldest.setState(STATE_IN_USE);
+      claimed = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Claimed overdue connection " + oldest.getRealHashCode() + ".");
+      }
+      return oldest;
+    } finally {
+      if (!claimed) {
+        discard(oldest);
+      }
+    }
+  }
+
+  /*
+   * Removes a connection owned by the current thread from the pool and closes it.
+   */
+  private void discard(PooledConnection conn) {
+    if (bagOf(conn.getPartition()).remove(conn)) {
+      totalConnections.decrementAndGet();
+    }
+    closeQuietly(conn);
+  }
+
+  private static ConcurrentBag bagOf(PoolPartition partition) {
+    return ((BagPartition) partition).bag;
+  }
+
+  /*
+   * The number of connections in a state in all partitions
+   */
+  int countConnections(int state) {
+    int count = 0;
+    for (PoolPartition partition : getPartitions()) {
+      count += bagOf(partition).getCount(state);
+    }
+    return count;
+  }
+
+  @Override
+  int countIdleConnections() {
+    return countConnections(STATE_NOT_IN_USE);
+  }
+
+  private List<PooledConnection> values(int state) {
+    PoolPartition[] partitions = getPartitions();
+    if (partitions.length == 1) {
+      return bagOf(partitions[0]).values(state);
+    }
+    List<PooledConnection> values = new ArrayList<PooledConnection>();
+    for (PoolPartition partition : partitions) {
+      values.addAll(bagOf(partition).values(state));
+    }
+    return values;
+  }
+
+  /**
+   * A partition whose connections live in a bag of their own, so that borrowing
+   * never sees a connection opened with other credentials.
+   */
+  static final class BagPartition extends PoolPartition {
+
+    final ConcurrentBag bag = new ConcurrentBag();
+
+    BagPartition(String username, String password, int connectionTypeCode) {
+      super(username, password, connectionTypeCode, null);
+    }
+
+  }
+
+  /**
+   * Pool state whose connection counts come from the bag instead of the
+   * idle and active lists, which this pool does not use.
+   */
+  static class ConcurrentPoolState extends PoolState {
+
+    public ConcurrentPoolState(ConcurrentPooledDataSource dataSource) {
+      super(dataSource);
+    }
+
+    @Override
+    public int getIdleConnectionCount() {
+      return ((ConcurrentPooledDataSource) dataSource).countConnections(STATE_NOT_IN_USE);
+    }
+
+    @Override
+    public int getActiveConnectionCount() {
+      return ((ConcurrentPooledDataSource) dataSource).countConnections(STATE_IN_USE);
+    }
+
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * A connection that has been checked out longer than the leak detection threshold.
+ *
+ * @see ConnectionLeakListener
+ */
+public class ConnectionLeakEvent {
+
+  private final int connectionHashCode;
+  private final long checkoutTimestamp;
+  private final long checkoutTime;
+  private final String checkoutThreadName;
+  private final Throwable checkoutSite;
+  private final boolean claimed;
+
+  public ConnectionLeakEvent(int connectionHashCode, long checkoutTimestamp, long checkoutTime,
+      String checkoutThreadName, Throwable checkoutSite, boolean claimed) {
+    this.connectionHashCode = connectionHashCode;
+    this.checkoutTimestamp = checkoutTimestamp;
+    this.checkoutTime = checkoutTime;
+    this.checkoutThreadName = checkoutThreadName;
+    this.checkoutSite = checkoutSite;
+    this.claimed = claimed;
+  }
+
+  /*
+   * The hash code of the real connection, as used in the pool's debug log
+   */
+  public int getConnectionHashCode() {
+    return connectionHashCode;
+  }
+
+  public long getCheckoutTimestamp() {
+    return checkoutTimestamp;
+  }
+
+  /*
+   * How long the connection had been checked out when it was reported
+   */
+  public long getCheckoutTime() {
+    return checkoutTime;
+  }
+
+  public String getCheckoutThreadName() {
+    return checkoutThreadName;
+  }
+
+  /*
+   * Where the connection was checked out, or null if this checkout was not sampled
+   */
+  public Throwable getCheckoutSite() {
+    return checkoutSite;
+  }
+
+  /*
+   * True if the pool took the connection back because it exceeded poolMaximumCheckoutTime
+   */
+  public boolean isClaimed() {
+    return claimed;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Connection ").append(connectionHashCode);
+    if (claimed) {
+      builder.append(" was claimed back by the pool after being checked out by thread ");
+    } else {
+      builder.append(" has been checked out by thread ");
+    }
+    builder.append(checkoutThreadName).append(" for ").append(checkoutTime).append(" milliseconds, possible leak.");
+    if (checkoutSite != null) {
+      StringWriter stackTrace = new StringWriter();
+      checkoutSite.printStackTrace(new PrintWriter(stackTrace));
+      builder.append(" Checked out at: ").append(stackTrace);
+    } else {
+      builder.append(" This checkout was not sampled, set poolLeakDetectionSampleRate to 1 to record every checkout site.");
+    }
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Checks that a pooled connection still works. Used when poolPingEnabled is set, for
+ * connections that were neither used nor validated within poolPingConnectionsNotUsedFor.
+ * When the housekeeping thread runs the check happens there, otherwise on checkout.
+ *
+ * @see PooledDataSource#setConnectionValidator(ConnectionValidator)
+ */
+public interface ConnectionValidator {
+
+  /*
+   * @param connection - the real connection, not the pool proxy
+   * @return false, or an exception, if the connection must be discarded
+   */
+  boolean validate(Connection connection) throws SQLException;
+
+}
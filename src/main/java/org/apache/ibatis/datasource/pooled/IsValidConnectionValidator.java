@@ -0,0 +1,45 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Validates connections with {@link Connection#isValid(int)}, which lets the driver
+ * use its cheapest check, often a protocol level ping instead of a query.
+ */
+public class IsValidConnectionValidator implements ConnectionValidator {
+
+  private final int timeout;
+
+  /*
+   * @param timeout - the number of seconds to wait for the database, 0 for no limit
+   */
+  public IsValidConnectionValidator(int timeout) {
+    this.timeout = timeout;
+  }
+
+  @Override
+  public boolean validate(Connection connection) throws SQLException {
+    return connection.isValid(timeout);
+  }
+
+  public int getTimeout() {
+    return timeout;
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Daemon thread that periodically calls {@link PooledDataSource#housekeep(long)}
+ * so that idle connections are evicted, validated and created off the request path.
+ * <p>
+ * Only a weak reference to the data source is kept, so an unreferenced pool can
+ * still be collected; the thread stops when that happens.
+ */
+final class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private final ScheduledThreadPoolExecutor executor;
+  // avoids queueing more than one extra run when checkouts ask for a refill
+  private final AtomicBoolean runRequested = new AtomicBoolean();
+
+  PoolHousekeeper(PooledDataSource dataSource, long interval) {
+    this.dataSource = new WeakReference<PooledDataSource>(dataSource);
+    this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.executor.scheduleWithFixedDelay(this, 0, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /*
+   * Asks for a run as soon as possible, e.g. because checkouts took the pool below its minimum idle count.
+   */
+  void requestRun() {
+    if (runRequested.compareAndSet(false, true)) {
+      try {
+        executor.execute(this);
+      } catch (RuntimeException e) {
+        // already shut down
+        runRequested.set(false);
+      }
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public void run() {
+    runRequested.set(false);
+    PooledDataSource ds = dataSource.get();
+    if (ds == null) {
+      shutdown();
+      return;
+    }
+    try {
+      ds.housekeep(System.currentTimeMillis());
+    } catch (Throwable t) {
+      // keep the schedule alive, the next run will try again
+      log.error("Pool housekeeping failed. Cause: " + t, t);
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+
+/**
+ * The connections of a pool opened with one username and password.
+ * <p>
+ * Every partition keeps its own idle connections, so that a connection is only
+ * ever reused by a caller asking for the same credentials, while the limits of
+ * the pool apply to all partitions together. The connection type code is
+ * computed once when the partition is created.
+ */
+class PoolPartition {
+
+  private final Key key;
+  private final int connectionTypeCode;
+  private volatile boolean retired;
+  //空闲的连接，由state锁保护，只有PooledDataSource使用
+  final List<PooledConnection> idleConnections;
+
+  PoolPartition(String username, String password, int connectionTypeCode, List<PooledConnection> idleConnections) {
+    this.key = new Key(username, password);
+    this.connectionTypeCode = connectionTypeCode;
+    this.idleConnections = idleConnections;
+  }
+
+  Key getKey() {
+    return key;
+  }
+
+  int getConnectionTypeCode() {
+    return connectionTypeCode;
+  }
+
+  boolean matches(String username, String password) {
+    return key.matches(username, password);
+  }
+
+  Connection openConnection(UnpooledDataSource dataSource) throws SQLException {
+    return dataSource.getConnection(key.username, key.password);
+  }
+
+  /*
+   * A retired partition was replaced by forceCloseAll or dropped by the housekeeping
+   * thread. Connections of a retired partition are closed when they are returned.
+   */
+  boolean isRetired() {
+    return retired;
+  }
+
+  void retire() {
+    retired = true;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolPartition[" + key.username + "]";
+  }
+
+  static final class Key {
+
+    private final String username;
+    private final String password;
+
+    Key(String username, String password) {
+      this.username = username;
+      this.password = password;
+    }
+
+    boolean matches(String username, String password) {
+      return equal(this.username, username) && equal(this.password, password);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return matches(other.username, other.password);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (username == null ? 0 : username.hashCode()) + (password == null ? 0 : password.hashCode());
+    }
+
+    private static boolean equal(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A change of the idle target made by adaptive pool sizing.
+ *
+ * @see PooledDataSource#setPoolAdaptiveSizing(boolean)
+ * @see PoolSizingListener
+ */
+public class PoolSizingEvent {
+
+  public enum Reason {
+    /** Requests had to wait for a connection. */
+    WAITING,
+    /** More connections were in use than the pool kept idle. */
+    UTILIZATION,
+    /** Idle connections were not needed for several housekeeping runs. */
+    IDLE
+  }
+
+  private final long timestamp;
+  private final Reason reason;
+  private final int previousIdleTarget;
+  private final int idleTarget;
+  private final int peakActiveConnections;
+  private final long waitCount;
+  private final long averageWaitTime;
+
+  public PoolSizingEvent(long timestamp, Reason reason, int previousIdleTarget, int idleTarget,
+      int peakActiveConnections, long waitCount, long averageWaitTime) {
+    this.timestamp = timestamp;
+    this.reason = reason;
+    this.previousIdleTarget = previousIdleTarget;
+    this.idleTarget = idleTarget;
+    this.peakActiveConnections = peakActiveConnections;
+    this.waitCount = waitCount;
+    this.averageWaitTime = averageWaitTime;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public Reason getReason() {
+    return reason;
+  }
+
+  public int getPreviousIdleTarget() {
+    return previousIdleTarget;
+  }
+
+  public int getIdleTarget() {
+    return idleTarget;
+  }
+
+  /*
+   * The highest number of connections in use since the previous housekeeping run
+   */
+  public int getPeakActiveConnections() {
+    return peakActiveConnections;
+  }
+
+  /*
+   * The number of requests that had to wait since the previous housekeeping run
+   */
+  public long getWaitCount() {
+    return waitCount;
+  }
+
+  public long getAverageWaitTime() {
+    return averageWaitTime;
+  }
+
+  @Override
+  public String toString() {
+    return "Idle target " + previousIdleTarget + " -> " + idleTarget + " (" + reason + ", peakActive=" + peakActiveConnections
+        + ", waits=" + waitCount + ", averageWaitTime=" + averageWaitTime + ")";
+  }
+
+}
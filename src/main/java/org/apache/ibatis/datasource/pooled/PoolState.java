@@ -28,65 +28,112 @@ public class PoolState {
 
   protected PooledDataSource dataSource;
 
-  //空闲的连接
+  //默认用户名和密码的空闲连接，其他用户名的在各自的子池里
   protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
   //活动的连接
   protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
   //----------以下是一些统计信息----------
+  // striped so that pools which do not hold a lock while counting do not contend on them
   //请求次数
-  protected long requestCount = 0;
+  protected final StripedCounter requestCount = new StripedCounter();
   //总请求时间
-  protected long accumulatedRequestTime = 0;
-  protected long accumulatedCheckoutTime = 0;
-  protected long claimedOverdueConnectionCount = 0;
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
+  protected final StripedCounter accumulatedRequestTime = new StripedCounter();
+  protected final StripedCounter accumulatedCheckoutTime = new StripedCounter();
+  protected final StripedCounter claimedOverdueConnectionCount = new StripedCounter();
+  protected final StripedCounter accumulatedCheckoutTimeOfOverdueConnections = new StripedCounter();
   //总等待时间
-  protected long accumulatedWaitTime = 0;
+  protected final StripedCounter accumulatedWaitTime = new StripedCounter();
   //要等待的次数
-  protected long hadToWaitCount = 0;
+  protected final StripedCounter hadToWaitCount = new StripedCounter();
   //坏的连接次数
-  protected long badConnectionCount = 0;
+  protected final StripedCounter badConnectionCount = new StripedCounter();
+  //新建的连接数
+  protected final StripedCounter createdConnectionCount = new StripedCounter();
+  //PreparedStatement缓存命中、未命中、淘汰次数
+  protected final StripedCounter statementCacheHitCount = new StripedCounter();
+  protected final StripedCounter statementCacheMissCount = new StripedCounter();
+  protected final StripedCounter statementCacheEvictionCount = new StripedCounter();
+  //等待时间分布
+  protected final LatencyHistogram waitTimeHistogram = new LatencyHistogram();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  public long getRequestCount() {
+    return requestCount.sum();
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageRequestTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedRequestTime.sum() / requests;
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+  public long getAverageWaitTime() {
+    long waits = hadToWaitCount.sum();
+    return waits == 0 ? 0 : accumulatedWaitTime.sum() / waits;
 
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  /*
+   * Time spent waiting by the requests that had to wait, as the upper bound of a power of two bucket
+   *
+   * @param percentile - between 0 and 100, e.g. 99 for the 99th percentile
+   * @return the wait time in milliseconds
+   */
+  public long getWaitTimePercentile(double percentile) {
+    return waitTimeHistogram.getPercentile(percentile);
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.sum();
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.sum();
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount.sum();
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  public long getHadToWaitCount() {
+    return hadToWaitCount.sum();
+  }
+
+  public long getBadConnectionCount() {
+    return badConnectionCount.sum();
+  }
+
+  public long getCreatedConnectionCount() {
+    return createdConnectionCount.sum();
+  }
+
+  /*
+   * The number of connections kept idle when they are returned, which moves with the load
+   * when poolAdaptiveSizing is on and is poolMaximumIdleConnections otherwise
+   */
+  public int getIdleTarget() {
+    return dataSource.getIdleTarget();
+  }
+
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.sum();
+  }
+
+  public long getAverageOverdueCheckoutTime() {
+    long overdue = claimedOverdueConnectionCount.sum();
+    return overdue == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections.sum() / overdue;
+  }
+
+  public long getAverageCheckoutTime() {
+    long requests = requestCount.sum();
+    return requests == 0 ? 0 : accumulatedCheckoutTime.sum() / requests;
   }
 
 
   public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+    return dataSource.countIdleConnections();
   }
 
   public synchronized int getActiveConnectionCount() {
@@ -106,12 +153,24 @@ public class PoolState {
     builder.append("\n poolMaxIdleConnections         ").append(dataSource.poolMaximumIdleConnections);
     builder.append("\n poolMaxCheckoutTime            ").append(dataSource.poolMaximumCheckoutTime);
     builder.append("\n poolTimeToWait                 ").append(dataSource.poolTimeToWait);
+    builder.append("\n poolMaximumWaitTime            ").append(dataSource.poolMaximumWaitTime);
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolValidationTimeout          ").append(dataSource.poolValidationTimeout);
+    builder.append("\n poolHousekeepingInterval       ").append(dataSource.poolHousekeepingInterval);
+    builder.append("\n poolPreparedStatementCacheSize ").append(dataSource.poolPreparedStatementCacheSize);
+    builder.append("\n poolMinimumIdleConnections     ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolMaximumIdleTime            ").append(dataSource.poolMaximumIdleTime);
+    builder.append("\n poolMaximumConnectionAge       ").append(dataSource.poolMaximumConnectionAge);
+    builder.append("\n poolAdaptiveSizing             ").append(dataSource.poolAdaptiveSizing);
+    builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
+    builder.append("\n poolLeakDetectionSampleRate    ").append(dataSource.poolLeakDetectionSampleRate);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n idleTarget                     ").append(getIdleTarget());
+    builder.append("\n createdConnections             ").append(getCreatedConnectionCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -119,7 +178,11 @@ public class PoolState {
     builder.append("\n averageOverdueCheckoutTime     ").append(getAverageOverdueCheckoutTime());
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
+    builder.append("\n waitTime50/95/99thPercentile   ").append(getWaitTimePercentile(50)).append('/')
+        .append(getWaitTimePercentile(95)).append('/').append(getWaitTimePercentile(99));
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n statementCacheHit/Miss/Evicted ").append(getStatementCacheHitCount()).append('/')
+        .append(getStatementCacheMissCount()).append('/').append(getStatementCacheEvictionCount());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -15,13 +15,9 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
-
-import org.apache.ibatis.reflection.ExceptionUtil;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author Clinton Begin
@@ -29,22 +25,38 @@ import org.apache.ibatis.reflection.ExceptionUtil;
 /**
  * 池化的连接
  */
-class PooledConnection implements InvocationHandler {
+class PooledConnection {
+
+  // states used by the ConcurrentBag of ConcurrentPooledDataSource
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+  static final int STATE_RESERVED = -2;
 
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+  private static final AtomicIntegerFieldUpdater<PooledConnection> STATE_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "state");
 
   private int hashCode = 0;
   private PooledDataSource dataSource;
   //真正的连接
   private Connection realConnection;
   //代理的连接
-  private Connection proxyConnection;
+  private volatile Connection proxyConnection;
   private long checkoutTimestamp;
   private long createdTimestamp;
   private long lastUsedTimestamp;
+  private volatile long lastValidatedTimestamp;
   private int connectionTypeCode;
-  private boolean valid;
+  //连接属于哪个子池（用户名和密码）
+  private PoolPartition partition;
+  private volatile boolean valid;
+  private volatile int state = STATE_NOT_IN_USE;
+  //缓存的PreparedStatement，跟着真正的连接走
+  private PreparedStatementCache statementCache;
+  //泄漏检测：在哪里、被哪个线程checkout的
+  private volatile Throwable checkoutSite;
+  private volatile String checkoutThreadName;
+  private volatile boolean leakReported;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -59,7 +71,61 @@ class PooledConnection implements InvocationHandler {
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.proxyConnection = newProxyConnection();
+  }
+
+  /*
+   * Constructor for a connection opened for one partition of the pool
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param partition - the partition of the credentials the connection was opened with
+   */
+  PooledConnection(Connection connection, PooledDataSource dataSource, PoolPartition partition) {
+    this(connection, dataSource);
+    this.partition = partition;
+    this.connectionTypeCode = partition.getConnectionTypeCode();
+  }
+
+  /*
+   * Constructor for a new pooled connection wrapping the same real connection as
+   * one returned to the pool, which gets invalidated
+   *
+   * @param previous - the pooled connection that was returned
+   */
+  PooledConnection(PooledConnection previous) {
+    this(previous.realConnection, previous.dataSource);
+    this.createdTimestamp = previous.createdTimestamp;
+    this.lastUsedTimestamp = previous.lastUsedTimestamp;
+    this.lastValidatedTimestamp = previous.lastValidatedTimestamp;
+    this.statementCache = previous.statementCache;
+    this.partition = previous.partition;
+    this.connectionTypeCode = previous.connectionTypeCode;
+  }
+
+  private Connection newProxyConnection() {
+    return new ProxyConnection(this);
+  }
+
+  /*
+   * Replaces the proxy handed out to callers so that any previously handed out
+   * proxy stops working. Used by pools that keep the same PooledConnection for
+   * the whole life of the real connection.
+   */
+  void renewProxyConnection() {
+    this.proxyConnection = newProxyConnection();
+  }
+
+  int getState() {
+    return state;
+  }
+
+  void setState(int state) {
+    this.state = state;
+  }
+
+  boolean compareAndSetState(int expect, int update) {
+    return STATE_UPDATER.compareAndSet(this, expect, update);
   }
 
   /*
@@ -78,6 +144,44 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Method to see if the connection is usable
+   *
+   * @param runPingQuery - false to skip the ping query even if it is enabled
+   * @return True if the connection is usable
+   */
+  boolean isValid(boolean runPingQuery) {
+    if (runPingQuery) {
+      return isValid();
+    }
+    return valid && realConnection != null && dataSource.pingConnection(this, false);
+  }
+
+  /*
+   * Closes the cached prepared statements, if any
+   */
+  void closeStatementCache() {
+    if (statementCache != null) {
+      statementCache.close();
+    }
+  }
+
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Getter for the prepared statement cache, created on first use
+   *
+   * @return The cache, or null if statement caching is disabled
+   */
+  PreparedStatementCache getOrCreateStatementCache() {
+    if (statementCache == null && dataSource.poolPreparedStatementCacheSize > 0) {
+      statementCache = new PreparedStatementCache(dataSource.poolPreparedStatementCacheSize, dataSource.getPoolState());
+    }
+    return statementCache;
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -105,6 +209,10 @@ class PooledConnection implements InvocationHandler {
     return realConnection == null ? 0 : realConnection.hashCode();
   }
 
+  PoolPartition getPartition() {
+    return partition;
+  }
+
   /*
    * Getter for the connection type (based on url + user + password)
    *
@@ -159,6 +267,24 @@ class PooledConnection implements InvocationHandler {
     this.lastUsedTimestamp = lastUsedTimestamp;
   }
 
+  /*
+   * Getter for the time that the connection was last validated in the background
+   *
+   * @return - the timestamp, 0 if never validated
+   */
+  public long getLastValidatedTimestamp() {
+    return lastValidatedTimestamp;
+  }
+
+  /*
+   * Setter for the time that the connection was last validated in the background
+   *
+   * @param lastValidatedTimestamp - the timestamp
+   */
+  public void setLastValidatedTimestamp(long lastValidatedTimestamp) {
+    this.lastValidatedTimestamp = lastValidatedTimestamp;
+  }
+
   /*
    * Getter for the time since this connection was last used
    *
@@ -195,6 +321,31 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  /*
+   * Records where this checkout happened for leak detection
+   *
+   * @param checkoutSite - a throwable created at the checkout, null if the checkout was not sampled
+   */
+  void setCheckoutSite(Throwable checkoutSite, String checkoutThreadName) {
+    this.checkoutSite = checkoutSite;
+    this.checkoutThreadName = checkoutThreadName;
+    this.leakReported = false;
+  }
+
+  /*
+   * Creates a leak report for the current checkout, at most once per checkout unless claimed
+   *
+   * @return the report, or null if this checkout was already reported
+   */
+  ConnectionLeakEvent reportLeak(long now, boolean claimed) {
+    if (leakReported && !claimed) {
+      return null;
+    }
+    leakReported = true;
+    return new ConnectionLeakEvent(getRealHashCode(), checkoutTimestamp, now - checkoutTimestamp,
+        checkoutThreadName, checkoutSite, claimed);
+  }
+
   /*
    * Getter for the time that this connection has been checked out
    *
@@ -227,38 +378,19 @@ class PooledConnection implements InvocationHandler {
   }
 
   /*
-   * Required for InvocationHandler implementation.
+   * Called when a proxy is closed. Instead of closing the real connection, returns it to the pool.
    *
-   * @param proxy  - not used
-   * @param method - the method to be executed
-   * @param args   - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
+   * @param proxy - the proxy that was closed
    */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    //如果调用close的话，忽略它，反而将这个connection加入到池中
-    if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
+  void close(Connection proxy) throws SQLException {
+    // a proxy that has been replaced was already returned to the pool
+    if (proxy == proxyConnection) {
       dataSource.pushConnection(this);
-      return null;
-    } else {
-      try {
-        if (!Object.class.equals(method.getDeclaringClass())) {
-          // issue #579 toString() should never fail
-          // throw an SQLException instead of a Runtime
-        	//除了toString()方法，其他方法调用之前要检查connection是否还是合法的,不合法要抛出SQLException
-          checkConnection();
-        }
-        //其他的方法，则交给真正的connection去调用
-        return method.invoke(realConnection, args);
-      } catch (Throwable t) {
-        throw ExceptionUtil.unwrapThrowable(t);
-      }
     }
   }
 
-  private void checkConnection() throws SQLException {
-    if (!valid) {
+  void checkConnection(Connection proxy) throws SQLException {
+    if (!valid || proxy != proxyConnection) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
     }
   }
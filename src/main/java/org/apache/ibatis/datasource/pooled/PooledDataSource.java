@@ -16,14 +16,19 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -48,11 +53,20 @@ public class PooledDataSource implements DataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  private static final String NO_PING_QUERY = "NO PING QUERY SET";
+
+  //等待连接的线程，先来先得，由state锁保护
+  private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+  //后台线程正在新建的连接数，由state锁保护
+  private int pendingConnections;
+
+  private volatile PoolHousekeeper housekeeper;
+
   //有一个池状态
-  private final PoolState state = new PoolState(this);
+  protected final PoolState state = newPoolState();
 
   //里面有一个UnpooledDataSource
-  private final UnpooledDataSource dataSource;
+  protected final UnpooledDataSource dataSource;
 
   // OPTIONAL CONFIGURATION FIELDS
   //正在使用连接的数量
@@ -64,46 +78,87 @@ public class PooledDataSource implements DataSource {
   //这是给连接池一个打印日志状态机会的低层次设置,还有重新 尝试获得连接, 这些情况下往往需要很长时间 为了避免连接池没有配置时静默失 败)。
   protected int poolTimeToWait = 20000;
   //发送到数据的侦测查询,用来验证连接是否正常工作,并且准备 接受请求。默认是“NO PING QUERY SET” ,这会引起许多数据库驱动连接由一 个错误信息而导致失败
-  protected String poolPingQuery = "NO PING QUERY SET";
+  protected String poolPingQuery = NO_PING_QUERY;
   //开启或禁用侦测查询
   protected boolean poolPingEnabled = false;
   //用来配置 poolPingQuery 多次时间被用一次
   protected int poolPingConnectionsNotUsedFor = 0;
-
-  private int expectedConnectionTypeCode;
+  //没有设置侦测查询时，Connection.isValid最多等几秒，0表示不限
+  protected int poolValidationTimeout = 0;
+  //一次请求最多等待多长时间，0表示一直等下去
+  protected int poolMaximumWaitTime = 0;
+  //后台线程多久整理一次连接池，0表示不启用后台线程
+  protected int poolHousekeepingInterval = 0;
+  //后台线程保持的最少空闲连接数
+  protected int poolMinimumIdleConnections = 0;
+  //空闲多久的连接会被关闭，0表示不关闭
+  protected int poolMaximumIdleTime = 0;
+  //连接最长能用多久，0表示不限
+  protected int poolMaximumConnectionAge = 0;
+  //每个连接缓存多少个PreparedStatement，0表示不缓存
+  protected int poolPreparedStatementCacheSize = 0;
+  //根据等待和使用情况调整空闲连接数
+  protected boolean poolAdaptiveSizing = false;
+  //checkout多久之后报告连接泄漏，0表示不检测
+  protected int poolLeakDetectionThreshold = 0;
+  //每几次checkout记录一次调用栈
+  protected int poolLeakDetectionSampleRate = 1;
+
+  //默认用户名和密码的连接类型
+  protected int expectedConnectionTypeCode;
+
+  //按用户名和密码分开的子池，各有各的空闲连接，但共用连接池的上限
+  private final ConcurrentHashMap<PoolPartition.Key, PoolPartition> partitions = new ConcurrentHashMap<PoolPartition.Key, PoolPartition>();
+  // partitions.values() for iterating without allocation, replaced while holding the partitions lock
+  private volatile PoolPartition[] partitionArray = new PoolPartition[0];
+  private volatile PoolPartition defaultPartition;
+  private final AdaptivePoolSizer sizer = new AdaptivePoolSizer(poolMaximumIdleConnections);
+  private volatile PoolSizingListener poolSizingListener;
+  private volatile ConnectionLeakListener connectionLeakListener;
+  private volatile ConnectionValidator connectionValidator;
+  // not atomic, sampling does not need every checkout to be counted
+  private int leakSampleCounter;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
+    resetPartitions();
   }
 
   public PooledDataSource(String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetPartitions();
   }
 
   public PooledDataSource(String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetPartitions();
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, String username, String password) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, username, password);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetPartitions();
   }
 
   public PooledDataSource(ClassLoader driverClassLoader, String driver, String url, Properties driverProperties) {
     dataSource = new UnpooledDataSource(driverClassLoader, driver, url, driverProperties);
-    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    resetPartitions();
   }
 
   @Override
   public Connection getConnection() throws SQLException {
 	  //覆盖了DataSource.getConnection方法，每次都是pop一个Connection，即从池中取出一个来
+    startHousekeeper();
     return popConnection(dataSource.getUsername(), dataSource.getPassword()).getProxyConnection();
   }
 
+  /*
+   * Gets a connection from the partition of the pool for these credentials. Connections
+   * are only reused for the credentials they were opened with, while poolMaximumActiveConnections
+   * and the idle limit apply to all partitions together.
+   */
   @Override
   public Connection getConnection(String username, String password) throws SQLException {
+    startHousekeeper();
     return popConnection(username, password).getProxyConnection();
   }
 
@@ -204,7 +259,139 @@ public class PooledDataSource implements DataSource {
   }
 
   /*
-   * The query to be used to check a connection
+   * The maximum time a request waits for a connection before failing with an SQLException.
+   * Waiting requests are served in arrival order.
+   *
+   * @param poolMaximumWaitTime The time in milliseconds, 0 to wait forever
+   */
+  public void setPoolMaximumWaitTime(int poolMaximumWaitTime) {
+    this.poolMaximumWaitTime = poolMaximumWaitTime;
+    forceCloseAll();
+  }
+
+  /*
+   * How often a background thread evicts, validates and creates idle connections.
+   * While it runs, connections taken from the pool are not pinged on checkout.
+   *
+   * @param poolHousekeepingInterval The interval in milliseconds, 0 to disable the background thread
+   */
+  public void setPoolHousekeepingInterval(int poolHousekeepingInterval) {
+    this.poolHousekeepingInterval = poolHousekeepingInterval;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the background thread keeps open with the
+   * configured username and password
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which the background thread closes an unused idle connection,
+   * unless that would take the pool below its minimum idle count
+   *
+   * @param poolMaximumIdleTime The time in milliseconds, 0 to keep idle connections
+   */
+  public void setPoolMaximumIdleTime(int poolMaximumIdleTime) {
+    this.poolMaximumIdleTime = poolMaximumIdleTime;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which the background thread replaces an idle connection
+   *
+   * @param poolMaximumConnectionAge The time in milliseconds since the connection was opened, 0 for no limit
+   */
+  public void setPoolMaximumConnectionAge(int poolMaximumConnectionAge) {
+    this.poolMaximumConnectionAge = poolMaximumConnectionAge;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of prepared statements each connection keeps open for reuse.
+   * Closing a statement gives it back to the cache of its connection, so the same
+   * SQL prepared again on that connection skips Connection.prepareStatement.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements, 0 to disable the cache
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /*
+   * Lets the housekeeping thread move the number of connections kept idle with the load,
+   * between poolMinimumIdleConnections and poolMaximumActiveConnections, starting from
+   * poolMaximumIdleConnections. It grows when requests wait or when more connections are
+   * in use than are kept, and shrinks slowly when idle connections are not needed.
+   * Requires poolHousekeepingInterval.
+   *
+   * @param poolAdaptiveSizing true to enable adaptive sizing
+   */
+  public void setPoolAdaptiveSizing(boolean poolAdaptiveSizing) {
+    this.poolAdaptiveSizing = poolAdaptiveSizing;
+    forceCloseAll();
+  }
+
+  /*
+   * Receives every change adaptive sizing makes to the idle target
+   *
+   * @param poolSizingListener The listener, or null
+   */
+  public void setPoolSizingListener(PoolSizingListener poolSizingListener) {
+    this.poolSizingListener = poolSizingListener;
+  }
+
+  /*
+   * Reports connections checked out longer than this through the log and the
+   * ConnectionLeakListener, with the stack trace of the checkout if it was sampled.
+   * Connections claimed back after poolMaximumCheckoutTime are reported too.
+   * Checked by the housekeeping thread, see poolHousekeepingInterval.
+   *
+   * @param poolLeakDetectionThreshold The time in milliseconds, 0 to disable leak detection
+   */
+  public void setPoolLeakDetectionThreshold(int poolLeakDetectionThreshold) {
+    this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+    forceCloseAll();
+  }
+
+  /*
+   * Records the stack trace of one checkout in this many, since creating it is
+   * the main cost of leak detection
+   *
+   * @param poolLeakDetectionSampleRate 1 to record every checkout
+   */
+  public void setPoolLeakDetectionSampleRate(int poolLeakDetectionSampleRate) {
+    this.poolLeakDetectionSampleRate = poolLeakDetectionSampleRate;
+    forceCloseAll();
+  }
+
+  /*
+   * Receives the connections reported by leak detection
+   *
+   * @param connectionLeakListener The listener, or null
+   */
+  public void setConnectionLeakListener(ConnectionLeakListener connectionLeakListener) {
+    this.connectionLeakListener = connectionLeakListener;
+  }
+
+  /*
+   * Replaces the check made by poolPingQuery or Connection.isValid
+   *
+   * @param connectionValidator the validator, null to go back to the configured check
+   */
+  public void setConnectionValidator(ConnectionValidator connectionValidator) {
+    this.connectionValidator = connectionValidator;
+  }
+
+  /*
+   * The query to be used to check a connection. Without one connections are
+   * checked with Connection.isValid.
    *
    * @param poolPingQuery The query
    */
@@ -224,7 +411,7 @@ public class PooledDataSource implements DataSource {
   }
 
   /*
-   * If a connection has not been used in this many milliseconds, ping the
+   * If a connection has not been used or checked in this many milliseconds, ping the
    * database to make sure the connection is still good.
    *
    * @param milliseconds the number of milliseconds of inactivity that will trigger a ping
@@ -234,6 +421,16 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * How long Connection.isValid may wait for the database when no ping query is set
+   *
+   * @param poolValidationTimeout The time in seconds, 0 for no limit
+   */
+  public void setPoolValidationTimeout(int poolValidationTimeout) {
+    this.poolValidationTimeout = poolValidationTimeout;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -278,6 +475,50 @@ public class PooledDataSource implements DataSource {
     return poolTimeToWait;
   }
 
+  public int getPoolMaximumWaitTime() {
+    return poolMaximumWaitTime;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolMaximumConnectionAge() {
+    return poolMaximumConnectionAge;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public boolean isPoolAdaptiveSizing() {
+    return poolAdaptiveSizing;
+  }
+
+  public PoolSizingListener getPoolSizingListener() {
+    return poolSizingListener;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleRate() {
+    return poolLeakDetectionSampleRate;
+  }
+
+  public ConnectionLeakListener getConnectionLeakListener() {
+    return connectionLeakListener;
+  }
+
   public String getPoolPingQuery() {
     return poolPingQuery;
   }
@@ -290,17 +531,38 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolValidationTimeout() {
+    return poolValidationTimeout;
+  }
+
+  /*
+   * @return the validator that was set, or the one for the configured ping query or validation timeout
+   */
+  public ConnectionValidator getConnectionValidator() {
+    ConnectionValidator validator = connectionValidator;
+    if (validator != null) {
+      return validator;
+    }
+    if (poolPingQuery == null || NO_PING_QUERY.equals(poolPingQuery)) {
+      return new IsValidConnectionValidator(poolValidationTimeout);
+    }
+    return new QueryConnectionValidator(poolPingQuery);
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
   public void forceCloseAll() {
+    stopHousekeeper();
     synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+      resetAdaptiveSizing();
+      List<PoolPartition> retired = resetPartitions();
       //关闭所有的activeConnections和idleConnections
       for (int i = state.activeConnections.size(); i > 0; i--) {
         try {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
+          conn.closeStatementCache();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -311,18 +573,21 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
-          conn.invalidate();
+      for (PoolPartition partition : retired) {
+        for (int i = partition.idleConnections.size(); i > 0; i--) {
+          try {
+            PooledConnection conn = partition.idleConnections.remove(i - 1);
+            conn.invalidate();
+            conn.closeStatementCache();
 
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
+            Connection realConn = conn.getRealConnection();
+            if (!realConn.getAutoCommit()) {
+              realConn.rollback();
+            }
+            realConn.close();
+          } catch (Exception e) {
+            // ignore
           }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
         }
       }
     }
@@ -335,145 +600,296 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
-  private int assembleConnectionTypeCode(String url, String username, String password) {
+  /*
+   * Creates the state holder of this pool. Called once while the pool is being constructed.
+   *
+   * @return the pool state
+   */
+  protected PoolState newPoolState() {
+    return new PoolState(this);
+  }
+
+  protected int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
+  /*
+   * Creates the partition for a set of credentials. The connection type code is computed here,
+   * once per partition.
+   *
+   * @param isDefault - true for the partition of the configured username and password
+   */
+  PoolPartition newPartition(String username, String password, boolean isDefault) {
+    // the default partition keeps its idle connections in the pool state
+    return new PoolPartition(username, password, assembleConnectionTypeCode(dataSource.getUrl(), username, password),
+        isDefault ? state.idleConnections : new ArrayList<PooledConnection>());
+  }
+
+  /*
+   * @return the partition for the credentials, created on first use
+   */
+  PoolPartition getPartition(String username, String password) {
+    PoolPartition partition = defaultPartition;
+    if (partition.matches(username, password)) {
+      return partition;
+    }
+    PoolPartition.Key key = new PoolPartition.Key(username, password);
+    partition = partitions.get(key);
+    if (partition != null) {
+      return partition;
+    }
+    synchronized (partitions) {
+      partition = partitions.get(key);
+      if (partition == null) {
+        partition = newPartition(username, password, false);
+        partitions.put(key, partition);
+        PoolPartition[] array = Arrays.copyOf(partitionArray, partitionArray.length + 1);
+        array[array.length - 1] = partition;
+        partitionArray = array;
+        if (log.isDebugEnabled()) {
+          log.debug("Created partition for user " + username + ".");
+        }
+      }
+      return partition;
+    }
+  }
+
+  PoolPartition getDefaultPartition() {
+    return defaultPartition;
+  }
+
+  PoolPartition[] getPartitions() {
+    return partitionArray;
+  }
+
+  /*
+   * Replaces all partitions by an empty one for the configured credentials.
+   *
+   * @return the replaced partitions, now retired, whose connections the caller closes
+   */
+  List<PoolPartition> resetPartitions() {
+    synchronized (partitions) {
+      List<PoolPartition> retired = new ArrayList<PoolPartition>(Arrays.asList(partitionArray));
+      partitions.clear();
+      PoolPartition partition = newPartition(dataSource.getUsername(), dataSource.getPassword(), true);
+      partitions.put(partition.getKey(), partition);
+      partitionArray = new PoolPartition[] { partition };
+      defaultPartition = partition;
+      expectedConnectionTypeCode = partition.getConnectionTypeCode();
+      for (PoolPartition p : retired) {
+        p.retire();
+      }
+      return retired;
+    }
+  }
+
+  /*
+   * Drops a partition that has no connections left. A connection opened for it afterwards is closed when it is returned.
+   */
+  void removePartition(PoolPartition partition) {
+    synchronized (partitions) {
+      if (partition == defaultPartition || !partitions.remove(partition.getKey(), partition)) {
+        return;
+      }
+      List<PoolPartition> remaining = new ArrayList<PoolPartition>(Arrays.asList(partitionArray));
+      remaining.remove(partition);
+      partitionArray = remaining.toArray(new PoolPartition[remaining.size()]);
+      partition.retire();
+      if (log.isDebugEnabled()) {
+        log.debug("Removed unused " + partition + ".");
+      }
+    }
+  }
+
+  /*
+   * @return true if connections of the partition may go back to the pool
+   */
+  static boolean isCurrent(PoolPartition partition) {
+    return partition != null && !partition.isRetired();
+  }
+
+  /*
+   * The number of idle connections of all partitions. Must be called holding the state lock.
+   */
+  int countIdleConnections() {
+    int count = 0;
+    for (PoolPartition partition : partitionArray) {
+      count += partition.idleConnections.size();
+    }
+    return count;
+  }
+
   protected void pushConnection(PooledConnection conn) throws SQLException {
 
     synchronized (state) {
       //先从activeConnections中删除此connection
       state.activeConnections.remove(conn);
-      if (conn.isValid()) {
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+      // the caller has just used it, so it is not pinged on the way back
+      if (conn.isValid(false)) {
+        PoolPartition partition = conn.getPartition();
+        Waiter first = waiters.isEmpty() ? null : waiters.getFirst();
+        if (first != null && first.partition == partition && isCurrent(partition)) {
+          //有线程在等待，直接交给等得最久的那个
+          state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
+          if (!conn.getRealConnection().getAutoCommit()) {
+            conn.getRealConnection().rollback();
+          }
+          PooledConnection newConn = new PooledConnection(conn);
+          conn.invalidate();
+          //交出去的连接在对方醒来之前也算活动的，不然别的线程会以为有空位再建一个
+          newConn.setCheckoutTimestamp(System.currentTimeMillis());
+          state.activeConnections.add(newConn);
+          waiters.removeFirst();
+          first.connection = newConn;
+          first.signal();
+          if (log.isDebugEnabled()) {
+            log.debug("Handed connection " + newConn.getRealHashCode() + " over to a waiting thread.");
+          }
+        } else if (first == null && countIdleConnections() < getIdleTarget() && isCurrent(partition)) {
       	  //如果空闲的连接太少，
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
-          //new一个新的Connection，加入到idle列表
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          //new一个新的Connection，加入到它的子池的idle列表
+          PooledConnection newConn = new PooledConnection(conn);
+          partition.idleConnections.add(newConn);
           conn.invalidate();
           if (log.isDebugEnabled()) {
             log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
           }
-          //通知其他线程可以来抢connection了
-          state.notifyAll();
         } else {
-        	//否则，即空闲的连接已经足够了
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
+        	//否则，即空闲的连接已经足够了，或者等得最久的线程要的是别的用户名的连接
+          state.accumulatedCheckoutTime.add(conn.getCheckoutTime());
           if (!conn.getRealConnection().getAutoCommit()) {
             conn.getRealConnection().rollback();
           }
           //那就将connection关闭就可以了
+          conn.closeStatementCache();
           conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
           }
           conn.invalidate();
+          //空出了一个位置，让等得最久的线程去新建连接（先来先得，哪怕它要的是别的用户名）
+          signalFirstWaiter();
         }
       } else {
         if (log.isDebugEnabled()) {
           log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
         }
-        state.badConnectionCount++;
+        state.badConnectionCount.increment();
+        signalFirstWaiter();
       }
     }
   }
 
-  private PooledConnection popConnection(String username, String password) throws SQLException {
+  protected PooledConnection popConnection(String username, String password) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
+    PoolPartition partition = getPartition(username, password);
     long t = System.currentTimeMillis();
+    long deadline = poolMaximumWaitTime > 0 ? t + poolMaximumWaitTime : Long.MAX_VALUE;
     int localBadConnectionCount = 0;
+    //排队等待时的位置，等待的线程按先来后到拿连接
+    Waiter waiter = null;
+    long wt = 0;
 
-    //最外面是while死循环，如果一直拿不到connection，则不断尝试
     while (conn == null) {
+      long timeToWait = 0;
       synchronized (state) {
-        if (!state.idleConnections.isEmpty()) {
-          //如果有空闲的连接的话
-          // Pool has available connection
-          //删除空闲列表里第一个，返回
-          conn = state.idleConnections.remove(0);
+        if (partition.isRetired()) {
+          // replaced by forceCloseAll or dropped by the housekeeping thread
+          partition = getPartition(username, password);
+          if (waiter != null) {
+            waiter.partition = partition;
+          }
+        }
+        if (waiter != null && waiter.connection != null) {
+          //pushConnection已经把连接交给我们了
+          conn = waiter.connection;
+          waiter = null;
           if (log.isDebugEnabled()) {
-            log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+            log.debug("Received connection " + conn.getRealHashCode() + " from a returning thread.");
           }
-        } else {
-        	//如果没有空闲的连接
-          // Pool does not have available connection
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-        	  //如果activeConnections太少,那就new一个PooledConnection
-            // Can create new connection
-            conn = new PooledConnection(dataSource.getConnection(), this);
+        } else if (waiters.isEmpty() || waiters.getFirst() == waiter) {
+          //前面没有人在排队
+          try {
+            conn = takeOrCreateConnection(partition);
+          } catch (SQLException e) {
+            if (waiter != null) {
+              waiters.remove(waiter);
+              signalFirstWaiter();
+            }
+            throw e;
+          }
+          if (conn != null && waiter != null) {
+            waiters.remove(waiter);
+            waiter = null;
+          }
+        }
+        if (conn == null) {
+          // Must wait
+          long now = System.currentTimeMillis();
+          if (now >= deadline) {
+            if (waiter != null) {
+              waiters.remove(waiter);
+              state.accumulatedWaitTime.add(now - wt);
+              state.waitTimeHistogram.record(now - wt);
+              //可能刚被叫醒过，把机会让给下一个
+              signalFirstWaiter();
+            }
             if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
+              log.debug("PooledDataSource: Timed out after waiting " + poolMaximumWaitTime + " milliseconds for a connection.");
             }
-          } else {
-        	  //如果activeConnections已经很多了，那不能再new了
-            // Cannot create new connection
-        	  //取得activeConnections列表的第一个（最老的）
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-            	//如果checkout时间过长，则这个connection标记为overdue（过期）
-              // Can claim overdue connection
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              state.activeConnections.remove(oldestActiveConnection);
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                oldestActiveConnection.getRealConnection().rollback();
-              }
-              //删掉最老的连接，然后再new一个新连接
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            } else {
-            	//如果checkout时间不够长，等待吧
-              // Must wait
-              try {
-                if (!countedWait) {
-                	//统计信息：等待+1
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                //睡一会儿吧
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-              } catch (InterruptedException e) {
-                break;
-              }
+            throw new SQLException("PooledDataSource: Timed out after waiting " + poolMaximumWaitTime + " milliseconds for a connection.");
+          }
+          if (waiter == null) {
+            waiter = new Waiter(partition);
+            waiters.addLast(waiter);
+            if (!countedWait) {
+              //统计信息：等待+1
+              state.hadToWaitCount.increment();
+              countedWait = true;
+              wt = now;
             }
           }
-        }
-        if (conn != null) {
+          timeToWait = Math.min(poolTimeToWait, deadline - now);
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + timeToWait + " milliseconds for connection.");
+          }
+        } else {
+          if (countedWait && wt > 0) {
+            long waited = System.currentTimeMillis() - wt;
+            state.accumulatedWaitTime.add(waited);
+            state.waitTimeHistogram.record(waited);
+            wt = 0;
+          }
         	//如果已经拿到connection，则返回
-          if (conn.isValid()) {
+          if (isValidForCheckout(conn)) {
             if (!conn.getRealConnection().getAutoCommit()) {
               conn.getRealConnection().rollback();
             }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
             //记录checkout时间
             conn.setCheckoutTimestamp(System.currentTimeMillis());
             conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
+            if (poolLeakDetectionThreshold > 0) {
+              recordCheckoutSite(conn);
+            }
+            if (!state.activeConnections.contains(conn)) {
+              //交接来的连接已经在activeConnections里了
+              state.activeConnections.add(conn);
+            }
+            recordCheckout(state.activeConnections.size());
+            state.requestCount.increment();
+            state.accumulatedRequestTime.add(System.currentTimeMillis() - t);
           } else {
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
             //如果没拿到，统计信息：坏连接+1
-            state.badConnectionCount++;
+            state.activeConnections.remove(conn);
+            state.badConnectionCount.increment();
             localBadConnectionCount++;
             conn = null;
             if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
@@ -481,24 +897,443 @@ public class PooledDataSource implements DataSource {
               if (log.isDebugEnabled()) {
                 log.debug("PooledDataSource: Could not get a good connection to the database.");
               }
+              signalFirstWaiter();
               throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
             }
           }
         }
       }
 
+      if (timeToWait > 0) {
+        //睡一会儿吧，只有pushConnection会叫醒我们
+        try {
+          waiter.await(timeToWait);
+        } catch (InterruptedException e) {
+          synchronized (state) {
+            if (waiter.connection != null) {
+              // handed over while we were interrupted, give it back
+              pushConnection(waiter.connection);
+            } else {
+              waiters.remove(waiter);
+            }
+          }
+          Thread.currentThread().interrupt();
+          throw new SQLException("PooledDataSource: Interrupted while waiting for a connection.");
+        }
+      }
     }
 
-    if (conn == null) {
+    return conn;
+  }
+
+  /*
+   * Takes an idle connection of the partition, opens a new one or claims an overdue one.
+   * Must be called holding the state lock.
+   *
+   * @return the connection, or null if the caller has to wait
+   */
+  private PooledConnection takeOrCreateConnection(PoolPartition partition) throws SQLException {
+    PooledConnection conn = null;
+    if (!partition.idleConnections.isEmpty()) {
+      //如果有空闲的连接的话
+      // Pool has available connection
+      //删除空闲列表里第一个，返回
+      conn = partition.idleConnections.remove(0);
+      if (log.isDebugEnabled()) {
+        log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+      }
+      if (partition == defaultPartition && partition.idleConnections.size() < poolMinimumIdleConnections) {
+        requestHousekeeping();
+      }
+    } else if (state.activeConnections.size() + pendingConnections < poolMaximumActiveConnections) {
+      //如果activeConnections太少,那就new一个PooledConnection
+      // Can create new connection
+      conn = new PooledConnection(partition.openConnection(dataSource), this, partition);
+      state.createdConnectionCount.increment();
       if (log.isDebugEnabled()) {
-        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+        log.debug("Created connection " + conn.getRealHashCode() + ".");
+      }
+    } else {
+      //如果activeConnections已经很多了，那不能再new了
+      // Cannot create new connection
+      //取得activeConnections列表的第一个（最老的）
+      PooledConnection oldestActiveConnection = state.activeConnections.get(0);
+      long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+      if (longestCheckoutTime > poolMaximumCheckoutTime) {
+        //如果checkout时间过长，则这个connection标记为overdue（过期）
+        // Can claim overdue connection
+        state.claimedOverdueConnectionCount.increment();
+        state.accumulatedCheckoutTimeOfOverdueConnections.add(longestCheckoutTime);
+        state.accumulatedCheckoutTime.add(longestCheckoutTime);
+        state.activeConnections.remove(oldestActiveConnection);
+        if (poolLeakDetectionThreshold > 0) {
+          reportLeak(oldestActiveConnection.reportLeak(System.currentTimeMillis(), true));
+        }
+        if (oldestActiveConnection.getPartition() == partition) {
+          if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
+            oldestActiveConnection.getRealConnection().rollback();
+          }
+          //删掉最老的连接，然后再new一个新连接
+          conn = new PooledConnection(oldestActiveConnection);
+          oldestActiveConnection.invalidate();
+          if (log.isDebugEnabled()) {
+            log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+          }
+        } else {
+          //最老的连接是别的用户名的，关掉它，用它的位置新建一个
+          closeQuietly(oldestActiveConnection);
+          conn = new PooledConnection(partition.openConnection(dataSource), this, partition);
+          state.createdConnectionCount.increment();
+          if (log.isDebugEnabled()) {
+            log.debug("Claimed overdue connection " + oldestActiveConnection.getRealHashCode() + " and replaced it with connection "
+                + conn.getRealHashCode() + ".");
+          }
+        }
       }
-      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
     }
-
     return conn;
   }
 
+  /*
+   * Evicts expired idle connections, validates the others and opens new ones up to
+   * poolMinimumIdleConnections. With adaptive sizing it first adjusts the idle target
+   * and closes the connections idle for longest beyond it. Partitions of other credentials
+   * left without connections are dropped. Called by the housekeeping thread.
+   *
+   * @param now - the current time, passed in so that tests can move the clock
+   */
+  void housekeep(long now) throws SQLException {
+    List<PooledConnection> expired = new ArrayList<PooledConnection>();
+    List<PooledConnection> toValidate = new ArrayList<PooledConnection>();
+    int toCreate;
+    PoolPartition partition;
+    PoolSizingEvent sizingEvent;
+    List<ConnectionLeakEvent> leaks;
+    synchronized (state) {
+      leaks = findLeaks(state.activeConnections, now);
+      sizingEvent = adaptIdleTarget(now, state.activeConnections.size());
+      PoolPartition[] partitions = partitionArray;
+      partition = defaultPartition;
+      if (poolAdaptiveSizing) {
+        for (int excess = countIdleConnections() - getIdleTarget(); excess > 0; excess--) {
+          expired.add(removeLongestIdleConnection(partitions));
+        }
+      }
+      int defaultIdle = 0;
+      for (PoolPartition p : partitions) {
+        int idle = p.idleConnections.size();
+        for (Iterator<PooledConnection> it = p.idleConnections.iterator(); it.hasNext();) {
+          PooledConnection conn = it.next();
+          if (isExpired(conn, now, idle)) {
+            it.remove();
+            expired.add(conn);
+            idle--;
+          } else if (needsValidation(conn, now)) {
+            // taken out of the pool while the ping runs outside the lock
+            it.remove();
+            toValidate.add(conn);
+          }
+        }
+        if (p == partition) {
+          defaultIdle = idle;
+        }
+      }
+      if (partitions.length > 1) {
+        removeUnusedPartitions(partitions, toValidate);
+      }
+      // connections being validated count against the maximum until they are back
+      pendingConnections += toValidate.size();
+      int total = state.activeConnections.size() + countIdleConnections() + pendingConnections;
+      toCreate = Math.max(0, Math.min(poolMinimumIdleConnections - defaultIdle, poolMaximumActiveConnections - total));
+      pendingConnections += toCreate;
+    }
+
+    for (ConnectionLeakEvent leak : leaks) {
+      reportLeak(leak);
+    }
+    firePoolSizingEvent(sizingEvent);
+    for (PooledConnection conn : expired) {
+      if (log.isDebugEnabled()) {
+        log.debug("Closing expired connection " + conn.getRealHashCode() + ".");
+      }
+      closeQuietly(conn);
+    }
+    for (PooledConnection conn : toValidate) {
+      boolean good = pingConnection(conn, true);
+      boolean kept = false;
+      synchronized (state) {
+        pendingConnections--;
+        if (good) {
+          conn.setLastValidatedTimestamp(now);
+          kept = returnIdleConnection(conn);
+        } else {
+          state.badConnectionCount.increment();
+          signalFirstWaiter();
+        }
+      }
+      if (!kept) {
+        closeQuietly(conn);
+      }
+    }
+    for (int i = 0; i < toCreate; i++) {
+      PooledConnection conn = null;
+      boolean kept = false;
+      try {
+        conn = new PooledConnection(partition.openConnection(dataSource), this, partition);
+        state.createdConnectionCount.increment();
+        if (log.isDebugEnabled()) {
+          log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+        }
+      } finally {
+        synchronized (state) {
+          if (conn != null) {
+            pendingConnections--;
+            kept = returnIdleConnection(conn);
+          } else {
+            // give up on this round
+            pendingConnections -= toCreate - i;
+          }
+        }
+      }
+      if (!kept) {
+        // the pool was closed while the connection was being opened
+        closeQuietly(conn);
+      }
+    }
+  }
+
+  /*
+   * Gives an idle connection to the first waiter if it waits for the same partition, or puts it
+   * in the idle list of its partition. Must be called holding the state lock.
+   *
+   * @return false if the partition was retired and the caller has to close the connection
+   */
+  private boolean returnIdleConnection(PooledConnection conn) {
+    PoolPartition partition = conn.getPartition();
+    if (!isCurrent(partition)) {
+      signalFirstWaiter();
+      return false;
+    }
+    if (!waiters.isEmpty() && waiters.getFirst().partition == partition) {
+      Waiter waiter = waiters.removeFirst();
+      waiter.connection = conn;
+      waiter.signal();
+    } else {
+      partition.idleConnections.add(conn);
+      // a waiter for other credentials may open a connection now that this one is no longer pending
+      signalFirstWaiter();
+    }
+    return true;
+  }
+
+  /*
+   * Removes the idle connection unused for longest. The head of each idle list has been idle
+   * for longest in its partition. Must be called holding the state lock.
+   */
+  private PooledConnection removeLongestIdleConnection(PoolPartition[] partitions) {
+    PoolPartition oldest = null;
+    for (PoolPartition partition : partitions) {
+      if (!partition.idleConnections.isEmpty() && (oldest == null
+          || partition.idleConnections.get(0).getLastUsedTimestamp() < oldest.idleConnections.get(0).getLastUsedTimestamp())) {
+        oldest = partition;
+      }
+    }
+    return oldest.idleConnections.remove(0);
+  }
+
+  /*
+   * Drops the partitions of other credentials that have no idle, active or waiting connections.
+   * Must be called holding the state lock.
+   */
+  private void removeUnusedPartitions(PoolPartition[] partitions, List<PooledConnection> toValidate) {
+    Set<PoolPartition> used = new HashSet<PoolPartition>();
+    for (PooledConnection conn : state.activeConnections) {
+      used.add(conn.getPartition());
+    }
+    for (PooledConnection conn : toValidate) {
+      used.add(conn.getPartition());
+    }
+    for (Waiter waiter : waiters) {
+      used.add(waiter.partition);
+    }
+    for (PoolPartition p : partitions) {
+      if (p.idleConnections.isEmpty() && !used.contains(p)) {
+        removePartition(p);
+      }
+    }
+  }
+
+  /*
+   * The number of idle connections a returned connection may join
+   */
+  int getIdleTarget() {
+    return poolAdaptiveSizing ? sizer.getIdleTarget() : poolMaximumIdleConnections;
+  }
+
+  void recordCheckout(int activeCount) {
+    if (poolAdaptiveSizing) {
+      sizer.recordActive(activeCount);
+    }
+  }
+
+  /*
+   * Adjusts the idle target to the load seen since the previous housekeeping run.
+   *
+   * @return the change to pass to firePoolSizingEvent, or null if there is none
+   */
+  PoolSizingEvent adaptIdleTarget(long now, int activeCount) {
+    if (!poolAdaptiveSizing) {
+      return null;
+    }
+    return sizer.evaluate(now, state, activeCount, poolMinimumIdleConnections, poolMaximumActiveConnections);
+  }
+
+  /*
+   * Logs a sizing decision and passes it to the listener. Must be called without holding the state lock.
+   */
+  void firePoolSizingEvent(PoolSizingEvent event) {
+    if (event == null) {
+      return;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug(event.toString());
+    }
+    PoolSizingListener listener = poolSizingListener;
+    if (listener != null) {
+      try {
+        listener.poolResized(event);
+      } catch (RuntimeException e) {
+        log.error("Pool sizing listener failed. Cause: " + e, e);
+      }
+    }
+  }
+
+  void recordCheckoutSite(PooledConnection conn) {
+    int sample = leakSampleCounter++ & Integer.MAX_VALUE;
+    Throwable site = null;
+    if (poolLeakDetectionSampleRate <= 1 || sample % poolLeakDetectionSampleRate == 0) {
+      site = new Throwable("Connection " + conn.getRealHashCode() + " checked out");
+    }
+    conn.setCheckoutSite(site, Thread.currentThread().getName());
+  }
+
+  /*
+   * @return the connections checked out longer than poolLeakDetectionThreshold that were not reported yet
+   */
+  List<ConnectionLeakEvent> findLeaks(List<PooledConnection> activeConnections, long now) {
+    if (poolLeakDetectionThreshold <= 0) {
+      return Collections.emptyList();
+    }
+    List<ConnectionLeakEvent> leaks = new ArrayList<ConnectionLeakEvent>();
+    for (PooledConnection conn : activeConnections) {
+      if (now - conn.getCheckoutTimestamp() >= poolLeakDetectionThreshold) {
+        ConnectionLeakEvent leak = conn.reportLeak(now, false);
+        if (leak != null) {
+          leaks.add(leak);
+        }
+      }
+    }
+    return leaks;
+  }
+
+  void reportLeak(ConnectionLeakEvent leak) {
+    if (leak == null) {
+      return;
+    }
+    log.warn(leak.toString());
+    ConnectionLeakListener listener = connectionLeakListener;
+    if (listener != null) {
+      try {
+        listener.connectionLeaked(leak);
+      } catch (RuntimeException e) {
+        log.error("Connection leak listener failed. Cause: " + e, e);
+      }
+    }
+  }
+
+  void resetAdaptiveSizing() {
+    sizer.reset(poolMaximumIdleConnections, state);
+  }
+
+  void closeQuietly(PooledConnection conn) {
+    conn.invalidate();
+    conn.closeStatementCache();
+    try {
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
+  /*
+   * @param idle - the number of idle connections left in the partition of the connection, an idle timeout
+   *   never takes the default partition below poolMinimumIdleConnections
+   */
+  boolean isExpired(PooledConnection conn, long now, int idle) {
+    if (poolMaximumConnectionAge > 0 && now - conn.getCreatedTimestamp() >= poolMaximumConnectionAge) {
+      return true;
+    }
+    int minimumIdle = conn.getPartition() == defaultPartition ? poolMinimumIdleConnections : 0;
+    return poolMaximumIdleTime > 0 && idle > minimumIdle && now - conn.getLastUsedTimestamp() >= poolMaximumIdleTime;
+  }
+
+  boolean needsValidation(PooledConnection conn, long now) {
+    return poolPingEnabled && poolPingConnectionsNotUsedFor >= 0
+        && now - Math.max(conn.getLastUsedTimestamp(), conn.getLastValidatedTimestamp()) > poolPingConnectionsNotUsedFor;
+  }
+
+  /*
+   * Checks a connection taken from the pool. When the housekeeping thread runs it
+   * validates idle connections in the background, so checkout does not ping.
+   */
+  boolean isValidForCheckout(PooledConnection conn) {
+    if (housekeeper != null) {
+      return conn.isValid(false);
+    }
+    return conn.isValid();
+  }
+
+  void startHousekeeper() {
+    if (poolHousekeepingInterval > 0 && housekeeper == null) {
+      synchronized (this) {
+        if (housekeeper == null) {
+          housekeeper = new PoolHousekeeper(this, poolHousekeepingInterval);
+        }
+      }
+    }
+  }
+
+  void stopHousekeeper() {
+    PoolHousekeeper current;
+    synchronized (this) {
+      current = housekeeper;
+      housekeeper = null;
+    }
+    if (current != null) {
+      current.shutdown();
+    }
+  }
+
+  void requestHousekeeping() {
+    PoolHousekeeper current = housekeeper;
+    if (current != null) {
+      current.requestRun();
+    }
+  }
+
+  /*
+   * Wakes the thread waiting for the longest time so that it can open a connection. Must be called holding the state lock.
+   */
+  private void signalFirstWaiter() {
+    if (!waiters.isEmpty()) {
+      waiters.getFirst().signal();
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    *
@@ -506,6 +1341,15 @@ public class PooledDataSource implements DataSource {
    * @return True if the connection is still usable
    */
   protected boolean pingConnection(PooledConnection conn) {
+    return pingConnection(conn, needsValidation(conn, System.currentTimeMillis()));
+  }
+
+  /*
+   * @param conn - the connection to check
+   * @param runPingQuery - false to only check that the connection is not closed
+   * @return True if the connection is still usable
+   */
+  boolean pingConnection(PooledConnection conn, boolean runPingQuery) {
     boolean result = true;
 
     try {
@@ -517,37 +1361,29 @@ public class PooledDataSource implements DataSource {
       result = false;
     }
 
-    if (result) {
-      if (poolPingEnabled) {
-        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+    if (result && poolPingEnabled && runPingQuery) {
+      try {
+        if (log.isDebugEnabled()) {
+          log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+        }
+        result = getConnectionValidator().validate(conn.getRealConnection());
+      } catch (Exception e) {
+        log.warn("Validation of connection " + conn.getRealHashCode() + " failed: " + e.getMessage());
+        result = false;
+      }
+      if (result) {
+        conn.setLastValidatedTimestamp(System.currentTimeMillis());
+        if (log.isDebugEnabled()) {
+          log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+        }
+      } else {
+        try {
+          conn.getRealConnection().close();
+        } catch (Exception e) {
+          //ignore
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Connection " + conn.getRealHashCode() + " is BAD.");
         }
       }
     }
@@ -561,15 +1397,41 @@ public class PooledDataSource implements DataSource {
    * @return The 'real' connection
    */
   public static Connection unwrapConnection(Connection conn) {
-    if (Proxy.isProxyClass(conn.getClass())) {
-      InvocationHandler handler = Proxy.getInvocationHandler(conn);
-      if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
-      }
+    if (conn instanceof ProxyConnection) {
+      return ((ProxyConnection) conn).getPooledConnection().getRealConnection();
     }
     return conn;
   }
 
+  /*
+   * A thread waiting for a connection. pushConnection hands a returned connection
+   * of the same partition to the first waiter and wakes only that thread.
+   */
+  private static final class Waiter {
+
+    // guarded by the state lock
+    private PoolPartition partition;
+    private PooledConnection connection;
+    private boolean signalled;
+
+    Waiter(PoolPartition partition) {
+      this.partition = partition;
+    }
+
+    synchronized void await(long millis) throws InterruptedException {
+      if (!signalled) {
+        wait(millis);
+      }
+      signalled = false;
+    }
+
+    synchronized void signal() {
+      signalled = true;
+      notify();
+    }
+
+  }
+
   protected void finalize() throws Throwable {
     forceCloseAll();
     super.finalize();
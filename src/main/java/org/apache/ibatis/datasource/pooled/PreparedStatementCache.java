@@ -0,0 +1,349 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.jdbc.DelegatingPreparedStatement;
+
+/**
+ * Bounded LRU cache of the prepared statements of one real connection.
+ * <p>
+ * A cached statement is removed from the cache while it is in use, so two open
+ * statements never share a JDBC statement, and goes back in when the caller
+ * closes it. Its open result set is closed and its pending batch dropped, as a real
+ * close() would, and the fetch size, max rows, max field size, query timeout and fetch
+ * direction the caller changed are set back. Keys are the arguments of {@link Connection#prepareStatement}: the
+ * SQL, the result set type, concurrency and holdability and the generated keys mode.
+ */
+final class PreparedStatementCache {
+
+  private final int maxSize;
+  private final PoolState state;
+  private final LinkedHashMap<Key, PreparedStatement> statements;
+  private boolean closed;
+
+  PreparedStatementCache(int maxSize, PoolState state) {
+    this.maxSize = maxSize;
+    this.state = state;
+    this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+  }
+
+  /*
+   * Takes a cached statement for these prepareStatement arguments or prepares a new one.
+   *
+   * @param connection - the real connection
+   * @param proxy - the connection handed out by the pool, that getConnection() returns
+   * @return a wrapper whose close() gives the statement back to the cache
+   */
+  PreparedStatement prepareStatement(Connection connection, Connection proxy, Key key) throws SQLException {
+    PreparedStatement statement;
+    synchronized (this) {
+      statement = statements.remove(key);
+    }
+    if (statement != null) {
+      state.statementCacheHitCount.increment();
+    } else {
+      state.statementCacheMissCount.increment();
+      statement = key.prepare(connection);
+    }
+    return new CachedStatement(key, statement, proxy);
+  }
+
+  /*
+   * @param resultSet - the last result set the caller got, null if none
+   */
+  private void release(Key key, PreparedStatement statement, ResultSet resultSet) {
+    try {
+      //真的close也会关掉结果集、丢掉没执行的批
+      if (resultSet == null) {
+        resultSet = statement.getResultSet();
+      }
+      if (resultSet != null) {
+        resultSet.close();
+      }
+      statement.clearParameters();
+      statement.clearBatch();
+      statement.clearWarnings();
+    } catch (SQLException e) {
+      closeQuietly(statement);
+      return;
+    }
+    PreparedStatement displaced;
+    synchronized (this) {
+      if (closed) {
+        displaced = statement;
+      } else {
+        displaced = statements.put(key, statement);
+        if (statements.size() > maxSize) {
+          Map.Entry<Key, PreparedStatement> eldest = statements.entrySet().iterator().next();
+          statements.remove(eldest.getKey());
+          closeQuietly(eldest.getValue());
+          state.statementCacheEvictionCount.increment();
+        }
+      }
+    }
+    if (displaced != null) {
+      closeQuietly(displaced);
+    }
+  }
+
+  /*
+   * Closes every cached statement. Statements in use are closed when given back.
+   */
+  void close() {
+    List<PreparedStatement> toClose;
+    synchronized (this) {
+      closed = true;
+      toClose = new ArrayList<PreparedStatement>(statements.values());
+      statements.clear();
+    }
+    for (PreparedStatement statement : toClose) {
+      closeQuietly(statement);
+    }
+  }
+
+  synchronized int size() {
+    return statements.size();
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  private final class CachedStatement extends DelegatingPreparedStatement {
+
+    private final Key key;
+    private final PreparedStatement statement;
+    private final Connection proxy;
+    private boolean statementClosed;
+    private ResultSet resultSet;
+    //改之前的值，null表示这次没改过
+    private Integer fetchSize;
+    private Integer maxRows;
+    private Integer maxFieldSize;
+    private Integer queryTimeout;
+    private Integer fetchDirection;
+
+    CachedStatement(Key key, PreparedStatement statement, Connection proxy) {
+      super(statement);
+      this.key = key;
+      this.statement = statement;
+      this.proxy = proxy;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+      resultSet = getDelegate().executeQuery();
+      return resultSet;
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+      resultSet = getDelegate().getResultSet();
+      return resultSet;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      getDelegate();
+      return proxy;
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+      PreparedStatement delegate = getDelegate();
+      if (fetchSize == null) {
+        fetchSize = delegate.getFetchSize();
+      }
+      delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+      PreparedStatement delegate = getDelegate();
+      if (maxRows == null) {
+        maxRows = delegate.getMaxRows();
+      }
+      delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+      PreparedStatement delegate = getDelegate();
+      if (maxFieldSize == null) {
+        maxFieldSize = delegate.getMaxFieldSize();
+      }
+      delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+      PreparedStatement delegate = getDelegate();
+      if (queryTimeout == null) {
+        queryTimeout = delegate.getQueryTimeout();
+      }
+      delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+      PreparedStatement delegate = getDelegate();
+      if (fetchDirection == null) {
+        fetchDirection = delegate.getFetchDirection();
+      }
+      delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    protected PreparedStatement getDelegate() throws SQLException {
+      if (statementClosed) {
+        throw new SQLException("Statement is closed.");
+      }
+      return statement;
+    }
+
+    @Override
+    public void close() {
+      if (!statementClosed) {
+        statementClosed = true;
+        try {
+          restoreSettings();
+        } catch (SQLException e) {
+          closeQuietly(statement);
+          return;
+        }
+        release(key, statement, resultSet);
+        resultSet = null;
+      }
+    }
+
+    //下一个用的人拿到的设置要和新prepare出来的一样
+    private void restoreSettings() throws SQLException {
+      if (fetchSize != null) {
+        statement.setFetchSize(fetchSize);
+      }
+      if (maxRows != null) {
+        statement.setMaxRows(maxRows);
+      }
+      if (maxFieldSize != null) {
+        statement.setMaxFieldSize(maxFieldSize);
+      }
+      if (queryTimeout != null) {
+        statement.setQueryTimeout(queryTimeout);
+      }
+      if (fetchDirection != null) {
+        statement.setFetchDirection(fetchDirection);
+      }
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+      return statementClosed || statement.isClosed();
+    }
+
+  }
+
+  static final class Key {
+
+    private final String sql;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int resultSetHoldability;
+    private final int autoGeneratedKeys;
+    private final int[] columnIndexes;
+    private final String[] columnNames;
+    private final int hashCode;
+
+    /*
+     * -1 and null stand for arguments that were not passed to prepareStatement
+     */
+    Key(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability, int autoGeneratedKeys,
+        int[] columnIndexes, String[] columnNames) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.resultSetHoldability = resultSetHoldability;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+      this.columnIndexes = columnIndexes;
+      this.columnNames = columnNames;
+      int h = sql.hashCode();
+      h = 31 * h + resultSetType;
+      h = 31 * h + resultSetConcurrency;
+      h = 31 * h + resultSetHoldability;
+      h = 31 * h + autoGeneratedKeys;
+      h = 31 * h + Arrays.hashCode(columnIndexes);
+      h = 31 * h + Arrays.hashCode(columnNames);
+      this.hashCode = h;
+    }
+
+    /*
+     * Calls the prepareStatement overload these arguments came from
+     */
+    PreparedStatement prepare(Connection connection) throws SQLException {
+      if (columnIndexes != null) {
+        return connection.prepareStatement(sql, columnIndexes);
+      } else if (columnNames != null) {
+        return connection.prepareStatement(sql, columnNames);
+      } else if (autoGeneratedKeys != -1) {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+      } else if (resultSetHoldability != -1) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+      } else if (resultSetType != -1) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      }
+      return connection.prepareStatement(sql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hashCode == other.hashCode
+          && resultSetType == other.resultSetType
+          && resultSetConcurrency == other.resultSetConcurrency
+          && resultSetHoldability == other.resultSetHoldability
+          && autoGeneratedKeys == other.autoGeneratedKeys
+          && sql.equals(other.sql)
+          && Arrays.equals(columnIndexes, other.columnIndexes)
+          && Arrays.equals(columnNames, other.columnNames);
+    }
+
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.ibatis.jdbc.DelegatingConnection;
+
+/**
+ * The connection handed out by the pool for a {@link PooledConnection}.
+ * <p>
+ * Calls go to the real connection as long as this is the current proxy of a
+ * valid pooled connection. close() returns the connection to the pool and
+ * prepareStatement goes through the statement cache when it is enabled.
+ */
+final class ProxyConnection extends DelegatingConnection {
+
+  private static final int NONE = -1;
+
+  private final PooledConnection pooledConnection;
+
+  ProxyConnection(PooledConnection pooledConnection) {
+    super(pooledConnection.getRealConnection());
+    this.pooledConnection = pooledConnection;
+  }
+
+  PooledConnection getPooledConnection() {
+    return pooledConnection;
+  }
+
+  @Override
+  protected Connection getDelegate() throws SQLException {
+    // issue #579 toString() should never fail, so only the JDBC calls check the connection
+    pooledConnection.checkConnection(this);
+    return super.getDelegate();
+  }
+
+  //如果调用close的话，忽略它，反而将这个connection加入到池中
+  @Override
+  public void close() throws SQLException {
+    pooledConnection.close(this);
+  }
+
+  //开启了statement缓存的话，prepareStatement先从缓存里拿
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, NONE, NONE, NONE, NONE, null, null));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, resultSetType, resultSetConcurrency, NONE, NONE, null, null));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, resultSetType, resultSetConcurrency, resultSetHoldability, NONE, null, null));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql, autoGeneratedKeys);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, NONE, NONE, NONE, autoGeneratedKeys, null, null));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql, columnIndexes);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, NONE, NONE, NONE, NONE, columnIndexes, null));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    Connection connection = getDelegate();
+    PreparedStatementCache cache = pooledConnection.getOrCreateStatementCache();
+    if (cache == null) {
+      return connection.prepareStatement(sql, columnNames);
+    }
+    return cache.prepareStatement(connection, this, new PreparedStatementCache.Key(sql, NONE, NONE, NONE, NONE, null, columnNames));
+  }
+
+  @Override
+  public int hashCode() {
+    return pooledConnection.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return pooledConnection.equals(obj);
+  }
+
+  @Override
+  public String toString() {
+    return pooledConnection.toString();
+  }
+
+}
@@ -0,0 +1,54 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Validates connections by running a query, for drivers whose isValid is missing or
+ * does not reach the database. A transaction the query opens is rolled back.
+ */
+public class QueryConnectionValidator implements ConnectionValidator {
+
+  private final String query;
+
+  public QueryConnectionValidator(String query) {
+    this.query = query;
+  }
+
+  @Override
+  public boolean validate(Connection connection) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      ResultSet rs = statement.executeQuery(query);
+      rs.close();
+    } finally {
+      statement.close();
+    }
+    if (!connection.getAutoCommit()) {
+      connection.rollback();
+    }
+    return true;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+}
@@ -0,0 +1,218 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.jdbc.DelegatingConnection;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * A data source made of a primary and any number of read replicas.
+ * <p>
+ * On its own it behaves like the primary. Used as the data source of an
+ * {@link org.apache.ibatis.mapping.Environment}, sessions get a
+ * {@link RoutingTransaction} that runs selects on a replica until the first
+ * statement that needs the primary, see {@link RoutingTransaction}.
+ */
+public class RoutingDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(RoutingDataSource.class);
+
+  public enum LoadBalance {
+    /** Replicas take turns. */
+    ROUND_ROBIN,
+    /** The replica with the fewest connections in use is chosen. */
+    LEAST_IN_FLIGHT
+  }
+
+  private final DataSource primary;
+  private final List<DataSource> replicas;
+  //每个从库正在使用的连接数
+  private final AtomicInteger[] inFlight;
+  private final AtomicInteger nextReplica = new AtomicInteger();
+  private volatile LoadBalance loadBalance = LoadBalance.ROUND_ROBIN;
+
+  public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas) {
+    if (primary == null) {
+      throw new IllegalArgumentException("Parameter 'primary' must not be null");
+    }
+    this.primary = primary;
+    this.replicas = Collections.unmodifiableList(new ArrayList<DataSource>(replicas));
+    this.inFlight = new AtomicInteger[this.replicas.size()];
+    for (int i = 0; i < inFlight.length; i++) {
+      inFlight[i] = new AtomicInteger();
+    }
+  }
+
+  public RoutingDataSource(DataSource primary, List<? extends DataSource> replicas, LoadBalance loadBalance) {
+    this(primary, replicas);
+    setLoadBalance(loadBalance);
+  }
+
+  /*
+   * Connections for writes and for anything that is not routed
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    return primary.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return primary.getConnection(username, password);
+  }
+
+  /*
+   * Gets a connection from the replica chosen by the load balancing strategy. If
+   * that replica cannot be reached the connection comes from the primary.
+   */
+  public Connection getReplicaConnection() throws SQLException {
+    if (replicas.isEmpty()) {
+      return primary.getConnection();
+    }
+    int index = chooseReplica();
+    inFlight[index].incrementAndGet();
+    try {
+      return new ReplicaConnection(replicas.get(index).getConnection(), index);
+    } catch (SQLException e) {
+      inFlight[index].decrementAndGet();
+      log.warn("Could not get a connection from replica " + index + ", reading from the primary. Cause: " + e);
+      return primary.getConnection();
+    }
+  }
+
+  private int chooseReplica() {
+    int count = replicas.size();
+    // start where round robin is so that ties do not always go to the first replica
+    int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % count;
+    if (loadBalance == LoadBalance.ROUND_ROBIN) {
+      return start;
+    }
+    int best = start;
+    for (int i = 1; i < count; i++) {
+      int index = (start + i) % count;
+      if (inFlight[index].get() < inFlight[best].get()) {
+        best = index;
+      }
+    }
+    return best;
+  }
+
+  public boolean hasReplicas() {
+    return !replicas.isEmpty();
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public List<DataSource> getReplicas() {
+    return replicas;
+  }
+
+  /*
+   * The number of connections of a replica currently in use
+   *
+   * @param replica - the index of the replica in getReplicas()
+   */
+  public int getInFlightCount(int replica) {
+    return inFlight[replica].get();
+  }
+
+  public LoadBalance getLoadBalance() {
+    return loadBalance;
+  }
+
+  public void setLoadBalance(LoadBalance loadBalance) {
+    if (loadBalance == null) {
+      throw new IllegalArgumentException("Parameter 'loadBalance' must not be null");
+    }
+    this.loadBalance = loadBalance;
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    primary.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    primary.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
+  }
+
+  /*
+   * Counts the connection as in flight on its replica until it is closed
+   */
+  private final class ReplicaConnection extends DelegatingConnection {
+
+    private final int replica;
+    private boolean closed;
+
+    ReplicaConnection(Connection delegate, int replica) {
+      super(delegate);
+      this.replica = replica;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!closed) {
+        closed = true;
+        inFlight[replica].decrementAndGet();
+      }
+      super.close();
+    }
+
+    @Override
+    public String toString() {
+      return "ReplicaConnection[" + replica + "]";
+    }
+
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ * Wraps the transaction a {@link org.apache.ibatis.transaction.TransactionFactory} opened
+ * on a {@link RoutingDataSource} and picks the connection for every statement.
+ * <p>
+ * Selects that allow it (see {@link MappedStatement#isUseReplica()}) run on one replica
+ * connection, taken on the first read and released at commit or rollback. Once a
+ * statement has used the primary, every later statement stays on the primary until the
+ * transaction commits or rolls back, so that the transaction reads its own writes.
+ * Committing, rolling back and closing act on the wrapped transaction.
+ */
+public class RoutingTransaction implements Transaction {
+
+  private static final Log log = LogFactory.getLog(RoutingTransaction.class);
+
+  private final Transaction primary;
+  private final RoutingDataSource dataSource;
+  private Connection replicaConnection;
+  //用过主库之后，一直用主库，直到提交或回滚
+  private boolean pinned;
+
+  public RoutingTransaction(Transaction primary, RoutingDataSource dataSource) {
+    this.primary = primary;
+    this.dataSource = dataSource;
+  }
+
+  /*
+   * The primary connection. Whoever asks for it without a statement may write, so
+   * the rest of the transaction stays on the primary.
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    pinned = true;
+    return primary.getConnection();
+  }
+
+  /*
+   * The connection the statement should run on
+   */
+  public Connection getConnection(MappedStatement ms) throws SQLException {
+    if (!isRoutedToReplica(ms)) {
+      if (!pinned && log.isDebugEnabled()) {
+        log.debug("Statement " + ms.getId() + " uses the primary, routing the rest of the transaction to it.");
+      }
+      return getConnection();
+    }
+    if (replicaConnection == null) {
+      replicaConnection = dataSource.getReplicaConnection();
+      if (!replicaConnection.getAutoCommit()) {
+        replicaConnection.setAutoCommit(true);
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Opened read connection [" + replicaConnection + "]");
+      }
+    }
+    return replicaConnection;
+  }
+
+  /*
+   * @return true if the statement would run on a replica right now
+   */
+  public boolean isRoutedToReplica(MappedStatement ms) {
+    return !pinned && dataSource.hasReplicas() && ms.getSqlCommandType() == SqlCommandType.SELECT
+        && ms.isUseReplica() && ms.getStatementType() != StatementType.CALLABLE;
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    try {
+      primary.commit();
+    } finally {
+      endTransaction();
+    }
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    try {
+      primary.rollback();
+    } finally {
+      endTransaction();
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    try {
+      releaseReplicaConnection();
+    } finally {
+      primary.close();
+    }
+  }
+
+  private void endTransaction() throws SQLException {
+    pinned = false;
+    releaseReplicaConnection();
+  }
+
+  private void releaseReplicaConnection() throws SQLException {
+    if (replicaConnection != null) {
+      Connection connection = replicaConnection;
+      replicaConnection = null;
+      if (log.isDebugEnabled()) {
+        log.debug("Closing read connection [" + connection + "]");
+      }
+      connection.close();
+    }
+  }
+
+}
@@ -25,6 +25,9 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.routing.RoutingTransaction;
+import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
@@ -150,6 +153,17 @@ public abstract class BaseExecutor implements Executor {
     return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
  }
 
+  //SqlSession.selectCursor会调用此方法，不用本地缓存
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    ErrorContext.instance().resource(ms.getResource()).activity("executing a query").object(ms.getId());
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    return doQueryCursor(ms, parameter, rowBounds, boundSql);
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql) throws SQLException {
@@ -218,16 +232,19 @@ public abstract class BaseExecutor implements Executor {
     if (closed) {
       throw new ExecutorException("Executor was closed.");
     }
-    CacheKey cacheKey = new CacheKey();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    //id、offset、limit、SQL、环境id，再加上参数
+    CacheKey cacheKey = new CacheKey(parameterMappings.size() + 5);
     //MyBatis 对于其 Key 的生成采取规则为：[mappedStementId + offset + limit + SQL + queryParams + environment]生成一个哈希码
     cacheKey.update(ms.getId());
-    cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
-    cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
+    cacheKey.update(rowBounds.getOffset());
+    cacheKey.update(rowBounds.getLimit());
     cacheKey.update(boundSql.getSql());
-    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
     // mimic DefaultParameterHandler logic
     //模仿DefaultParameterHandler的逻辑,不再重复，请参考DefaultParameterHandler
+    //参数对象的MetaObject只建一次
+    MetaObject metaObject = null;
     for (int i = 0; i < parameterMappings.size(); i++) {
       ParameterMapping parameterMapping = parameterMappings.get(i);
       if (parameterMapping.getMode() != ParameterMode.OUT) {
@@ -240,7 +257,9 @@ public abstract class BaseExecutor implements Executor {
         } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
           value = parameterObject;
         } else {
-          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
           value = metaObject.getValue(propertyName);
         }
         cacheKey.update(value);
@@ -302,6 +321,25 @@ public abstract class BaseExecutor implements Executor {
   protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException;
 
+  protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+      throws SQLException;
+
+  //游标关掉之前Statement要一直开着，所以每个游标用自己的Statement，由游标来关
+  protected <E> Cursor<E> openCursor(StatementHandler handler, MappedStatement ms) throws SQLException {
+    Statement stmt = handler.prepare(getConnection(ms));
+    boolean opened = false;
+    try {
+      handler.parameterize(stmt);
+      Cursor<E> cursor = handler.<E>queryCursor(stmt);
+      opened = true;
+      return cursor;
+    } finally {
+      if (!opened) {
+        closeStatement(stmt);
+      }
+    }
+  }
+
   protected void closeStatement(Statement statement) {
     if (statement != null) {
       try {
@@ -352,7 +390,22 @@ public abstract class BaseExecutor implements Executor {
   }
 
   protected Connection getConnection(Log statementLog) throws SQLException {
-    Connection connection = transaction.getConnection();
+    return wrapConnection(transaction.getConnection(), statementLog);
+  }
+
+  //读写分离时，根据语句选择主库或从库的连接
+  protected Connection getConnection(MappedStatement ms) throws SQLException {
+    if (transaction instanceof RoutingTransaction) {
+      return wrapConnection(((RoutingTransaction) transaction).getConnection(ms), ms.getStatementLog());
+    }
+    return getConnection(ms.getStatementLog());
+  }
+
+  protected boolean isRoutedToReplica(MappedStatement ms) {
+    return transaction instanceof RoutingTransaction && ((RoutingTransaction) transaction).isRoutedToReplica(ms);
+  }
+
+  private Connection wrapConnection(Connection connection, Log statementLog) {
     if (statementLog.isDebugEnabled()) {
       //如果需要打印Connection的日志，返回一个ConnectionLogger(代理模式, AOP思想)
       return ConnectionLogger.newInstance(connection, statementLog, queryStack);
@@ -17,34 +17,67 @@ package org.apache.ibatis.executor;
 
 import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlTables;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.BatchGrouping;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
+ * Batches the updates until the statements are flushed, or until the executions or the
+ * estimated size of their parameters reach the batchFlushSize or batchFlushBytes of the
+ * statement. The batches executed on the way are returned by the next flush.
+ * <p>
+ * By default only consecutive executions of the same SQL share a batch. With the STATEMENT
+ * batch grouping an execution joins the batch of its SQL opened earlier, unless a batch
+ * opened since then may depend on it or it may depend on one of them, judging by the
+ * tables of the statements and the tables they reference.
+ * <p>
+ * With the multiRowInsertSize setting, the executions of a single row insert are not
+ * batched by the driver but kept, and executed as inserts of that many rows.
+ *
  * @author Jeff Butler 
  */
 public class BatchExecutor extends BaseExecutor {
 
   public static final int BATCH_UPDATE_RETURN_VALUE = Integer.MIN_VALUE + 1002;
 
+  //估算参数大小时每个值另算的开销
+  private static final int VALUE_OVERHEAD = 16;
+
   private final List<Statement> statementList = new ArrayList<Statement>();
   private final List<BatchResult> batchResultList = new ArrayList<BatchResult>();
-  private String currentSql;
-  private MappedStatement currentStatement;
+  //每个批读写的表，null表示不知道
+  private final List<String[]> batchTablesList = new ArrayList<String[]>();
+  //要改写成多行insert的批攒下的每一行，别的批是null
+  private final List<List<Row>> batchRowsList = new ArrayList<List<Row>>();
+  //攒够了已经先执行的批，下次flush一起返回
+  private final List<BatchResult> flushedResultList = new ArrayList<BatchResult>();
+  //还没执行的条数和参数的估算字节数
+  private int batchedCount;
+  private long batchedBytes;
 
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
@@ -56,25 +89,117 @@ public class BatchExecutor extends BaseExecutor {
     final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
     final BoundSql boundSql = handler.getBoundSql();
     final String sql = boundSql.getSql();
-    final Statement stmt;
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      BatchResult batchResult = batchResultList.get(last);
+    final String[] tables = configuration.getBatchGrouping() == BatchGrouping.STATEMENT ? tablesOf(ms, boundSql) : null;
+    final int index = findBatch(ms, sql, tables);
+    if (index >= 0 && batchRowsList.get(index) != null) {
+      // 先攒着，执行时再改写成多行insert
+      batchResultList.get(index).addParameterObject(parameterObject);
+      batchRowsList.get(index).add(new Row(boundSql));
+    } else if (index >= 0) {
+      Statement stmt = statementList.get(index);
+      BatchResult batchResult = batchResultList.get(index);
       batchResult.addParameterObject(parameterObject);
+      handler.parameterize(stmt);
+      handler.batch(stmt);
+    } else if (isMultiRowInsert(ms, sql)) {
+      List<Row> rows = new ArrayList<Row>();
+      rows.add(new Row(boundSql));
+      statementList.add(null);
+      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      batchTablesList.add(tables);
+      batchRowsList.add(rows);
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection);
-      currentSql = sql;
-      currentStatement = ms;
+      Connection connection = getConnection(ms);
+      Statement stmt = handler.prepare(connection);
       statementList.add(stmt);
       batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      batchTablesList.add(tables);
+      batchRowsList.add(null);
+      handler.parameterize(stmt);
+      handler.batch(stmt);
+    }
+    batchedCount++;
+    Long flushBytes = ms.getBatchFlushBytes() != null ? ms.getBatchFlushBytes() : configuration.getBatchFlushBytes();
+    if (flushBytes != null) {
+      batchedBytes += estimateParameterSize(boundSql);
+    }
+    Integer flushSize = ms.getBatchFlushSize() != null ? ms.getBatchFlushSize() : configuration.getBatchFlushSize();
+    if ((flushSize != null && batchedCount >= flushSize) || (flushBytes != null && batchedBytes >= flushBytes)) {
+      executeBatches(flushedResultList, true);
     }
-    handler.parameterize(stmt);
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  private boolean isMultiRowInsert(MappedStatement ms, String sql) {
+    Integer multiRowInsertSize = configuration.getMultiRowInsertSize();
+    if (multiRowInsertSize == null || multiRowInsertSize < 2
+        || ms.getSqlCommandType() != SqlCommandType.INSERT || ms.getStatementType() != StatementType.PREPARED) {
+      return false;
+    }
+    // selectKey要一行一行地取主键，不能改写
+    Class<?> keyGeneratorType = ms.getKeyGenerator().getClass();
+    boolean generatedKeys = Jdbc3KeyGenerator.class.equals(keyGeneratorType);
+    if (!generatedKeys && !NoKeyGenerator.class.equals(keyGeneratorType)) {
+      return false;
+    }
+    return MultiRowInsert.supports(configuration.getDatabaseId(), generatedKeys) && MultiRowInsert.split(sql) != null;
+  }
+
+  /*
+   * @return the index of the batch the execution can join, -1 to open a new one
+   */
+  private int findBatch(MappedStatement ms, String sql, String[] tables) {
+    int last = statementList.size() - 1;
+    int first = configuration.getBatchGrouping() == BatchGrouping.STATEMENT ? 0 : last;
+    // 从后往前找同一条SQL的批，中间隔着有依赖的批就不能再往前挪了
+    for (int i = last; i >= first && i >= 0; i--) {
+      BatchResult batchResult = batchResultList.get(i);
+      if (sql.equals(batchResult.getSql()) && ms.equals(batchResult.getMappedStatement())) {
+        return i;
+      }
+      if (dependent(ms, tables, batchResult.getMappedStatement(), batchTablesList.get(i))) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /*
+   * Whether an execution must stay after a batch opened before it
+   */
+  private static boolean dependent(MappedStatement ms, String[] tables, MappedStatement batchStatement, String[] batchTables) {
+    if (tables == null || batchTables == null) {
+      return true;
+    }
+    if (intersect(tables, batchTables) || intersect(ms.getReferences(), batchTables)) {
+      return true;
+    }
+    // 批里的行引用这个表时，先插入没关系，先改先删不行
+    return ms.getSqlCommandType() != SqlCommandType.INSERT && intersect(batchStatement.getReferences(), tables);
+  }
+
+  private static boolean intersect(String[] tables, String[] otherTables) {
+    if (tables == null || otherTables == null) {
+      return false;
+    }
+    for (String table : tables) {
+      for (String otherTable : otherTables) {
+        if (table.equals(otherTable)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  //语句没有声明表又不是静态SQL的，从这次执行的SQL里找
+  private static String[] tablesOf(MappedStatement ms, BoundSql boundSql) {
+    if (ms.getTables() != null || ms.getStatementType() == StatementType.CALLABLE) {
+      return ms.getTables();
+    }
+    return SqlTables.parse(boundSql.getSql());
+  }
+
   @Override
   public <E> List<E> doQuery(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException {
@@ -83,7 +208,7 @@ public class BatchExecutor extends BaseExecutor {
       flushStatements();
       Configuration configuration = ms.getConfiguration();
       StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameterObject, rowBounds, resultHandler, boundSql);
-      Connection connection = getConnection(ms.getStatementLog());
+      Connection connection = getConnection(ms);
       stmt = handler.prepare(connection);
       handler.parameterize(stmt);
       return handler.<E>query(stmt, resultHandler);
@@ -92,29 +217,62 @@ public class BatchExecutor extends BaseExecutor {
     }
   }
 
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    return openCursor(handler, ms);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<BatchResult>();
       if (isRollback) {
+        closeStatements();
         return Collections.emptyList();
       }
+      List<BatchResult> results = new ArrayList<BatchResult>(flushedResultList);
+      executeBatches(results, false);
+      return results;
+    } finally {
+      flushedResultList.clear();
+    }
+  }
+
+  /*
+   * Executes the batched statements, adds their results to the list and closes them
+   *
+   * @param release - whether to drop the parameter objects of the statements without key generator
+   */
+  private void executeBatches(List<BatchResult> results, boolean release) throws SQLException {
+    try {
       for (int i = 0, n = statementList.size(); i < n; i++) {
         Statement stmt = statementList.get(i);
         BatchResult batchResult = batchResultList.get(i);
         try {
-          batchResult.setUpdateCounts(stmt.executeBatch());
           MappedStatement ms = batchResult.getMappedStatement();
           List<Object> parameterObjects = batchResult.getParameterObjects();
           KeyGenerator keyGenerator = ms.getKeyGenerator();
-          if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
-            Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
-            jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
-          } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
-            for (Object parameter : parameterObjects) {
-              keyGenerator.processAfter(this, ms, stmt, parameter);
+          List<Row> rows = batchRowsList.get(i);
+          if (rows != null) {
+            // 主键在里面一段一段地回填
+            batchResult.setUpdateCounts(executeMultiRowInsert(ms, batchResult.getSql(), rows, parameterObjects));
+          } else {
+            batchResult.setUpdateCounts(stmt.executeBatch());
+            if (Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+              Jdbc3KeyGenerator jdbc3KeyGenerator = (Jdbc3KeyGenerator) keyGenerator;
+              jdbc3KeyGenerator.processBatch(ms, stmt, parameterObjects);
+            } else if (!NoKeyGenerator.class.equals(keyGenerator.getClass())) { //issue #141
+              for (Object parameter : parameterObjects) {
+                keyGenerator.processAfter(this, ms, stmt, parameter);
+              }
             }
           }
+          if (release && NoKeyGenerator.class.equals(keyGenerator.getClass())) {
+            // 没有要回填的主键，参数对象不用再留着
+            batchResult.releaseParameterObjects();
+          }
         } catch (BatchUpdateException e) {
           StringBuilder message = new StringBuilder();
           message.append(batchResult.getMappedStatement().getId())
@@ -122,24 +280,181 @@ public class BatchExecutor extends BaseExecutor {
               .append(i + 1)
               .append(")")
               .append(" failed.");
-          if (i > 0) {
+          if (!results.isEmpty()) {
             message.append(" ")
-                .append(i)
+                .append(results.size())
                 .append(" prior sub executor(s) completed successfully, but will be rolled back.");
           }
           throw new BatchExecutorException(message.toString(), e, results, batchResult);
         }
         results.add(batchResult);
       }
-      return results;
     } finally {
-      for (Statement stmt : statementList) {
-        closeStatement(stmt);
+      closeStatements();
+    }
+  }
+
+  /*
+   * Executes the rows as inserts of up to multiRowInsertSize rows
+   *
+   * @return one update count for each row
+   */
+  private int[] executeMultiRowInsert(MappedStatement ms, String sql, List<Row> rows, List<Object> parameterObjects) throws SQLException {
+    String[] parts = MultiRowInsert.split(sql);
+    int maxRows = MultiRowInsert.maxRows(configuration.getDatabaseId(), rows.get(0).parameterMappings.size(),
+        configuration.getMultiRowInsertSize());
+    boolean generatedKeys = Jdbc3KeyGenerator.class.equals(ms.getKeyGenerator().getClass());
+    int[] updateCounts = new int[rows.size()];
+    Connection connection = getConnection(ms);
+    // 行数一样的段用同一个PreparedStatement，只有最后一段可能要另外准备
+    Statement stmt = null;
+    int stmtRows = 0;
+    String rewrittenSql = null;
+    List<ParameterMapping> parameterMappings = null;
+    int executed = 0;
+    try {
+      for (int from = 0; from < rows.size(); from += maxRows) {
+        int to = Math.min(rows.size(), from + maxRows);
+        List<Row> chunk = rows.subList(from, to);
+        if (stmtRows != chunk.size()) {
+          rewrittenSql = MultiRowInsert.rewrite(parts, chunk.size());
+          parameterMappings = combineParameterMappings(chunk);
+        }
+        BoundSql boundSql = new BoundSql(configuration, rewrittenSql, parameterMappings, null);
+        int index = 0;
+        for (Row row : chunk) {
+          for (Object value : row.values) {
+            boundSql.setAdditionalParameter(parameterMappings.get(index++).getProperty(), value);
+          }
+        }
+        StatementHandler handler = configuration.newStatementHandler(this, ms, null, RowBounds.DEFAULT, null, boundSql);
+        if (stmt == null || stmtRows != chunk.size()) {
+          closeStatement(stmt);
+          stmt = handler.prepare(connection);
+          stmtRows = chunk.size();
+        }
+        handler.parameterize(stmt);
+        ((PreparedStatement) stmt).execute();
+        // 一条语句插了多行，能对上就算每行1，对不上就不知道每行的结果
+        int count = stmt.getUpdateCount();
+        Arrays.fill(updateCounts, from, to, count == to - from ? 1 : Statement.SUCCESS_NO_INFO);
+        if (generatedKeys) {
+          ((Jdbc3KeyGenerator) ms.getKeyGenerator()).processBatch(ms, stmt, parameterObjects.subList(from, to));
+        }
+        executed = to;
+      }
+    } catch (SQLException e) {
+      throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, executed), e);
+    } finally {
+      closeStatement(stmt);
+    }
+    return updateCounts;
+  }
+
+  /*
+   * The parameters of the rows, each value of each row as an additional parameter
+   */
+  private List<ParameterMapping> combineParameterMappings(List<Row> rows) {
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    for (int i = 0; i < rows.size(); i++) {
+      List<ParameterMapping> rowMappings = rows.get(i).parameterMappings;
+      for (int j = 0; j < rowMappings.size(); j++) {
+        ParameterMapping parameterMapping = rowMappings.get(j);
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "__row" + i + "_" + j, parameterMapping.getTypeHandler())
+            .mode(parameterMapping.getMode())
+            .javaType(parameterMapping.getJavaType())
+            .jdbcType(parameterMapping.getJdbcType())
+            .jdbcTypeName(parameterMapping.getJdbcTypeName())
+            .numericScale(parameterMapping.getNumericScale())
+            .build());
       }
-      currentSql = null;
-      statementList.clear();
-      batchResultList.clear();
     }
+    return parameterMappings;
+  }
+
+  private void closeStatements() {
+    for (Statement stmt : statementList) {
+      closeStatement(stmt);
+    }
+    statementList.clear();
+    batchResultList.clear();
+    batchTablesList.clear();
+    batchRowsList.clear();
+    batchedCount = 0;
+    batchedBytes = 0;
+  }
+
+  /*
+   * A rough size of the parameter values of one execution, as the driver keeps them until
+   * the batch is executed
+   */
+  private long estimateParameterSize(BoundSql boundSql) {
+    long size = 0;
+    for (Object value : parameterValues(boundSql)) {
+      size += VALUE_OVERHEAD + sizeOf(value);
+    }
+    return size;
+  }
+
+  /*
+   * The values of the parameters, as the ParameterHandler sets them, null for OUT parameters
+   */
+  private Object[] parameterValues(BoundSql boundSql) {
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    Object parameterObject = boundSql.getParameterObject();
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    Object[] values = new Object[parameterMappings.size()];
+    MetaObject metaObject = null;
+    for (int i = 0; i < values.length; i++) {
+      ParameterMapping parameterMapping = parameterMappings.get(i);
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      String propertyName = parameterMapping.getProperty();
+      if (boundSql.hasAdditionalParameter(propertyName)) {
+        values[i] = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        values[i] = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        values[i] = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        values[i] = metaObject.getValue(propertyName);
+      }
+    }
+    return values;
+  }
+
+  private static long sizeOf(Object value) {
+    if (value == null) {
+      return 0;
+    } else if (value instanceof String) {
+      return 40 + 2L * ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return 16 + ((byte[]) value).length;
+    } else if (value instanceof char[]) {
+      return 16 + 2L * ((char[]) value).length;
+    }
+    // 数字、日期之类，流和LOB的内容不算
+    return 24;
+  }
+
+  /*
+   * One row of a multi-row insert, with the values its parameters had when it was added,
+   * as a driver batch binds them at addBatch
+   */
+  private final class Row {
+
+    private final List<ParameterMapping> parameterMappings;
+    private final Object[] values;
+
+    Row(BoundSql boundSql) {
+      this.parameterMappings = boundSql.getParameterMappings();
+      this.values = parameterValues(boundSql);
+    }
+
   }
 
 }
@@ -51,11 +51,19 @@ public class BatchResult {
     return sql;
   }
 
+  /*
+   * @return the first parameter object, null if there is none
+   */
   @Deprecated
   public Object getParameterObject() {
-    return parameterObjects.get(0);
+    return parameterObjects.isEmpty() ? null : parameterObjects.get(0);
   }
 
+  /*
+   * @return the parameter objects of the batch. Of a batch executed before the statements
+   * were flushed, because the batch flush size or bytes were reached, only the first one
+   * is kept when no generated keys had to be set on them.
+   */
   public List<Object> getParameterObjects() {
     return parameterObjects;
   }
@@ -72,4 +80,15 @@ public class BatchResult {
     this.parameterObjects.add(parameterObject);
   }
 
+  /*
+   * Drops the parameter objects of a batch executed before the statements were flushed,
+   * so that they can be collected. The first one and the update counts are kept.
+   */
+  public void releaseParameterObjects() {
+    if (parameterObjects.size() > 1) {
+      //留第一个给getParameterObject
+      this.parameterObjects.subList(1, parameterObjects.size()).clear();
+    }
+  }
+
 }
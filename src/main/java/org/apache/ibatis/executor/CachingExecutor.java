@@ -16,20 +16,36 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.CacheStatistics;
+import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.TableInvalidationCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.routing.RoutingDataSource;
+import org.apache.ibatis.datasource.routing.RoutingTransaction;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlTables;
 import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Clinton Begin
@@ -75,7 +91,7 @@ public class CachingExecutor implements Executor {
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
 	//刷新缓存完再update
-    flushCacheIfRequired(ms);
+    flushCacheIfRequired(ms, parameterObject, null);
     return delegate.update(ms, parameterObject);
   }
 
@@ -87,6 +103,13 @@ public class CachingExecutor implements Executor {
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  //游标边读边返回，不放进二级缓存
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    flushCacheIfRequired(ms, parameter, null);
+    return delegate.queryCursor(ms, parameter, rowBounds);
+  }
+
   //被ResultLoader.selectList调用
   @Override
   public <E> List<E> query(MappedStatement ms, Object parameterObject, RowBounds rowBounds, ResultHandler resultHandler, CacheKey key, BoundSql boundSql)
@@ -95,14 +118,35 @@ public class CachingExecutor implements Executor {
     //默认情况下是没有开启缓存的(二级缓存).要开启二级缓存,你需要在你的 SQL 映射文件中添加一行: <cache/>
     //简单的说，就是先查CacheKey，查不到再委托给实际的执行器去查
     if (cache != null) {
-      flushCacheIfRequired(ms);
+      flushCacheIfRequired(ms, parameterObject, boundSql);
       if (ms.isUseCache() && resultHandler == null) {
         ensureNoOutParams(ms, parameterObject, boundSql);
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
-          list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          long start = System.nanoTime();
+          try {
+            list = delegate.<E> query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
+          } catch (SQLException e) {
+            tcm.fail(cache, key, e);
+            throw e;
+          } catch (RuntimeException e) {
+            //别让等这个key的其他会话一直等下去
+            tcm.fail(cache, key, e);
+            throw e;
+          }
+          CacheStatistics statistics = CacheStatistics.of(cache);
+          if (statistics != null) {
+            statistics.recordLoad(System.nanoTime() - start);
+          }
+          String[] tables = cache instanceof TableInvalidationCache ? tablesOf(ms, parameterObject, boundSql) : null;
+          // 按条目过期的缓存要知道怎么在后台重新查
+          ScheduledCache.Reload reload = null;
+          if (ScheduledCache.refreshes(cache)) {
+            reload = new ScheduledCache.Reload(new StatementLoader(ms, parameterObject, rowBounds, key, boundSql),
+                ms.getFlushInterval(), ms.getRefreshInterval());
+          }
+          tcm.putObject(cache, key, list, tables, reload); // issue #578 and #116
         }
         return list;
       }
@@ -162,16 +206,116 @@ public class CachingExecutor implements Executor {
     delegate.clearLocalCache();
   }
 
-  private void flushCacheIfRequired(MappedStatement ms) {
+  private void flushCacheIfRequired(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
     Cache cache = ms.getCache();
     if (cache != null && ms.isFlushCacheRequired()) {      
-      tcm.clear(cache);
+      if (cache instanceof TableInvalidationCache) {
+        //按表失效，只清掉依赖这些表的缓存项
+        tcm.invalidate(cache, tablesOf(ms, parameterObject, boundSql));
+      } else {
+        tcm.clear(cache);
+      }
     }
   }
 
+  //语句没有声明表又不是静态SQL的，从这次执行的SQL里找
+  private String[] tablesOf(MappedStatement ms, Object parameterObject, BoundSql boundSql) {
+    if (ms.getTables() != null || ms.getStatementType() == StatementType.CALLABLE) {
+      return ms.getTables();
+    }
+    if (boundSql == null) {
+      boundSql = ms.getBoundSql(parameterObject);
+    }
+    return SqlTables.parse(boundSql.getSql());
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  /**
+   * Runs a cached statement again for a cache with a refresh interval, in its own
+   * transaction and without the second level cache. The SQL and the parameter values
+   * are those the cache key was made of, the parameter object may have changed since.
+   */
+  private static class StatementLoader implements Callable<List<Object>> {
+
+    private final MappedStatement ms;
+    private final RowBounds rowBounds;
+    private final CacheKey key;
+    private final BoundSql boundSql;
+
+    StatementLoader(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+      this.ms = ms;
+      this.rowBounds = rowBounds;
+      this.key = key;
+      this.boundSql = snapshot(ms.getConfiguration(), parameterObject, boundSql);
+    }
+
+    //现在就把参数值取出来，每个参数换成附加参数，不再引用调用方的参数对象
+    private static BoundSql snapshot(Configuration configuration, Object parameterObject, BoundSql boundSql) {
+      List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+      List<ParameterMapping> snapshotMappings = new ArrayList<ParameterMapping>(parameterMappings.size());
+      Map<String, Object> values = new HashMap<String, Object>();
+      TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+      // mimic DefaultParameterHandler logic
+      MetaObject metaObject = null;
+      for (int i = 0; i < parameterMappings.size(); i++) {
+        ParameterMapping parameterMapping = parameterMappings.get(i);
+        String propertyName = parameterMapping.getProperty();
+        Object value;
+        if (boundSql.hasAdditionalParameter(propertyName)) {
+          value = boundSql.getAdditionalParameter(propertyName);
+        } else if (parameterObject == null) {
+          value = null;
+        } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+          value = parameterObject;
+        } else {
+          if (metaObject == null) {
+            metaObject = configuration.newMetaObject(parameterObject);
+          }
+          value = metaObject.getValue(propertyName);
+        }
+        String name = "__reload_" + i;
+        values.put(name, value);
+        snapshotMappings.add(new ParameterMapping.Builder(configuration, name, parameterMapping.getTypeHandler())
+            .mode(parameterMapping.getMode())
+            .javaType(parameterMapping.getJavaType())
+            .jdbcType(parameterMapping.getJdbcType())
+            .numericScale(parameterMapping.getNumericScale())
+            .resultMapId(parameterMapping.getResultMapId())
+            .jdbcTypeName(parameterMapping.getJdbcTypeName())
+            .expression(parameterMapping.getExpression())
+            .build());
+      }
+      BoundSql snapshot = new BoundSql(configuration, boundSql.getSql(), snapshotMappings, null);
+      for (Map.Entry<String, Object> value : values.entrySet()) {
+        snapshot.setAdditionalParameter(value.getKey(), value.getValue());
+      }
+      return snapshot;
+    }
+
+    @Override
+    public List<Object> call() throws SQLException {
+      Configuration configuration = ms.getConfiguration();
+      Environment environment = configuration.getEnvironment();
+      if (environment == null || environment.getDataSource() == null) {
+        throw new ExecutorException("Could not reload " + ms.getId() + ".  Environment or DataSource was not configured.");
+      }
+      DataSource ds = environment.getDataSource();
+      Transaction tx = environment.getTransactionFactory().newTransaction(ds, null, false);
+      if (ds instanceof RoutingDataSource) {
+        tx = new RoutingTransaction(tx, (RoutingDataSource) ds);
+      }
+      Executor executor = new SimpleExecutor(configuration, tx);
+      try {
+        return executor.query(ms, null, rowBounds, Executor.NO_RESULT_HANDLER, key, boundSql);
+      } finally {
+        executor.close(false);
+      }
+    }
+
+  }
+
 }
@@ -0,0 +1,178 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites a single row <code>INSERT ... VALUES (...)</code> into one statement inserting
+ * several rows, for the multiRowInsertSize setting of the BATCH executor.
+ * <p>
+ * The limits of the database are looked up by databaseId. A statement is rewritten for
+ * unknown databases only when no databaseId is set, and then only without generated keys.
+ */
+public final class MultiRowInsert {
+
+  // 没有databaseId时按这个参数个数限制
+  private static final int DEFAULT_MAX_PARAMETERS = 2100;
+
+  private static final Map<String, Dialect> DIALECTS = new HashMap<String, Dialect>();
+
+  static {
+    // 参数个数上限，行数上限，多行insert时getGeneratedKeys是否返回每一行的主键
+    DIALECTS.put("mysql", new Dialect(65535, Integer.MAX_VALUE, true));
+    DIALECTS.put("mariadb", new Dialect(65535, Integer.MAX_VALUE, true));
+    DIALECTS.put("postgresql", new Dialect(32767, Integer.MAX_VALUE, true));
+    DIALECTS.put("hsqldb", new Dialect(32767, Integer.MAX_VALUE, true));
+    DIALECTS.put("h2", new Dialect(32767, Integer.MAX_VALUE, true));
+    DIALECTS.put("db2", new Dialect(32767, 32767, false));
+    DIALECTS.put("derby", new Dialect(32767, Integer.MAX_VALUE, false));
+    DIALECTS.put("sqlserver", new Dialect(2100, 1000, false));
+    DIALECTS.put("sqlite", new Dialect(999, Integer.MAX_VALUE, false));
+  }
+
+  private MultiRowInsert() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /*
+   * @return whether the database of the databaseId can insert several rows with one statement
+   */
+  public static boolean supports(String databaseId, boolean generatedKeys) {
+    if (databaseId == null) {
+      return !generatedKeys;
+    }
+    Dialect dialect = DIALECTS.get(databaseId.toLowerCase(Locale.ENGLISH));
+    return dialect != null && (!generatedKeys || dialect.returnsAllKeys);
+  }
+
+  /*
+   * @return how many rows of parametersPerRow parameters one statement can insert, at most maxRows
+   */
+  public static int maxRows(String databaseId, int parametersPerRow, int maxRows) {
+    Dialect dialect = databaseId == null ? null : DIALECTS.get(databaseId.toLowerCase(Locale.ENGLISH));
+    int maxParameters = dialect == null ? DEFAULT_MAX_PARAMETERS : dialect.maxParameters;
+    int rows = Math.min(maxRows, dialect == null ? Integer.MAX_VALUE : dialect.maxRows);
+    if (parametersPerRow > 0) {
+      rows = Math.min(rows, maxParameters / parametersPerRow);
+    }
+    return Math.max(1, rows);
+  }
+
+  /*
+   * Splits an insert of one row into the part up to VALUES and the row
+   *
+   * @return the two parts, null if the SQL does not end with a single VALUES row
+   */
+  public static String[] split(String sql) {
+    String trimmed = sql.trim();
+    if (!trimmed.regionMatches(true, 0, "insert", 0, 6)) {
+      return null;
+    }
+    int values = findValues(trimmed);
+    if (values < 0) {
+      return null;
+    }
+    int start = values + 6;
+    while (start < trimmed.length() && Character.isWhitespace(trimmed.charAt(start))) {
+      start++;
+    }
+    if (start >= trimmed.length() || trimmed.charAt(start) != '(') {
+      return null;
+    }
+    int end = findClosingParenthesis(trimmed, start);
+    // 后面还有别的（比如已经是多行，或者ON DUPLICATE KEY UPDATE）就不改
+    if (end < 0 || end != trimmed.length() - 1) {
+      return null;
+    }
+    return new String[] { trimmed.substring(0, start), trimmed.substring(start) };
+  }
+
+  /*
+   * @param parts - the parts returned by split
+   */
+  public static String rewrite(String[] parts, int rows) {
+    StringBuilder sql = new StringBuilder(parts[0].length() + rows * (parts[1].length() + 2));
+    sql.append(parts[0]).append(parts[1]);
+    for (int i = 1; i < rows; i++) {
+      sql.append(", ").append(parts[1]);
+    }
+    return sql.toString();
+  }
+
+  // VALUES关键字的位置，引号里的不算
+  private static int findValues(String sql) {
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if ((c == 'v' || c == 'V') && sql.regionMatches(true, i, "values", 0, 6)
+          && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))
+          && (i + 6 == sql.length() || !isIdentifierPart(sql.charAt(i + 6)))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int findClosingParenthesis(String sql, int start) {
+    int depth = 0;
+    char quote = 0;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
+  }
+
+  private static class Dialect {
+
+    private final int maxParameters;
+    private final int maxRows;
+    private final boolean returnsAllKeys;
+
+    private Dialect(int maxParameters, int maxRows, boolean returnsAllKeys) {
+      this.maxParameters = maxParameters;
+      this.maxRows = maxRows;
+      this.returnsAllKeys = returnsAllKeys;
+    }
+  }
+
+}
@@ -21,8 +21,8 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementHandler;
-import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.Configuration;
@@ -53,7 +53,7 @@ public class SimpleExecutor extends BaseExecutor {
       //这里看到ResultHandler传入的是null
       StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, null);
       //准备语句
-      stmt = prepareStatement(handler, ms.getStatementLog());
+      stmt = prepareStatement(handler, ms);
       //StatementHandler.update
       return handler.update(stmt);
     } finally {
@@ -71,7 +71,7 @@ public class SimpleExecutor extends BaseExecutor {
       //这里看到ResultHandler传入了
       StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, resultHandler, boundSql);
       //准备语句
-      stmt = prepareStatement(handler, ms.getStatementLog());
+      stmt = prepareStatement(handler, ms);
       //StatementHandler.query（实际调用的是PreparedStatementHandler）
       return handler.<E>query(stmt, resultHandler);
     } finally {
@@ -80,16 +80,23 @@ public class SimpleExecutor extends BaseExecutor {
     }
   }
 
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    return openCursor(handler, ms);
+  }
+
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
 	//doFlushStatements只是给batch用的，所以这里返回空
     return Collections.emptyList();
   }
 
-  private Statement prepareStatement(StatementHandler handler, Log statementLog) throws SQLException {
+  private Statement prepareStatement(StatementHandler handler, MappedStatement ms) throws SQLException {
     Statement stmt;
 //   获取数据库连接
-    Connection connection = getConnection(statementLog);
+    Connection connection = getConnection(ms);
     //创建Statement
     stmt = handler.prepare(connection);
     //为Statement设置IN参数
@@ -21,6 +21,8 @@ import java.util.List;
 import javax.sql.DataSource;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.datasource.routing.RoutingDataSource;
+import org.apache.ibatis.datasource.routing.RoutingTransaction;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.ResultExtractor;
@@ -86,6 +88,10 @@ public class ResultLoader {
       localExecutor = newExecutor();
     }
     try {
+      if (cacheKey == null || boundSql == null) {
+        // 没有事先算好的key，让executor自己算
+        return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      }
       //又调回Executor.query去了，比较巧妙
       return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
     } finally {
@@ -105,7 +111,10 @@ public class ResultLoader {
       throw new ExecutorException("ResultLoader could not load lazily.  DataSource was not configured.");
     }
     final TransactionFactory transactionFactory = environment.getTransactionFactory();
-    final Transaction tx = transactionFactory.newTransaction(ds, null, false);
+    Transaction tx = transactionFactory.newTransaction(ds, null, false);
+    if (ds instanceof RoutingDataSource) {
+      tx = new RoutingTransaction(tx, (RoutingDataSource) ds);
+    }
     //如果executor已经被关闭了，则创建一个新的SimpleExecutor
     return configuration.newExecutor(tx, ExecutorType.SIMPLE);
   }
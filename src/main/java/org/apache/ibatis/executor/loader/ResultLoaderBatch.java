@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.defaults.DefaultSqlSession.StrictMap;
+
+/**
+ * Loads a nested select for the keys of many parent rows at once, for the result mappings
+ * with a batchKey.
+ * <p>
+ * The nested select is run with the keys as a list parameter, named <code>list</code> and
+ * <code>collection</code>, and is expected to return the nested results of all of them, with
+ * <code>IN</code> or <code>= ANY</code>. The results are given back to their parents by the value
+ * of their batchKey property. At most nestedSelectBatchSize keys are loaded with each run.
+ * <p>
+ * Eager mappings add the keys of the parent rows and get the results once the rows are read.
+ * Lazy mappings register the loader returned by {@link #newLoader(Object)}; the first of them to
+ * load runs the nested select for the keys of all the parents that were not loaded yet.
+ */
+public class ResultLoaderBatch {
+
+  private final Configuration configuration;
+  private final Executor executor;
+  private final MappedStatement mappedStatement;
+  private final String keyProperty;
+  private final Class<?> targetType;
+  private final ResultExtractor resultExtractor;
+  //还没查的key，比较用的key -> 原来的key
+  private final Map<Object, Object> pendingKeys = new LinkedHashMap<Object, Object>();
+  //查过的key -> 查到的结果
+  private final Map<Object, List<Object>> loadedResults = new HashMap<Object, List<Object>>();
+
+  public ResultLoaderBatch(Configuration configuration, Executor executor, MappedStatement mappedStatement, String keyProperty, Class<?> targetType) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.mappedStatement = mappedStatement;
+    this.keyProperty = keyProperty;
+    this.targetType = targetType;
+    this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+  }
+
+  public synchronized void addKey(Object key) {
+    Object comparableKey = comparableKey(key);
+    if (!loadedResults.containsKey(comparableKey) && !pendingKeys.containsKey(comparableKey)) {
+      pendingKeys.put(comparableKey, key);
+    }
+  }
+
+  /*
+   * @return a loader of the results of the key, for the ResultLoaderMap
+   */
+  public ResultLoader newLoader(Object key) {
+    addKey(key);
+    return new BatchResultLoader(this, key);
+  }
+
+  /*
+   * @return the results of the key, loaded with the other pending keys if they were not loaded yet
+   */
+  public synchronized Object getResult(Object key) throws SQLException {
+    Object comparableKey = comparableKey(key);
+    if (!loadedResults.containsKey(comparableKey)) {
+      addKey(key);
+      load();
+    }
+    List<Object> results = loadedResults.get(comparableKey);
+    // 同一个key的父对象不共用一个list
+    return resultExtractor.extractObjectFromList(new ArrayList<Object>(results), targetType);
+  }
+
+  /*
+   * Runs the nested select for the pending keys
+   */
+  public synchronized void load() throws SQLException {
+    int batchSize = Math.max(1, configuration.getNestedSelectBatchSize());
+    while (!pendingKeys.isEmpty()) {
+      List<Object> keys = new ArrayList<Object>(Math.min(batchSize, pendingKeys.size()));
+      Map<Object, List<Object>> results = new HashMap<Object, List<Object>>();
+      Iterator<Map.Entry<Object, Object>> iterator = pendingKeys.entrySet().iterator();
+      while (iterator.hasNext() && keys.size() < batchSize) {
+        Map.Entry<Object, Object> entry = iterator.next();
+        keys.add(entry.getValue());
+        results.put(entry.getKey(), new ArrayList<Object>());
+        iterator.remove();
+      }
+      ResultLoader resultLoader = new ResultLoader(configuration, executor, mappedStatement, parameterObject(keys), List.class, null, null);
+      @SuppressWarnings("unchecked")
+      List<Object> rows = (List<Object>) resultLoader.loadResult();
+      for (Object row : rows) {
+        if (row != null) {
+          List<Object> keyResults = results.get(comparableKey(configuration.newMetaObject(row).getValue(keyProperty)));
+          if (keyResults != null) {
+            keyResults.add(row);
+          }
+        }
+      }
+      loadedResults.putAll(results);
+    }
+  }
+
+  static Object parameterObject(List<Object> keys) {
+    StrictMap<Object> parameterObject = new StrictMap<Object>();
+    parameterObject.put("collection", keys);
+    parameterObject.put("list", keys);
+    return parameterObject;
+  }
+
+  /*
+   * The keys of the parent column and of the batchKey property may not be of the same type,
+   * integral numbers are compared as longs.
+   */
+  static Object comparableKey(Object key) {
+    if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+      return Long.valueOf(((Number) key).longValue());
+    } else if (key instanceof BigInteger && ((BigInteger) key).bitLength() < 64) {
+      return Long.valueOf(((BigInteger) key).longValue());
+    } else if (key instanceof BigDecimal) {
+      BigDecimal decimal = (BigDecimal) key;
+      try {
+        return Long.valueOf(decimal.longValueExact());
+      } catch (ArithmeticException e) {
+        return decimal.stripTrailingZeros();
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Lazy loader of the results of one parent. After deserialization it runs the nested
+   * select for its key alone.
+   */
+  private static class BatchResultLoader extends ResultLoader {
+
+    private final ResultLoaderBatch batch;
+    private final Object key;
+
+    BatchResultLoader(ResultLoaderBatch batch, Object key) {
+      super(batch.configuration, batch.executor, batch.mappedStatement,
+          parameterObject(new ArrayList<Object>(Collections.singletonList(key))), batch.targetType, null, null);
+      this.batch = batch;
+      this.key = key;
+    }
+
+    @Override
+    public Object loadResult() throws SQLException {
+      resultObject = batch.getResult(key);
+      return resultObject;
+    }
+
+  }
+
+}
@@ -23,16 +23,20 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoaderBatch;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
 import org.apache.ibatis.executor.result.DefaultResultContext;
@@ -81,6 +85,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private final Map<CacheKey, Object> nestedResultObjects = new HashMap<CacheKey, Object>();
     private final Map<CacheKey, Object> ancestorObjects = new HashMap<CacheKey, Object>();
     private final Map<String, String> ancestorColumnPrefix = new HashMap<String, String>();
+    // resultOrdered时还没交出去的对象，游标下次接着拼
+    private Object previousRowValue;
 
     // multiple resultsets
     private final Map<String, ResultMapping> nextResultMaps = new HashMap<String, ResultMapping>();
@@ -91,6 +97,19 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         public ResultMapping propertyMapping;
     }
 
+    // nested selects with a batchKey
+    private final Map<ResultMapping, ResultLoaderBatch> nestedQueryBatches = new IdentityHashMap<ResultMapping, ResultLoaderBatch>();
+    private final List<PendingBatchLoad> pendingBatchLoads = new ArrayList<PendingBatchLoad>();
+    // 读完所有行再一起查立即加载的嵌套查询，交给用户ResultHandler的对象不能等
+    private boolean deferBatchLoads;
+
+    private static class PendingBatchLoad {
+        public MetaObject metaObject;
+        public String property;
+        public ResultLoaderBatch batch;
+        public Object key;
+    }
+
     public DefaultResultSetHandler(Executor executor, MappedStatement mappedStatement, ParameterHandler parameterHandler, ResultHandler resultHandler, BoundSql boundSql,
                                    RowBounds rowBounds) {
         this.executor = executor;
@@ -158,6 +177,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final List<Object> multipleResults = new ArrayList<Object>();
 
         int resultSetCount = 0;
+        deferBatchLoads = resultHandler == null;
 //   获取第一个结果集
         ResultSetWrapper rsw = getFirstResultSet(stmt);
 
@@ -189,10 +209,34 @@ public class DefaultResultSetHandler implements ResultSetHandler {
                 resultSetCount++;
             }
         }
+        loadPendingBatches();
 
         return collapseSingleResultList(multipleResults);
     }
 
+    @Override
+    public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+        ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+
+        ResultSetWrapper rsw = getFirstResultSet(stmt);
+
+        List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+
+        int resultMapCount = resultMaps.size();
+        validateResultMapsCount(rsw, resultMapCount);
+        if (resultMapCount > 1) {
+            throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+        }
+
+        ResultMap resultMap = resultMapCount == 1 ? resultMaps.get(0) : null;
+        if (resultMap != null && resultMap.hasNestedResultMaps() && !mappedStatement.isResultOrdered()) {
+            // 不排序的话每个对象都要等到最后一行才拼完，整个结果都得留在内存里
+            throw new ExecutorException("Mapped Statements with nested result mappings can only be read with a Cursor when "
+                    + "they return ordered data. Set resultOrdered=true on '" + mappedStatement.getId() + "'.");
+        }
+        return new DefaultCursor<E>(this, resultMap, rsw, stmt, rowBounds);
+    }
+
     private ResultSetWrapper getFirstResultSet(Statement stmt) throws SQLException {
 //  获取结果集
         ResultSet rs = stmt.getResultSet();
@@ -251,6 +295,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void cleanUpAfterHandlingResultSet() {
         nestedResultObjects.clear();
         ancestorColumnPrefix.clear();
+        previousRowValue = null;
     }
 
     private void validateResultMapsCount(ResultSetWrapper rsw, int resultMapCount) {
@@ -301,7 +346,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     // HANDLE ROWS FOR SIMPLE RESULTMAP
     //
 
-    private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+    public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         if (resultMap.hasNestedResultMaps()) {
             ensureNoRowBounds();
             checkResultHandler();
@@ -783,6 +828,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         final MappedStatement nestedQuery = configuration.getMappedStatement(nestedQueryId);
         final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
 //      根据nestedQueryId获取MappedStatement
+        if (propertyMapping.getBatchKey() != null) {
+            return getBatchedNestedQueryMappingValue(rs, metaResultObject, propertyMapping, nestedQuery, lazyLoader, columnPrefix);
+        }
         final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
         Object value = NO_VALUE;
         if (nestedQueryParameterObject != null) {
@@ -808,6 +856,49 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         return value;
     }
 
+    //嵌套查询按batchKey一次查所有父对象的
+    private Object getBatchedNestedQueryMappingValue(ResultSet rs, MetaObject metaResultObject, ResultMapping propertyMapping, MappedStatement nestedQuery,
+                                                     ResultLoaderMap lazyLoader, String columnPrefix) throws SQLException {
+        // 参数是key的list，key就按列本来的类型取
+        final Object key = prepareSimpleKeyParameter(rs, propertyMapping, Object.class, columnPrefix);
+        if (key == null) {
+            return NO_VALUE;
+        }
+        ResultLoaderBatch batch = nestedQueryBatches.get(propertyMapping);
+        if (batch == null) {
+            batch = new ResultLoaderBatch(configuration, executor, nestedQuery, propertyMapping.getBatchKey(), propertyMapping.getJavaType());
+            nestedQueryBatches.put(propertyMapping, batch);
+        }
+        final String property = propertyMapping.getProperty();
+        if (propertyMapping.isLazy()) {
+            lazyLoader.addLoader(property, metaResultObject, batch.newLoader(key));
+            return NO_VALUE;
+        } else if (deferBatchLoads) {
+            batch.addKey(key);
+            PendingBatchLoad pendingBatchLoad = new PendingBatchLoad();
+            pendingBatchLoad.metaObject = metaResultObject;
+            pendingBatchLoad.property = property;
+            pendingBatchLoad.batch = batch;
+            pendingBatchLoad.key = key;
+            pendingBatchLoads.add(pendingBatchLoad);
+            return NO_VALUE;
+        } else {
+            return batch.getResult(key);
+        }
+    }
+
+    private void loadPendingBatches() throws SQLException {
+        deferBatchLoads = false;
+        for (PendingBatchLoad pendingBatchLoad : pendingBatchLoads) {
+            // 第一个key会把这个嵌套查询所有的key一起查了
+            Object value = pendingBatchLoad.batch.getResult(pendingBatchLoad.key);
+            if (value != null || configuration.isCallSettersOnNulls()) {
+                pendingBatchLoad.metaObject.setValue(pendingBatchLoad.property, value);
+            }
+        }
+        pendingBatchLoads.clear();
+    }
+
     private Object prepareParameterForNestedQuery(ResultSet rs, ResultMapping resultMapping, Class<?> parameterType, String columnPrefix) throws SQLException {
         if (resultMapping.isCompositeResult()) {
             return prepareCompositeKeyParameter(rs, resultMapping, parameterType, columnPrefix);
@@ -895,7 +986,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     private void handleRowValuesForNestedResultMap(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
         final DefaultResultContext resultContext = new DefaultResultContext();
         skipRows(rsw.getResultSet(), rowBounds);
-        Object rowValue = null;
+        Object rowValue = previousRowValue;
         while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
             final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
             final CacheKey rowKey = createRowKey(discriminatedResultMap, rsw, null);
@@ -916,6 +1007,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
         if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
             storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+            previousRowValue = null;
+        } else if (rowValue != null && mappedStatement.isResultOrdered()) {
+            // 停下来的时候当前对象可能还没拼完
+            previousRowValue = rowValue;
         }
     }
 
@@ -1047,9 +1142,10 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     //
 
     private CacheKey createRowKey(ResultMap resultMap, ResultSetWrapper rsw, String columnPrefix) throws SQLException {
-        final CacheKey cacheKey = new CacheKey();
-        cacheKey.update(resultMap.getId());
         List<ResultMapping> resultMappings = getResultMappingsForRowKey(resultMap);
+        //resultMap的id，每个属性再加上列名和值
+        final CacheKey cacheKey = new CacheKey(resultMappings.isEmpty() ? 8 : 1 + 2 * resultMappings.size());
+        cacheKey.update(resultMap.getId());
         if (resultMappings.size() == 0) {
             if (Map.class.isAssignableFrom(resultMap.getType())) {
                 createRowKeyForMap(rsw, cacheKey);
@@ -20,6 +20,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
+
 /**
  * @author Clinton Begin
  */
@@ -32,6 +34,9 @@ public interface ResultSetHandler {
   //处理结果集
   <E> List<E> handleResultSets(Statement stmt) throws SQLException;
 
+  //处理结果集，返回游标，边读边映射
+  <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException;
+
   //处理OUT参数
   void handleOutputParameters(CallableStatement cs) throws SQLException;
 
@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * Calls JDBC methods that are missing from the Java 6 interfaces, if the driver has them.
+ */
+final class JdbcMethods {
+
+  private JdbcMethods() {
+    // Prevent Instantiation of Static Class
+  }
+
+  static Object invoke(Class<?> type, Object target, String name, Class<?>[] parameterTypes, Object... args) throws SQLException {
+    Method method;
+    try {
+      method = type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      throw new SQLFeatureNotSupportedException(type.getSimpleName() + "." + name + " requires JDBC 4.1.");
+    }
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getTargetException();
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SQLException(cause);
+    } catch (IllegalAccessException e) {
+      throw new SQLException(e);
+    }
+  }
+
+}
+
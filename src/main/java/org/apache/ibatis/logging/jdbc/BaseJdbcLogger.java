@@ -18,25 +18,20 @@ package org.apache.ibatis.logging.jdbc;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.ibatis.logging.Log;
 
 /**
- * Base class for proxies to do logging
+ * Base class for JDBC wrappers to do logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  */
 public abstract class BaseJdbcLogger {
 
-  protected static final Set<String> SET_METHODS = new HashSet<String>();
-  protected static final Set<String> EXECUTE_METHODS = new HashSet<String>();
-
   private Map<Object, Object> columnMap = new HashMap<Object, Object>();
 
   private List<Object> columnNames = new ArrayList<Object>();
@@ -57,35 +52,6 @@ public abstract class BaseJdbcLogger {
     }
   }
 
-  static {
-    SET_METHODS.add("setString");
-    SET_METHODS.add("setInt");
-    SET_METHODS.add("setByte");
-    SET_METHODS.add("setShort");
-    SET_METHODS.add("setLong");
-    SET_METHODS.add("setDouble");
-    SET_METHODS.add("setFloat");
-    SET_METHODS.add("setTimestamp");
-    SET_METHODS.add("setDate");
-    SET_METHODS.add("setTime");
-    SET_METHODS.add("setArray");
-    SET_METHODS.add("setBigDecimal");
-    SET_METHODS.add("setAsciiStream");
-    SET_METHODS.add("setBinaryStream");
-    SET_METHODS.add("setBlob");
-    SET_METHODS.add("setBoolean");
-    SET_METHODS.add("setBytes");
-    SET_METHODS.add("setCharacterStream");
-    SET_METHODS.add("setClob");
-    SET_METHODS.add("setObject");
-    SET_METHODS.add("setNull");
-
-    EXECUTE_METHODS.add("execute");
-    EXECUTE_METHODS.add("executeUpdate");
-    EXECUTE_METHODS.add("executeQuery");
-    EXECUTE_METHODS.add("addBatch");
-  }
-
   protected void setColumn(Object key, Object value) {
     columnMap.put(key, value);
     columnNames.add(key);
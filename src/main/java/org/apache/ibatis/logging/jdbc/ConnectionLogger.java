@@ -15,24 +15,23 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
 
+import org.apache.ibatis.jdbc.DelegatingConnection;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * Connection proxy to add logging
+ * Connection wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  * 
  */
-public final class ConnectionLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class ConnectionLogger extends BaseJdbcLogger {
 
   private Connection connection;
 
@@ -41,39 +40,24 @@ public final class ConnectionLogger extends BaseJdbcLogger implements Invocation
     this.connection = conn;
   }
 
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params)
-      throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }    
-      if ("prepareStatement".equals(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Preparing: " + removeBreakingWhitespace((String) params[0]), true);
-        }        
-        PreparedStatement stmt = (PreparedStatement) method.invoke(connection, params);
-        stmt = PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else if ("prepareCall".equals(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Preparing: " + removeBreakingWhitespace((String) params[0]), true);
-        }        
-        PreparedStatement stmt = (PreparedStatement) method.invoke(connection, params);
-        stmt = PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else if ("createStatement".equals(method.getName())) {
-        Statement stmt = (Statement) method.invoke(connection, params);
-        stmt = StatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else {
-        return method.invoke(connection, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
+  private void logPreparing(String sql) {
+    if (isDebugEnabled()) {
+      debug(" Preparing: " + removeBreakingWhitespace(sql), true);
     }
   }
 
+  private PreparedStatement wrap(PreparedStatement stmt) {
+    return PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
+  private CallableStatement wrap(CallableStatement stmt) {
+    return (CallableStatement) PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
+  private Statement wrap(Statement stmt) {
+    return StatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
   /*
    * Creates a logging version of a connection
    *
@@ -81,9 +65,8 @@ public final class ConnectionLogger extends BaseJdbcLogger implements Invocation
    * @return - the connection with logging
    */
   public static Connection newInstance(Connection conn, Log statementLog, int queryStack) {
-    InvocationHandler handler = new ConnectionLogger(conn, statementLog, queryStack);
-    ClassLoader cl = Connection.class.getClassLoader();
-    return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
+    ConnectionLogger logger = new ConnectionLogger(conn, statementLog, queryStack);
+    return logger.new LoggingConnection(conn);
   }
 
   /*
@@ -95,4 +78,81 @@ public final class ConnectionLogger extends BaseJdbcLogger implements Invocation
     return connection;
   }
 
+  private final class LoggingConnection extends DelegatingConnection {
+
+    LoggingConnection(Connection conn) {
+      super(conn);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql, columnIndexes));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareStatement(sql, columnNames));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareCall(sql));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareCall(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      logPreparing(sql);
+      return wrap(getDelegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+      return wrap(getDelegate().createStatement());
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+      return wrap(getDelegate().createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      return wrap(getDelegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+  }
+
 }
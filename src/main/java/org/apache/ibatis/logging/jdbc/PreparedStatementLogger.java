@@ -15,24 +15,36 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
-import java.sql.CallableStatement;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
 import java.sql.PreparedStatement;
+import java.sql.Ref;
 import java.sql.ResultSet;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
 
+import org.apache.ibatis.jdbc.DelegatingCallableStatement;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * PreparedStatement proxy to add logging
+ * PreparedStatement wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  * 
  */
-public final class PreparedStatementLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class PreparedStatementLogger extends BaseJdbcLogger {
 
   private PreparedStatement statement;
 
@@ -41,45 +53,15 @@ public final class PreparedStatementLogger extends BaseJdbcLogger implements Inv
     this.statement = stmt;
   }
 
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }          
-      if (EXECUTE_METHODS.contains(method.getName())) {
-        if (isDebugEnabled()) {
-          debug("Parameters: " + getParameterValueString(), true);
-        }
-        clearColumnInfo();
-        if ("executeQuery".equals(method.getName())) {
-          ResultSet rs = (ResultSet) method.invoke(statement, params);
-          return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-        } else {
-          return method.invoke(statement, params);
-        }
-      } else if (SET_METHODS.contains(method.getName())) {
-        if ("setNull".equals(method.getName())) {
-          setColumn(params[0], null);
-        } else {
-          setColumn(params[0], params[1]);
-        }
-        return method.invoke(statement, params);
-      } else if ("getResultSet".equals(method.getName())) {
-        ResultSet rs = (ResultSet) method.invoke(statement, params);
-        return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-      } else if ("getUpdateCount".equals(method.getName())) {
-        int updateCount = (Integer) method.invoke(statement, params);
-        if (updateCount != -1) {
-          debug("   Updates: " + updateCount, false);
-        }
-        return updateCount;
-      } else {
-        return method.invoke(statement, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
+  private void logParameters() {
+    if (isDebugEnabled()) {
+      debug("Parameters: " + getParameterValueString(), true);
     }
+    clearColumnInfo();
+  }
+
+  private ResultSet wrap(ResultSet rs) {
+    return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
   }
 
   /*
@@ -87,12 +69,11 @@ public final class PreparedStatementLogger extends BaseJdbcLogger implements Inv
    *
    * @param stmt - the statement
    * @param sql  - the sql statement
-   * @return - the proxy
+   * @return - the wrapped statement, also a CallableStatement when stmt is one
    */
   public static PreparedStatement newInstance(PreparedStatement stmt, Log statementLog, int queryStack) {
-    InvocationHandler handler = new PreparedStatementLogger(stmt, statementLog, queryStack);
-    ClassLoader cl = PreparedStatement.class.getClassLoader();
-    return (PreparedStatement) Proxy.newProxyInstance(cl, new Class[]{PreparedStatement.class, CallableStatement.class}, handler);
+    PreparedStatementLogger logger = new PreparedStatementLogger(stmt, statementLog, queryStack);
+    return logger.new LoggingStatement(stmt);
   }
 
   /*
@@ -104,4 +85,335 @@ public final class PreparedStatementLogger extends BaseJdbcLogger implements Inv
     return statement;
   }
 
+  /*
+   * Implements CallableStatement too so that prepareCall results can be logged by the same class
+   */
+  private final class LoggingStatement extends DelegatingCallableStatement {
+
+    LoggingStatement(PreparedStatement stmt) {
+      super(stmt);
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+      logParameters();
+      return wrap(getDelegate().executeQuery());
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+      logParameters();
+      return getDelegate().executeUpdate();
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+      logParameters();
+      return getDelegate().execute();
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+      logParameters();
+      getDelegate().addBatch();
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+      logParameters();
+      return wrap(getDelegate().executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+      logParameters();
+      return getDelegate().executeUpdate(sql);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+      logParameters();
+      return getDelegate().executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+      logParameters();
+      return getDelegate().executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+      logParameters();
+      return getDelegate().executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+      logParameters();
+      return getDelegate().execute(sql);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+      logParameters();
+      return getDelegate().execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+      logParameters();
+      return getDelegate().execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+      logParameters();
+      return getDelegate().execute(sql, columnNames);
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+      logParameters();
+      getDelegate().addBatch(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+      return wrap(getDelegate().getResultSet());
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+      int updateCount = getDelegate().getUpdateCount();
+      if (updateCount != -1) {
+        debug("   Updates: " + updateCount, false);
+      }
+      return updateCount;
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+      setColumn(parameterIndex, null);
+      getDelegate().setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBoolean(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setByte(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setShort(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setInt(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setFloat(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setDouble(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBigDecimal(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setString(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBytes(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      getDelegate().setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBlob(parameterIndex, x);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setClob(parameterIndex, x);
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setArray(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setDate(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setTime(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setTimestamp(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+      setColumn(parameterIndex, null);
+      getDelegate().setNull(parameterIndex, sqlType, typeName);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      getDelegate().setClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+      setColumn(parameterIndex, inputStream);
+      getDelegate().setBlob(parameterIndex, inputStream, length);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      getDelegate().setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setAsciiStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+      setColumn(parameterIndex, x);
+      getDelegate().setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+      setColumn(parameterIndex, reader);
+      getDelegate().setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+      setColumn(parameterIndex, reader);
+      getDelegate().setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+      setColumn(parameterIndex, inputStream);
+      getDelegate().setBlob(parameterIndex, inputStream);
+    }
+
+  }
+
 }
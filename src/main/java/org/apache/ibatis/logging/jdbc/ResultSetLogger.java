@@ -15,9 +15,6 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -25,17 +22,17 @@ import java.sql.Types;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.ibatis.jdbc.DelegatingResultSet;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * ResultSet proxy to add logging
+ * ResultSet wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  * 
  */
-public final class ResultSetLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class ResultSetLogger extends BaseJdbcLogger {
 
   private static Set<Integer> BLOB_TYPES = new HashSet<Integer>();
   private boolean first = true;
@@ -59,36 +56,6 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
     this.rs = rs;
   }
 
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }    
-      Object o = method.invoke(rs, params);
-      if ("next".equals(method.getName())) {
-        if (((Boolean) o)) {
-          rows++;
-          if (isTraceEnabled()) {
-            ResultSetMetaData rsmd = rs.getMetaData();
-            final int columnCount = rsmd.getColumnCount();
-            if (first) {
-              first = false;
-              printColumnHeaders(rsmd, columnCount);
-            }
-            printColumnValues(columnCount);
-          }
-        } else {
-          debug("     Total: " + rows, false);
-        }
-      }
-      clearColumnInfo();
-      return o;
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
-    }
-  }
-
   private void printColumnHeaders(ResultSetMetaData rsmd, int columnCount) throws SQLException {
     StringBuilder row = new StringBuilder();
     row.append("   Columns: ");
@@ -131,13 +98,12 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
   /*
    * Creates a logging version of a ResultSet
    *
-   * @param rs - the ResultSet to proxy
+   * @param rs - the ResultSet to wrap
    * @return - the ResultSet with logging
    */
   public static ResultSet newInstance(ResultSet rs, Log statementLog, int queryStack) {
-    InvocationHandler handler = new ResultSetLogger(rs, statementLog, queryStack);
-    ClassLoader cl = ResultSet.class.getClassLoader();
-    return (ResultSet) Proxy.newProxyInstance(cl, new Class[]{ResultSet.class}, handler);
+    ResultSetLogger logger = new ResultSetLogger(rs, statementLog, queryStack);
+    return logger.new LoggingResultSet(rs);
   }
 
   /*
@@ -149,4 +115,32 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
     return rs;
   }
 
+  private final class LoggingResultSet extends DelegatingResultSet {
+
+    LoggingResultSet(ResultSet rs) {
+      super(rs);
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      boolean hasNext = getDelegate().next();
+      if (hasNext) {
+        rows++;
+        if (isTraceEnabled()) {
+          ResultSetMetaData rsmd = rs.getMetaData();
+          final int columnCount = rsmd.getColumnCount();
+          if (first) {
+            first = false;
+            printColumnHeaders(rsmd, columnCount);
+          }
+          printColumnValues(columnCount);
+        }
+      } else {
+        debug("     Total: " + rows, false);
+      }
+      return hasNext;
+    }
+
+  }
+
 }
@@ -15,23 +15,21 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
+import org.apache.ibatis.jdbc.DelegatingStatement;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * Statement proxy to add logging
+ * Statement wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  * 
  */
-public final class StatementLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class StatementLogger extends BaseJdbcLogger {
 
   private Statement statement;
 
@@ -40,48 +38,25 @@ public final class StatementLogger extends BaseJdbcLogger implements InvocationH
     this.statement = stmt;
   }
 
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }    
-      if (EXECUTE_METHODS.contains(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Executing: " + removeBreakingWhitespace((String) params[0]), true);
-        }
-        if ("executeQuery".equals(method.getName())) {
-          ResultSet rs = (ResultSet) method.invoke(statement, params);
-          return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-        } else {
-          return method.invoke(statement, params);
-        }
-      } else if ("getResultSet".equals(method.getName())) {
-        ResultSet rs = (ResultSet) method.invoke(statement, params);
-        return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-      } else if ("equals".equals(method.getName())) {
-        Object ps = params[0];
-        return ps instanceof Proxy && proxy == ps;
-      } else if ("hashCode".equals(method.getName())) {
-        return proxy.hashCode();
-      } else {
-        return method.invoke(statement, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
+  private void logExecuting(String sql) {
+    if (isDebugEnabled()) {
+      debug(" Executing: " + removeBreakingWhitespace(sql), true);
     }
   }
 
+  private ResultSet wrap(ResultSet rs) {
+    return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
+  }
+
   /*
    * Creates a logging version of a Statement
    *
    * @param stmt - the statement
-   * @return - the proxy
+   * @return - the wrapped statement
    */
   public static Statement newInstance(Statement stmt, Log statementLog, int queryStack) {
-    InvocationHandler handler = new StatementLogger(stmt, statementLog, queryStack);
-    ClassLoader cl = Statement.class.getClassLoader();
-    return (Statement) Proxy.newProxyInstance(cl, new Class[]{Statement.class}, handler);
+    StatementLogger logger = new StatementLogger(stmt, statementLog, queryStack);
+    return logger.new LoggingStatement(stmt);
   }
 
   /*
@@ -93,4 +68,77 @@ public final class StatementLogger extends BaseJdbcLogger implements InvocationH
     return statement;
   }
 
+  private final class LoggingStatement extends DelegatingStatement {
+
+    LoggingStatement(Statement stmt) {
+      super(stmt);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+      logExecuting(sql);
+      return wrap(getDelegate().executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().executeUpdate(sql);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().execute(sql);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+      logExecuting(sql);
+      return getDelegate().execute(sql, columnNames);
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+      logExecuting(sql);
+      getDelegate().addBatch(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+      return wrap(getDelegate().getResultSet());
+    }
+
+  }
+
 }
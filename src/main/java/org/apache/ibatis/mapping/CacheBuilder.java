@@ -22,16 +22,31 @@ import java.util.Map;
 import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheCodec;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Weigher;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.decorators.FrozenCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache.RemovalCounter;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidationCache;
+import org.apache.ibatis.cache.decorators.TableInvalidationCache.RemovalTracker;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.CacheStatisticsMode;
+import org.apache.ibatis.session.Configuration;
 
 /**
  * @author Clinton Begin
@@ -47,8 +62,12 @@ public class CacheBuilder {
   private Integer size;
   private Long clearInterval;
   private boolean readWrite;
+  private boolean frozen;
   private Properties properties;
   private boolean blocking;
+  private boolean coalescing;
+  private Long refreshInterval;
+  private Configuration configuration;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -82,16 +101,47 @@ public class CacheBuilder {
     return this;
   }
 
+  /*
+   * Hand out unmodifiable views of the cached lists instead of copies, readWrite is then ignored
+   */
+  public CacheBuilder frozen(boolean frozen) {
+    this.frozen = frozen;
+    return this;
+  }
+
   public CacheBuilder blocking(boolean blocking) {
     this.blocking = blocking;
     return this;
   }
+
+  /*
+   * Expire the entries one by one, reloading those older than the refresh interval in
+   * the background; the clear interval is then the age at which an entry is removed
+   */
+  public CacheBuilder refreshInterval(Long refreshInterval) {
+    this.refreshInterval = refreshInterval;
+    return this;
+  }
+
+  public CacheBuilder coalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+    return this;
+  }
   
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
   }
 
+  /*
+   * Given to caches that have a configuration property, e.g. to look at the
+   * statements of their namespace
+   */
+  public CacheBuilder configuration(Configuration configuration) {
+    this.configuration = configuration;
+    return this;
+  }
+
   /**
    * @return
    */
@@ -102,20 +152,50 @@ public class CacheBuilder {
     Cache cache = newBaseCacheInstance(implementation, id);
     //设额外属性，初始化Cache对象
     setCacheProperties(cache);
+    setCacheConfiguration(cache);
+    boolean tableInvalidation = configuration != null && configuration.getCacheInvalidation() == CacheInvalidation.TABLE;
+    boolean statistics = configuration != null && configuration.getCacheStatistics() != CacheStatisticsMode.NONE;
+    RemovalTracker tracker = null;
+    RemovalCounter counter = null;
+    Cache weighed = null;
     // issue #352, do not apply decorators to custom caches
 //  2.  仅对内置缓存PerpetualCache应用装饰器
     if (PerpetualCache.class.equals(cache.getClass())) {
+      if (tableInvalidation) {
+        //放在淘汰装饰者下面，淘汰掉的key也从表的索引里去掉
+        tracker = new RemovalTracker(cache);
+        cache = tracker;
+      }
+      if (statistics && !decorators.isEmpty()) {
+        //同样放在淘汰装饰者下面，数出淘汰掉的条目
+        counter = new RemovalCounter(cache);
+        cache = counter;
+      }
       for (Class<? extends Cache> decorator : decorators) {
           //装饰者模式一个个包装cache
         cache = newCacheDecoratorInstance(decorator, cache);
         //又要来一遍设额外属性
         setCacheProperties(cache);
+        if (weighed == null) {
+          weighed = cache;
+        }
       }
       //3. 应用标准的装饰者，比如LoggingCache,SynchronizedCache
-      cache = setStandardDecorators(cache);
-    } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
+      cache = setStandardDecorators(cache, statistics, counter, weighed);
+    } else if (OffHeapCache.class.equals(cache.getClass()) || MappedFileCache.class.equals(cache.getClass())) {
+      //堆外缓存和文件缓存自己做淘汰，不加eviction装饰者，只加标准装饰者
+      cache = setStandardDecorators(cache, statistics, null, null);
+    } else {
+      if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
         //4.如果是custom缓存，且不是日志，要加日志
-      cache = new LoggingCache(cache);
+        cache = new LoggingCache(cache);
+      }
+      if (statistics) {
+        cache = new StatisticsCache(cache);
+      }
+    }
+    if (tableInvalidation) {
+      cache = new TableInvalidationCache(cache, tracker);
     }
     return cache;
   }
@@ -137,29 +217,55 @@ public class CacheBuilder {
   }
 
   //最后附加上标准的装饰者
-  private Cache setStandardDecorators(Cache cache) {
+  private Cache setStandardDecorators(Cache cache, boolean statistics, RemovalCounter counter, Cache weighed) {
     try {
 //      创建"元信息"对象
       MetaObject metaCache = SystemMetaObject.forObject(cache);
+      boolean threadSafe = cache instanceof TinyLfuCache || cache instanceof OffHeapCache || cache instanceof MappedFileCache;
+      //堆外缓存和文件缓存存的就是序列化后的数据，取出来的已经是拷贝
+      boolean serialized = cache instanceof OffHeapCache || cache instanceof MappedFileCache;
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
-      if (clearInterval != null) {
+      if (clearInterval != null && refreshInterval == null) {
         //刷新缓存间隔,怎么刷新呢，用ScheduledCache来刷，还是装饰者模式，漂亮！
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
-      if (readWrite) {
+      if (frozen && !serialized) {
+        //不拷贝，返回同一个不可修改的列表，行对象是共享的
+        cache = new FrozenCache(cache);
+      } else if (readWrite && !serialized) {
           //如果readOnly=false,可读写的缓存 会返回缓存对象的拷贝(通过序列化) 。这会慢一些,但是安全,因此默认是 false。
         cache = new SerializedCache(cache);
+        //codec属性可以换掉Java序列化
+        setCacheProperties(cache);
       }
       //日志缓存
       cache = new LoggingCache(cache);
       //同步缓存, 3.2.6以后这个类已经没用了，考虑到Hazelcast, EhCache已经有锁机制了，所以这个锁就画蛇添足了。
-      cache = new SynchronizedCache(cache);
-      if (blocking) {
+      //TinyLfuCache自己保存数据并且线程安全，不用再加锁
+      if (!threadSafe) {
+        cache = new SynchronizedCache(cache);
+      }
+      if (coalescing) {
+        //代替BlockingCache，失败了等待的会话也会知道
+        cache = new CoalescingCache(cache);
+        setCacheProperties(cache);
+      } else if (blocking) {
         cache = new BlockingCache(cache);
       }
+      if (statistics) {
+        //放在阻塞装饰者外面，等待的时间也算进读的耗时
+        cache = new StatisticsCache(cache, counter, weighed);
+      }
+      if (refreshInterval != null) {
+        //按条目过期，放在最外面，事务缓存要告诉它怎么重新加载
+        ScheduledCache scheduledCache = new ScheduledCache(cache);
+        scheduledCache.setClearInterval(clearInterval == null ? 0 : clearInterval);
+        scheduledCache.setRefreshInterval(refreshInterval);
+        cache = scheduledCache;
+      }
       return cache;
     } catch (Exception e) {
       throw new CacheException("Error building standard cache decorators.  Cause: " + e, e);
@@ -210,6 +316,11 @@ public class CacheBuilder {
           } else if (double.class == type
               || Double.class == type) {
             metaCache.setValue(name, Double.valueOf(value));
+          } else if (Weigher.class == type) {
+            //按字节数淘汰时的weigher，写别名或者类名
+            metaCache.setValue(name, newPluginInstance(value, Weigher.class));
+          } else if (CacheCodec.class == type) {
+            metaCache.setValue(name, newPluginInstance(value, CacheCodec.class));
           } else {
             throw new CacheException("Unsupported property type for cache: '" + name + "' of type " + type);
           }
@@ -218,6 +329,25 @@ public class CacheBuilder {
     }
   }
 
+  private <T> T newPluginInstance(String type, Class<T> pluginType) {
+    try {
+      Class<?> pluginClass = configuration != null
+          ? configuration.getTypeAliasRegistry().resolveAlias(type) : Resources.classForName(type);
+      return pluginType.cast(pluginClass.newInstance());
+    } catch (Exception e) {
+      throw new CacheException("Could not instantiate cache " + pluginType.getSimpleName() + " (" + type + "). Cause: " + e, e);
+    }
+  }
+
+  private void setCacheConfiguration(Cache cache) {
+    if (configuration != null) {
+      MetaObject metaCache = SystemMetaObject.forObject(cache);
+      if (metaCache.hasSetter("configuration") && Configuration.class == metaCache.getSetterType("configuration")) {
+        metaCache.setValue("configuration", configuration);
+      }
+    }
+  }
+
   private Cache newBaseCacheInstance(Class<? extends Cache> cacheClass, String id) {
     Constructor<? extends Cache> cacheConstructor = getBaseCacheConstructor(cacheClass);
     try {
@@ -52,6 +52,8 @@ public final class MappedStatement {
   private boolean flushCacheRequired;
   private boolean useCache;
   private boolean resultOrdered;
+  //读写分离时能否在从库上执行
+  private boolean useReplica;
   private SqlCommandType sqlCommandType;
   private KeyGenerator keyGenerator;
   private String[] keyProperties;
@@ -61,6 +63,16 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  //读写的表，按表失效二级缓存时用，null表示不知道
+  private String[] tables;
+  //二级缓存里这条语句的结果多久过期、多久在后台重新加载，null就用缓存的设置
+  private Long flushInterval;
+  private Long refreshInterval;
+  //批量执行器攒多少条、多少字节的参数就先执行一次，null就用全局设置
+  private Integer batchFlushSize;
+  private Long batchFlushBytes;
+  //外键引用的表，批量执行时决定能不能调整顺序
+  private String[] references;
 
   MappedStatement() {
     // constructor disabled
@@ -79,6 +91,7 @@ public final class MappedStatement {
       mappedStatement.resultMaps = new ArrayList<ResultMap>();
       mappedStatement.timeout = configuration.getDefaultStatementTimeout();
       mappedStatement.sqlCommandType = sqlCommandType;
+      mappedStatement.useReplica = SqlCommandType.SELECT.equals(sqlCommandType);
       mappedStatement.keyGenerator = configuration.isUseGeneratedKeys() && SqlCommandType.INSERT.equals(sqlCommandType) ? new Jdbc3KeyGenerator() : new NoKeyGenerator();
       String logId = id;
       if (configuration.getLogPrefix() != null) {
@@ -150,6 +163,11 @@ public final class MappedStatement {
       return this;
     }
 
+    public Builder useReplica(boolean useReplica) {
+      mappedStatement.useReplica = useReplica;
+      return this;
+    }
+
     public Builder keyGenerator(KeyGenerator keyGenerator) {
       mappedStatement.keyGenerator = keyGenerator;
       return this;
@@ -179,6 +197,36 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringtoArray(resultSet);
       return this;
     }
+
+    public Builder tables(String[] tables) {
+      mappedStatement.tables = tables;
+      return this;
+    }
+
+    public Builder flushInterval(Long flushInterval) {
+      mappedStatement.flushInterval = flushInterval;
+      return this;
+    }
+
+    public Builder refreshInterval(Long refreshInterval) {
+      mappedStatement.refreshInterval = refreshInterval;
+      return this;
+    }
+
+    public Builder batchFlushSize(Integer batchFlushSize) {
+      mappedStatement.batchFlushSize = batchFlushSize;
+      return this;
+    }
+
+    public Builder batchFlushBytes(Long batchFlushBytes) {
+      mappedStatement.batchFlushBytes = batchFlushBytes;
+      return this;
+    }
+
+    public Builder references(String[] references) {
+      mappedStatement.references = references;
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -258,6 +306,14 @@ public final class MappedStatement {
     return resultOrdered;
   }
 
+  /*
+   * Whether a routing data source may run this select on a replica. Statements
+   * that are not selects always run on the primary.
+   */
+  public boolean isUseReplica() {
+    return useReplica;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -281,6 +337,55 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  /*
+   * The tables the statement reads or writes, declared or found in its SQL, see
+   * SqlTables. Null when they are not known, e.g. for dynamic SQL; they are then
+   * looked for in the SQL of each execution.
+   */
+  public String[] getTables() {
+    return tables;
+  }
+
+  /*
+   * How long the cached results of the statement live, null for the flushInterval of
+   * the cache. Only used by caches with a refreshInterval.
+   */
+  public Long getFlushInterval() {
+    return flushInterval;
+  }
+
+  /*
+   * How old the cached results of the statement get before they are reloaded in the
+   * background, null for the refreshInterval of the cache
+   */
+  public Long getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  /*
+   * How many executions the BatchExecutor batches before it executes them, null for the
+   * batchFlushSize setting
+   */
+  public Integer getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  /*
+   * The estimated size of the parameters the BatchExecutor batches before it executes
+   * them, null for the batchFlushBytes setting
+   */
+  public Long getBatchFlushBytes() {
+    return batchFlushBytes;
+  }
+
+  /*
+   * The tables the rows written by the statement reference by foreign key, null if none
+   * were declared. Used by the STATEMENT batch grouping.
+   */
+  public String[] getReferences() {
+    return references;
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
 	//其实就是调用sqlSource.getBoundSql
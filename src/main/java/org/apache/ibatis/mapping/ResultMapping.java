@@ -49,6 +49,8 @@ public class ResultMapping {
   private String resultSet;
   private String foreignColumn;
   private boolean lazy;
+  //嵌套查询结果里指向父对象key的属性，设了就把所有父对象的key一起查
+  private String batchKey;
 
   ResultMapping() {
   }
@@ -136,6 +138,11 @@ public class ResultMapping {
       resultMapping.lazy = lazy;
       return this;
     }
+
+    public Builder batchKey(String batchKey) {
+      resultMapping.batchKey = batchKey;
+      return this;
+    }
     
     public ResultMapping build() {
       // lock down collections
@@ -160,6 +167,10 @@ public class ResultMapping {
       if (resultMapping.nestedResultMapId == null && resultMapping.column == null && resultMapping.composites.isEmpty()) {
         throw new IllegalStateException("Mapping is missing column attribute for property " + resultMapping.property);
       }
+      // 一次查很多父对象的子对象，只能按单列的key
+      if (resultMapping.batchKey != null && (resultMapping.nestedQueryId == null || !resultMapping.composites.isEmpty())) {
+        throw new IllegalStateException("A batchKey needs a nested select with a single column in property " + resultMapping.property);
+      }
       if (resultMapping.getResultSet() != null) {
         int numColums = 0;
         if (resultMapping.column != null) {
@@ -256,6 +267,10 @@ public class ResultMapping {
   public void setLazy(boolean lazy) {
     this.lazy = lazy;
   }
+
+  public String getBatchKey() {
+    return batchKey;
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Finds the tables a SQL statement reads or writes, for the table level invalidation of
+ * the second level cache.
+ * <p>
+ * This is a scan of the names after FROM, JOIN, INTO, UPDATE and TABLE, and of the lists
+ * after FROM, not a SQL parser. It may find a few names that are not tables, which only
+ * causes extra invalidations, but it cannot see the tables used by functions, views or
+ * procedures; declare the tables of such statements.
+ * Names are lower case, without quotes and without schema.
+ */
+public final class SqlTables {
+
+  private static final Set<String> TABLE_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "from", "join", "into", "update", "table"));
+
+  // 这些词出现在表名的位置时不是表名
+  private static final Set<String> NOT_TABLES = new HashSet<String>(Arrays.asList(
+      "select", "where", "set", "values", "value", "on", "using", "lateral", "only", "of", "nowait", "wait",
+      "skip", "dual", "unnest", "table", "ignore", "low_priority", "delayed", "high_priority"));
+
+  // 结束FROM后面表列表的词
+  private static final Set<String> CLAUSE_KEYWORDS = new HashSet<String>(Arrays.asList(
+      "where", "group", "order", "having", "limit", "offset", "fetch", "union", "intersect", "except", "minus",
+      "join", "inner", "left", "right", "full", "cross", "natural", "on", "using", "set", "values", "select",
+      "for", "window", "connect", "start", "returning", "into", "when"));
+
+  private SqlTables() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /*
+   * @return the tables of the statement, null if none was found
+   */
+  public static String[] parse(String sql) {
+    if (sql == null) {
+      return null;
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    List<String> tokens = tokenize(sql);
+    boolean expectTable = false;
+    boolean inFromList = false;
+    boolean fromKeyword = false;
+    for (String token : tokens) {
+      if (expectTable) {
+        expectTable = false;
+        if (isIdentifier(token) && !NOT_TABLES.contains(token)) {
+          tables.add(normalize(token));
+          inFromList = fromKeyword;
+          continue;
+        }
+        if ("(".equals(token)) {
+          // 子查询或者列的列表
+          inFromList = false;
+          continue;
+        }
+      }
+      if (TABLE_KEYWORDS.contains(token)) {
+        expectTable = true;
+        fromKeyword = "from".equals(token);
+        inFromList = false;
+      } else if (inFromList) {
+        if (",".equals(token)) {
+          expectTable = true;
+        } else if (")".equals(token) || ";".equals(token) || CLAUSE_KEYWORDS.contains(token)) {
+          inFromList = false;
+        }
+      }
+    }
+    return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+  }
+
+  /*
+   * Normalizes a comma separated list of declared tables
+   *
+   * @return the tables, null if the list is empty
+   */
+  public static String[] parseDeclared(String declared) {
+    if (declared == null || declared.trim().length() == 0) {
+      return null;
+    }
+    Set<String> tables = new LinkedHashSet<String>();
+    for (String table : declared.split(",")) {
+      if (table.trim().length() > 0) {
+        tables.add(normalize(table.trim().toLowerCase(Locale.ENGLISH)));
+      }
+    }
+    return tables.isEmpty() ? null : tables.toArray(new String[tables.size()]);
+  }
+
+  private static String normalize(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? name : name.substring(dot + 1);
+  }
+
+  private static boolean isIdentifier(String token) {
+    char first = token.charAt(0);
+    return Character.isLetter(first) || first == '_' || first == '$' || first == '#';
+  }
+
+  /*
+   * Lower case words, quoted names without their quotes and single punctuation characters.
+   * Literals and comments are dropped.
+   */
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<String>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '"' || c == '`' || c == '[' || Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#') {
+        // 一个名字，可以带schema，各部分都可能带引号
+        StringBuilder name = new StringBuilder();
+        while (i < length) {
+          c = sql.charAt(i);
+          if (c == '"' || c == '`' || c == '[') {
+            char close = c == '[' ? ']' : c;
+            int end = sql.indexOf(close, i + 1);
+            end = end < 0 ? length : end;
+            name.append(sql.substring(i + 1, end).toLowerCase(Locale.ENGLISH));
+            i = end + 1;
+          } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.') {
+            name.append(Character.toLowerCase(c));
+            i++;
+          } else {
+            break;
+          }
+        }
+        if (name.length() > 0) {
+          tokens.add(name.toString());
+        }
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static int skipQuoted(String sql, int start, char quote) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == quote) {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+}
@@ -0,0 +1,25 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * 批量执行器怎么把执行攒成批。
+ * 默认值为 CONSECUTIVE，只有连续执行的同一条SQL才攒在一起。
+ * 若设置值为 STATEMENT，每条SQL攒一个批，不和中间执行过的有依赖的批交换顺序。
+ */
+public enum BatchGrouping {
+  CONSECUTIVE, STATEMENT
+}
@@ -0,0 +1,26 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.session;
+
+/**
+ * 二级缓存要不要统计命中率、加载时间等。
+ * 默认值为 NONE，不统计。
+ * 若设置值为 COLLECT，每个namespace的统计用CacheStatistics.of(cache)取得。
+ * 若设置值为 JMX，另外还注册成MBean。
+ */
+public enum CacheStatisticsMode {
+  NONE, COLLECT, JMX
+}
@@ -31,12 +31,18 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CompactCodec;
+import org.apache.ibatis.cache.decorators.CacheStatistics;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
+import org.apache.ibatis.datasource.pooled.ConcurrentPooledDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
@@ -114,9 +120,17 @@ public class Configuration {
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
+  protected CacheInvalidation cacheInvalidation = CacheInvalidation.NAMESPACE;
+  protected CacheStatisticsMode cacheStatistics = CacheStatisticsMode.NONE;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
+  //批量执行器攒多少条、多少字节的参数就先执行一次，null表示不限
+  protected Integer batchFlushSize;
+  protected Long batchFlushBytes;
+  protected BatchGrouping batchGrouping = BatchGrouping.CONSECUTIVE;
+  //批量执行时把单行insert改写成最多这么多行的insert，null表示不改写
+  protected Integer multiRowInsertSize;
   //默认为简单执行器
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
@@ -132,6 +146,8 @@ public class Configuration {
   //默认禁用延迟加载
   protected boolean lazyLoadingEnabled = false;
   protected ProxyFactory proxyFactory = new JavassistProxyFactory(); // #224 Using internal Javassist instead of OGNL
+  //带batchKey的嵌套查询一次最多查多少个key
+  protected int nestedSelectBatchSize = 500;
 
   protected String databaseId;
   /**
@@ -186,13 +202,18 @@ public class Configuration {
 
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("CONCURRENT_POOLED", ConcurrentPooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
+    typeAliasRegistry.registerAlias("MAPPED_FILE", MappedFileCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
+    typeAliasRegistry.registerAlias("COMPACT", CompactCodec.class);
 
     typeAliasRegistry.registerAlias("DB_VENDOR", VendorDatabaseIdProvider.class);
 
@@ -314,6 +335,18 @@ public class Configuration {
     this.lazyLoadingEnabled = lazyLoadingEnabled;
   }
 
+  public int getNestedSelectBatchSize() {
+    return nestedSelectBatchSize;
+  }
+
+  /*
+   * The maximum number of keys a nested select of a result mapping with a batchKey
+   * is run with, see ResultLoaderBatch.
+   */
+  public void setNestedSelectBatchSize(int nestedSelectBatchSize) {
+    this.nestedSelectBatchSize = nestedSelectBatchSize;
+  }
+
   public ProxyFactory getProxyFactory() {
     return proxyFactory;
   }
@@ -381,6 +414,50 @@ public class Configuration {
     this.defaultStatementTimeout = defaultStatementTimeout;
   }
 
+  public Integer getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  /*
+   * The number of executions the BatchExecutor batches before it executes them, for the
+   * statements that do not set their own. Null for no limit.
+   */
+  public void setBatchFlushSize(Integer batchFlushSize) {
+    this.batchFlushSize = batchFlushSize;
+  }
+
+  public Long getBatchFlushBytes() {
+    return batchFlushBytes;
+  }
+
+  /*
+   * The estimated size of the parameters the BatchExecutor batches before it executes
+   * them, for the statements that do not set their own. Null for no limit.
+   */
+  public void setBatchFlushBytes(Long batchFlushBytes) {
+    this.batchFlushBytes = batchFlushBytes;
+  }
+
+  public BatchGrouping getBatchGrouping() {
+    return batchGrouping;
+  }
+
+  public void setBatchGrouping(BatchGrouping batchGrouping) {
+    this.batchGrouping = batchGrouping;
+  }
+
+  public Integer getMultiRowInsertSize() {
+    return multiRowInsertSize;
+  }
+
+  /*
+   * The number of rows the BatchExecutor inserts with one statement when it rewrites
+   * single row inserts, see MultiRowInsert. Null not to rewrite them.
+   */
+  public void setMultiRowInsertSize(Integer multiRowInsertSize) {
+    this.multiRowInsertSize = multiRowInsertSize;
+  }
+
   public boolean isUseColumnLabel() {
     return useColumnLabel;
   }
@@ -397,6 +474,28 @@ public class Configuration {
     this.localCacheScope = localCacheScope;
   }
 
+  public CacheInvalidation getCacheInvalidation() {
+    return cacheInvalidation;
+  }
+
+  /*
+   * Applies to the caches built afterwards
+   */
+  public void setCacheInvalidation(CacheInvalidation cacheInvalidation) {
+    this.cacheInvalidation = cacheInvalidation;
+  }
+
+  public CacheStatisticsMode getCacheStatistics() {
+    return cacheStatistics;
+  }
+
+  /*
+   * Applies to the caches built afterwards
+   */
+  public void setCacheStatistics(CacheStatisticsMode cacheStatistics) {
+    this.cacheStatistics = cacheStatistics;
+  }
+
   public JdbcType getJdbcTypeForNull() {
     return jdbcTypeForNull;
   }
@@ -548,6 +647,13 @@ public class Configuration {
 
   public void addCache(Cache cache) {
     caches.put(cache.getId(), cache);
+    if (cacheStatistics == CacheStatisticsMode.JMX) {
+      CacheStatistics statistics = CacheStatistics.of(cache);
+      if (statistics != null) {
+        //同一个JVM里可能有几个Configuration，用这个对象区分开
+        statistics.registerMBean(Integer.toHexString(System.identityHashCode(this)));
+      }
+    }
   }
 
   public Collection<String> getCacheNames() {
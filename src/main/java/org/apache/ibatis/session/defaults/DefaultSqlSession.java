@@ -17,12 +17,14 @@ package org.apache.ibatis.session.defaults;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
@@ -53,6 +55,8 @@ public class DefaultSqlSession implements SqlSession {
    */
   private boolean autoCommit;
   private boolean dirty;
+  //还开着的游标，会话关的时候一起关
+  private List<Cursor<?>> cursorList;
   
   public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
     this.configuration = configuration;
@@ -114,6 +118,31 @@ public class DefaultSqlSession implements SqlSession {
     return mapResultHandler.getMappedResults();
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return selectCursor(statement, null);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return selectCursor(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  //核心selectCursor
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    try {
+      MappedStatement ms = configuration.getMappedStatement(statement);
+      Cursor<T> cursor = executor.queryCursor(ms, wrapCollection(parameter), rowBounds);
+      registerCursor(cursor);
+      return cursor;
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return this.selectList(statement, null);
@@ -262,7 +291,8 @@ public class DefaultSqlSession implements SqlSession {
   @Override
   public void close() {
     try {
-      //转而用执行器来close
+      //先关掉还开着的游标，再用执行器来close
+      closeCursors();
       executor.close(isCommitOrRollbackRequired(false));
       //每次close之后，dirty标志设为false
       dirty = false;
@@ -298,6 +328,22 @@ public class DefaultSqlSession implements SqlSession {
     executor.clearLocalCache();
   }
 
+  private void closeCursors() {
+    if (cursorList != null && !cursorList.isEmpty()) {
+      for (Cursor<?> cursor : cursorList) {
+        cursor.close();
+      }
+      cursorList.clear();
+    }
+  }
+
+  private <T> void registerCursor(Cursor<T> cursor) {
+    if (cursorList == null) {
+      cursorList = new ArrayList<Cursor<?>>();
+    }
+    cursorList.add(cursor);
+  }
+
   //检查是否需要强制commit或rollback
   private boolean isCommitOrRollbackRequired(boolean force) {
     return (!autoCommit && dirty) || force;
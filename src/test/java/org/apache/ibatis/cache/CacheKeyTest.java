@@ -18,6 +18,10 @@ package org.apache.ibatis.cache;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Date;
 
 public class CacheKeyTest {
@@ -80,4 +84,81 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTreatPrimitiveAndBoxedValuesAlike() {
+    CacheKey key1 = new CacheKey(2);
+    key1.update(10);
+    key1.update(20L);
+    key1.update("select");
+    CacheKey key2 = new CacheKey(new Object[] { Integer.valueOf(10), Long.valueOf(20), "select" });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(3, key1.getUpdateCount());
+    assertFalse(new CacheKey(new Object[] { 10 }).equals(new CacheKey(new Object[] { 10L })));
+  }
+
+  @Test
+  public void shouldGrowBeyondExpectedUpdates() {
+    CacheKey key1 = new CacheKey(1);
+    CacheKey key2 = new CacheKey();
+    for (int i = 0; i < 20; i++) {
+      key1.update(i);
+      key1.update("value" + i);
+      key2.update(Integer.valueOf(i));
+      key2.update((Object) ("value" + i));
+    }
+    assertEquals(key1, key2);
+    key2.update(20);
+    assertFalse(key1.equals(key2));
+  }
+
+  @Test
+  public void shouldNotChangeOriginalWhenCloneIsUpdated() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, "hello" });
+    CacheKey clone = key.clone();
+    assertEquals(key, clone);
+    clone.update(2);
+    assertFalse(key.equals(clone));
+    assertEquals(2, key.getUpdateCount());
+    assertEquals(new CacheKey(new Object[] { 1, "hello", 2 }), clone);
+  }
+
+  @Test
+  public void shouldBeEqualAfterSerialization() throws Exception {
+    CacheKey key = new CacheKey(new Object[] { 1, 2L, "hello", null, new Date(0) });
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(key);
+    out.close();
+    Object read = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals(key, read);
+    assertEquals(key.hashCode(), read.hashCode());
+  }
+
+  @Test
+  public void shouldNotAllowUpdatesOfNullCacheKey() {
+    CacheKey key = CacheKey.NULL_CACHE_KEY;
+    int hashCode = key.hashCode();
+    try {
+      key.update("hello");
+      fail("Should not update a NullCacheKey with a String");
+    } catch (CacheException e) {
+      // expected
+    }
+    try {
+      key.update(1);
+      fail("Should not update a NullCacheKey with an int");
+    } catch (CacheException e) {
+      // expected
+    }
+    try {
+      key.update(1L);
+      fail("Should not update a NullCacheKey with a long");
+    } catch (CacheException e) {
+      // expected
+    }
+    assertEquals(hashCode, key.hashCode());
+    assertEquals(0, key.getUpdateCount());
+  }
+
 }
@@ -0,0 +1,153 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.ibatis.cache.decorators.CacheStatistics;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.StatisticsCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.CacheInvalidation;
+import org.apache.ibatis.session.CacheStatisticsMode;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CacheStatisticsTest {
+
+  @Test
+  public void shouldCountHitsMissesAndPuts() {
+    Cache cache = new StatisticsCache(new PerpetualCache("default"));
+    CacheStatistics statistics = CacheStatistics.of(cache);
+    cache.putObject(1, "a");
+    cache.putObject(2, null);
+    assertEquals("a", cache.getObject(1));
+    assertEquals("a", cache.getObject(1));
+    assertNull(cache.getObject(3));
+    cache.removeObject(1);
+    assertEquals(1, statistics.getPuts());
+    assertEquals(2, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(3, statistics.getRequests());
+    assertEquals(2.0 / 3, statistics.getHitRatio(), 0.0001);
+    assertEquals(1, statistics.getRemovals());
+    assertEquals(0, statistics.getEvictions());
+    assertEquals(1, statistics.getSize());
+
+    statistics.reset();
+    assertEquals(0, statistics.getRequests());
+    assertEquals(0, statistics.getHitRatio(), 0);
+  }
+
+  @Test
+  public void shouldCountEvictionsOfBuiltCache() {
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatistics(CacheStatisticsMode.COLLECT);
+    Cache cache = new CacheBuilder("default").addDecorator(LruCache.class).size(2).configuration(configuration).build();
+    CacheStatistics statistics = CacheStatistics.of(cache);
+    assertNotNull(statistics);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, "v" + i);
+    }
+    cache.removeObject(4);
+    assertEquals(5, statistics.getPuts());
+    assertEquals(1, statistics.getRemovals());
+    assertEquals(3, statistics.getEvictions());
+    assertEquals(1, statistics.getSize());
+  }
+
+  @Test
+  public void shouldCountEvictionsOfTinyLfuCache() {
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatistics(CacheStatisticsMode.COLLECT);
+    Cache cache = new CacheBuilder("default").addDecorator(TinyLfuCache.class).size(10).configuration(configuration).build();
+    CacheStatistics statistics = CacheStatistics.of(cache);
+    for (int i = 0; i < 50; i++) {
+      cache.putObject(i, "v" + i);
+    }
+    cache.removeObject(49);
+    assertEquals(50, statistics.getPuts());
+    assertEquals(1, statistics.getRemovals());
+    assertEquals(40, statistics.getEvictions());
+    assertEquals(9, statistics.getSize());
+  }
+
+  @Test
+  public void shouldFindStatisticsUnderTableInvalidation() {
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatistics(CacheStatisticsMode.COLLECT);
+    configuration.setCacheInvalidation(CacheInvalidation.TABLE);
+    Cache cache = new CacheBuilder("default").clearInterval(60000L).refreshInterval(1000L)
+        .configuration(configuration).build();
+    assertNotNull(CacheStatistics.of(cache));
+    assertNull(CacheStatistics.of(new CacheBuilder("default").build()));
+  }
+
+  @Test
+  public void shouldReportPercentilesFromHistogram() {
+    CacheStatistics statistics = CacheStatistics.of(new StatisticsCache(new PerpetualCache("default")));
+    for (int i = 0; i < 90; i++) {
+      statistics.recordLoad(500);
+    }
+    for (int i = 0; i < 10; i++) {
+      statistics.recordLoad(3000000);
+    }
+    long[] bounds = statistics.getHistogramBounds();
+    long[] histogram = statistics.getLoadTimeHistogram();
+    assertEquals(bounds.length, histogram.length);
+    assertEquals(90, histogram[0]);
+    assertEquals(1000, statistics.getLoadTimePercentile(0.5));
+    assertEquals(1000, statistics.getLoadTimePercentile(0.9));
+    long p99 = statistics.getLoadTimePercentile(0.99);
+    assertTrue(p99 >= 3000000 && p99 < 2 * 3000000 + 1000);
+    assertEquals(100, statistics.getLoads());
+    assertEquals((90 * 500 + 10 * 3000000) / 100, statistics.getAverageLoadTime());
+    assertEquals(0, statistics.getGetTimePercentile(0.5));
+  }
+
+  @Test
+  public void shouldRegisterMBean() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setCacheStatistics(CacheStatisticsMode.JMX);
+    Cache cache = new CacheBuilder("org.apache.ibatis.domain.blog.mappers.AuthorMapper").configuration(configuration).build();
+    configuration.addCache(cache);
+    CacheStatistics statistics = CacheStatistics.of(cache);
+    ObjectName name = statistics.getObjectName();
+    assertNotNull(name);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      cache.putObject(1, "a");
+      cache.getObject(1);
+      assertEquals(1L, server.getAttribute(name, "Hits"));
+      assertEquals(cache.getId(), server.getAttribute(name, "Id"));
+    } finally {
+      statistics.unregisterMBean();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ibatis.cache.decorators.CoalescingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class CoalescingCacheTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldLetOnlyOneThreadLoadAMissedKey() throws Exception {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(1));
+    Future<Object> waiter = get(cache, 1);
+    assertWaiting(waiter);
+    cache.putObject(1, "a");
+    assertEquals("a", waiter.get(5, TimeUnit.SECONDS));
+    assertEquals("a", cache.getObject(1));
+  }
+
+  @Test
+  public void shouldNotWaitForOwnLoad() {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(1));
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldGiveFailureToWaiters() throws Exception {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(1));
+    Future<Object> waiter1 = get(cache, 1);
+    Future<Object> waiter2 = get(cache, 1);
+    assertWaiting(waiter1);
+    SQLException failure = new SQLException("table is locked");
+    cache.fail(1, failure);
+    assertFailedWith(failure, waiter1);
+    assertFailedWith(failure, waiter2);
+    // 失败之后下一个查询的线程重新加载
+    assertNull(get(cache, 1).get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldLetAWaiterLoadWhenOwnerPutsNothing() throws Exception {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject(1));
+    Future<Object> waiter = get(cache, 1);
+    assertWaiting(waiter);
+    cache.putObject(1, null);
+    assertNull(waiter.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldStopWaitingAfterTimeout() throws Exception {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    assertNull(cache.getObject(1));
+    try {
+      get(cache, 1).get(5, TimeUnit.SECONDS);
+      fail("Should have timed out");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+    }
+  }
+
+  @Test
+  public void shouldReleaseWaitersWhenTransactionalQueryFails() throws Exception {
+    CoalescingCache cache = new CoalescingCache(new PerpetualCache("default"));
+    TransactionalCache session = new TransactionalCache(cache);
+    assertNull(session.getObject(1));
+    Future<Object> waiter = get(new TransactionalCache(cache), 1);
+    assertWaiting(waiter);
+    RuntimeException failure = new IllegalStateException("connection lost");
+    session.fail(1, failure);
+    assertFailedWith(failure, waiter);
+    // 失败的key不会在commit时再放一次
+    session.commit();
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldBuildCoalescingCacheWithTimeout() {
+    Properties properties = new Properties();
+    properties.setProperty("timeout", "2000");
+    Cache cache = new CacheBuilder("default").coalescing(true).blocking(true).properties(properties).build();
+    assertTrue(cache instanceof CoalescingCache);
+    assertEquals(2000L, SystemMetaObject.forObject(cache).getValue("timeout"));
+  }
+
+  private Future<Object> get(final Cache cache, final Object key) {
+    return executor.submit(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        return cache.getObject(key);
+      }
+    });
+  }
+
+  private static void assertWaiting(Future<Object> waiter) throws Exception {
+    try {
+      waiter.get(100, TimeUnit.MILLISECONDS);
+      fail("Should be waiting for the owner of the key");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+
+  private static void assertFailedWith(Throwable failure, Future<Object> waiter) throws Exception {
+    try {
+      waiter.get(5, TimeUnit.SECONDS);
+      fail("Should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CacheException);
+      assertSame(failure, e.getCause().getCause());
+    }
+  }
+
+}
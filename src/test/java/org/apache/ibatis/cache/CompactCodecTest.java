@@ -0,0 +1,210 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.ibatis.cache.decorators.FrozenCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.ImmutableAuthor;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class CompactCodecTest {
+
+  @Test
+  public void shouldCopyRowsOfSimpleValues() {
+    CompactCodec codec = new CompactCodec();
+    List<Object> rows = new ArrayList<Object>();
+    rows.add(new Author(101, "jim", "********", "jim@ibatis.apache.org", "\u00e1 bio", Section.NEWS));
+    rows.add(new Author(-7, null, "", null, null, null));
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("ID", 1L);
+    row.put("PRICE", new BigDecimal("-12.345"));
+    row.put("BIG", new BigInteger("123456789012345678901234567890"));
+    row.put("RATIO", 0.5d);
+    row.put("FLAG", Boolean.TRUE);
+    row.put("SMALL", (short) -3);
+    row.put("BYTE", (byte) 7);
+    row.put("FLOAT", -1.5f);
+    row.put("CHAR", 'x');
+    row.put("CREATED", new Date(1234567890123L));
+    row.put("DAY", new java.sql.Date(86400000L));
+    Timestamp timestamp = new Timestamp(1234567890000L);
+    timestamp.setNanos(123456789);
+    row.put("UPDATED", timestamp);
+    row.put("NULL", null);
+    rows.add(row);
+    rows.add(null);
+
+    List<?> copy = (List<?>) codec.decode(codec.encode(rows));
+    assertEquals(rows, copy);
+    assertNotSame(rows.get(0), copy.get(0));
+    assertEquals(Section.NEWS, ((Author) copy.get(0)).getFavouriteSection());
+    assertEquals("\u00e1 bio", ((Author) copy.get(0)).getBio());
+    assertEquals(timestamp, ((Map<?, ?>) copy.get(2)).get("UPDATED"));
+  }
+
+  @Test
+  public void shouldKeepSharedObjectsAndCycles() {
+    CompactCodec codec = new CompactCodec();
+    Order order = new Order();
+    order.number = "A-1";
+    order.lines = new ArrayList<Line>();
+    Line first = new Line(order, 3, new byte[] { 1, 2, 3 });
+    order.lines.add(first);
+    order.lines.add(new Line(order, 4, first.data));
+    order.lines.add(first);
+
+    Order copy = (Order) codec.decode(codec.encode(order));
+    assertEquals("A-1", copy.number);
+    assertEquals(3, copy.lines.size());
+    assertSame(copy, copy.lines.get(0).order);
+    assertSame(copy.lines.get(0), copy.lines.get(2));
+    assertSame(copy.lines.get(0).data, copy.lines.get(1).data);
+    assertArrayEquals(new byte[] { 1, 2, 3 }, copy.lines.get(0).data);
+    assertEquals(4, copy.lines.get(1).quantity);
+    assertNull(copy.note);
+  }
+
+  @Test
+  public void shouldFallBackToJavaSerialization() {
+    CompactCodec codec = new CompactCodec();
+    TreeMap<String, Object> sorted = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+    sorted.put("b", new ImmutableAuthor(1, "jim", "pwd", "email", "bio", Section.NEWS));
+    sorted.put("A", new LinkedHashSet<String>(Arrays.asList("z", "y")));
+    List<Object> rows = new ArrayList<Object>();
+    rows.add(sorted);
+    rows.add(sorted);
+
+    List<?> copy = (List<?>) codec.decode(codec.encode(rows));
+    TreeMap<?, ?> copied = (TreeMap<?, ?>) copy.get(0);
+    assertSame(copied, copy.get(1));
+    assertEquals(String.CASE_INSENSITIVE_ORDER, copied.comparator());
+    assertEquals("jim", ((ImmutableAuthor) copied.get("B")).getUsername());
+    assertEquals(Arrays.asList("z", "y"), new ArrayList<Object>((LinkedHashSet<?>) copied.get("a")));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldNotCopyNonSerializableObject() {
+    new CompactCodec().encode(new ArrayList<Object>(Arrays.asList(new Object())));
+  }
+
+  @Test
+  public void shouldBuildCacheWithCodec() {
+    Properties properties = new Properties();
+    properties.setProperty("codec", "COMPACT");
+    Cache cache = new CacheBuilder("default").readWrite(true).properties(properties)
+        .configuration(new Configuration()).build();
+    Object serialized = SystemMetaObject.forObject(cache).getValue("delegate.delegate");
+    assertTrue(serialized instanceof SerializedCache);
+    assertTrue(((SerializedCache) serialized).getCodec() instanceof CompactCodec);
+
+    Author author = new Author(101, "jim", "********", "jim@ibatis.apache.org", "bio", Section.NEWS);
+    cache.putObject(1, new ArrayList<Object>(Arrays.asList(author)));
+    List<?> copy = (List<?>) cache.getObject(1);
+    assertEquals(author, copy.get(0));
+    assertNotSame(author, copy.get(0));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldHandOutFrozenLists() {
+    final Cache cache = new CacheBuilder("default").addDecorator(LruCache.class).readWrite(true).frozen(true).build();
+    Author author = new Author(101);
+    Map<String, Object> row = new HashMap<String, Object>();
+    row.put("ID", 1);
+    List<Object> rows = new ArrayList<Object>(Arrays.asList(author, row));
+    cache.putObject(1, rows);
+    rows.clear();
+
+    List<?> cached = (List<?>) cache.getObject(1);
+    assertSame(cached, cache.getObject(1));
+    assertEquals(2, cached.size());
+    assertSame(author, cached.get(0));
+    assertUnsupported(new Runnable() {
+      @Override
+      public void run() {
+        ((List<Object>) cache.getObject(1)).add("x");
+      }
+    });
+    assertUnsupported(new Runnable() {
+      @Override
+      public void run() {
+        ((Map<String, Object>) ((List<?>) cache.getObject(1)).get(1)).put("ID", 2);
+      }
+    });
+    assertTrue(FrozenCache.freeze("value") == "value");
+  }
+
+  private static void assertUnsupported(Runnable change) {
+    try {
+      change.run();
+    } catch (UnsupportedOperationException e) {
+      return;
+    }
+    throw new AssertionError("Expected the frozen value to be unmodifiable");
+  }
+
+  static class Order implements Serializable {
+    private static final long serialVersionUID = 1L;
+    String number;
+    String note;
+    List<Line> lines;
+  }
+
+  static class Line implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Order order;
+    private final int quantity;
+    private final byte[] data;
+
+    Line() {
+      this(null, 0, null);
+    }
+
+    Line(Order order, int quantity, byte[] data) {
+      this.order = order;
+      this.quantity = quantity;
+      this.data = data;
+    }
+  }
+
+}
@@ -57,4 +57,20 @@ public class FifoCacheTest {
     assertNull(cache.getObject(4));
   }
 
+  @Test
+  public void shouldRemoveFirstItemsBeyondMaxBytes() {
+    FifoCache cache = new FifoCache(new PerpetualCache("default"));
+    cache.setMaxBytes(100);
+    cache.setWeigher(new LruCacheTest.LengthWeigher());
+    cache.putObject(0, "0123456789012345678901234567890123456789");
+    cache.putObject(1, "0123456789012345678901234567890123456789");
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, "0123456789012345678901234567890123456789");
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(1));
+    assertEquals(80, cache.getWeight());
+    cache.clear();
+    assertEquals(0, cache.getWeight());
+  }
+
 }
@@ -15,8 +15,13 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Properties;
+
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -57,4 +62,65 @@ public class LruCacheTest {
     assertNull(cache.getObject(4));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemsBeyondMaxBytes() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setMaxBytes(100);
+    cache.setWeigher(new LengthWeigher());
+    cache.putObject(0, value(40));
+    cache.putObject(1, value(40));
+    assertEquals(80, cache.getWeight());
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, value(40));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(0));
+    assertEquals(80, cache.getWeight());
+    cache.putObject(3, value(90));
+    assertEquals(1, cache.getSize());
+    assertEquals(90, cache.getWeight());
+    cache.removeObject(3);
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldNotKeepItemLargerThanMaxBytes() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setMaxBytes(100);
+    cache.setWeigher(new LengthWeigher());
+    cache.putObject(0, value(10));
+    cache.putObject(1, value(200));
+    assertNull(cache.getObject(1));
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void shouldConfigureMaxBytesAndWeigher() {
+    Properties properties = new Properties();
+    properties.setProperty("maxBytes", "1048576");
+    properties.setProperty("weigher", LengthWeigher.class.getName());
+    Cache cache = new CacheBuilder("default").addDecorator(LruCache.class).properties(properties).build();
+    MetaObject metaCache = SystemMetaObject.forObject(cache);
+    while (!(metaCache.getOriginalObject() instanceof LruCache)) {
+      metaCache = SystemMetaObject.forObject(metaCache.getValue("delegate"));
+    }
+    assertEquals(1048576L, metaCache.getValue("maxBytes"));
+    assertTrue(metaCache.getValue("weigher") instanceof LengthWeigher);
+  }
+
+  private static String value(int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append('x');
+    }
+    return builder.toString();
+  }
+
+  public static class LengthWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return ((String) value).length();
+    }
+  }
+
+}
@@ -0,0 +1,219 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.MappedFileCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldReturnCopyOfStoredValue() {
+    MappedFileCache cache = newCache();
+    List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), value);
+    Object cached = cache.getObject(new CacheKey(new Object[] { "select", 1 }));
+    assertEquals(value, cached);
+    assertNotSame(value, cached);
+    assertNull(cache.getObject(new CacheKey(new Object[] { "select", 2 })));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldKeepEntriesAfterRestart() {
+    MappedFileCache cache = newCache();
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), "a");
+    cache.putObject(new CacheKey(new Object[] { "select", 2 }), null);
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), "b");
+
+    MappedFileCache restarted = newCache();
+    assertEquals(2, restarted.getSize());
+    assertEquals("b", restarted.getObject(new CacheKey(new Object[] { "select", 1 })));
+    assertNull(restarted.getObject(new CacheKey(new Object[] { "select", 2 })));
+  }
+
+  @Test
+  public void shouldForgetRemovedEntriesAfterRestart() {
+    MappedFileCache cache = newCache();
+    cache.putObject(1, "a");
+    cache.putObject(2, "b");
+    assertEquals("a", cache.removeObject(1));
+
+    MappedFileCache restarted = newCache();
+    assertNull(restarted.getObject(1));
+    assertEquals("b", restarted.getObject(2));
+    assertEquals(1, restarted.getSize());
+
+    restarted.clear();
+    assertEquals(0, newCache().getSize());
+  }
+
+  @Test
+  public void shouldDiscardEntriesOfOtherVersion() {
+    MappedFileCache cache = newCache();
+    cache.putObject(1, "a");
+
+    MappedFileCache restarted = newCache();
+    restarted.setVersion("2");
+    assertNull(restarted.getObject(1));
+    assertEquals(0, restarted.getSize());
+  }
+
+  @Test
+  public void shouldDiscardEntriesWhenStatementsChange() {
+    Cache cache = newCacheWithStatement("select * from author");
+    cache.putObject(1, "a");
+
+    Cache same = newCacheWithStatement("select * from author");
+    assertEquals("a", same.getObject(1));
+
+    Cache changed = newCacheWithStatement("select id, username from author");
+    assertNull(changed.getObject(1));
+  }
+
+  @Test
+  public void shouldCompactWhenFileIsFull() {
+    MappedFileCache cache = newCache();
+    cache.setFileSize(8192);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i % 10, value(100, i));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(value(100, 990 + i), cache.getObject(i));
+    }
+    assertTrue(cache.getFile().length() == 8192);
+
+    MappedFileCache restarted = newCache();
+    restarted.setFileSize(8192);
+    assertEquals(10, restarted.getSize());
+    assertEquals(value(100, 999), restarted.getObject(9));
+  }
+
+  @Test
+  public void shouldClearWhenLiveEntriesDoNotFit() {
+    MappedFileCache cache = newCache();
+    cache.setFileSize(4096);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, value(200, i));
+    }
+    assertTrue(cache.getSize() < 100);
+    assertEquals(value(200, 99), cache.getObject(99));
+  }
+
+  @Test
+  public void shouldNotCacheValueLargerThanFile() {
+    MappedFileCache cache = newCache();
+    cache.setFileSize(1024);
+    cache.putObject(1, "a");
+    cache.putObject(1, value(2000, 0));
+    assertNull(cache.getObject(1));
+    assertEquals(0, newCacheOfSize(1024).getSize());
+  }
+
+  @Test
+  public void shouldDropDamagedEntriesOnRestart() throws Exception {
+    MappedFileCache cache = newCache();
+    cache.putObject(1, "a");
+    cache.putObject(2, "b");
+    RandomAccessFile file = new RandomAccessFile(cache.getFile(), "rw");
+    try {
+      // 改掉最后一条记录的最后一个字节，头里第28个字节起是日志的结尾
+      file.seek(28);
+      int end = file.readInt();
+      file.seek(end - 1);
+      int last = file.read();
+      file.seek(end - 1);
+      file.write(last ^ 0xff);
+    } finally {
+      file.close();
+    }
+
+    MappedFileCache restarted = newCache();
+    assertEquals("a", restarted.getObject(1));
+    assertNull(restarted.getObject(2));
+  }
+
+  @Test
+  public void shouldApplyStandardDecoratorsOnly() {
+    Properties properties = new Properties();
+    properties.setProperty("directory", folder.getRoot().getPath());
+    properties.setProperty("fileSize", "1048576");
+    Configuration configuration = new Configuration();
+    Cache cache = new CacheBuilder("default").implementation(MappedFileCache.class).addDecorator(LruCache.class)
+        .readWrite(true).properties(properties).configuration(configuration).build();
+    assertTrue(cache instanceof LoggingCache);
+    Object delegate = SystemMetaObject.forObject(cache).getValue("delegate");
+    assertTrue(delegate instanceof MappedFileCache);
+    assertEquals(1048576, ((MappedFileCache) delegate).getFileSize());
+    assertSame(configuration, SystemMetaObject.forObject(delegate).getValue("configuration"));
+  }
+
+  private MappedFileCache newCache() {
+    return newCacheOfSize(64 * 1024);
+  }
+
+  private MappedFileCache newCacheOfSize(int fileSize) {
+    MappedFileCache cache = new MappedFileCache("org.apache.ibatis.domain.blog.mappers.AuthorMapper");
+    cache.setDirectory(folder.getRoot().getPath());
+    cache.setFileSize(fileSize);
+    return cache;
+  }
+
+  private Cache newCacheWithStatement(String sql) {
+    Properties properties = new Properties();
+    properties.setProperty("directory", folder.getRoot().getPath());
+    Configuration configuration = new Configuration();
+    Cache cache = new CacheBuilder("author").implementation(MappedFileCache.class)
+        .properties(properties).configuration(configuration).build();
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "author.select",
+        new StaticSqlSource(configuration, sql), SqlCommandType.SELECT).cache(cache).build());
+    return cache;
+  }
+
+  private static String value(int length, int seed) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append((char) ('a' + (seed + i) % 26));
+    }
+    return builder.toString();
+  }
+
+}
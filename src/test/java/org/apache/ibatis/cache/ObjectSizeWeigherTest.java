@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.junit.Test;
+
+public class ObjectSizeWeigherTest {
+
+  private final Weigher weigher = new ObjectSizeWeigher();
+
+  @Test
+  public void shouldWeighSerializedValueByItsLength() {
+    long empty = weigher.weigh("key", new byte[0]);
+    assertEquals(empty + 1000, weigher.weigh("key", new byte[1000]));
+  }
+
+  @Test
+  public void shouldWeighLargeResultMoreThanSingleRow() {
+    List<Author> one = authors(1);
+    List<Author> many = authors(50000);
+    long single = weigher.weigh("key", one);
+    long large = weigher.weigh("key", many);
+    assertTrue(single > 100);
+    // 只量了一部分，也要和行数差不多成正比
+    assertTrue(large > 20000 * single && large < 100000 * single);
+  }
+
+  @Test
+  public void shouldCountSharedAndCyclicReferencesOnce() {
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("self", map);
+    map.put("date", new Date());
+    assertTrue(ObjectSizeWeigher.estimate(map) > 0);
+    Author author = author(1);
+    List<Author> same = new ArrayList<Author>();
+    for (int i = 0; i < 1000; i++) {
+      same.add(author);
+    }
+    assertTrue(ObjectSizeWeigher.estimate(same) < ObjectSizeWeigher.estimate(authors(1000)));
+  }
+
+  private static List<Author> authors(int count) {
+    List<Author> authors = new ArrayList<Author>();
+    for (int i = 0; i < count; i++) {
+      authors.add(author(i));
+    }
+    return authors;
+  }
+
+  private static Author author(int id) {
+    return new Author(id, "author" + id, "password" + id, "author" + id + "@example.com", "biography of author " + id, Section.NEWS);
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+  @Test
+  public void shouldReturnCopyOfStoredValue() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+    cache.putObject(new CacheKey(new Object[] { "select", 1 }), value);
+    Object cached = cache.getObject(new CacheKey(new Object[] { "select", 1 }));
+    assertEquals(value, cached);
+    assertNotSame(value, cached);
+    assertNull(cache.getObject(new CacheKey(new Object[] { "select", 2 })));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldReplaceValueOfExistingKey() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(0, "a");
+    cache.putObject(0, "bb");
+    assertEquals("bb", cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayWithinCapacity() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setCapacity(4 * 4096);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, value(200, i));
+    }
+    assertTrue(cache.getSize() < 1000);
+    assertEquals(4 * 4096, cache.getBytesAllocated());
+    assertEquals(value(200, 999), cache.getObject(999));
+  }
+
+  @Test
+  public void shouldGiveSecondChanceToEntriesRead() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setCapacity(4096);
+    cache.putObject(-1, value(200, -1));
+    for (int i = 0; i < 100; i++) {
+      assertEquals(value(200, -1), cache.getObject(-1));
+      cache.putObject(i, value(200, i));
+    }
+    assertTrue(cache.getSize() < 100);
+    assertEquals(value(200, -1), cache.getObject(-1));
+  }
+
+  @Test
+  public void shouldMoveSlabsToOtherEntrySizes() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setCapacity(2 * 4096);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, value(50, i));
+    }
+    cache.putObject("large", value(3000, 0));
+    assertEquals(value(3000, 0), cache.getObject("large"));
+    cache.putObject("too large", value(5000, 0));
+    assertNull(cache.getObject("too large"));
+  }
+
+  @Test
+  public void shouldLimitNumberOfEntries() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSize(10);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(10, cache.getSize());
+  }
+
+  @Test
+  public void shouldReportBytesUsedAndFragmentation() {
+    OffHeapCache cache = new OffHeapCache("default");
+    assertEquals(0, cache.getBytesUsed());
+    assertEquals(0.0, cache.getFragmentation(), 0.0);
+    cache.putObject(1, value(100, 1));
+    long used = cache.getBytesUsed();
+    assertTrue(used > 100);
+    assertTrue(cache.getFragmentation() >= 0 && cache.getFragmentation() < 0.25);
+    cache.removeObject(1);
+    assertEquals(0, cache.getBytesUsed());
+    cache.putObject(1, value(100, 1));
+    cache.clear();
+    assertEquals(0, cache.getBytesUsed());
+    assertEquals(0, cache.getSize());
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldStoreNull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.putObject(1, null);
+    assertNull(cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayConsistentUnderConcurrentAccess() throws Exception {
+    final OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setCapacity(8 * 4096);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final int seed = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 5000; i++) {
+              int key = (i * 31 + seed) % 300;
+              Object value = cache.getObject(key);
+              if (value == null) {
+                cache.putObject(key, value(key % 500, key));
+              } else if (!value.equals(value(key % 500, key))) {
+                throw new IllegalStateException("Got " + value + " for " + key);
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+  }
+
+  @Test
+  public void shouldApplyStandardDecoratorsOnly() {
+    Properties properties = new Properties();
+    properties.setProperty("capacity", "1048576");
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).addDecorator(LruCache.class)
+        .readWrite(true).properties(properties).build();
+    assertTrue(cache instanceof LoggingCache);
+    Object delegate = SystemMetaObject.forObject(cache).getValue("delegate");
+    assertTrue(delegate instanceof OffHeapCache);
+    assertEquals(1048576, ((OffHeapCache) delegate).getCapacity());
+    assertSame(cache.getId(), ((Cache) delegate).getId());
+  }
+
+  private static String value(int length, int seed) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append((char) ('a' + (seed + i) % 26));
+    }
+    return builder.toString();
+  }
+
+}
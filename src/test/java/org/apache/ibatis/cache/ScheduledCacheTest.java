@@ -15,8 +15,14 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.cache.decorators.TableInvalidationCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -65,4 +71,104 @@ public class ScheduledCacheTest {
     assertNull(cache.getObject(4));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void shouldServeStaleEntryWhileReloadingIt() throws Exception {
+    ScheduledCache cache = newRefreshingCache(50, 0);
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    cache.expect(0, new ScheduledCache.Reload(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        release.await(5, TimeUnit.SECONDS);
+        return "reloaded";
+      }
+    }, null, null));
+    cache.putObject(0, "stale");
+    assertEquals("stale", cache.getObject(0));
+    Thread.sleep(100);
+    for (int i = 0; i < 10; i++) {
+      assertEquals("stale", cache.getObject(0));
+    }
+    release.countDown();
+    assertEquals("reloaded", waitForValue(cache, 0, "reloaded"));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void shouldRemoveEntryOlderThanClearInterval() throws Exception {
+    ScheduledCache cache = newRefreshingCache(20, 100);
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    Thread.sleep(200);
+    // 过期的条目一个个删，不是整个清空
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getSize());
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldUseIntervalsOfReload() throws Exception {
+    ScheduledCache cache = newRefreshingCache(60000, 0);
+    cache.expect(0, new ScheduledCache.Reload(null, 50L, null));
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    Thread.sleep(100);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+  }
+
+  @Test
+  public void shouldDropReloadedValueOfRemovedEntry() throws Exception {
+    ScheduledCache cache = newRefreshingCache(20, 0);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    cache.expect(0, new ScheduledCache.Reload(new Callable<Object>() {
+      @Override
+      public Object call() throws Exception {
+        try {
+          started.countDown();
+          release.await(5, TimeUnit.SECONDS);
+          return "reloaded";
+        } finally {
+          done.countDown();
+        }
+      }
+    }, null, null));
+    cache.putObject(0, "stale");
+    Thread.sleep(50);
+    assertEquals("stale", cache.getObject(0));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    cache.removeObject(0);
+    release.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldTellWhetherCacheReloadsEntries() {
+    assertTrue(ScheduledCache.refreshes(newRefreshingCache(60000, 0)));
+    assertTrue(ScheduledCache.refreshes(new TableInvalidationCache(newRefreshingCache(60000, 0))));
+    assertFalse(ScheduledCache.refreshes(new ScheduledCache(new PerpetualCache("DefaultCache"))));
+    assertFalse(ScheduledCache.refreshes(new PerpetualCache("DefaultCache")));
+  }
+
+  private static ScheduledCache newRefreshingCache(long refreshInterval, long clearInterval) {
+    ScheduledCache cache = new ScheduledCache(new PerpetualCache("DefaultCache"));
+    cache.setRefreshInterval(refreshInterval);
+    cache.setClearInterval(clearInterval);
+    return cache;
+  }
+
+  private static Object waitForValue(Cache cache, Object key, Object expected) throws Exception {
+    Object value = cache.getObject(key);
+    for (int i = 0; i < 50 && !expected.equals(value); i++) {
+      Thread.sleep(100);
+      value = cache.getObject(key);
+    }
+    return value;
+  }
+
+}
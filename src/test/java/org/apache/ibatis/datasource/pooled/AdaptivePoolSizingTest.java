@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class AdaptivePoolSizingTest extends BaseDataTest {
+
+  private static final int ROUNDS = 10;
+  private static final int BURST = 8;
+
+  @Test
+  public void shouldCreateFewerConnectionsUnderBurstyLoad() throws Exception {
+    for (boolean concurrent : new boolean[] { false, true }) {
+      PooledDataSource fixed = createDataSource(concurrent, false);
+      PooledDataSource adaptive = createDataSource(concurrent, true);
+      try {
+        long now = System.currentTimeMillis();
+        runBurstyLoad(fixed, now);
+        runBurstyLoad(adaptive, now);
+        // every burst opens the connections the fixed idle cap closed after the previous one
+        assertEquals(BURST + (ROUNDS - 1) * (BURST - 2), fixed.getPoolState().getCreatedConnectionCount());
+        // the second burst still pays for the first, after that the idle target covers the burst
+        assertEquals(BURST + (BURST - 2), adaptive.getPoolState().getCreatedConnectionCount());
+        assertEquals(BURST, adaptive.getPoolState().getIdleConnectionCount());
+      } finally {
+        fixed.forceCloseAll();
+        adaptive.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportGrowthAndShrinkSlowlyWhenIdle() throws Exception {
+    for (boolean concurrent : new boolean[] { false, true }) {
+      PooledDataSource ds = createDataSource(concurrent, true);
+      final List<PoolSizingEvent> events = new ArrayList<PoolSizingEvent>();
+      ds.setPoolSizingListener(new PoolSizingListener() {
+        @Override
+        public void poolResized(PoolSizingEvent event) {
+          events.add(event);
+        }
+      });
+      try {
+        long now = runBurstyLoad(ds, System.currentTimeMillis());
+        assertEquals(1, events.size());
+        assertEquals(PoolSizingEvent.Reason.UTILIZATION, events.get(0).getReason());
+        assertEquals(2, events.get(0).getPreviousIdleTarget());
+        assertEquals(BURST, events.get(0).getIdleTarget());
+
+        for (int i = 0; i < AdaptivePoolSizer.SHRINK_AFTER_QUIET_RUNS * 3; i++) {
+          ds.housekeep(now += 1000);
+        }
+        assertEquals(4, events.size());
+        assertEquals(PoolSizingEvent.Reason.IDLE, events.get(3).getReason());
+        assertEquals(BURST - 3, ds.getPoolState().getIdleTarget());
+        assertEquals(BURST - 3, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldGrowToMaximumWhenRequestsWait() throws Exception {
+    PooledDataSource ds = createDataSource(false, true);
+    AdaptivePoolSizer sizer = new AdaptivePoolSizer(2);
+    PoolState state = ds.getPoolState();
+    sizer.reset(2, state);
+    sizer.recordActive(10);
+    state.hadToWaitCount.add(3);
+    state.accumulatedWaitTime.add(300);
+    PoolSizingEvent event = sizer.evaluate(0, state, 10, 0, 10);
+    assertEquals(PoolSizingEvent.Reason.WAITING, event.getReason());
+    assertEquals(10, event.getIdleTarget());
+    assertEquals(3, event.getWaitCount());
+    assertEquals(100, event.getAverageWaitTime());
+    // no new waits and the pool is fully used, nothing to change
+    assertNull(sizer.evaluate(0, state, 10, 0, 10));
+  }
+
+  @Test
+  public void shouldKeepFixedIdleCapWhenDisabled() throws Exception {
+    PooledDataSource ds = createDataSource(false, false);
+    try {
+      runBurstyLoad(ds, System.currentTimeMillis());
+      assertEquals(2, ds.getPoolState().getIdleTarget());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 2);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  /*
+   * Checks out BURST connections at once and returns them, with a housekeeping run after every burst.
+   */
+  private static long runBurstyLoad(PooledDataSource ds, long now) throws Exception {
+    for (int round = 0; round < ROUNDS; round++) {
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < BURST; i++) {
+        connections.add(ds.getConnection());
+      }
+      for (Connection c : connections) {
+        c.close();
+      }
+      ds.housekeep(now += 1000);
+    }
+    return now;
+  }
+
+  private static PooledDataSource createDataSource(boolean concurrent, boolean adaptive) throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    PooledDataSource ds = concurrent
+        ? new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password"))
+        : new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password"));
+    ds.setPoolMaximumActiveConnections(10);
+    ds.setPoolMaximumIdleConnections(2);
+    ds.setPoolAdaptiveSizing(adaptive);
+    return ds;
+  }
+
+}
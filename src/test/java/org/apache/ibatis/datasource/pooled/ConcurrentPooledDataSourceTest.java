@@ -0,0 +1,333 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.hsqldb.jdbc.JDBCConnection;
+import org.hsqldb.jdbc.JDBCDriver;
+import org.junit.Test;
+
+public class ConcurrentPooledDataSourceTest extends BaseDataTest {
+
+  @Test
+  public void shouldProperlyMaintainPoolOf3ActiveAnd2IdleConnections() throws Exception {
+    ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      runScript(ds, JPETSTORE_DDL);
+      ds.setDefaultAutoCommit(false);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      ds.setPoolMaximumCheckoutTime(10000);
+      ds.setPoolPingConnectionsNotUsedFor(1);
+      ds.setPoolPingEnabled(true);
+      ds.setPoolPingQuery("SELECT * FROM PRODUCT");
+      ds.setPoolTimeToWait(10000);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(4, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+      assertEquals(0, ds.getPoolState().getClaimedOverdueConnectionCount());
+      assertNotNull(ds.getPoolState().toString());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldInvalidateProxyOnceClosed() throws Exception {
+    ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      Connection c = ds.getConnection();
+      c.close();
+      c.toString();
+      // a second close must not return the connection twice
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      try {
+        c.getAutoCommit();
+        fail("Closed connection should not be usable");
+      } catch (SQLException e) {
+        // expected
+      }
+      Connection again = ds.getConnection();
+      assertTrue(again.getAutoCommit());
+      again.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldReturnRealConnection() throws Exception {
+    ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      Connection c = ds.getConnection();
+      assertTrue(PooledDataSource.unwrapConnection(c) instanceof JDBCConnection);
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldClaimOverdueConnection() throws Exception {
+    ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumCheckoutTime(10);
+      Connection leaked = ds.getConnection();
+      Thread.sleep(50);
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+      // the leaked proxy is dead and closing it does not disturb the new owner
+      leaked.close();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldFailWhenWaitingLongerThanMaximumWaitTime() throws Exception {
+    ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumWaitTime(100);
+      Connection c = ds.getConnection();
+      try {
+        ds.getConnection();
+        fail("Should have timed out");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("Timed out"));
+      }
+      assertEquals(1, ds.getPoolState().getHadToWaitCount());
+      assertTrue(ds.getPoolState().getWaitTimePercentile(50) >= 64);
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldNeverHandOutMoreThanMaximumActiveConnections() throws Exception {
+    final ConcurrentPooledDataSource ds = createConcurrentPooledDataSource();
+    try {
+      ds.setPoolMaximumActiveConnections(4);
+      ds.setPoolMaximumIdleConnections(4);
+      final int threads = 16;
+      final int iterations = 200;
+      final AtomicInteger inUse = new AtomicInteger();
+      final AtomicInteger maxInUse = new AtomicInteger();
+      final List<Throwable> errors = new ArrayList<Throwable>();
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++) {
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < iterations; j++) {
+                Connection c = ds.getConnection();
+                int current = inUse.incrementAndGet();
+                int max;
+                while (current > (max = maxInUse.get()) && !maxInUse.compareAndSet(max, current)) {
+                  // retry
+                }
+                c.getAutoCommit();
+                inUse.decrementAndGet();
+                c.close();
+              }
+            } catch (Throwable t) {
+              synchronized (errors) {
+                errors.add(t);
+              }
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+      done.await();
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertTrue(maxInUse.get() <= 4);
+      assertEquals(threads * iterations, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertTrue(ds.getPoolState().getIdleConnectionCount() <= 4);
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldDiscardReturnedConnectionThatCannotBeRolledBack() throws Exception {
+    ConcurrentPooledDataSource ds = createFailingRollbackDataSource();
+    try {
+      Connection c = ds.getConnection();
+      c.setAutoCommit(false);
+      FailingRollbackDriver.failing = true;
+      try {
+        c.close();
+        fail("The rollback should have failed");
+      } catch (SQLException e) {
+        // expected
+      } finally {
+        FailingRollbackDriver.failing = false;
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+      // the place of the discarded connection is free again
+      ds.getConnection().close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldDiscardOverdueConnectionThatCannotBeRolledBack() throws Exception {
+    ConcurrentPooledDataSource ds = createFailingRollbackDataSource();
+    try {
+      ds.setPoolMaximumCheckoutTime(10);
+      Connection leaked = ds.getConnection();
+      leaked.setAutoCommit(false);
+      Thread.sleep(50);
+      FailingRollbackDriver.failing = true;
+      try {
+        ds.getConnection();
+        fail("The rollback should have failed");
+      } catch (SQLException e) {
+        // expected
+      } finally {
+        FailingRollbackDriver.failing = false;
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      c.close();
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  private static ConcurrentPooledDataSource createFailingRollbackDataSource() {
+    ConcurrentPooledDataSource ds = new ConcurrentPooledDataSource(FailingRollbackDriver.class.getName(), "jdbc:failrollback:mem:failrollback", "sa", "");
+    ds.setPoolMaximumActiveConnections(1);
+    ds.setPoolTimeToWait(100);
+    ds.setPoolMaximumWaitTime(1000);
+    return ds;
+  }
+
+  /**
+   * HSQLDB connections whose rollback fails while failing is set.
+   */
+  public static class FailingRollbackDriver implements Driver {
+
+    static volatile boolean failing;
+
+    private static final String PREFIX = "jdbc:failrollback:";
+
+    private final Driver driver = new JDBCDriver();
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      if (!acceptsURL(url)) {
+        return null;
+      }
+      final Connection connection = driver.connect("jdbc:hsqldb:" + url.substring(PREFIX.length()), info);
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (failing && "rollback".equals(method.getName())) {
+            throw new SQLException("Rollback failed");
+          }
+          try {
+            return method.invoke(connection, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+  }
+
+  private static ConcurrentPooledDataSource createConcurrentPooledDataSource() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    return new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password"));
+  }
+
+}
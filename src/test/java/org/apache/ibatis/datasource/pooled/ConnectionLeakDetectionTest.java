@@ -0,0 +1,152 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class ConnectionLeakDetectionTest extends BaseDataTest {
+
+  private static final long HOUR = 3600000L;
+
+  @Test
+  public void shouldReportConnectionHeldPastThresholdOnce() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      List<ConnectionLeakEvent> leaks = listenForLeaks(ds);
+      try {
+        ds.setPoolLeakDetectionThreshold(60000);
+        Connection c = ds.getConnection();
+        ds.housekeep(System.currentTimeMillis());
+        assertTrue(leaks.isEmpty());
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        ds.housekeep(System.currentTimeMillis() + 2 * HOUR);
+        assertEquals(1, leaks.size());
+        ConnectionLeakEvent leak = leaks.get(0);
+        assertFalse(leak.isClaimed());
+        assertEquals(Thread.currentThread().getName(), leak.getCheckoutThreadName());
+        assertTrue(leak.getCheckoutTime() >= HOUR);
+        assertEquals("shouldReportConnectionHeldPastThresholdOnce", findTestFrame(leak.getCheckoutSite()));
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldSampleCheckoutSites() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      List<ConnectionLeakEvent> leaks = listenForLeaks(ds);
+      try {
+        ds.setPoolLeakDetectionThreshold(60000);
+        ds.setPoolLeakDetectionSampleRate(2);
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(2, leaks.size());
+        int sampled = 0;
+        for (ConnectionLeakEvent leak : leaks) {
+          if (leak.getCheckoutSite() != null) {
+            sampled++;
+          }
+        }
+        assertEquals(1, sampled);
+        first.close();
+        second.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportClaimedOverdueConnection() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      List<ConnectionLeakEvent> leaks = listenForLeaks(ds);
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumCheckoutTime(20);
+        ds.setPoolLeakDetectionThreshold(60000);
+        ds.getConnection();
+        Thread.sleep(50);
+        Connection c = ds.getConnection();
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).isClaimed());
+        assertNotNull(leaks.get(0).getCheckoutSite());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotRecordCheckoutSitesWhenDisabled() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      List<ConnectionLeakEvent> leaks = listenForLeaks(ds);
+      try {
+        Connection c = ds.getConnection();
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertTrue(leaks.isEmpty());
+        assertNull(((ProxyConnection) c).getPooledConnection().reportLeak(0, false).getCheckoutSite());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private static String findTestFrame(Throwable site) {
+    for (StackTraceElement element : site.getStackTrace()) {
+      if (element.getClassName().equals(ConnectionLeakDetectionTest.class.getName())) {
+        return element.getMethodName();
+      }
+    }
+    return null;
+  }
+
+  private static List<ConnectionLeakEvent> listenForLeaks(PooledDataSource ds) {
+    final List<ConnectionLeakEvent> leaks = new ArrayList<ConnectionLeakEvent>();
+    ds.setConnectionLeakListener(new ConnectionLeakListener() {
+      @Override
+      public void connectionLeaked(ConnectionLeakEvent event) {
+        leaks.add(event);
+      }
+    });
+    return leaks;
+  }
+
+  private static List<PooledDataSource> createDataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+    dataSources.add(new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    dataSources.add(new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    return dataSources;
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class ConnectionValidationTest extends BaseDataTest {
+
+  private static final long HOUR = 3600000L;
+
+  @Test
+  public void shouldValidateWithIsValidWithoutPingQuery() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolValidationTimeout(3);
+        ConnectionValidator validator = ds.getConnectionValidator();
+        assertTrue(validator instanceof IsValidConnectionValidator);
+        assertEquals(3, ((IsValidConnectionValidator) validator).getTimeout());
+        ds.setPoolPingQuery("select 1 from INFORMATION_SCHEMA.SYSTEM_USERS");
+        assertTrue(ds.getConnectionValidator() instanceof QueryConnectionValidator);
+
+        ds.setPoolPingQuery(null);
+        ds.setPoolPingEnabled(true);
+        Connection c = ds.getConnection();
+        c.close();
+        Thread.sleep(5);
+        Connection again = ds.getConnection();
+        assertSame(((ProxyConnection) c).getPooledConnection().getRealConnection(), PooledDataSource.unwrapConnection(again));
+        again.close();
+        assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldTrustConnectionsUsedOrValidatedRecently() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      AtomicInteger validations = countValidations(ds, true);
+      try {
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingConnectionsNotUsedFor(60000);
+        ds.getConnection().close();
+        ds.getConnection().close();
+        assertEquals(0, validations.get());
+
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(1, validations.get());
+        // validated just now from the point of view of the moved clock
+        ds.housekeep(System.currentTimeMillis() + HOUR + 1000);
+        assertEquals(1, validations.get());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotValidateReturnedConnections() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      AtomicInteger validations = countValidations(ds, true);
+      try {
+        ds.setPoolPingEnabled(true);
+        Connection c = ds.getConnection();
+        // a new connection may be checked if the clock ticked since it was opened
+        int checkedOnCheckout = validations.get();
+        Thread.sleep(5);
+        c.close();
+        assertEquals(checkedOnCheckout, validations.get());
+        Thread.sleep(5);
+        ds.getConnection().close();
+        assertEquals(checkedOnCheckout + 1, validations.get());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldDiscardConnectionsFailingValidationInBackground() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      AtomicInteger validations = countValidations(ds, false);
+      try {
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingConnectionsNotUsedFor(60000);
+        Connection c = ds.getConnection();
+        Connection real = PooledDataSource.unwrapConnection(c);
+        c.close();
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(1, validations.get());
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(1, ds.getPoolState().getBadConnectionCount());
+        assertTrue(real.isClosed());
+
+        ds.setConnectionValidator(null);
+        Connection fresh = ds.getConnection();
+        assertNotSame(real, PooledDataSource.unwrapConnection(fresh));
+        fresh.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private static AtomicInteger countValidations(PooledDataSource ds, final boolean result) {
+    final AtomicInteger validations = new AtomicInteger();
+    ds.setConnectionValidator(new ConnectionValidator() {
+      @Override
+      public boolean validate(Connection connection) throws SQLException {
+        validations.incrementAndGet();
+        return result;
+      }
+    });
+    return validations;
+  }
+
+  private static List<PooledDataSource> createDataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+    dataSources.add(new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    dataSources.add(new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    return dataSources;
+  }
+
+}
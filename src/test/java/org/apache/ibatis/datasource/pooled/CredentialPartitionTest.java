@@ -0,0 +1,218 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CredentialPartitionTest extends BaseDataTest {
+
+  private static final String TENANT = "POOL_TENANT";
+  private static final String TENANT_PASSWORD = "secret";
+  private static final long HOUR = 3600000L;
+
+  @Before
+  public void createTenant() throws Exception {
+    Connection conn = createUnpooledDataSource(JPETSTORE_PROPERTIES).getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      try {
+        statement.execute("CREATE USER " + TENANT + " PASSWORD '" + TENANT_PASSWORD + "'");
+      } catch (SQLException e) {
+        // created by a previous test
+      } finally {
+        statement.close();
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Test
+  public void shouldReuseConnectionsOfEachCredentials() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        for (int i = 0; i < 5; i++) {
+          Connection owner = ds.getConnection();
+          Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+          assertEquals("SA", owner.getMetaData().getUserName());
+          assertEquals(TENANT, tenant.getMetaData().getUserName());
+          owner.close();
+          tenant.close();
+        }
+        assertEquals(2, ds.getPoolState().getCreatedConnectionCount());
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(2, ds.getPartitions().length);
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldComputeTypeCodeOncePerPartition() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        PoolPartition partition = ds.getPartition(TENANT, TENANT_PASSWORD);
+        assertSame(partition, ds.getPartition(TENANT, TENANT_PASSWORD));
+        assertSame(ds.getDefaultPartition(), ds.getPartition(ds.getUsername(), ds.getPassword()));
+        Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+        assertEquals(partition.getConnectionTypeCode(), ((ProxyConnection) tenant).getPooledConnection().getConnectionTypeCode());
+        assertEquals(ds.assembleConnectionTypeCode(ds.getUrl(), TENANT, TENANT_PASSWORD), partition.getConnectionTypeCode());
+        tenant.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldShareMaximumActiveConnections() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(2);
+        ds.setPoolMaximumWaitTime(100);
+        Connection owner = ds.getConnection();
+        Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+        try {
+          ds.getConnection(TENANT, TENANT_PASSWORD);
+          fail("Expected the pool to be exhausted");
+        } catch (SQLException e) {
+          // expected
+        }
+        owner.close();
+        tenant.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldGiveFreedPlaceToWaiterForOtherCredentials() throws Exception {
+    for (final PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumWaitTime(5000);
+        Connection owner = ds.getConnection();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread waiter = new Thread() {
+          @Override
+          public void run() {
+            try {
+              Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+              result.set(tenant.getMetaData().getUserName());
+              tenant.close();
+            } catch (SQLException e) {
+              result.set(e);
+            }
+          }
+        };
+        waiter.start();
+        while (ds.getPoolState().getHadToWaitCount() == 0) {
+          Thread.sleep(5);
+        }
+        owner.close();
+        waiter.join(5000);
+        assertEquals(TENANT, result.get());
+        // the connection of the owner was closed to make room instead of being kept idle
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        assertSame(ds.getPartition(TENANT, TENANT_PASSWORD), findIdlePartition(ds));
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldDropPartitionWithoutConnections() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMaximumIdleTime(60000);
+        PoolPartition partition = ds.getPartition(TENANT, TENANT_PASSWORD);
+        ds.getConnection(TENANT, TENANT_PASSWORD).close();
+        ds.housekeep(System.currentTimeMillis());
+        assertSame(partition, ds.getPartition(TENANT, TENANT_PASSWORD));
+
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(1, ds.getPartitions().length);
+        assertSame(ds.getDefaultPartition(), ds.getPartitions()[0]);
+        assertNotSame(partition, ds.getPartition(TENANT, TENANT_PASSWORD));
+
+        Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+        assertEquals(TENANT, tenant.getMetaData().getUserName());
+        tenant.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseConnectionsOfRetiredPartition() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        Connection tenant = ds.getConnection(TENANT, TENANT_PASSWORD);
+        PoolPartition partition = ((ProxyConnection) tenant).getPooledConnection().getPartition();
+        ds.resetPartitions();
+        tenant.close();
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertNull(findIdlePartition(ds));
+        assertTrue(partition.isRetired());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private static PoolPartition findIdlePartition(PooledDataSource ds) {
+    for (PoolPartition partition : ds.getPartitions()) {
+      int idle = ds instanceof ConcurrentPooledDataSource
+          ? ((ConcurrentPooledDataSource.BagPartition) partition).bag.getCount(PooledConnection.STATE_NOT_IN_USE)
+          : partition.idleConnections.size();
+      if (idle > 0) {
+        return partition;
+      }
+    }
+    return null;
+  }
+
+  private static List<PooledDataSource> createDataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+    dataSources.add(new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    dataSources.add(new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    return dataSources;
+  }
+
+}
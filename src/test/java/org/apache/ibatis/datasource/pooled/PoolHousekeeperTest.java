@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.junit.Test;
+
+public class PoolHousekeeperTest extends BaseDataTest {
+
+  private static final long HOUR = 3600000L;
+
+  @Test
+  public void shouldOpenConnectionsUpToMinimumIdle() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMinimumIdleConnections(3);
+        ds.housekeep(System.currentTimeMillis());
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        Connection c = ds.getConnection();
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+        ds.housekeep(System.currentTimeMillis());
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotOpenMoreThanMaximumActiveConnections() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMaximumActiveConnections(2);
+        ds.setPoolMinimumIdleConnections(5);
+        Connection c = ds.getConnection();
+        ds.housekeep(System.currentTimeMillis());
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseIdleConnectionsButKeepMinimumIdle() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMaximumIdleConnections(5);
+        ds.setPoolMinimumIdleConnections(1);
+        ds.setPoolMaximumIdleTime(60000);
+        checkOutAndReturn(ds, 3);
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        ds.housekeep(System.currentTimeMillis());
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReplaceConnectionsPastMaximumAge() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolMinimumIdleConnections(1);
+        ds.setPoolMaximumConnectionAge(60000);
+        ds.housekeep(System.currentTimeMillis());
+        Connection first = ds.getConnection();
+        Connection real = PooledDataSource.unwrapConnection(first);
+        first.close();
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+        Connection second = ds.getConnection();
+        assertNotSame(real, PooledDataSource.unwrapConnection(second));
+        assertTrue(real.isClosed());
+        second.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldValidateIdleConnectionsInTheBackground() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingQuery("SELECT * FROM NO_SUCH_TABLE");
+        ds.setPoolPingConnectionsNotUsedFor(60000);
+        checkOutAndReturn(ds, 2);
+        ds.housekeep(System.currentTimeMillis());
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        ds.housekeep(System.currentTimeMillis() + HOUR);
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(2, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotPingOnCheckoutWhileHousekeeperRuns() throws Exception {
+    for (PooledDataSource ds : createDataSources()) {
+      try {
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingQuery("SELECT * FROM NO_SUCH_TABLE");
+        ds.setPoolPingConnectionsNotUsedFor(0);
+        ds.setPoolHousekeepingInterval((int) HOUR);
+        Connection c = ds.getConnection();
+        Thread.sleep(5);
+        PooledConnection pooled = ((ProxyConnection) c).getPooledConnection();
+        assertTrue(ds.isValidForCheckout(pooled));
+        assertFalse(pooled.isValid());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  private static void checkOutAndReturn(PooledDataSource ds, int count) throws Exception {
+    List<Connection> connections = new ArrayList<Connection>();
+    for (int i = 0; i < count; i++) {
+      connections.add(ds.getConnection());
+    }
+    for (Connection c : connections) {
+      c.close();
+    }
+  }
+
+  private static List<PooledDataSource> createDataSources() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+    dataSources.add(new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    dataSources.add(new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    return dataSources;
+  }
+
+}
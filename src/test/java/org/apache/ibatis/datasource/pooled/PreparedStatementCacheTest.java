@@ -0,0 +1,255 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.io.Resources;
+import org.hsqldb.jdbc.JDBCPreparedStatement;
+import org.junit.Test;
+
+public class PreparedStatementCacheTest extends BaseDataTest {
+
+  private static final String SQL = "SELECT * FROM INFORMATION_SCHEMA.SYSTEM_USERS WHERE USER_NAME = ?";
+
+  @Test
+  public void shouldReuseStatementAcrossCheckouts() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement(SQL);
+        ps.setString(1, "SA");
+        ResultSet rs = ps.executeQuery();
+        assertTrue(rs.next());
+        rs.close();
+        JDBCPreparedStatement real = ps.unwrap(JDBCPreparedStatement.class);
+        ps.close();
+        c.close();
+
+        c = ds.getConnection();
+        ps = c.prepareStatement(SQL);
+        assertSame(real, ps.unwrap(JDBCPreparedStatement.class));
+        ps.close();
+        c.close();
+        assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+        assertEquals(1, ds.getPoolState().getStatementCacheMissCount());
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotShareStatementsThatAreOpenAtTheSameTime() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement first = c.prepareStatement(SQL);
+        PreparedStatement second = c.prepareStatement(SQL);
+        assertNotSame(first.unwrap(JDBCPreparedStatement.class), second.unwrap(JDBCPreparedStatement.class));
+        first.close();
+        second.close();
+        assertEquals(2, ds.getPoolState().getStatementCacheMissCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldKeyOnResultSetTypeAndGeneratedKeys() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        c.prepareStatement(SQL).close();
+        c.prepareStatement(SQL, Statement.RETURN_GENERATED_KEYS).close();
+        c.prepareStatement(SQL, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+        c.prepareStatement(SQL, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+        assertEquals(3, ds.getPoolState().getStatementCacheMissCount());
+        assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedStatement() throws Exception {
+    for (PooledDataSource ds : createDataSources(2)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        JDBCPreparedStatement eldest = ps.unwrap(JDBCPreparedStatement.class);
+        ps.close();
+        c.prepareStatement("SELECT 2 FROM INFORMATION_SCHEMA.SYSTEM_USERS").close();
+        c.prepareStatement("SELECT 3 FROM INFORMATION_SCHEMA.SYSTEM_USERS").close();
+        assertEquals(1, ds.getPoolState().getStatementCacheEvictionCount());
+        assertTrue(eldest.isClosed());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldRestoreSettingsChangedByPreviousUse() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement(SQL);
+        int fetchSize = ps.getFetchSize();
+        int maxRows = ps.getMaxRows();
+        int queryTimeout = ps.getQueryTimeout();
+        int fetchDirection = ps.getFetchDirection();
+        ps.setFetchSize(fetchSize + 50);
+        ps.setMaxRows(maxRows + 5);
+        ps.setQueryTimeout(queryTimeout + 30);
+        ps.setFetchDirection(ResultSet.FETCH_REVERSE);
+        ps.close();
+
+        ps = c.prepareStatement(SQL);
+        assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+        assertEquals(fetchSize, ps.getFetchSize());
+        assertEquals(maxRows, ps.getMaxRows());
+        assertEquals(queryTimeout, ps.getQueryTimeout());
+        assertEquals(fetchDirection, ps.getFetchDirection());
+        ps.close();
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldDropPendingBatchOfClosedStatement() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        Statement ddl = c.createStatement();
+        ddl.execute("CREATE TABLE STATEMENT_CACHE_BATCH (ID INT)");
+        try {
+          PreparedStatement ps = c.prepareStatement("INSERT INTO STATEMENT_CACHE_BATCH (ID) VALUES (?)");
+          ps.setInt(1, 1);
+          ps.addBatch();
+          ps.setInt(1, 2);
+          ps.addBatch();
+          // 没执行就关掉，比如回滚的时候
+          ps.close();
+
+          ps = c.prepareStatement("INSERT INTO STATEMENT_CACHE_BATCH (ID) VALUES (?)");
+          assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+          ps.setInt(1, 3);
+          ps.addBatch();
+          assertEquals(1, ps.executeBatch().length);
+          ps.close();
+
+          ResultSet rs = ddl.executeQuery("SELECT COUNT(*) FROM STATEMENT_CACHE_BATCH");
+          assertTrue(rs.next());
+          assertEquals(1, rs.getInt(1));
+          rs.close();
+        } finally {
+          ddl.execute("DROP TABLE STATEMENT_CACHE_BATCH");
+          ddl.close();
+          c.close();
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseOpenResultSetOfClosedStatement() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement(SQL);
+        ps.setString(1, "SA");
+        ResultSet rs = ps.executeQuery();
+        ps.close();
+        assertTrue(rs.isClosed());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReturnPooledConnectionFromStatement() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      try {
+        Connection c = ds.getConnection();
+        PreparedStatement ps = c.prepareStatement(SQL);
+        assertSame(c, ps.getConnection());
+        ps.close();
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCloseCachedStatementsWhenPoolIsClosed() throws Exception {
+    for (PooledDataSource ds : createDataSources(10)) {
+      Connection c = ds.getConnection();
+      PreparedStatement ps = c.prepareStatement(SQL);
+      JDBCPreparedStatement real = ps.unwrap(JDBCPreparedStatement.class);
+      ps.close();
+      assertTrue(ps.isClosed());
+      try {
+        ps.executeQuery();
+        fail("Closed statement should not be usable");
+      } catch (SQLException e) {
+        // expected
+      }
+      c.close();
+      ds.forceCloseAll();
+      assertTrue(real.isClosed());
+    }
+  }
+
+  private static List<PooledDataSource> createDataSources(int statementCacheSize) throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    List<PooledDataSource> dataSources = new ArrayList<PooledDataSource>();
+    dataSources.add(new PooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    dataSources.add(new ConcurrentPooledDataSource(props.getProperty("driver"), props.getProperty("url"), props.getProperty("username"), props.getProperty("password")));
+    for (PooledDataSource ds : dataSources) {
+      ds.setPoolPreparedStatementCacheSize(statementCacheSize);
+    }
+    return dataSources;
+  }
+
+}
@@ -15,7 +15,18 @@
  */
 package org.apache.ibatis.executor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
 import org.junit.Test;
 
 public class BatchExecutorTest extends BaseExecutorTest {
@@ -24,6 +35,97 @@ public class BatchExecutorTest extends BaseExecutorTest {
   public void dummy() {
   }
 
+  @Test
+  public void shouldExecuteBatchWhenFlushSizeIsReached() throws Exception {
+    config.setBatchFlushSize(2);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      for (int i = 0; i < 5; i++) {
+        executor.update(insertStatement, newAuthor(200 + i));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(3, results.size());
+      assertEquals(2, results.get(0).getUpdateCounts().length);
+      assertEquals(2, results.get(1).getUpdateCounts().length);
+      assertEquals(1, results.get(2).getUpdateCounts().length);
+      // 先执行的批只留第一个参数
+      assertEquals(1, results.get(0).getParameterObjects().size());
+      assertEquals(200, ((Author) results.get(0).getParameterObject()).getId());
+      assertEquals(202, ((Author) results.get(1).getParameterObject()).getId());
+      assertEquals(1, results.get(2).getParameterObjects().size());
+      assertEquals(0, executor.flushStatements().size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldReturnNullParameterObjectOfEmptyBatchResult() throws Exception {
+    BatchResult result = new BatchResult(ExecutorTestHelper.prepareInsertAuthorMappedStatement(config), "insert");
+    assertNull(result.getParameterObject());
+    result.releaseParameterObjects();
+    assertNull(result.getParameterObject());
+  }
+
+  @Test
+  public void shouldExecuteBatchWhenFlushBytesAreReached() throws Exception {
+    config.setBatchFlushBytes(1L);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      MappedStatement selectStatement = ExecutorTestHelper.prepareSelectOneAuthorMappedStatement(config);
+      executor.update(insertStatement, newAuthor(210));
+      executor.update(insertStatement, newAuthor(211));
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(2, results.size());
+      List<Author> authors = executor.query(selectStatement, 211, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+      assertEquals(1, authors.size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldPreferFlushSizeOfStatement() throws Exception {
+    config.setBatchFlushSize(100);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      SystemMetaObject.forObject(insertStatement).setValue("batchFlushSize", 3);
+      for (int i = 0; i < 7; i++) {
+        executor.update(insertStatement, newAuthor(220 + i));
+      }
+      List<BatchResult> results = executor.flushStatements();
+      assertEquals(3, results.size());
+      assertEquals(1, results.get(2).getUpdateCounts().length);
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  @Test
+  public void shouldDiscardExecutedBatchesOnRollback() throws Exception {
+    config.setBatchFlushSize(1);
+    Executor executor = createExecutor(new JdbcTransaction(ds, null, false));
+    try {
+      MappedStatement insertStatement = ExecutorTestHelper.prepareInsertAuthorMappedStatement(config);
+      executor.update(insertStatement, newAuthor(230));
+      executor.rollback(true);
+      assertEquals(0, executor.flushStatements().size());
+    } finally {
+      executor.rollback(true);
+      executor.close(false);
+    }
+  }
+
+  private static Author newAuthor(int id) {
+    return new Author(id, "someone", "******", "someone@apache.org", null, Section.NEWS);
+  }
+
   protected Executor createExecutor(Transaction transaction) {
     return new BatchExecutor(config,transaction);
   }
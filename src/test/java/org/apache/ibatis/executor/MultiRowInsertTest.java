@@ -0,0 +1,65 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MultiRowInsertTest {
+
+  @Test
+  public void shouldSplitSingleRowInsert() {
+    String[] parts = MultiRowInsert.split(" insert into author (id, name) values (?, lower(?))\n");
+    assertArrayEquals(new String[] { "insert into author (id, name) values ", "(?, lower(?))" }, parts);
+    assertEquals("insert into author (id, name) values (?, lower(?)), (?, lower(?))", MultiRowInsert.rewrite(parts, 2));
+  }
+
+  @Test
+  public void shouldNotSplitOtherStatements() {
+    assertNull(MultiRowInsert.split("insert into author (id) values (?), (?)"));
+    assertNull(MultiRowInsert.split("insert into author (id) select id from blog"));
+    assertNull(MultiRowInsert.split("insert into author (id, n) values (?, ?) on duplicate key update n = ?"));
+    assertNull(MultiRowInsert.split("update author set name = 'values (1)'"));
+    assertNull(MultiRowInsert.split("insert into author (id, bio) values (?, ')')  x"));
+  }
+
+  @Test
+  public void shouldIgnoreValuesInQuotes() {
+    String[] parts = MultiRowInsert.split("insert into \"values\" (id) values (')')");
+    assertEquals("(')')", parts[1]);
+  }
+
+  @Test
+  public void shouldFollowDatabaseLimits() {
+    assertTrue(MultiRowInsert.supports("MySQL", true));
+    assertTrue(MultiRowInsert.supports("sqlserver", false));
+    assertFalse(MultiRowInsert.supports("sqlserver", true));
+    assertFalse(MultiRowInsert.supports("oracle", false));
+    assertTrue(MultiRowInsert.supports(null, false));
+    assertFalse(MultiRowInsert.supports(null, true));
+    assertEquals(1000, MultiRowInsert.maxRows("sqlserver", 2, 5000));
+    assertEquals(700, MultiRowInsert.maxRows("sqlserver", 3, 5000));
+    assertEquals(99, MultiRowInsert.maxRows("sqlite", 10, 500));
+    assertEquals(500, MultiRowInsert.maxRows("mysql", 10, 500));
+    assertEquals(1, MultiRowInsert.maxRows("sqlite", 2000, 500));
+  }
+
+}
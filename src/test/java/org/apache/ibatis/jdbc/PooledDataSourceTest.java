@@ -19,12 +19,16 @@ import org.apache.ibatis.BaseDataTest;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Test;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -85,4 +89,108 @@ public class PooledDataSourceTest extends BaseDataTest {
     Connection c = ds.getConnection();
     JDBCConnection realConnection = (JDBCConnection) PooledDataSource.unwrapConnection(c);
   }
+
+  @Test
+  public void shouldFailWhenWaitingLongerThanMaximumWaitTime() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumWaitTime(100);
+      Connection c = ds.getConnection();
+      long start = System.currentTimeMillis();
+      try {
+        ds.getConnection();
+        fail("Should have timed out");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage().contains("Timed out"));
+      }
+      assertTrue(System.currentTimeMillis() - start >= 100);
+      assertEquals(1, ds.getPoolState().getHadToWaitCount());
+      assertTrue(ds.getPoolState().getWaitTimePercentile(99) >= 64);
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandReturnedConnectionsToWaitersInArrivalOrder() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(10000);
+      Connection c = ds.getConnection();
+      final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+      List<Thread> threads = new ArrayList<Thread>();
+      for (final String name : new String[] { "first", "second", "third" }) {
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              Connection conn = ds.getConnection();
+              order.add(name);
+              conn.close();
+            } catch (SQLException e) {
+              order.add(e.getMessage());
+            }
+          }
+        };
+        thread.start();
+        threads.add(thread);
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+          Thread.sleep(5);
+        }
+      }
+      c.close();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals("[first, second, third]", order.toString());
+      assertEquals(3, ds.getPoolState().getHadToWaitCount());
+      assertEquals(0, ds.getPoolState().getClaimedOverdueConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldCountHandedOverConnectionAsActive() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolTimeToWait(10000);
+      Connection c = ds.getConnection();
+      final List<Connection> received = Collections.synchronizedList(new ArrayList<Connection>());
+      Thread waiter = new Thread() {
+        @Override
+        public void run() {
+          try {
+            received.add(ds.getConnection());
+          } catch (SQLException e) {
+            // the assertions below fail
+          }
+        }
+      };
+      waiter.start();
+      while (waiter.getState() != Thread.State.TIMED_WAITING) {
+        Thread.sleep(5);
+      }
+      synchronized (ds.getPoolState()) {
+        // the waiter cannot pick the connection up yet, it must still count as active
+        c.close();
+        assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+      }
+      waiter.join();
+      assertEquals(1, received.size());
+      assertEquals(1, ds.getPoolState().getActiveConnectionCount());
+      received.get(0).close();
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
 }
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.logging.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.apache.ibatis.logging.Log;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PreparedStatementLoggerTest {
+
+  @Mock
+  private Connection connection;
+
+  @Mock
+  private PreparedStatement ps;
+
+  @Mock
+  private CallableStatement cs;
+
+  @Mock
+  private ResultSet rs;
+
+  @Mock
+  private Log log;
+
+  @Before
+  public void setup() throws SQLException {
+    when(log.isDebugEnabled()).thenReturn(true);
+    when(connection.prepareStatement("SELECT *  FROM  users WHERE id = ?")).thenReturn(ps);
+    when(connection.prepareCall("{call users(?)}")).thenReturn(cs);
+    when(ps.executeQuery()).thenReturn(rs);
+  }
+
+  @Test
+  public void shouldLogSqlAndParameters() throws SQLException {
+    Connection conn = ConnectionLogger.newInstance(connection, log, 1);
+    PreparedStatement stmt = conn.prepareStatement("SELECT *  FROM  users WHERE id = ?");
+    stmt.setInt(1, 10);
+    stmt.setNull(2, Types.VARCHAR);
+    ResultSet result = stmt.executeQuery();
+
+    verify(log).debug("==>  Preparing: SELECT * FROM users WHERE id = ? ");
+    verify(log).debug("==> Parameters: 10(Integer), null");
+    verify(ps).setInt(1, 10);
+    verify(ps).setNull(2, Types.VARCHAR);
+    assertNotSame(rs, result);
+    result.next();
+    verify(rs).next();
+  }
+
+  @Test
+  public void shouldClearParametersAfterEachExecution() throws SQLException {
+    PreparedStatement stmt = PreparedStatementLogger.newInstance(ps, log, 1);
+    stmt.setString(1, "a");
+    stmt.addBatch();
+    stmt.setString(1, "b");
+    stmt.addBatch();
+
+    verify(log).debug("==> Parameters: a(String)");
+    verify(log).debug("==> Parameters: b(String)");
+  }
+
+  @Test
+  public void shouldLogUpdateCount() throws SQLException {
+    when(ps.getUpdateCount()).thenReturn(3);
+    PreparedStatement stmt = PreparedStatementLogger.newInstance(ps, log, 1);
+    assertEquals(3, stmt.getUpdateCount());
+    verify(log).debug("<==    Updates: 3");
+  }
+
+  @Test
+  public void shouldForwardCallableStatementCalls() throws SQLException {
+    when(cs.getInt(1)).thenReturn(42);
+    Connection conn = ConnectionLogger.newInstance(connection, log, 1);
+    CallableStatement stmt = conn.prepareCall("{call users(?)}");
+    stmt.registerOutParameter(1, Types.INTEGER);
+    stmt.execute();
+    assertEquals(42, stmt.getInt(1));
+    verify(cs).registerOutParameter(1, Types.INTEGER);
+  }
+
+  @Test
+  public void shouldFailCallableStatementCallsOnPreparedStatement() throws SQLException {
+    PreparedStatement stmt = PreparedStatementLogger.newInstance(ps, log, 1);
+    assertTrue(stmt instanceof CallableStatement);
+    try {
+      ((CallableStatement) stmt).getInt(1);
+      fail("PreparedStatement should not support CallableStatement calls");
+    } catch (SQLException e) {
+      // expected
+    }
+  }
+
+}
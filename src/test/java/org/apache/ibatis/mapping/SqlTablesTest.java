@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SqlTablesTest {
+
+  @Test
+  public void shouldFindTablesOfSelect() {
+    assertArrayEquals(new String[] { "blog", "author" },
+        SqlTables.parse("SELECT * FROM blog b, Author a WHERE b.author_id = a.id"));
+    assertArrayEquals(new String[] { "blog", "author", "post" },
+        SqlTables.parse("select * from blog b inner join author a on b.author_id = a.id left outer join post p on p.blog_id = b.id"));
+    assertArrayEquals(new String[] { "post", "comment" },
+        SqlTables.parse("select count(*) from (select * from post) p where exists (select 1 from comment c where c.post_id = p.id)"));
+  }
+
+  @Test
+  public void shouldFindTablesOfWrites() {
+    assertArrayEquals(new String[] { "author" }, SqlTables.parse("insert into author (id, username) values (?, ?)"));
+    assertArrayEquals(new String[] { "author" }, SqlTables.parse("update author set username = ? where id = ?"));
+    assertArrayEquals(new String[] { "author" }, SqlTables.parse("delete from author where id = ?"));
+    assertArrayEquals(new String[] { "archive", "post" }, SqlTables.parse("insert into archive select * from post"));
+  }
+
+  @Test
+  public void shouldIgnoreQuotesSchemasLiteralsAndComments() {
+    assertArrayEquals(new String[] { "blog" },
+        SqlTables.parse("select /* from comment */ * from \"PUBLIC\".\"BLOG\" -- join post\n where title = 'from tag'"));
+    assertArrayEquals(new String[] { "order" }, SqlTables.parse("select * from `order`"));
+  }
+
+  @Test
+  public void shouldReturnNullWhenNoTableIsFound() {
+    assertNull(SqlTables.parse("{call refresh_stats(?)}"));
+    assertNull(SqlTables.parse("values (1)"));
+    assertNull(SqlTables.parseDeclared(" "));
+    assertArrayEquals(new String[] { "blog", "author" }, SqlTables.parseDeclared("Blog, public.author"));
+  }
+
+}
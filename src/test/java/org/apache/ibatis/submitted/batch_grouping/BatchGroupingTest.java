@@ -0,0 +1,135 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_grouping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.List;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.BatchGrouping;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchGroupingTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_grouping/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_grouping/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @After
+  public void tearDown() {
+    sqlSessionFactory.getConfiguration().setBatchGrouping(BatchGrouping.STATEMENT);
+  }
+
+  @Test
+  public void shouldBatchInterleavedStatementsTogether() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 10; i < 20; i++) {
+        mapper.insertParent(new Parent(i, "Parent" + i));
+        mapper.insertChild(new Child(i, i, "Child" + i));
+      }
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals("org.apache.ibatis.submitted.batch_grouping.Mapper.insertParent", results.get(0).getMappedStatement().getId());
+      assertEquals(10, results.get(0).getUpdateCounts().length);
+      assertEquals(10, results.get(1).getUpdateCounts().length);
+      assertEquals(10, mapper.countChildren());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldOnlyBatchConsecutiveStatementsByDefault() {
+    sqlSessionFactory.getConfiguration().setBatchGrouping(BatchGrouping.CONSECUTIVE);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 10; i < 20; i++) {
+        mapper.insertParent(new Parent(i, "Parent" + i));
+        mapper.insertChild(new Child(i, i, "Child" + i));
+      }
+      assertEquals(20, sqlSession.flushStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotMoveChildBeforeItsParent() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.insertChild(new Child(1, 1, "Child1"));
+      mapper.insertParent(new Parent(2, "Parent2"));
+      // 引用了前面刚插入的parent，不能并到第一个批里
+      mapper.insertChild(new Child(2, 2, "Child2"));
+      mapper.insertParent(new Parent(3, "Parent3"));
+      mapper.insertChild(new Child(3, 3, "Child3"));
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(3, results.size());
+      assertEquals(1, results.get(0).getUpdateCounts().length);
+      assertEquals(2, results.get(1).getUpdateCounts().length);
+      assertEquals(2, results.get(2).getUpdateCounts().length);
+      assertEquals(3, mapper.countChildren());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotMoveStatementsOfSameTable() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.insertParent(new Parent(2, "Parent2"));
+      mapper.renameParent(new Parent(2, "Renamed2"));
+      mapper.insertParent(new Parent(3, "Parent3"));
+      assertEquals(3, sqlSession.flushStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.batch_nested_select;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchNestedSelectTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_nested_select/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/batch_nested_select/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+    QueryCounter.QUERIES.set(0);
+  }
+
+  @After
+  public void tearDown() {
+    sqlSessionFactory.getConfiguration().setNestedSelectBatchSize(500);
+  }
+
+  @Test
+  public void shouldLoadAssociationsOfAllRowsWithOneQuery() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Post> posts = sqlSession.getMapper(Mapper.class).getPosts();
+      assertEquals(2, QueryCounter.QUERIES.get());
+      assertEquals(5, posts.size());
+      for (Post post : posts) {
+        assertEquals(post.getAuthorId(), post.getAuthor().getId());
+      }
+      assertEquals("Author2", posts.get(2).getAuthor().getName());
+      assertSame(posts.get(0).getAuthor(), posts.get(1).getAuthor());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadCollectionsOfAllRowsWithOneQuery() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Author> authors = sqlSession.getMapper(Mapper.class).getAuthors();
+      assertEquals(2, QueryCounter.QUERIES.get());
+      assertPosts(authors);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadLazyCollectionsOfAllParentsAtOnce() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Author> authors = sqlSession.getMapper(Mapper.class).getAuthorsLazily();
+      assertEquals(1, QueryCounter.QUERIES.get());
+      assertEquals("Author1", authors.get(0).getName());
+      assertEquals(1, QueryCounter.QUERIES.get());
+      assertEquals(3, authors.get(0).getPosts().size());
+      assertEquals(2, QueryCounter.QUERIES.get());
+      assertPosts(authors);
+      assertEquals(2, QueryCounter.QUERIES.get());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadLazyCollectionsAfterSessionIsClosed() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    List<Author> authors;
+    try {
+      authors = sqlSession.getMapper(Mapper.class).getAuthorsLazily();
+    } finally {
+      sqlSession.close();
+    }
+    assertPosts(authors);
+    assertEquals(2, QueryCounter.QUERIES.get());
+  }
+
+  @Test
+  public void shouldSplitKeysByNestedSelectBatchSize() {
+    sqlSessionFactory.getConfiguration().setNestedSelectBatchSize(2);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Author> authors = sqlSession.getMapper(Mapper.class).getAuthors();
+      assertEquals(3, QueryCounter.QUERIES.get());
+      assertPosts(authors);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadEachRowWhenResultsGoToResultHandler() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      final List<Post> posts = new ArrayList<Post>();
+      sqlSession.getMapper(Mapper.class).getPosts(new ResultHandler() {
+        @Override
+        public void handleResult(ResultContext context) {
+          Post post = (Post) context.getResultObject();
+          // 交给ResultHandler的时候关联对象已经加载了
+          assertEquals(post.getAuthorId(), post.getAuthor().getId());
+          posts.add(post);
+        }
+      });
+      assertEquals(5, posts.size());
+      // 已经查过的key不再查
+      assertEquals(3, QueryCounter.QUERIES.get());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldLoadCollectionsOfAnnotatedMapping() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<Author> authors = sqlSession.getMapper(Mapper.class).getAuthorsWithAnnotations();
+      assertEquals(2, QueryCounter.QUERIES.get());
+      assertPosts(authors);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private void assertPosts(List<Author> authors) {
+    assertEquals(3, authors.size());
+    assertEquals(3, authors.get(0).getPosts().size());
+    assertEquals("Post4", authors.get(0).getPosts().get(2).getTitle());
+    assertEquals(2, authors.get(1).getPosts().size());
+    assertEquals("Post3", authors.get(1).getPosts().get(0).getTitle());
+    assertTrue(authors.get(2).getPosts().isEmpty());
+  }
+
+}
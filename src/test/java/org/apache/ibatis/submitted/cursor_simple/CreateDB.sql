@@ -0,0 +1,42 @@
+--
+--    Copyright 2009-2014 the original author or authors.
+--
+--    Licensed under the Apache License, Version 2.0 (the "License");
+--    you may not use this file except in compliance with the License.
+--    You may obtain a copy of the License at
+--
+--       http://www.apache.org/licenses/LICENSE-2.0
+--
+--    Unless required by applicable law or agreed to in writing, software
+--    distributed under the License is distributed on an "AS IS" BASIS,
+--    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+--    See the License for the specific language governing permissions and
+--    limitations under the License.
+--
+
+drop table users if exists;
+drop table items if exists;
+
+create table users (
+  id int,
+  name varchar(20)
+);
+
+create table items (
+  user_id int,
+  name varchar(20)
+);
+
+insert into users (id, name) values(1, 'User1');
+insert into users (id, name) values(2, 'User2');
+insert into users (id, name) values(3, 'User3');
+insert into users (id, name) values(4, 'User4');
+insert into users (id, name) values(5, 'User5');
+
+insert into items (user_id, name) values(1, 'Item1.1');
+insert into items (user_id, name) values(1, 'Item1.2');
+insert into items (user_id, name) values(2, 'Item2.1');
+insert into items (user_id, name) values(3, 'Item3.1');
+insert into items (user_id, name) values(3, 'Item3.2');
+insert into items (user_id, name) values(3, 'Item3.3');
+insert into items (user_id, name) values(5, 'Item5.1');
@@ -0,0 +1,217 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.cursor_simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CursorSimpleTest {
+
+  private static SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/cursor_simple/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/cursor_simple/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldReadRowsOneByOne() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<User> cursor = sqlSession.getMapper(Mapper.class).getAllUsers();
+      assertFalse(cursor.isOpen());
+      assertEquals(-1, cursor.getCurrentIndex());
+
+      Iterator<User> iterator = cursor.iterator();
+      assertTrue(iterator.hasNext());
+      User user = iterator.next();
+      assertEquals("User1", user.getName());
+      assertEquals(0, cursor.getCurrentIndex());
+      assertTrue(cursor.isOpen());
+
+      List<String> names = new ArrayList<String>();
+      while (iterator.hasNext()) {
+        names.add(iterator.next().getName());
+      }
+      assertEquals(Arrays.asList("User2", "User3", "User4", "User5"), names);
+      assertEquals(4, cursor.getCurrentIndex());
+      assertFalse(cursor.isOpen());
+      assertTrue(cursor.isConsumed());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldApplyRowBounds() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<User> cursor = sqlSession.getMapper(Mapper.class).getAllUsers(new RowBounds(1, 2));
+      List<String> names = new ArrayList<String>();
+      for (User user : cursor) {
+        names.add(user.getName());
+        assertEquals(names.size(), cursor.getCurrentIndex());
+      }
+      assertEquals(Arrays.asList("User2", "User3"), names);
+      assertTrue(cursor.isConsumed());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldStopReadingWhenClosed() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<User> cursor = sqlSession.selectCursor("org.apache.ibatis.submitted.cursor_simple.Mapper.getAllUsers");
+      Iterator<User> iterator = cursor.iterator();
+      assertEquals("User1", iterator.next().getName());
+      cursor.close();
+      assertFalse(cursor.isOpen());
+      assertFalse(cursor.isConsumed());
+      assertFalse(iterator.hasNext());
+      // 关两次没关系
+      cursor.close();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldCloseCursorsWithSession() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    Cursor<User> cursor;
+    try {
+      cursor = sqlSession.getMapper(Mapper.class).getAllUsers();
+      assertEquals("User1", cursor.iterator().next().getName());
+      assertTrue(cursor.isOpen());
+    } finally {
+      sqlSession.close();
+    }
+    assertFalse(cursor.isOpen());
+    assertFalse(cursor.isConsumed());
+  }
+
+  @Test
+  public void shouldNotOpenTwoIterators() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<User> cursor = sqlSession.getMapper(Mapper.class).getAllUsers();
+      cursor.iterator();
+      try {
+        cursor.iterator();
+        fail();
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMapOrderedNestedResultsOneParentAtATime() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Cursor<User> cursor = sqlSession.getMapper(Mapper.class).getUsersWithItems();
+      Iterator<User> iterator = cursor.iterator();
+
+      User user = iterator.next();
+      assertEquals(Integer.valueOf(1), user.getId());
+      assertEquals(Arrays.asList("Item1.1", "Item1.2"), user.getItems());
+
+      user = iterator.next();
+      assertEquals(Integer.valueOf(2), user.getId());
+      assertEquals(Arrays.asList("Item2.1"), user.getItems());
+
+      user = iterator.next();
+      assertEquals(Integer.valueOf(3), user.getId());
+      assertEquals(Arrays.asList("Item3.1", "Item3.2", "Item3.3"), user.getItems());
+
+      user = iterator.next();
+      assertEquals(Integer.valueOf(4), user.getId());
+      assertTrue(user.getItems() == null || user.getItems().isEmpty());
+
+      user = iterator.next();
+      assertEquals(Integer.valueOf(5), user.getId());
+      assertEquals(Arrays.asList("Item5.1"), user.getItems());
+
+      assertFalse(iterator.hasNext());
+      assertTrue(cursor.isConsumed());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldRejectUnorderedNestedResults() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      sqlSession.getMapper(Mapper.class).getUsersWithItemsUnordered();
+      fail();
+    } catch (PersistenceException e) {
+      assertTrue(e.getMessage().contains("resultOrdered"));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldKeepListResultsOfOrderedNestedMaps() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      List<User> users = sqlSession.selectList("org.apache.ibatis.submitted.cursor_simple.Mapper.getUsersWithItems");
+      assertEquals(5, users.size());
+      assertEquals(Arrays.asList("Item3.1", "Item3.2", "Item3.3"), users.get(2).getItems());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.multirow_insert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiRowInsertTest {
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    // create a SqlSessionFactory
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/multirow_insert/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    // populate in-memory database
+    SqlSession session = sqlSessionFactory.openSession();
+    Connection conn = session.getConnection();
+    reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/multirow_insert/CreateDB.sql");
+    ScriptRunner runner = new ScriptRunner(conn);
+    runner.setLogWriter(null);
+    runner.runScript(reader);
+    reader.close();
+    session.close();
+  }
+
+  @Test
+  public void shouldInsertRowsInChunks() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 1; i <= 25; i++) {
+        mapper.insertUser(new User(i, "User" + i));
+      }
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(1, results.size());
+      assertEquals(25, results.get(0).getParameterObjects().size());
+      int[] updateCounts = results.get(0).getUpdateCounts();
+      assertEquals(25, updateCounts.length);
+      for (int updateCount : updateCounts) {
+        assertEquals(1, updateCount);
+      }
+      assertEquals(25, mapper.count());
+      assertEquals("User1", mapper.getName(1));
+      assertEquals("User25", mapper.getName(25));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldMapGeneratedKeysToTheirRows() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      List<User> users = new ArrayList<User>();
+      for (int i = 0; i < 23; i++) {
+        User user = new User(null, "User" + i);
+        users.add(user);
+        mapper.insertUserWithGeneratedKey(user);
+      }
+      sqlSession.flushStatements();
+      for (User user : users) {
+        assertNotNull(user.getId());
+        assertEquals(user.getName(), mapper.getName(user.getId()));
+      }
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotRewriteInsertsWithSelectKey() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      User user = new User(null, "User1");
+      mapper.insertUserWithSelectedKey(user);
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(1, results.get(0).getUpdateCounts().length);
+      assertEquals("User1", mapper.getName(user.getId()));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldInsertValuesOfReusedParameterObject() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      // 和驱动的批一样，每行用加进去时的值
+      User user = new User(1, "A");
+      mapper.insertUser(user);
+      user.setId(2);
+      user.setName("B");
+      mapper.insertUser(user);
+      sqlSession.flushStatements();
+      assertEquals(2, mapper.count());
+      assertEquals("A", mapper.getName(1));
+      assertEquals("B", mapper.getName(2));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotRewriteWithoutTheSetting() {
+    sqlSessionFactory.getConfiguration().setMultiRowInsertSize(null);
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH);
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      for (int i = 1; i <= 3; i++) {
+        mapper.insertUser(new User(i, "User" + i));
+      }
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(3, results.get(0).getUpdateCounts().length);
+      assertEquals(3, mapper.count());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.read_write_routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.apache.ibatis.datasource.routing.RoutingDataSource;
+import org.apache.ibatis.datasource.routing.RoutingDataSource.LoadBalance;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ReadWriteRoutingTest {
+
+  private static UnpooledDataSource primary;
+  private static UnpooledDataSource replica1;
+  private static UnpooledDataSource replica2;
+
+  private RoutingDataSource routingDataSource;
+  private SqlSessionFactory sqlSessionFactory;
+
+  @BeforeClass
+  public static void setUpDatabases() throws Exception {
+    primary = createDatabase("primary");
+    replica1 = createDatabase("replica1");
+    replica2 = createDatabase("replica2");
+  }
+
+  @Before
+  public void setUp() {
+    routingDataSource = new RoutingDataSource(primary, Arrays.asList(replica1, replica2));
+    Environment environment = new Environment("test", new JdbcTransactionFactory(), routingDataSource);
+    Configuration configuration = new Configuration(environment);
+    configuration.addMapper(Mapper.class);
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+  @Test
+  public void shouldReadFromReplicasInTurn() {
+    assertEquals("replica1", readNodeName());
+    assertEquals("replica2", readNodeName());
+    assertEquals("replica1", readNodeName());
+  }
+
+  @Test
+  public void shouldReadFromPrimaryAfterWriteUntilCommit() {
+    for (ExecutorType executorType : ExecutorType.values()) {
+      SqlSession sqlSession = sqlSessionFactory.openSession(executorType);
+      try {
+        Mapper mapper = sqlSession.getMapper(Mapper.class);
+        assertTrue(mapper.getNodeName().startsWith("replica"));
+        mapper.insertUser(new User(1, "User1"));
+        assertEquals(executorType.name(), "primary", mapper.getNodeName());
+        sqlSession.commit();
+        assertTrue(executorType.name(), mapper.getNodeName().startsWith("replica"));
+      } finally {
+        sqlSession.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadFromPrimaryWhenStatementOptsOut() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      assertEquals("primary", mapper.getNodeNameFromPrimary());
+      // the transaction stays on the primary
+      assertEquals("primary", mapper.getNodeName());
+    } finally {
+      sqlSession.close();
+    }
+    sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals("primary", sqlSession.getMapper(Mapper.class).getNodeNameFromPrimaryXml());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldReadFromLeastBusyReplica() {
+    routingDataSource.setLoadBalance(LoadBalance.LEAST_IN_FLIGHT);
+    SqlSession busy = sqlSessionFactory.openSession();
+    try {
+      assertEquals("replica1", busy.getMapper(Mapper.class).getNodeName());
+      assertEquals(1, routingDataSource.getInFlightCount(0));
+      // round robin would pick replica1 for the second of these reads
+      assertEquals("replica2", readNodeName());
+      assertEquals("replica2", readNodeName());
+    } finally {
+      busy.close();
+    }
+    assertEquals(0, routingDataSource.getInFlightCount(0));
+    assertEquals(0, routingDataSource.getInFlightCount(1));
+  }
+
+  private String readNodeName() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(Mapper.class).getNodeName();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private static UnpooledDataSource createDatabase(String name) throws Exception {
+    UnpooledDataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:rw_" + name, "sa", "");
+    Connection conn = dataSource.getConnection();
+    try {
+      Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/read_write_routing/CreateDB.sql");
+      ScriptRunner runner = new ScriptRunner(conn);
+      runner.setLogWriter(null);
+      runner.runScript(reader);
+      reader.close();
+      Statement statement = conn.createStatement();
+      statement.execute("insert into node (name) values ('" + name + "')");
+      statement.close();
+      conn.commit();
+    } finally {
+      conn.close();
+    }
+    return dataSource;
+  }
+
+}
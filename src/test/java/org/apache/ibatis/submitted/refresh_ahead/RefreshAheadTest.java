@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.refresh_ahead;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.ScheduledCache;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefreshAheadTest {
+
+  private static final String NAMESPACE = "org.apache.ibatis.submitted.refresh_ahead.Mapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/refresh_ahead/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+    try {
+      reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/refresh_ahead/CreateDB.sql");
+      ScriptRunner runner = new ScriptRunner(conn);
+      runner.setLogWriter(null);
+      runner.runScript(reader);
+      conn.commit();
+      reader.close();
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Test
+  public void shouldExpireEntriesOneByOne() {
+    Cache cache = sqlSessionFactory.getConfiguration().getCache(NAMESPACE);
+    assertTrue(cache instanceof ScheduledCache);
+    assertEquals(200, ((ScheduledCache) cache).getRefreshInterval());
+  }
+
+  @Test
+  public void shouldServeStaleValueWhileReloading() throws Exception {
+    assertEquals("User1", getUserName(1));
+    executeDirectly("update users set name = 'Changed' where id = 1");
+    assertEquals("User1", getUserName(1));
+    Thread.sleep(300);
+    // 过了refreshInterval，先拿到旧值，后台重新加载
+    assertEquals("User1", getUserName(1));
+    String name = getUserName(1);
+    for (int i = 0; i < 50 && !"Changed".equals(name); i++) {
+      Thread.sleep(100);
+      name = getUserName(1);
+    }
+    assertEquals("Changed", name);
+  }
+
+  @Test
+  public void shouldUseIntervalsOfStatement() throws Exception {
+    assertEquals("User2", getUserNameShortLived(2));
+    executeDirectly("update users set name = 'Changed' where id = 2");
+    assertEquals("User2", getUserNameShortLived(2));
+    Thread.sleep(400);
+    // 这条语句的结果300毫秒就过期，不等后台加载
+    assertEquals("Changed", getUserNameShortLived(2));
+  }
+
+  @Test
+  public void shouldReloadWithParameterValuesOfCacheKey() throws Exception {
+    Map<String, Object> params = new HashMap<String, Object>();
+    params.put("id", 1);
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertEquals("User1", sqlSession.getMapper(Mapper.class).getUserNameByMap(params));
+    } finally {
+      sqlSession.close();
+    }
+    // 调用方改了参数对象，后台加载还是要查id=1
+    params.put("id", 2);
+    executeDirectly("update users set name = 'Changed' where id = 1");
+    Thread.sleep(300);
+    Map<String, Object> sameParams = new HashMap<String, Object>();
+    sameParams.put("id", 1);
+    String name = getUserNameByMap(sameParams);
+    for (int i = 0; i < 50 && "User1".equals(name); i++) {
+      Thread.sleep(100);
+      name = getUserNameByMap(sameParams);
+    }
+    assertEquals("Changed", name);
+  }
+
+  private String getUserName(int id) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(Mapper.class).getUserName(id);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private String getUserNameShortLived(int id) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(Mapper.class).getUserNameShortLived(id);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private String getUserNameByMap(Map<String, Object> params) {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      return sqlSession.getMapper(Mapper.class).getUserNameByMap(params);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private void executeDirectly(String sql) throws Exception {
+    Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      statement.executeUpdate(sql);
+      statement.close();
+      conn.commit();
+    } finally {
+      conn.close();
+    }
+  }
+
+}
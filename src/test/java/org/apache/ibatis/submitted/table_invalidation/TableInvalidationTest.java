@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2009-2014 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.submitted.table_invalidation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.decorators.TableInvalidationCache;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.jdbc.ScriptRunner;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TableInvalidationTest {
+
+  private static final String NAMESPACE = "org.apache.ibatis.submitted.table_invalidation.Mapper";
+
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    Reader reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/table_invalidation/mybatis-config.xml");
+    sqlSessionFactory = new SqlSessionFactoryBuilder().build(reader);
+    reader.close();
+
+    Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+    try {
+      reader = Resources.getResourceAsReader("org/apache/ibatis/submitted/table_invalidation/CreateDB.sql");
+      ScriptRunner runner = new ScriptRunner(conn);
+      runner.setLogWriter(null);
+      runner.runScript(reader);
+      conn.commit();
+      reader.close();
+    } finally {
+      conn.close();
+    }
+  }
+
+  @Test
+  public void shouldFindTablesOfStatements() {
+    Configuration configuration = sqlSessionFactory.getConfiguration();
+    assertArrayEquals(new String[] { "users" }, configuration.getMappedStatement(NAMESPACE + ".getUserName").getTables());
+    assertArrayEquals(new String[] { "audit" }, configuration.getMappedStatement(NAMESPACE + ".insertAudit").getTables());
+    assertArrayEquals(new String[] { "users" }, configuration.getMappedStatement(NAMESPACE + ".getUserNameDeclared").getTables());
+    // dynamic SQL, looked for at each execution
+    assertNull(configuration.getMappedStatement(NAMESPACE + ".findUserNames").getTables());
+    assertTrue(configuration.getCache(NAMESPACE) instanceof TableInvalidationCache);
+  }
+
+  @Test
+  public void shouldKeepEntriesOfOtherTables() throws Exception {
+    readAll();
+    executeDirectly("update users set name = 'Changed' where id = 1");
+    executeDirectly("insert into audit (message) values ('direct')");
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.insertAudit("written");
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      // still cached, the write went to audit
+      assertEquals("User1", mapper.getUserName(1));
+      assertEquals("User1", mapper.getUserNameDeclared(1));
+      assertEquals(Arrays.asList("User1", "User2"), mapper.findUserNames(null));
+      assertEquals(2, mapper.countAudit());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldRemoveEntriesOfWrittenTable() throws Exception {
+    readAll();
+    executeDirectly("insert into audit (message) values ('direct')");
+
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.updateUserName(2, "Renamed");
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+
+    TableInvalidationCache cache = (TableInvalidationCache) sqlSessionFactory.getConfiguration().getCache(NAMESPACE);
+    assertEquals(0, cache.getKeys("users").size());
+    assertEquals(1, cache.getKeys("audit").size());
+
+    sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      assertEquals("Renamed", mapper.getUserName(2));
+      assertEquals(Arrays.asList("User1", "Renamed"), mapper.findUserNames(null));
+      // still cached, the write went to users
+      assertEquals(0, mapper.countAudit());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldNotReadInvalidatedEntriesBeforeCommit() throws Exception {
+    readAll();
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      mapper.updateUserName(1, "Renamed");
+      assertEquals("Renamed", mapper.getUserName(1));
+      assertEquals(0, mapper.countAudit());
+      sqlSession.rollback();
+    } finally {
+      sqlSession.close();
+    }
+
+    sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      // the rollback did not invalidate anything
+      executeDirectly("update users set name = 'Changed' where id = 1");
+      assertEquals("User1", mapper.getUserName(1));
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  public void shouldForgetEvictedKeys() {
+    Cache cache = sqlSessionFactory.getConfiguration().getCache(NAMESPACE);
+    for (int i = 0; i < 2000; i++) {
+      cache.putObject(i, "value");
+    }
+    // the default LRU cache keeps 1024 entries
+    assertEquals(1024, ((TableInvalidationCache) cache).getKeys("*").size());
+  }
+
+  private void readAll() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      Mapper mapper = sqlSession.getMapper(Mapper.class);
+      assertEquals("User1", mapper.getUserName(1));
+      assertEquals("User2", mapper.getUserName(2));
+      assertEquals("User1", mapper.getUserNameDeclared(1));
+      assertEquals(Arrays.asList("User1", "User2"), mapper.findUserNames(null));
+      assertEquals(0, mapper.countAudit());
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private void executeDirectly(String sql) throws Exception {
+    Connection conn = sqlSessionFactory.getConfiguration().getEnvironment().getDataSource().getConnection();
+    try {
+      Statement statement = conn.createStatement();
+      statement.executeUpdate(sql);
+      statement.close();
+      conn.commit();
+    } finally {
+      conn.close();
+    }
+  }
+
+}